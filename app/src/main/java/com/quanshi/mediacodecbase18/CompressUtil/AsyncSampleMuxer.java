@@ -0,0 +1,80 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} writing the samples of another one on a writer thread, through an
+ * {@link AsyncSampleWriter}: {@link #writeSampleData} copies the sample and returns, so storage latency no longer
+ * stalls the pipeline thread and with it the encoder output. {@link #stop()} waits for the queued samples first.
+ */
+public class AsyncSampleMuxer implements SampleMuxer {
+    private static final String TAG = "AsyncSampleMuxer";
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+    private static final DirectBlockPool BLOCK_POOL = new DirectBlockPool(BLOCK_SIZE, 8);
+    private final SampleMuxer mMuxer;
+    private final AsyncSampleWriter mWriter;
+    // Only used on the writer thread.
+    private final MediaCodec.BufferInfo mWriterBufferInfo = new MediaCodec.BufferInfo();
+
+    public AsyncSampleMuxer(SampleMuxer muxer) {
+        this(muxer, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * @param maxQueuedBytes how much memory samples waiting for the writer may take; writing more blocks.
+     */
+    public AsyncSampleMuxer(SampleMuxer muxer, long maxQueuedBytes) {
+        mMuxer = muxer;
+        mWriter = new AsyncSampleWriter(BLOCK_POOL, maxQueuedBytes, new SampleQueue.Consumer() {
+            @Override
+            public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                                 int flags) {
+                mWriterBufferInfo.set(offset, size, presentationTimeUs, flags);
+                mMuxer.writeSampleData(track, block, mWriterBufferInfo);
+            }
+        });
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mMuxer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+        mWriter.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        byteBuf.limit(bufferInfo.offset + bufferInfo.size);
+        byteBuf.position(bufferInfo.offset);
+        mWriter.write(trackIndex, byteBuf, bufferInfo.presentationTimeUs, bufferInfo.flags);
+    }
+
+    @Override
+    public void stop() {
+        mWriter.finish();
+        Log.d(TAG, "muxer writer: " + mWriter);
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        if (!mWriter.release()) {
+            Log.w(TAG, "muxer writer thread did not stop.");
+        }
+        mMuxer.release();
+    }
+}
@@ -0,0 +1,357 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands encoded samples to a {@link SampleQueue.Consumer} on a writer thread of its own, so a slow disk no longer
+ * holds up the thread producing them.
+ * <p>
+ * {@link #write(int, ByteBuffer, long, int)} copies the sample into blocks taken from a {@link DirectBlockPool},
+ * each sample contiguous within one block as in {@link SampleQueue}, and returns. The writer takes all samples
+ * queued so far as one batch, hands them to the consumer in order without holding the lock and then gives the
+ * blocks it emptied back. Memory is bounded: a write blocks while its sample fits neither in the current block nor
+ * under the cap, or while {@link #MAX_SAMPLES} samples are queued. A failure of the consumer is thrown from the
+ * next write and from {@link #finish()}.
+ */
+class AsyncSampleWriter {
+    static final int MAX_SAMPLES = 1024;
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private static class Block {
+        // Filled by the producer through the position of one, read by the writer through the other.
+        final ByteBuffer mData;
+        final ByteBuffer mView;
+        final int mAccountedSize;
+        int mPendingSamples;
+
+        Block(ByteBuffer data, int accountedSize) {
+            mData = data;
+            mView = data.duplicate();
+            mAccountedSize = accountedSize;
+        }
+    }
+
+    private final DirectBlockPool mPool;
+    private final long mMaxBytes;
+    private final SampleQueue.Consumer mConsumer;
+    private final Object mLock = new Object();
+    private final Thread mThread;
+
+    // Guarded by mLock. Samples from mHead until mTail are queued, at their index masked.
+    private final int[] mTracks = new int[MAX_SAMPLES];
+    private final Block[] mBlocks = new Block[MAX_SAMPLES];
+    private final int[] mOffsets = new int[MAX_SAMPLES];
+    private final int[] mSizes = new int[MAX_SAMPLES];
+    private final long[] mPresentationTimesUs = new long[MAX_SAMPLES];
+    private final int[] mFlags = new int[MAX_SAMPLES];
+    private long mHead;
+    private long mTail;
+    private Block mCurrentBlock;
+    private long mAllocatedBytes;
+    private long mMaxAllocatedBytes;
+    private boolean mWriterWaiting;
+    private boolean mFinishing;
+    private boolean mReleased;
+    private RuntimeException mError;
+
+    // Stats, guarded by mLock.
+    private long mWrittenBytes;
+    private long mWrittenSamples;
+    private long mBatchCount;
+    private int mMaxBatchSize;
+    private long mBlockedCount;
+    private long mBlockedNs;
+
+    /**
+     * @param maxBytes cap on the memory held in blocks. A sample larger than the cap is still taken, once
+     *                 everything before it is written.
+     */
+    AsyncSampleWriter(DirectBlockPool pool, long maxBytes, SampleQueue.Consumer consumer) {
+        mPool = pool;
+        mMaxBytes = maxBytes;
+        mConsumer = consumer;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, "MuxerWriter");
+    }
+
+    void start() {
+        mThread.start();
+    }
+
+    /**
+     * Queues the bytes between position and limit of {@code data}, whose position is moved to its limit.
+     *
+     * @throws IllegalStateException if the writer is finished or released.
+     */
+    void write(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+        int size = data.remaining();
+        Block block;
+        int offset;
+        synchronized (mLock) {
+            long blockedSinceNs = 0;
+            while (true) {
+                checkWritable();
+                block = mCurrentBlock;
+                if (block == null || block.mData.remaining() < size) {
+                    block = null;
+                    int accountedSize = Math.max(size, mPool.getBlockSize());
+                    if (mCurrentBlock != null && mCurrentBlock.mPendingSamples == 0) {
+                        freeBlock(mCurrentBlock);
+                    }
+                    mCurrentBlock = null;
+                    if (mAllocatedBytes == 0 || mAllocatedBytes + accountedSize <= mMaxBytes) {
+                        mCurrentBlock = block = new Block(size > mPool.getBlockSize()
+                                ? ByteBuffer.allocateDirect(size) : mPool.acquire(), accountedSize);
+                        mAllocatedBytes += accountedSize;
+                        mMaxAllocatedBytes = Math.max(mMaxAllocatedBytes, mAllocatedBytes);
+                    }
+                }
+                if (block != null && mTail - mHead < MAX_SAMPLES) break;
+                if (blockedSinceNs == 0) {
+                    blockedSinceNs = System.nanoTime();
+                    mBlockedCount++;
+                }
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the muxer writer.", e);
+                }
+            }
+            if (blockedSinceNs != 0) {
+                mBlockedNs += System.nanoTime() - blockedSinceNs;
+            }
+            offset = block.mData.position();
+            // Counted before the copy so the writer never frees the block under it.
+            block.mPendingSamples++;
+        }
+        // Only this thread moves the position of the block, and the writer only reads what is published.
+        block.mData.put(data);
+        synchronized (mLock) {
+            int index = (int) mTail & (MAX_SAMPLES - 1);
+            mTracks[index] = track;
+            mBlocks[index] = block;
+            mOffsets[index] = offset;
+            mSizes[index] = size;
+            mPresentationTimesUs[index] = presentationTimeUs;
+            mFlags[index] = flags;
+            mTail++;
+            if (mWriterWaiting) {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all queued samples are written and stops the writer thread.
+     *
+     * @throws RuntimeException the failure of the consumer, if any.
+     */
+    void finish() {
+        synchronized (mLock) {
+            mFinishing = true;
+            mLock.notifyAll();
+        }
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while finishing the muxer writer.", e);
+        }
+        synchronized (mLock) {
+            freeAllBlocks();
+            if (mError != null) throw mError;
+        }
+    }
+
+    /**
+     * Stops the writer thread without writing the queued samples. May be called more than once, and after
+     * {@link #finish()}.
+     *
+     * @return false if the writer thread is still in the consumer after a timeout.
+     */
+    boolean release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+        try {
+            mThread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (mThread.isAlive()) return false;
+        synchronized (mLock) {
+            freeAllBlocks();
+        }
+        return true;
+    }
+
+    private void checkWritable() {
+        if (mError != null) throw mError;
+        if (mFinishing || mReleased) {
+            throw new IllegalStateException("Muxer writer is " + (mReleased ? "released." : "finished."));
+        }
+    }
+
+    private void writeBatches() {
+        long head;
+        long end;
+        while (true) {
+            synchronized (mLock) {
+                while (mHead == mTail && !mFinishing && !mReleased) {
+                    mWriterWaiting = true;
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        mReleased = true;
+                    }
+                    mWriterWaiting = false;
+                }
+                if (mReleased || mHead == mTail) return;
+                head = mHead;
+                end = mTail;
+            }
+            long bytes = 0;
+            try {
+                for (long i = head; i < end; i++) {
+                    int index = (int) i & (MAX_SAMPLES - 1);
+                    ByteBuffer view = mBlocks[index].mView;
+                    view.limit(mOffsets[index] + mSizes[index]).position(mOffsets[index]);
+                    mConsumer.onSample(mTracks[index], view, mOffsets[index], mSizes[index],
+                            mPresentationTimesUs[index], mFlags[index]);
+                    bytes += mSizes[index];
+                }
+            } catch (RuntimeException e) {
+                synchronized (mLock) {
+                    mError = e;
+                    mLock.notifyAll();
+                }
+                return;
+            }
+            synchronized (mLock) {
+                for (long i = head; i < end; i++) {
+                    int index = (int) i & (MAX_SAMPLES - 1);
+                    Block block = mBlocks[index];
+                    mBlocks[index] = null;
+                    if (--block.mPendingSamples == 0 && block != mCurrentBlock) {
+                        freeBlock(block);
+                    }
+                }
+                mHead = end;
+                int batchSize = (int) (end - head);
+                mBatchCount++;
+                mMaxBatchSize = Math.max(mMaxBatchSize, batchSize);
+                mWrittenSamples += batchSize;
+                mWrittenBytes += bytes;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private void freeBlock(Block block) {
+        mPool.release(block.mData);
+        mAllocatedBytes -= block.mAccountedSize;
+    }
+
+    private void freeAllBlocks() {
+        for (long i = mHead; i < mTail; i++) {
+            int index = (int) i & (MAX_SAMPLES - 1);
+            Block block = mBlocks[index];
+            mBlocks[index] = null;
+            if (--block.mPendingSamples == 0 && block != mCurrentBlock) {
+                freeBlock(block);
+            }
+        }
+        mHead = mTail;
+        if (mCurrentBlock != null) {
+            freeBlock(mCurrentBlock);
+            mCurrentBlock = null;
+        }
+    }
+
+    /**
+     * @return bytes handed to the consumer.
+     */
+    long getWrittenBytes() {
+        synchronized (mLock) {
+            return mWrittenBytes;
+        }
+    }
+
+    long getWrittenSampleCount() {
+        synchronized (mLock) {
+            return mWrittenSamples;
+        }
+    }
+
+    long getBatchCount() {
+        synchronized (mLock) {
+            return mBatchCount;
+        }
+    }
+
+    int getMaxBatchSize() {
+        synchronized (mLock) {
+            return mMaxBatchSize;
+        }
+    }
+
+    /**
+     * @return samples written per batch on average.
+     */
+    double getAverageBatchSize() {
+        synchronized (mLock) {
+            return mBatchCount == 0 ? 0 : (double) mWrittenSamples / mBatchCount;
+        }
+    }
+
+    /**
+     * @return how many writes had to wait for the writer to free memory or a slot.
+     */
+    long getBlockedCount() {
+        synchronized (mLock) {
+            return mBlockedCount;
+        }
+    }
+
+    /**
+     * @return time writes spent waiting for the writer.
+     */
+    long getBlockedNs() {
+        synchronized (mLock) {
+            return mBlockedNs;
+        }
+    }
+
+    /**
+     * @return bytes held in blocks now, counted against the cap.
+     */
+    long getAllocatedBytes() {
+        synchronized (mLock) {
+            return mAllocatedBytes;
+        }
+    }
+
+    long getMaxAllocatedBytes() {
+        synchronized (mLock) {
+            return mMaxAllocatedBytes;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return String.format(Locale.US, "%d samples / %d bytes in %d batches (avg %.1f, max %d), "
+                            + "blocked %d times for %dms, max %d bytes held", mWrittenSamples, mWrittenBytes,
+                    mBatchCount, getAverageBatchSize(), mMaxBatchSize, mBlockedCount,
+                    TimeUnit.NANOSECONDS.toMillis(mBlockedNs), mMaxAllocatedBytes);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Converts interleaved 16-bit PCM to another sample rate, optionally downmixing to mono first. Pure Java and
+ * allocation free once constructed, so it can run per codec buffer and be tested off the device.
+ * <p>
+ * Resampling is rational polyphase: with {@code out / in = L / M} in lowest terms, every output sample is one
+ * phase of a windowed-sinc low-pass filter (cut off below the lower of the two Nyquist rates) applied to the
+ * input. The filter is centered, so output sample {@code n} lines up with input time {@code (n * M + 1 / 2) / L},
+ * off by half a step of the upsampled rate where the filter has no middle tap.
+ */
+class AudioResampler {
+    static final int DEFAULT_TAPS = 16;
+    static final int MAX_TAPS = 256;
+    static final int MAX_PHASES = 4096;
+    private static final double ROLLOFF = 0.9;
+    private static final int BUFFER_FRAMES = 1024;
+
+    private final int mInputChannels;
+    private final int mOutputChannels;
+    private final int mUp;
+    private final int mDown;
+    private final int mTaps;
+    /** Phase major: the taps of phase p are at {@code p * mTaps}, tap k weighs the frame k frames back. */
+    private final float[] mCoefficients;
+    /** Input frames, already downmixed, oldest first. */
+    private final float[] mBuffer;
+    private final int mBufferFrames;
+    private final int mDelayFrames;
+    private int mFrames;
+    private int mPosition;
+    private int mPhase;
+    private boolean mEndOfInput;
+    private int mPaddingFrames;
+
+    /**
+     * @param outputChannels {@code inputChannels}, or 1 to downmix by averaging the channels.
+     */
+    AudioResampler(int inputSampleRate, int inputChannels, int outputSampleRate, int outputChannels) {
+        if (inputSampleRate <= 0 || outputSampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid sample rates: " + inputSampleRate + " -> " + outputSampleRate);
+        }
+        if (inputChannels <= 0 || (outputChannels != inputChannels && outputChannels != 1)) {
+            throw new IllegalArgumentException("Cannot mix " + inputChannels + " channels to " + outputChannels);
+        }
+        int gcd = gcd(inputSampleRate, outputSampleRate);
+        mUp = outputSampleRate / gcd;
+        mDown = inputSampleRate / gcd;
+        if (mUp > MAX_PHASES) {
+            throw new IllegalArgumentException("Unsupported ratio: " + inputSampleRate + " -> " + outputSampleRate);
+        }
+        mInputChannels = inputChannels;
+        mOutputChannels = outputChannels;
+        if (mUp == 1 && mDown == 1) {
+            mTaps = 1;
+            mCoefficients = new float[]{1};
+        } else {
+            // Downsampling needs a filter as long in input samples as the decimation factor to keep its slope.
+            int factor = (mDown + mUp - 1) / mUp;
+            if (factor >= MAX_TAPS) {
+                throw new IllegalArgumentException("Unsupported ratio: " + inputSampleRate + " -> " + outputSampleRate);
+            }
+            mTaps = Math.min(MAX_TAPS, DEFAULT_TAPS * factor);
+            mCoefficients = createCoefficients(mUp, mDown, mTaps);
+        }
+        mDelayFrames = mTaps / 2;
+        mBufferFrames = mTaps + BUFFER_FRAMES;
+        mBuffer = new float[mBufferFrames * mOutputChannels];
+        // Silence before the first frame, so the filter is centered on it for the first output.
+        mFrames = mTaps - 1 - mDelayFrames;
+        mPosition = mTaps - 1;
+    }
+
+    int getInputChannels() {
+        return mInputChannels;
+    }
+
+    int getOutputChannels() {
+        return mOutputChannels;
+    }
+
+    int getTaps() {
+        return mTaps;
+    }
+
+    /**
+     * Consumes whole frames from {@code in} and writes whole frames to {@code out}, until either runs out.
+     */
+    void process(ShortBuffer in, ShortBuffer out) {
+        int channels = mOutputChannels;
+        while (out.remaining() >= channels) {
+            if (mPosition >= mFrames) {
+                if (!fill(in)) return;
+                continue;
+            }
+            int base = mPhase * mTaps;
+            for (int c = 0; c < channels; c++) {
+                float sum = 0;
+                int index = mPosition * channels + c;
+                for (int k = 0; k < mTaps; k++) {
+                    sum += mCoefficients[base + k] * mBuffer[index];
+                    index -= channels;
+                }
+                out.put(clamp(sum));
+            }
+            mPhase += mDown;
+            mPosition += mPhase / mUp;
+            mPhase %= mUp;
+        }
+    }
+
+    /**
+     * No more input: the remaining output is flushed by calls to {@link #process} with an empty input.
+     */
+    void endOfInput() {
+        if (mEndOfInput) return;
+        mEndOfInput = true;
+        mPaddingFrames = mDelayFrames;
+    }
+
+    /**
+     * @return true once all output has been produced after {@link #endOfInput()}.
+     */
+    boolean isDrained() {
+        return mEndOfInput && mPaddingFrames == 0 && mPosition >= mFrames;
+    }
+
+    private boolean fill(ShortBuffer in) {
+        int channels = mOutputChannels;
+        // Keep the frames the next output still needs. The filter is longer than one step, so those exist.
+        int keepFrom = mPosition - mTaps + 1;
+        if (keepFrom > 0) {
+            int kept = mFrames - keepFrom;
+            System.arraycopy(mBuffer, keepFrom * channels, mBuffer, 0, kept * channels);
+            mFrames = kept;
+            mPosition -= keepFrom;
+        }
+        int room = mBufferFrames - mFrames;
+        int count = Math.min(room, in.remaining() / mInputChannels);
+        if (count > 0) {
+            int index = mFrames * channels;
+            if (channels == mInputChannels) {
+                for (int i = count * channels; i > 0; i--) {
+                    mBuffer[index++] = in.get();
+                }
+            } else {
+                float scale = 1f / mInputChannels;
+                for (int i = 0; i < count; i++) {
+                    int sum = 0;
+                    for (int c = 0; c < mInputChannels; c++) {
+                        sum += in.get();
+                    }
+                    mBuffer[index++] = sum * scale;
+                }
+            }
+            mFrames += count;
+            return true;
+        }
+        if (mEndOfInput && in.remaining() < mInputChannels && mPaddingFrames > 0) {
+            count = Math.min(room, mPaddingFrames);
+            int index = mFrames * channels;
+            for (int i = count * channels; i > 0; i--) {
+                mBuffer[index++] = 0;
+            }
+            mFrames += count;
+            mPaddingFrames -= count;
+            return true;
+        }
+        return false;
+    }
+
+    private static short clamp(float sample) {
+        int value = Math.round(sample);
+        if (value > Short.MAX_VALUE) return Short.MAX_VALUE;
+        if (value < Short.MIN_VALUE) return Short.MIN_VALUE;
+        return (short) value;
+    }
+
+    /**
+     * Splits a Blackman-windowed sinc prototype of {@code up * taps} points into {@code up} phases, each scaled to
+     * unity gain at DC.
+     */
+    static float[] createCoefficients(int up, int down, int taps) {
+        int length = up * taps;
+        double cutoff = 0.5 * ROLLOFF / Math.max(up, down);
+        double center = (length - 1) / 2.0;
+        double[] prototype = new double[length];
+        for (int n = 0; n < length; n++) {
+            double x = 2 * cutoff * (n - center);
+            double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+            double window = length == 1 ? 1 : 0.42 - 0.5 * Math.cos(2 * Math.PI * n / (length - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * n / (length - 1));
+            prototype[n] = sinc * window;
+        }
+        float[] coefficients = new float[length];
+        for (int phase = 0; phase < up; phase++) {
+            double sum = 0;
+            for (int k = 0; k < taps; k++) {
+                sum += prototype[phase + k * up];
+            }
+            for (int k = 0; k < taps; k++) {
+                coefficients[phase * taps + k] = (float) (prototype[phase + k * up] / sum);
+            }
+        }
+        return coefficients;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
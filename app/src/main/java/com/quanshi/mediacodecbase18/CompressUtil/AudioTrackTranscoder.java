@@ -0,0 +1,304 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Re-encodes an audio track: decodes it to PCM, converts it with an {@link AudioResampler} to the channel count
+ * and sample rate of the output format, and encodes it again. Converted PCM waits in one buffer of the transcoder
+ * until the encoder takes it; the decoder is not drained while too much is waiting.
+ */
+public class AudioTrackTranscoder implements TrackTranscoder {
+    private static final String TAG = "AudioTrackTranscoder";
+    private static final int DRAIN_STATE_NONE = 0;
+    private static final int DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY = 1;
+    private static final int DRAIN_STATE_CONSUMED = 2;
+    // Resampled PCM waiting for the encoder, in samples, before the decoder is held back.
+    private static final int MAX_PENDING_PCM_SAMPLES = 16384;
+    private static final ShortBuffer NO_PCM = ShortBuffer.allocate(0);
+
+    private final SampleSource mExtractor;
+    private final int mTrackIndex;
+    private final MediaFormat mOutputFormat;
+    private final SampleWriter mMuxer;
+    private final PipelineScheduler mScheduler;
+    private final int mOutputSampleRate;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private PipelineMetrics mMetrics = new PipelineMetrics();
+    private MediaCodec mDecoder;
+    private MediaCodec mEncoder;
+    private CodecEventBridge mDecoderEvents;
+    private CodecEventBridge mEncoderEvents;
+    private AudioResampler mResampler;
+    // Written by the resampler and read by the encoder feed, compacted after each read.
+    private ShortBuffer mPendingPcm = ShortBuffer.allocate(MAX_PENDING_PCM_SAMPLES * 2);
+    private MediaFormat mActualOutputFormat;
+    private boolean mIsExtractorEOS;
+    private boolean mIsDecoderEOS;
+    private boolean mIsEncoderInputEOS;
+    private boolean mIsEncoderEOS;
+    private boolean mDecoderStarted;
+    private boolean mEncoderStarted;
+    private long mFirstPresentationTimeUs = -1;
+    private long mEncodedFrames;
+    private long mWrittenPresentationTimeUs;
+
+    /**
+     * @param outputFormat an AAC format whose sample rate and channel count the audio is converted to; the channel
+     *                     count must be the input's or 1.
+     */
+    public AudioTrackTranscoder(SampleSource extractor, int trackIndex, MediaFormat outputFormat,
+                                SampleWriter muxer, PipelineScheduler scheduler) {
+        mExtractor = extractor;
+        mTrackIndex = trackIndex;
+        mOutputFormat = outputFormat;
+        mMuxer = muxer;
+        mScheduler = scheduler;
+        mOutputSampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+    }
+
+    /**
+     * Record the reading of samples into {@code metrics}.
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    @Override
+    public void setup() {
+        mExtractor.selectTrack(mTrackIndex);
+        MediaFormat inputFormat = mExtractor.getTrackFormat(mTrackIndex);
+        try {
+            mEncoder = DeviceCodecRegistry.createEncoder(mOutputFormat.getString(MediaFormat.KEY_MIME));
+            mDecoder = DeviceCodecRegistry.createDecoder(inputFormat.getString(MediaFormat.KEY_MIME));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        mEncoderEvents = new CodecEventBridge(mEncoder, mScheduler, true);
+        mEncoder.configure(mOutputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mEncoder.start();
+        mEncoderStarted = true;
+        mEncoderEvents.start();
+
+        mDecoderEvents = new CodecEventBridge(mDecoder, mScheduler, true);
+        mDecoder.configure(inputFormat, null, null, 0);
+        mDecoder.start();
+        mDecoderStarted = true;
+        mDecoderEvents.start();
+    }
+
+    @Override
+    public MediaFormat getDeterminedFormat() {
+        return mActualOutputFormat;
+    }
+
+    @Override
+    public boolean stepPipeline() {
+        boolean busy = false;
+
+        int status;
+        while (drainExtractor() != DRAIN_STATE_NONE) busy = true;
+        do {
+            status = drainDecoder();
+            if (status != DRAIN_STATE_NONE) busy = true;
+        } while (status == DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY);
+        while (feedEncoder() != DRAIN_STATE_NONE) busy = true;
+        while (drainEncoder() != DRAIN_STATE_NONE) busy = true;
+
+        return busy;
+    }
+
+    @Override
+    public long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mIsEncoderEOS;
+    }
+
+    @Override
+    public void release() {
+        if (mDecoderEvents != null) {
+            mDecoderEvents.stop();
+        }
+        if (mEncoderEvents != null) {
+            mEncoderEvents.stop();
+        }
+        if (mDecoder != null) {
+            if (mDecoderStarted) mDecoder.stop();
+            mDecoder.release();
+            mDecoder = null;
+        }
+        if (mEncoder != null) {
+            if (mEncoderStarted) mEncoder.stop();
+            mEncoder.release();
+            mEncoder = null;
+        }
+        if (mDecoderEvents != null) {
+            mDecoderEvents.release();
+            mDecoderEvents = null;
+        }
+        if (mEncoderEvents != null) {
+            mEncoderEvents.release();
+            mEncoderEvents = null;
+        }
+    }
+
+    private int drainExtractor() {
+        if (mIsExtractorEOS) return DRAIN_STATE_NONE;
+        int trackIndex = mExtractor.getSampleTrackIndex();
+        if (trackIndex >= 0 && trackIndex != mTrackIndex) {
+            return DRAIN_STATE_NONE;
+        }
+        int inputBufIndex = mDecoderEvents.dequeueInputBuffer();
+        if (inputBufIndex < 0) return DRAIN_STATE_NONE;
+        if (trackIndex < 0) {
+            mIsExtractorEOS = true;
+            mDecoder.queueInputBuffer(inputBufIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return DRAIN_STATE_NONE;
+        }
+        long startNs = System.nanoTime();
+        int sampleSize = mExtractor.readSampleData(mDecoderEvents.getInputBuffer(inputBufIndex), 0);
+        boolean isKeyFrame = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+        mDecoder.queueInputBuffer(inputBufIndex, 0, sampleSize, mExtractor.getSampleTime(),
+                isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        mExtractor.advance();
+        mMetrics.record(PipelineMetrics.STAGE_EXTRACT, startNs);
+        mMetrics.addBytesIn(sampleSize);
+        return DRAIN_STATE_CONSUMED;
+    }
+
+    private int drainDecoder() {
+        if (mIsDecoderEOS) return DRAIN_STATE_NONE;
+        // Let the encoder catch up before more PCM piles up.
+        if (mPendingPcm.position() >= MAX_PENDING_PCM_SAMPLES) return DRAIN_STATE_NONE;
+        int decoderStatus = mDecoderEvents.dequeueOutputBuffer(mBufferInfo);
+        switch (decoderStatus) {
+            case MediaCodec.INFO_TRY_AGAIN_LATER:
+                return DRAIN_STATE_NONE;
+            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                createResampler(mDecoder.getOutputFormat());
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        if (mResampler == null) {
+            createResampler(mDecoder.getOutputFormat());
+        }
+        if (mBufferInfo.size > 0) {
+            if (mFirstPresentationTimeUs < 0) {
+                mFirstPresentationTimeUs = mBufferInfo.presentationTimeUs;
+            }
+            ByteBuffer decoded = mDecoderEvents.getOutputBuffer(decoderStatus);
+            decoded.limit(mBufferInfo.offset + mBufferInfo.size).position(mBufferInfo.offset);
+            resample(decoded.order(ByteOrder.nativeOrder()).asShortBuffer());
+        }
+        mDecoder.releaseOutputBuffer(decoderStatus, false);
+        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mIsDecoderEOS = true;
+            mResampler.endOfInput();
+            resample(null);
+        }
+        return DRAIN_STATE_CONSUMED;
+    }
+
+    private void createResampler(MediaFormat decodedFormat) {
+        int inputSampleRate = decodedFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int inputChannels = decodedFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        mResampler = new AudioResampler(inputSampleRate, inputChannels,
+                mOutputSampleRate, mOutputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+        Log.d(TAG, "decoded audio: " + inputSampleRate + "Hz, " + inputChannels + " channels");
+    }
+
+    /**
+     * Runs the resampler over {@code pcm}, or flushes it if null, appending to the pending PCM.
+     */
+    private void resample(ShortBuffer pcm) {
+        ShortBuffer in = pcm != null ? pcm : NO_PCM;
+        while (true) {
+            mResampler.process(in, mPendingPcm);
+            boolean done = pcm != null ? in.remaining() < mResampler.getInputChannels() : mResampler.isDrained();
+            if (done) return;
+            if (mPendingPcm.remaining() < mResampler.getOutputChannels()) {
+                // Only a decoded buffer larger than the headroom gets here.
+                ShortBuffer grown = ShortBuffer.allocate(mPendingPcm.capacity() * 2);
+                mPendingPcm.flip();
+                grown.put(mPendingPcm);
+                mPendingPcm = grown;
+            }
+        }
+    }
+
+    private int feedEncoder() {
+        if (mIsEncoderInputEOS) return DRAIN_STATE_NONE;
+        if (mPendingPcm.position() == 0 && !mIsDecoderEOS) return DRAIN_STATE_NONE;
+        int inputBufIndex = mEncoderEvents.dequeueInputBuffer();
+        if (inputBufIndex < 0) return DRAIN_STATE_NONE;
+        long presentationTimeUs = Math.max(0, mFirstPresentationTimeUs)
+                + mEncodedFrames * 1000000L / mOutputSampleRate;
+        if (mPendingPcm.position() == 0) {
+            mIsEncoderInputEOS = true;
+            mEncoder.queueInputBuffer(inputBufIndex, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return DRAIN_STATE_NONE;
+        }
+        ByteBuffer input = mEncoderEvents.getInputBuffer(inputBufIndex);
+        input.clear();
+        ShortBuffer target = input.order(ByteOrder.nativeOrder()).asShortBuffer();
+        int channels = mResampler.getOutputChannels();
+        mPendingPcm.flip();
+        int size = Math.min(mPendingPcm.remaining(), target.remaining() / channels * channels);
+        int limit = mPendingPcm.limit();
+        mPendingPcm.limit(size);
+        target.put(mPendingPcm);
+        mPendingPcm.limit(limit);
+        mPendingPcm.compact();
+        mEncoder.queueInputBuffer(inputBufIndex, 0, size * 2, presentationTimeUs, 0);
+        mEncodedFrames += size / channels;
+        return DRAIN_STATE_CONSUMED;
+    }
+
+    private int drainEncoder() {
+        if (mIsEncoderEOS) return DRAIN_STATE_NONE;
+        int encoderStatus = mEncoderEvents.dequeueOutputBuffer(mBufferInfo);
+        switch (encoderStatus) {
+            case MediaCodec.INFO_TRY_AGAIN_LATER:
+                return DRAIN_STATE_NONE;
+            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                if (mActualOutputFormat != null) {
+                    throw new RuntimeException("Audio output format changed twice.");
+                }
+                mActualOutputFormat = mEncoder.getOutputFormat();
+                Log.d(TAG, "encoder output format changed: " + mActualOutputFormat);
+                mMuxer.setOutputFormat(QueuedMuxer.SampleType.AUDIO, mActualOutputFormat);
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        if (mActualOutputFormat == null) {
+            throw new RuntimeException("Could not determine actual output format.");
+        }
+
+        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mIsEncoderEOS = true;
+            mBufferInfo.set(0, 0, 0, mBufferInfo.flags);
+        }
+        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // The AudioSpecificConfig, which is passed by MediaFormat.
+            mEncoder.releaseOutputBuffer(encoderStatus, false);
+            return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        mMuxer.writeSampleData(QueuedMuxer.SampleType.AUDIO, mEncoderEvents.getOutputBuffer(encoderStatus), mBufferInfo);
+        mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
+        mEncoder.releaseOutputBuffer(encoderStatus, false);
+        return DRAIN_STATE_CONSUMED;
+    }
+}
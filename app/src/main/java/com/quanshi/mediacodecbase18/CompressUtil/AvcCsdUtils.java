@@ -18,57 +18,14 @@ package com.quanshi.mediacodecbase18.CompressUtil;
 import android.media.MediaFormat;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 public class AvcCsdUtils {
-    // Refer: https://android.googlesource.com/platform/frameworks/av/+/lollipop-release/media/libstagefright/MediaCodec.cpp#2198
-    // Refer: http://stackoverflow.com/a/2861340
-    private static final byte[] AVC_START_CODE_3 = {0x00, 0x00, 0x01};
-    private static final byte[] AVC_START_CODE_4 = {0x00, 0x00, 0x00, 0x01};
-    // Refer: http://www.cardinalpeak.com/blog/the-h-264-sequence-parameter-set/
-    private static final byte AVC_SPS_NAL = 103; // 0<<7 + 3<<5 + 7<<0
-    private static final byte P7_SPS_NAL = 39; // 0<<7 + 1<<5 + 7<<0
-
     /**
      * @return ByteBuffer contains SPS without NAL header.
      */
     public static ByteBuffer getSpsBuffer(MediaFormat format) {
-        ByteBuffer sourceBuffer = format.getByteBuffer(MediaConstants.KEY_AVC_SPS).asReadOnlyBuffer(); // might be direct buffer
-        ByteBuffer prefixedSpsBuffer = ByteBuffer.allocate(sourceBuffer.limit()).order(sourceBuffer.order());
-        prefixedSpsBuffer.put(sourceBuffer);
-        prefixedSpsBuffer.flip();
-
-
-        /*
-        String source = null;
-        try {
-            source = new String(sourceBuffer.array(), "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
-        */
-//        Log.i("AvcCsdUtils", "sourceBuffer: " + source + ", prefixedSpsBuffer: " + prefixedSpsBuffer);
-
-        skipStartCode(prefixedSpsBuffer);
-//        Log.i("AvcCsdUtils", "buffer get nal: " + prefixedSpsBuffer.get());
-
-        byte sps_nal = prefixedSpsBuffer.get();
-
-        if (sps_nal != AVC_SPS_NAL && sps_nal != P7_SPS_NAL) {
-            throw new IllegalStateException("Got non SPS NAL data.");
-        }
-        return prefixedSpsBuffer.slice();
-    }
-
-    private static void skipStartCode(ByteBuffer prefixedSpsBuffer) {
-        byte[] prefix3 = new byte[3];
-        prefixedSpsBuffer.get(prefix3);
-        if (Arrays.equals(prefix3, AVC_START_CODE_3)) return;
-
-        byte[] prefix4 = Arrays.copyOf(prefix3, 4);
-        prefix4[3] = prefixedSpsBuffer.get();
-        if (Arrays.equals(prefix4, AVC_START_CODE_4)) return;
-        throw new IllegalStateException("AVC NAL start code does not found in csd.");
+        // A view of its own, so the position of the format's buffer stays where it is.
+        return AvcSpsUtils.getSpsPayload(format.getByteBuffer(MediaConstants.KEY_AVC_SPS).duplicate());
     }
 
     private AvcCsdUtils() {
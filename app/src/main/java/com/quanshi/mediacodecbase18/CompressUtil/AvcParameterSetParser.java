@@ -0,0 +1,378 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses H.264 sequence and picture parameter sets (ITU-T H.264 7.3.2.1 and 7.3.2.2) into reusable holders.
+ * Nothing is allocated per parse, and the buffers may be direct; csd-0 and csd-1 can be passed as they are.
+ * Not thread safe.
+ */
+class AvcParameterSetParser {
+    static final int UNKNOWN = -1;
+    static final int NAL_UNIT_TYPE_SPS = 7;
+    static final int NAL_UNIT_TYPE_PPS = 8;
+    private static final int EXTENDED_SAR = 255;
+    // Table E-1, indexed by aspect_ratio_idc.
+    private static final int[] SAR_WIDTHS = {0, 1, 12, 10, 16, 40, 24, 20, 32, 80, 18, 15, 64, 160, 4, 3, 2};
+    private static final int[] SAR_HEIGHTS = {0, 1, 11, 11, 11, 33, 11, 11, 11, 33, 11, 11, 33, 99, 3, 2, 1};
+
+    private final NalBitReader mReader = new NalBitReader();
+
+    static class Sps {
+        int mSpsId;
+        int mProfileIdc;
+        /** constraint_set0_flag in bit 7 down to constraint_set5_flag in bit 2. */
+        int mConstraintFlags;
+        int mLevelIdc;
+        int mChromaFormatIdc;
+        boolean mSeparateColourPlane;
+        int mBitDepthLuma;
+        int mBitDepthChroma;
+        int mLog2MaxFrameNum;
+        int mPicOrderCntType;
+        int mMaxNumRefFrames;
+        boolean mFrameMbsOnly;
+        boolean mMbAdaptiveFrameField;
+        /** Size in macroblocks times 16. */
+        int mCodedWidth;
+        int mCodedHeight;
+        /** Size after the frame cropping. */
+        int mWidth;
+        int mHeight;
+        int mSarWidth;
+        int mSarHeight;
+        boolean mVideoFullRange;
+        int mColourPrimaries;
+        int mTransferCharacteristics;
+        int mMatrixCoefficients;
+        long mNumUnitsInTick;
+        long mTimeScale;
+        boolean mFixedFrameRate;
+        /** Frames a decoder may have to hold back for B-frame reordering, {@link #UNKNOWN} if not signaled. */
+        int mMaxNumReorderFrames;
+        int mMaxDecFrameBuffering;
+
+        boolean getConstraintSetFlag(int index) {
+            return (mConstraintFlags & (0x80 >> index)) != 0;
+        }
+
+        /**
+         * @return frames per second from the VUI timing, 0 if not signaled.
+         */
+        double getFrameRate() {
+            // A tick is a field.
+            return mNumUnitsInTick > 0 && mTimeScale > 0 ? mTimeScale / (2.0 * mNumUnitsInTick) : 0;
+        }
+
+        private void clear() {
+            mChromaFormatIdc = 1;
+            mSeparateColourPlane = false;
+            mBitDepthLuma = 8;
+            mBitDepthChroma = 8;
+            mMbAdaptiveFrameField = false;
+            mSarWidth = 0;
+            mSarHeight = 0;
+            mVideoFullRange = false;
+            mColourPrimaries = UNKNOWN;
+            mTransferCharacteristics = UNKNOWN;
+            mMatrixCoefficients = UNKNOWN;
+            mNumUnitsInTick = 0;
+            mTimeScale = 0;
+            mFixedFrameRate = false;
+            mMaxNumReorderFrames = UNKNOWN;
+            mMaxDecFrameBuffering = UNKNOWN;
+        }
+
+        @Override
+        public String toString() {
+            return "Sps{profile=" + mProfileIdc + ", level=" + mLevelIdc + ", " + mWidth + "x" + mHeight
+                    + (mFrameMbsOnly ? "" : " interlaced") + ", chroma=" + mChromaFormatIdc
+                    + ", fps=" + getFrameRate() + ", reorder=" + mMaxNumReorderFrames + "}";
+        }
+    }
+
+    static class Pps {
+        int mPpsId;
+        int mSpsId;
+        /** CABAC if true, CAVLC otherwise. */
+        boolean mEntropyCodingMode;
+        boolean mBottomFieldPicOrderInFramePresent;
+        int mNumSliceGroups;
+        int mNumRefIdxL0DefaultActive;
+        int mNumRefIdxL1DefaultActive;
+        boolean mWeightedPred;
+        int mWeightedBipredIdc;
+        int mPicInitQp;
+        int mPicInitQs;
+        int mChromaQpIndexOffset;
+        boolean mDeblockingFilterControlPresent;
+        boolean mConstrainedIntraPred;
+        boolean mRedundantPicCntPresent;
+        boolean mTransform8x8Mode;
+        boolean mPicScalingMatrixPresent;
+        int mSecondChromaQpIndexOffset;
+
+        @Override
+        public String toString() {
+            return "Pps{id=" + mPpsId + ", sps=" + mSpsId + ", " + (mEntropyCodingMode ? "CABAC" : "CAVLC")
+                    + ", 8x8=" + mTransform8x8Mode + "}";
+        }
+    }
+
+    /**
+     * Parses the SPS NAL unit between position and limit of {@code nal}, which may start with a start code.
+     * The buffer is not changed.
+     *
+     * @throws IllegalStateException if it is not an SPS or it is malformed.
+     */
+    void parseSps(ByteBuffer nal, Sps sps) {
+        resetReader(nal, NAL_UNIT_TYPE_SPS);
+        NalBitReader reader = mReader;
+        sps.clear();
+        sps.mProfileIdc = reader.readBits(8);
+        sps.mConstraintFlags = reader.readBits(8);
+        sps.mLevelIdc = reader.readBits(8);
+        sps.mSpsId = reader.readUnsignedExpGolomb();
+        if (hasChromaFormat(sps.mProfileIdc)) {
+            sps.mChromaFormatIdc = reader.readUnsignedExpGolomb();
+            if (sps.mChromaFormatIdc == 3) {
+                sps.mSeparateColourPlane = reader.readFlag();
+            }
+            sps.mBitDepthLuma = 8 + reader.readUnsignedExpGolomb();
+            sps.mBitDepthChroma = 8 + reader.readUnsignedExpGolomb();
+            reader.skipBits(1);  // qpprime_y_zero_transform_bypass_flag
+            if (reader.readFlag()) {  // seq_scaling_matrix_present_flag
+                skipScalingLists(sps.mChromaFormatIdc != 3 ? 8 : 12);
+            }
+        }
+        sps.mLog2MaxFrameNum = 4 + reader.readUnsignedExpGolomb();
+        sps.mPicOrderCntType = reader.readUnsignedExpGolomb();
+        if (sps.mPicOrderCntType == 0) {
+            reader.readUnsignedExpGolomb();  // log2_max_pic_order_cnt_lsb_minus4
+        } else if (sps.mPicOrderCntType == 1) {
+            reader.skipBits(1);  // delta_pic_order_always_zero_flag
+            reader.readSignedExpGolomb();  // offset_for_non_ref_pic
+            reader.readSignedExpGolomb();  // offset_for_top_to_bottom_field
+            int cycleLength = reader.readUnsignedExpGolomb();
+            for (int i = 0; i < cycleLength; i++) {
+                reader.readSignedExpGolomb();  // offset_for_ref_frame
+            }
+        }
+        sps.mMaxNumRefFrames = reader.readUnsignedExpGolomb();
+        reader.skipBits(1);  // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = reader.readUnsignedExpGolomb() + 1;
+        int heightInMapUnits = reader.readUnsignedExpGolomb() + 1;
+        sps.mFrameMbsOnly = reader.readFlag();
+        if (!sps.mFrameMbsOnly) {
+            sps.mMbAdaptiveFrameField = reader.readFlag();
+        }
+        reader.skipBits(1);  // direct_8x8_inference_flag
+        sps.mCodedWidth = widthInMbs * 16;
+        sps.mCodedHeight = (sps.mFrameMbsOnly ? 1 : 2) * heightInMapUnits * 16;
+        sps.mWidth = sps.mCodedWidth;
+        sps.mHeight = sps.mCodedHeight;
+        if (reader.readFlag()) {  // frame_cropping_flag
+            // 7.4.2.1.1, crop offsets are in chroma samples, and in field pairs for interlaced video.
+            int chromaArrayType = sps.mSeparateColourPlane ? 0 : sps.mChromaFormatIdc;
+            int cropUnitX = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+            int cropUnitY = (chromaArrayType == 1 ? 2 : 1) * (sps.mFrameMbsOnly ? 1 : 2);
+            sps.mWidth -= cropUnitX * (reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb());
+            sps.mHeight -= cropUnitY * (reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb());
+            if (sps.mWidth <= 0 || sps.mHeight <= 0) {
+                throw new IllegalStateException("Invalid frame cropping: " + sps.mWidth + "x" + sps.mHeight);
+            }
+        }
+        if (reader.readFlag()) {  // vui_parameters_present_flag
+            parseVui(sps);
+        }
+    }
+
+    /**
+     * Parses the PPS NAL unit between position and limit of {@code nal}, which may start with a start code.
+     *
+     * @param sps the SPS the PPS refers to, needed for the scaling lists of 4:4:4 streams; null assumes 4:2:0.
+     * @throws IllegalStateException if it is not a PPS or it is malformed.
+     */
+    void parsePps(ByteBuffer nal, Sps sps, Pps pps) {
+        resetReader(nal, NAL_UNIT_TYPE_PPS);
+        NalBitReader reader = mReader;
+        pps.mPpsId = reader.readUnsignedExpGolomb();
+        pps.mSpsId = reader.readUnsignedExpGolomb();
+        pps.mEntropyCodingMode = reader.readFlag();
+        pps.mBottomFieldPicOrderInFramePresent = reader.readFlag();
+        pps.mNumSliceGroups = reader.readUnsignedExpGolomb() + 1;
+        if (pps.mNumSliceGroups > 1) {
+            skipSliceGroupMap(pps.mNumSliceGroups);
+        }
+        pps.mNumRefIdxL0DefaultActive = reader.readUnsignedExpGolomb() + 1;
+        pps.mNumRefIdxL1DefaultActive = reader.readUnsignedExpGolomb() + 1;
+        pps.mWeightedPred = reader.readFlag();
+        pps.mWeightedBipredIdc = reader.readBits(2);
+        pps.mPicInitQp = 26 + reader.readSignedExpGolomb();
+        pps.mPicInitQs = 26 + reader.readSignedExpGolomb();
+        pps.mChromaQpIndexOffset = reader.readSignedExpGolomb();
+        pps.mDeblockingFilterControlPresent = reader.readFlag();
+        pps.mConstrainedIntraPred = reader.readFlag();
+        pps.mRedundantPicCntPresent = reader.readFlag();
+        pps.mTransform8x8Mode = false;
+        pps.mPicScalingMatrixPresent = false;
+        pps.mSecondChromaQpIndexOffset = pps.mChromaQpIndexOffset;
+        if (reader.hasMoreRbspData()) {
+            pps.mTransform8x8Mode = reader.readFlag();
+            pps.mPicScalingMatrixPresent = reader.readFlag();
+            if (pps.mPicScalingMatrixPresent) {
+                int chromaFormatIdc = sps != null ? sps.mChromaFormatIdc : 1;
+                skipScalingLists(6 + (pps.mTransform8x8Mode ? (chromaFormatIdc != 3 ? 2 : 6) : 0));
+            }
+            pps.mSecondChromaQpIndexOffset = reader.readSignedExpGolomb();
+        }
+    }
+
+    /**
+     * @return the nal_unit_type of the NAL unit at the position of {@code nal}, after a start code if there is one.
+     */
+    static int getNalUnitType(ByteBuffer nal) {
+        int offset = NalUnitScanner.skipStartCode(nal);
+        if (offset >= nal.limit()) {
+            throw new IllegalStateException("Empty NAL unit.");
+        }
+        return nal.get(offset) & 0x1f;
+    }
+
+    private void resetReader(ByteBuffer nal, int nalUnitType) {
+        int type = getNalUnitType(nal);
+        if (type != nalUnitType) {
+            throw new IllegalStateException("Expected NAL unit type " + nalUnitType + ", got " + type + ".");
+        }
+        mReader.reset(nal, NalUnitScanner.skipStartCode(nal) + 1, nal.limit());
+    }
+
+    private void parseVui(Sps sps) {
+        NalBitReader reader = mReader;
+        if (reader.readFlag()) {  // aspect_ratio_info_present_flag
+            int aspectRatioIdc = reader.readBits(8);
+            if (aspectRatioIdc == EXTENDED_SAR) {
+                sps.mSarWidth = reader.readBits(16);
+                sps.mSarHeight = reader.readBits(16);
+            } else if (aspectRatioIdc < SAR_WIDTHS.length) {
+                sps.mSarWidth = SAR_WIDTHS[aspectRatioIdc];
+                sps.mSarHeight = SAR_HEIGHTS[aspectRatioIdc];
+            }
+        }
+        if (reader.readFlag()) {  // overscan_info_present_flag
+            reader.skipBits(1);  // overscan_appropriate_flag
+        }
+        if (reader.readFlag()) {  // video_signal_type_present_flag
+            reader.skipBits(3);  // video_format
+            sps.mVideoFullRange = reader.readFlag();
+            if (reader.readFlag()) {  // colour_description_present_flag
+                sps.mColourPrimaries = reader.readBits(8);
+                sps.mTransferCharacteristics = reader.readBits(8);
+                sps.mMatrixCoefficients = reader.readBits(8);
+            }
+        }
+        if (reader.readFlag()) {  // chroma_loc_info_present_flag
+            reader.readUnsignedExpGolomb();  // chroma_sample_loc_type_top_field
+            reader.readUnsignedExpGolomb();  // chroma_sample_loc_type_bottom_field
+        }
+        if (reader.readFlag()) {  // timing_info_present_flag
+            sps.mNumUnitsInTick = reader.readUnsignedInt();
+            sps.mTimeScale = reader.readUnsignedInt();
+            sps.mFixedFrameRate = reader.readFlag();
+        }
+        boolean nalHrd = reader.readFlag();
+        if (nalHrd) {
+            skipHrdParameters();
+        }
+        boolean vclHrd = reader.readFlag();
+        if (vclHrd) {
+            skipHrdParameters();
+        }
+        if (nalHrd || vclHrd) {
+            reader.skipBits(1);  // low_delay_hrd_flag
+        }
+        reader.skipBits(1);  // pic_struct_present_flag
+        if (reader.readFlag()) {  // bitstream_restriction_flag
+            reader.skipBits(1);  // motion_vectors_over_pic_boundaries_flag
+            reader.readUnsignedExpGolomb();  // max_bytes_per_pic_denom
+            reader.readUnsignedExpGolomb();  // max_bits_per_mb_denom
+            reader.readUnsignedExpGolomb();  // log2_max_mv_length_horizontal
+            reader.readUnsignedExpGolomb();  // log2_max_mv_length_vertical
+            sps.mMaxNumReorderFrames = reader.readUnsignedExpGolomb();
+            sps.mMaxDecFrameBuffering = reader.readUnsignedExpGolomb();
+        }
+    }
+
+    private void skipHrdParameters() {
+        NalBitReader reader = mReader;
+        int cpbCount = reader.readUnsignedExpGolomb() + 1;
+        reader.skipBits(8);  // bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < cpbCount; i++) {
+            reader.readUnsignedExpGolomb();  // bit_rate_value_minus1
+            reader.readUnsignedExpGolomb();  // cpb_size_value_minus1
+            reader.skipBits(1);  // cbr_flag
+        }
+        // initial_cpb_removal_delay_length_minus1, cpb_removal_delay_length_minus1,
+        // dpb_output_delay_length_minus1, time_offset_length
+        reader.skipBits(20);
+    }
+
+    private void skipScalingLists(int count) {
+        NalBitReader reader = mReader;
+        for (int i = 0; i < count; i++) {
+            if (!reader.readFlag()) continue;  // scaling_list_present_flag
+            int size = i < 6 ? 16 : 64;
+            int lastScale = 8;
+            int nextScale = 8;
+            for (int j = 0; j < size && nextScale != 0; j++) {
+                nextScale = (lastScale + reader.readSignedExpGolomb() + 256) % 256;
+                if (nextScale != 0) lastScale = nextScale;
+            }
+        }
+    }
+
+    private void skipSliceGroupMap(int numSliceGroups) {
+        NalBitReader reader = mReader;
+        int mapType = reader.readUnsignedExpGolomb();
+        if (mapType == 0) {
+            for (int i = 0; i < numSliceGroups; i++) {
+                reader.readUnsignedExpGolomb();  // run_length_minus1
+            }
+        } else if (mapType == 2) {
+            for (int i = 0; i < numSliceGroups - 1; i++) {
+                reader.readUnsignedExpGolomb();  // top_left
+                reader.readUnsignedExpGolomb();  // bottom_right
+            }
+        } else if (mapType >= 3 && mapType <= 5) {
+            reader.skipBits(1);  // slice_group_change_direction_flag
+            reader.readUnsignedExpGolomb();  // slice_group_change_rate_minus1
+        } else if (mapType == 6) {
+            int picSizeInMapUnits = reader.readUnsignedExpGolomb() + 1;
+            int bits = 32 - Integer.numberOfLeadingZeros(numSliceGroups - 1);
+            for (int i = 0; i < picSizeInMapUnits; i++) {
+                reader.skipBits(bits);  // slice_group_id
+            }
+        }
+    }
+
+    private static boolean hasChromaFormat(int profileIdc) {
+        switch (profileIdc) {
+            case 44:
+            case 83:
+            case 86:
+            case 100:
+            case 110:
+            case 118:
+            case 122:
+            case 128:
+            case 134:
+            case 135:
+            case 138:
+            case 139:
+            case 244:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -18,9 +18,46 @@ package com.quanshi.mediacodecbase18.CompressUtil;
 import java.nio.ByteBuffer;
 
 public class AvcSpsUtils {
+    // Refer: https://android.googlesource.com/platform/frameworks/av/+/lollipop-release/media/libstagefright/MediaCodec.cpp#2198
+    // Refer: http://stackoverflow.com/a/2861340
+    // Refer: http://www.cardinalpeak.com/blog/the-h-264-sequence-parameter-set/
+    private static final byte AVC_SPS_NAL = 103; // 0<<7 + 3<<5 + 7<<0
+    private static final byte P7_SPS_NAL = 39; // 0<<7 + 1<<5 + 7<<0
+
+    /**
+     * @param prefixedSpsBuffer SPS NAL unit with its start code (csd-0); its position is moved past the NAL header.
+     * @return ByteBuffer contains SPS without NAL header, still with emulation prevention bytes. See
+     * {@link AvcParameterSetParser} for the whole SPS.
+     */
+    public static ByteBuffer getSpsPayload(ByteBuffer prefixedSpsBuffer) {
+        skipStartCode(prefixedSpsBuffer);
+        byte sps_nal = prefixedSpsBuffer.get();
+        if (sps_nal != AVC_SPS_NAL && sps_nal != P7_SPS_NAL) {
+            throw new IllegalStateException("Got non SPS NAL data.");
+        }
+        return prefixedSpsBuffer.slice();
+    }
+
     public static byte getProfileIdc(ByteBuffer spsBuffer) {
         // Refer: http://www.cardinalpeak.com/blog/the-h-264-sequence-parameter-set/
         // First byte after NAL.
         return spsBuffer.get(0);
     }
+
+    private static void skipStartCode(ByteBuffer prefixedSpsBuffer) {
+        int position = prefixedSpsBuffer.position();
+        if (prefixedSpsBuffer.remaining() >= 3 && prefixedSpsBuffer.get(position) == 0
+                && prefixedSpsBuffer.get(position + 1) == 0) {
+            if (prefixedSpsBuffer.get(position + 2) == 1) {
+                prefixedSpsBuffer.position(position + 3);
+                return;
+            }
+            if (prefixedSpsBuffer.remaining() >= 4 && prefixedSpsBuffer.get(position + 2) == 0
+                    && prefixedSpsBuffer.get(position + 3) == 1) {
+                prefixedSpsBuffer.position(position + 4);
+                return;
+            }
+        }
+        throw new IllegalStateException("AVC NAL start code does not found in csd.");
+    }
 }
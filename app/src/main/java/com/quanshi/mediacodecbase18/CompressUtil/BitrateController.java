@@ -0,0 +1,163 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Steers the video bitrate so that the output lands just under a file size, e.g. an upload limit.
+ * <p>
+ * The initial bitrate spreads what the cap leaves after the audio and the container over the duration. Encoders
+ * rarely hit the bitrate asked for, and content gets harder or easier, so at every video sync frame the bytes
+ * written so far are compared with the plan: the remaining budget is spread over the remaining time and divided
+ * by how much the encoder has been over- or undershooting, in steps of at most {@link #MAX_STEP} per GOP.
+ * <p>
+ * Fed with the samples the muxer writes, on the pipeline thread.
+ */
+class BitrateController {
+    /** Share of the cap planned for, leaving room for the last GOPs, which cannot be corrected any more. */
+    static final double TARGET_FILL = 0.98;
+    /** Header boxes of the container. */
+    static final int CONTAINER_HEADER_BYTES = 16 * 1024;
+    /** Sample table entries of the container: size, time, chunk offset. */
+    static final int CONTAINER_BYTES_PER_SAMPLE = 12;
+    /** Largest factor the bitrate is changed by at one GOP. */
+    static final double MAX_STEP = 2;
+    // Below this relative change the encoder is left alone.
+    private static final double MIN_CHANGE = 0.02;
+    // Weight of the last GOP in the encoder response.
+    private static final double RESPONSE_SMOOTHING = 0.5;
+    private static final double MIN_RESPONSE = 0.25;
+    private static final double MAX_RESPONSE = 4;
+
+    private final long mTargetBytes;
+    private final long mDurationUs;
+    private final long mPlannedAudioBytes;
+    private final long mContainerBytes;
+    private final int mMinBitrate;
+    private final int mMaxBitrate;
+    private int mBitrate;
+    private long mVideoBytes;
+    private long mAudioBytes;
+    private long mAudioTimeUs;
+    private boolean mInGop;
+    private long mGopStartTimeUs;
+    private long mGopStartBytes;
+    private int mGopBitrate;
+    private double mResponse = 1;
+    private int mGopCount;
+    private int mAdjustmentCount;
+
+    /**
+     * @param maxOutputBytes the output file must not be larger.
+     * @param audioBytes     the audio track is expected to take.
+     * @param sampleCount    expected video and audio samples, for the container's sample tables.
+     */
+    BitrateController(long maxOutputBytes, long durationUs, long audioBytes, long sampleCount, int minBitrate,
+                      int maxBitrate) {
+        if (maxOutputBytes <= 0 || durationUs <= 0 || minBitrate <= 0 || maxBitrate < minBitrate) {
+            throw new IllegalArgumentException("Invalid plan: " + maxOutputBytes + " bytes in " + durationUs
+                    + "us, " + minBitrate + "-" + maxBitrate + "bps");
+        }
+        mTargetBytes = (long) (maxOutputBytes * TARGET_FILL);
+        mDurationUs = durationUs;
+        mPlannedAudioBytes = Math.max(0, audioBytes);
+        mContainerBytes = CONTAINER_HEADER_BYTES + sampleCount * CONTAINER_BYTES_PER_SAMPLE;
+        mMinBitrate = minBitrate;
+        mMaxBitrate = maxBitrate;
+        mBitrate = clamp(toBitrate(getPlannedVideoBytes(), durationUs));
+    }
+
+    /**
+     * @return what the plan leaves for the video, negative if the audio alone does not fit.
+     */
+    long getPlannedVideoBytes() {
+        return mTargetBytes - mPlannedAudioBytes - mContainerBytes;
+    }
+
+    /**
+     * @return the bitrate the encoder should run at now.
+     */
+    int getBitrate() {
+        return mBitrate;
+    }
+
+    void onAudioSample(long presentationTimeUs, int size) {
+        mAudioBytes += size;
+        mAudioTimeUs = Math.max(mAudioTimeUs, presentationTimeUs);
+    }
+
+    /**
+     * @param presentationTimeUs of the sample, in decode order.
+     * @return true if {@link #getBitrate()} changed.
+     */
+    boolean onVideoSample(long presentationTimeUs, int size, boolean sync) {
+        boolean changed = false;
+        if (sync) {
+            if (mInGop) {
+                changed = onGopEnd(presentationTimeUs);
+            }
+            mInGop = true;
+            mGopStartTimeUs = presentationTimeUs;
+            mGopStartBytes = mVideoBytes;
+            mGopBitrate = mBitrate;
+        }
+        mVideoBytes += size;
+        return changed;
+    }
+
+    private boolean onGopEnd(long timeUs) {
+        long gopDurationUs = timeUs - mGopStartTimeUs;
+        if (gopDurationUs <= 0) return false;
+        double expectedBytes = (double) mGopBitrate * gopDurationUs / 8 / 1000000;
+        double response = Math.max(MIN_RESPONSE, Math.min(MAX_RESPONSE,
+                (mVideoBytes - mGopStartBytes) / expectedBytes));
+        mResponse = mGopCount == 0 ? response
+                : mResponse * (1 - RESPONSE_SMOOTHING) + response * RESPONSE_SMOOTHING;
+        mGopCount++;
+
+        long remainingUs = mDurationUs - timeUs;
+        if (remainingUs <= 0) return false;
+        long remainingBytes = mTargetBytes - mContainerBytes - getProjectedAudioBytes() - mVideoBytes;
+        double bitrate = toBitrate(remainingBytes, remainingUs) / mResponse;
+        bitrate = Math.max(mBitrate / MAX_STEP, Math.min(mBitrate * MAX_STEP, bitrate));
+        int newBitrate = clamp(bitrate);
+        if (Math.abs(newBitrate - mBitrate) < mBitrate * MIN_CHANGE) return false;
+        mBitrate = newBitrate;
+        mAdjustmentCount++;
+        return true;
+    }
+
+    /**
+     * @return the audio written, and what the plan has for the rest of its duration.
+     */
+    private long getProjectedAudioBytes() {
+        long remainingUs = Math.max(0, mDurationUs - mAudioTimeUs);
+        return mAudioBytes + (long) ((double) mPlannedAudioBytes * remainingUs / mDurationUs);
+    }
+
+    private static double toBitrate(long bytes, long durationUs) {
+        return bytes * 8.0 * 1000000 / durationUs;
+    }
+
+    private int clamp(double bitrate) {
+        return (int) Math.max(mMinBitrate, Math.min(mMaxBitrate, Math.round(bitrate)));
+    }
+
+    long getWrittenBytes() {
+        return mVideoBytes + mAudioBytes;
+    }
+
+    int getAdjustmentCount() {
+        return mAdjustmentCount;
+    }
+
+    /**
+     * @return how many times the encoder produced the bytes it was asked for, smoothed over the GOPs.
+     */
+    double getEncoderResponse() {
+        return mResponse;
+    }
+
+    @Override
+    public String toString() {
+        return "target " + mTargetBytes + " bytes, written " + getWrittenBytes() + " (video " + mVideoBytes
+                + ", audio " + mAudioBytes + "), " + mAdjustmentCount + " adjustments, now " + mBitrate + "bps";
+    }
+}
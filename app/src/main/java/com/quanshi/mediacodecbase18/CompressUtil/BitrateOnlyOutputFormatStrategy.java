@@ -0,0 +1,33 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Keeps the resolution and frame rate and only lowers the bitrate, to a fixed value or one from a
+ * {@link BitsPerPixelModel}. Video whose bitrate is known and not above the target is left as it is.
+ */
+public class BitrateOnlyOutputFormatStrategy implements OutputFormatStrategy {
+    private final int mBitrate;
+    private final BitsPerPixelModel mBitrateModel;
+
+    public BitrateOnlyOutputFormatStrategy(int bitrate) {
+        if (bitrate <= 0) {
+            throw new IllegalArgumentException("Invalid bitrate: " + bitrate);
+        }
+        mBitrate = bitrate;
+        mBitrateModel = null;
+    }
+
+    public BitrateOnlyOutputFormatStrategy(BitsPerPixelModel bitrateModel) {
+        mBitrate = UNKNOWN;
+        mBitrateModel = bitrateModel;
+    }
+
+    @Override
+    public VideoFormat createVideoOutputFormat(VideoFormat input) {
+        int bitrate = mBitrateModel != null
+                ? mBitrateModel.getBitrate(input.getWidth(), input.getHeight(), input.getFrameRate()) : mBitrate;
+        if (input.getBitrate() != UNKNOWN && input.getBitrate() <= bitrate) {
+            return null;
+        }
+        return new VideoFormat(input.getWidth(), input.getHeight(), input.getFrameRate(), bitrate);
+    }
+}
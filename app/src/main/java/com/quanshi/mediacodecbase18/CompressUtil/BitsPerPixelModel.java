@@ -0,0 +1,64 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Bitrate as bits per pixel per frame: {@code width * height * frameRate * bitsPerPixel}, clamped to a range.
+ * Low motion content like a talking head looks fine at about {@link #LOW_MOTION}, fast motion needs about
+ * {@link #HIGH_MOTION}, and screen recordings or slides get by with {@link #STATIC_CONTENT}.
+ */
+public class BitsPerPixelModel {
+    public static final float STATIC_CONTENT = 0.03f;
+    public static final float LOW_MOTION = 0.05f;
+    public static final float MEDIUM_MOTION = 0.08f;
+    public static final float HIGH_MOTION = 0.12f;
+    /** Assumed when the input does not tell its frame rate. */
+    public static final int DEFAULT_FRAME_RATE = 30;
+
+    private final float mBitsPerPixel;
+    private final int mMinBitrate;
+    private final int mMaxBitrate;
+
+    public BitsPerPixelModel(float bitsPerPixel) {
+        this(bitsPerPixel, 100 * 1000, 20 * 1000 * 1000);
+    }
+
+    public BitsPerPixelModel(float bitsPerPixel, int minBitrate, int maxBitrate) {
+        if (bitsPerPixel <= 0 || minBitrate <= 0 || maxBitrate < minBitrate) {
+            throw new IllegalArgumentException("Invalid model: " + bitsPerPixel + " bpp, " + minBitrate + "-"
+                    + maxBitrate + "bps");
+        }
+        mBitsPerPixel = bitsPerPixel;
+        mMinBitrate = minBitrate;
+        mMaxBitrate = maxBitrate;
+    }
+
+    /**
+     * @param complexity score of a {@link ComplexityAnalyzer}: 0 picks {@link #STATIC_CONTENT}, the neutral score
+     *                   {@link #MEDIUM_MOTION} and 1 {@link #HIGH_MOTION}, linear in between.
+     */
+    public static BitsPerPixelModel forComplexity(float complexity) {
+        float neutral = ComplexityAnalyzer.NEUTRAL_SCORE;
+        complexity = Math.max(0, Math.min(1, complexity));
+        float bitsPerPixel;
+        if (complexity <= neutral) {
+            bitsPerPixel = STATIC_CONTENT + (MEDIUM_MOTION - STATIC_CONTENT) * complexity / neutral;
+        } else {
+            bitsPerPixel = MEDIUM_MOTION + (HIGH_MOTION - MEDIUM_MOTION) * (complexity - neutral) / (1 - neutral);
+        }
+        return new BitsPerPixelModel(bitsPerPixel);
+    }
+
+    float getBitsPerPixel() {
+        return mBitsPerPixel;
+    }
+
+    /**
+     * @param frameRate frames per second, or {@link OutputFormatStrategy#UNKNOWN}.
+     */
+    public int getBitrate(int width, int height, int frameRate) {
+        if (frameRate <= 0) {
+            frameRate = DEFAULT_FRAME_RATE;
+        }
+        long bitrate = Math.round((double) width * height * frameRate * mBitsPerPixel);
+        return (int) Math.max(mMinBitrate, Math.min(mMaxBitrate, bitrate));
+    }
+}
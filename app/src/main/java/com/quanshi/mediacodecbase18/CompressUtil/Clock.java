@@ -0,0 +1,15 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Monotonic millisecond time source, replaced by a fake one in tests.
+ */
+interface Clock {
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    long uptimeMillis();
+}
@@ -0,0 +1,280 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Feeds the buffer events of a {@link MediaCodec} into a {@link CodecEventQueue}, so the pipeline thread only wakes
+ * up when the codec has something for it.
+ * <p>
+ * On API 23+ the codec runs in asynchronous mode and {@link MediaCodec.Callback} fills the queue from a handler
+ * thread of the bridge. API 21 and 22 cannot take a handler for the callback, which would then run on the main
+ * looper, so there and on older levels poller threads block in {@code dequeueInputBuffer}/{@code dequeueOutputBuffer}
+ * with a timeout instead.
+ * The pipeline thread keeps queueing and releasing buffers on the codec itself, or through the
+ * {@link PipelineCodec} calls, which forward to it.
+ */
+class CodecEventBridge implements PipelineCodec {
+    private static final String TAG = "CodecEventBridge";
+    private static final long POLL_TIMEOUT_US = 10000;
+
+    private final MediaCodec mCodec;
+    private final CodecEventQueue mQueue;
+    private final boolean mPollInput;
+    private final boolean mAsync;
+    private HandlerThread mCallbackThread;
+    private Thread mInputPoller;
+    private Thread mOutputPoller;
+    private volatile boolean mStopped;
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+
+    /**
+     * Must be called before the codec is configured.
+     *
+     * @param pollInput false for codecs fed through an input Surface.
+     */
+    CodecEventBridge(MediaCodec codec, PipelineScheduler scheduler, boolean pollInput) {
+        mCodec = codec;
+        mQueue = new CodecEventQueue(scheduler);
+        mPollInput = pollInput;
+        mAsync = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        if (mAsync) {
+            setCallback();
+        }
+    }
+
+    /**
+     * Must be called after the codec has been started.
+     */
+    void start() {
+        if (mAsync) return;
+        if (mPollInput) {
+            mInputBuffers = mCodec.getInputBuffers();
+            mInputPoller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pollInput();
+                }
+            }, TAG + "-input");
+            mInputPoller.start();
+        }
+        mOutputBuffers = mCodec.getOutputBuffers();
+        mOutputPoller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pollOutput();
+            }
+        }, TAG + "-output");
+        mOutputPoller.start();
+    }
+
+    /**
+     * @return index of an input buffer, or {@link MediaCodec#INFO_TRY_AGAIN_LATER}. Never blocks.
+     */
+    @Override
+    public int dequeueInputBuffer() {
+        return mQueue.dequeueInputBuffer();
+    }
+
+    /**
+     * Same contract as {@link MediaCodec#dequeueOutputBuffer(MediaCodec.BufferInfo, long)} with zero timeout.
+     */
+    int dequeueOutputBuffer(MediaCodec.BufferInfo bufferInfo) {
+        int index = mQueue.dequeueOutputBuffer();
+        if (index >= 0) {
+            bufferInfo.set(mQueue.getOffset(), mQueue.getSize(), mQueue.getPresentationTimeUs(), mQueue.getFlags());
+        } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+        return index;
+    }
+
+    /**
+     * Same as {@link #dequeueOutputBuffer(MediaCodec.BufferInfo)}, with the info of the buffer returned by the
+     * getters.
+     */
+    @Override
+    public int dequeueOutputBuffer() {
+        int index = mQueue.dequeueOutputBuffer();
+        if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+            mOutputBuffers = mCodec.getOutputBuffers();
+        } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            Log.d(TAG, mCodec.getName() + " output format changed: " + mCodec.getOutputFormat());
+        }
+        return index;
+    }
+
+    @Override
+    public int getOutputOffset() {
+        return mQueue.getOffset();
+    }
+
+    @Override
+    public int getOutputSize() {
+        return mQueue.getSize();
+    }
+
+    @Override
+    public long getOutputPresentationTimeUs() {
+        return mQueue.getPresentationTimeUs();
+    }
+
+    @Override
+    public int getOutputFlags() {
+        return mQueue.getFlags();
+    }
+
+    /**
+     * @return output buffers the codec had ready when the last one was taken.
+     */
+    @Override
+    public int getPendingOutputCount() {
+        return mQueue.getPendingOutputCount();
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mAsync ? getInputBufferM(index) : mInputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mAsync ? getOutputBufferM(index) : mOutputBuffers[index];
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+
+    /**
+     * Stops delivering events. Must be called before the codec is stopped.
+     */
+    void stop() {
+        mStopped = true;
+        join(mInputPoller);
+        join(mOutputPoller);
+        mInputPoller = null;
+        mOutputPoller = null;
+    }
+
+    void release() {
+        stop();
+        if (mCallbackThread != null) {
+            mCallbackThread.quit();
+            mCallbackThread = null;
+        }
+    }
+
+    private void pollInput() {
+        try {
+            while (!mStopped) {
+                int index = mCodec.dequeueInputBuffer(POLL_TIMEOUT_US);
+                if (index >= 0) {
+                    mQueue.onInputBufferAvailable(index);
+                }
+            }
+        } catch (RuntimeException e) {
+            if (!mStopped) mQueue.onError(e);
+        }
+    }
+
+    private void pollOutput() {
+        MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+        try {
+            while (!mStopped) {
+                int index = mCodec.dequeueOutputBuffer(bufferInfo, POLL_TIMEOUT_US);
+                switch (index) {
+                    case MediaCodec.INFO_TRY_AGAIN_LATER:
+                        break;
+                    case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                        mQueue.onOutputFormatChanged();
+                        break;
+                    case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                        mQueue.onOutputBuffersChanged();
+                        break;
+                    default:
+                        mQueue.onOutputBufferAvailable(index, bufferInfo.offset, bufferInfo.size,
+                                bufferInfo.presentationTimeUs, bufferInfo.flags);
+                        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) return;
+                }
+            }
+        } catch (RuntimeException e) {
+            if (!mStopped) mQueue.onError(e);
+        }
+    }
+
+    private static void join(Thread thread) {
+        if (thread == null) return;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setCallback() {
+        MediaCodec.Callback callback = new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec codec, int index) {
+                if (mPollInput && !mStopped) mQueue.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+                if (!mStopped) {
+                    mQueue.onOutputBufferAvailable(index, info.offset, info.size, info.presentationTimeUs,
+                            info.flags);
+                }
+            }
+
+            @Override
+            public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+                Log.e(TAG, "codec error: " + e.getDiagnosticInfo());
+                if (!mStopped) mQueue.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+                if (!mStopped) mQueue.onOutputFormatChanged();
+            }
+        };
+        // Keep callbacks off the main looper, which is where they would land from a worker thread.
+        mCallbackThread = new HandlerThread(TAG);
+        mCallbackThread.start();
+        mCodec.setCallback(callback, new Handler(mCallbackThread.getLooper()));
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private ByteBuffer getInputBufferM(int index) {
+        return mCodec.getInputBuffer(index);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private ByteBuffer getOutputBufferM(int index) {
+        return mCodec.getOutputBuffer(index);
+    }
+}
@@ -0,0 +1,186 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.Arrays;
+
+/**
+ * Buffer events of one codec, queued by the codec's callback (or poller) thread and consumed by the pipeline thread
+ * with the same return values as the synchronous {@code MediaCodec.dequeue*Buffer} calls.
+ * <p>
+ * Events are kept in primitive ring buffers, so queueing does not allocate once the rings have grown to the
+ * codec's buffer count. Every event wakes the {@link PipelineScheduler}.
+ */
+public class CodecEventQueue {
+    /** Same value as {@code MediaCodec.INFO_TRY_AGAIN_LATER}. */
+    public static final int INFO_TRY_AGAIN_LATER = -1;
+    /** Same value as {@code MediaCodec.INFO_OUTPUT_FORMAT_CHANGED}. */
+    public static final int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    /** Same value as {@code MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED}. */
+    public static final int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final PipelineScheduler mScheduler;
+
+    private int[] mInputIndices = new int[INITIAL_CAPACITY];
+    private int mInputHead;
+    private int mInputCount;
+
+    // Output events; mOutputIndices holds either a buffer index or an INFO_* value.
+    private int[] mOutputIndices = new int[INITIAL_CAPACITY];
+    private int[] mOutputOffsets = new int[INITIAL_CAPACITY];
+    private int[] mOutputSizes = new int[INITIAL_CAPACITY];
+    private long[] mOutputPresentationTimesUs = new long[INITIAL_CAPACITY];
+    private int[] mOutputFlags = new int[INITIAL_CAPACITY];
+    private int mOutputHead;
+    private int mOutputCount;
+
+    private RuntimeException mError;
+
+    // Details of the output buffer returned by the last dequeueOutputBuffer(); only touched by the consumer.
+    private int mOffset;
+    private int mSize;
+    private long mPresentationTimeUs;
+    private int mFlags;
+    private int mPendingOutputCount;
+
+    public CodecEventQueue(PipelineScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public void onInputBufferAvailable(int index) {
+        synchronized (this) {
+            if (mInputCount == mInputIndices.length) {
+                mInputIndices = grow(mInputIndices, mInputHead, mInputCount);
+                mInputHead = 0;
+            }
+            mInputIndices[(mInputHead + mInputCount) % mInputIndices.length] = index;
+            mInputCount++;
+        }
+        mScheduler.onWorkAvailable();
+    }
+
+    public void onOutputBufferAvailable(int index, int offset, int size, long presentationTimeUs, int flags) {
+        synchronized (this) {
+            if (mOutputCount == mOutputIndices.length) {
+                growOutput();
+            }
+            int tail = (mOutputHead + mOutputCount) % mOutputIndices.length;
+            mOutputIndices[tail] = index;
+            mOutputOffsets[tail] = offset;
+            mOutputSizes[tail] = size;
+            mOutputPresentationTimesUs[tail] = presentationTimeUs;
+            mOutputFlags[tail] = flags;
+            mOutputCount++;
+        }
+        mScheduler.onWorkAvailable();
+    }
+
+    public void onOutputFormatChanged() {
+        onOutputBufferAvailable(INFO_OUTPUT_FORMAT_CHANGED, 0, 0, 0, 0);
+    }
+
+    public void onOutputBuffersChanged() {
+        onOutputBufferAvailable(INFO_OUTPUT_BUFFERS_CHANGED, 0, 0, 0, 0);
+    }
+
+    /**
+     * The error is thrown to the pipeline thread from the next dequeue call.
+     */
+    public void onError(RuntimeException error) {
+        synchronized (this) {
+            if (mError == null) mError = error;
+        }
+        mScheduler.onWorkAvailable();
+    }
+
+    /**
+     * @return index of an input buffer the codec handed out, or {@link #INFO_TRY_AGAIN_LATER}.
+     */
+    public synchronized int dequeueInputBuffer() {
+        throwIfError();
+        if (mInputCount == 0) return INFO_TRY_AGAIN_LATER;
+        int index = mInputIndices[mInputHead];
+        mInputHead = (mInputHead + 1) % mInputIndices.length;
+        mInputCount--;
+        return index;
+    }
+
+    /**
+     * @return index of an output buffer, whose details are then available from {@link #getOffset()} and
+     * friends, or one of the INFO_* values.
+     */
+    public synchronized int dequeueOutputBuffer() {
+        throwIfError();
+        if (mOutputCount == 0) return INFO_TRY_AGAIN_LATER;
+        int index = mOutputIndices[mOutputHead];
+        mOffset = mOutputOffsets[mOutputHead];
+        mSize = mOutputSizes[mOutputHead];
+        mPresentationTimeUs = mOutputPresentationTimesUs[mOutputHead];
+        mFlags = mOutputFlags[mOutputHead];
+        mOutputHead = (mOutputHead + 1) % mOutputIndices.length;
+        mOutputCount--;
+        mPendingOutputCount = mOutputCount;
+        return index;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /**
+     * @return output events still queued after the last successful {@link #dequeueOutputBuffer()}, read without
+     * taking the lock.
+     */
+    public int getPendingOutputCount() {
+        return mPendingOutputCount;
+    }
+
+    /**
+     * Drops all pending events, e.g. after the codec has been flushed.
+     */
+    public synchronized void clear() {
+        mInputHead = mInputCount = 0;
+        mOutputHead = mOutputCount = 0;
+    }
+
+    private void throwIfError() {
+        if (mError != null) {
+            throw mError;
+        }
+    }
+
+    private void growOutput() {
+        mOutputIndices = grow(mOutputIndices, mOutputHead, mOutputCount);
+        mOutputOffsets = grow(mOutputOffsets, mOutputHead, mOutputCount);
+        mOutputSizes = grow(mOutputSizes, mOutputHead, mOutputCount);
+        mOutputFlags = grow(mOutputFlags, mOutputHead, mOutputCount);
+        long[] presentationTimesUs = new long[mOutputCount * 2];
+        for (int i = 0; i < mOutputCount; i++) {
+            presentationTimesUs[i] = mOutputPresentationTimesUs[(mOutputHead + i) % mOutputCount];
+        }
+        mOutputPresentationTimesUs = presentationTimesUs;
+        mOutputHead = 0;
+    }
+
+    /**
+     * @return a ring twice as large, with the elements moved to its start.
+     */
+    private static int[] grow(int[] ring, int head, int count) {
+        int[] grown = Arrays.copyOf(ring, count * 2);
+        for (int i = 0; i < count; i++) {
+            grown[i] = ring[(head + i) % count];
+        }
+        return grown;
+    }
+}
@@ -0,0 +1,180 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.Arrays;
+
+/**
+ * What a codec can do for one MIME type, as far as picking a codec is concerned. A codec supporting several
+ * types has one of these per type. Plain data, so it can be cached on disk and built by tests.
+ */
+class CodecInfo {
+    // MediaCodecInfo.CodecProfileLevel profiles of a MIME type, least capable first, profiles in one row ranking
+    // the same. The constants are flags handed out over time, so their values say nothing about capability: the
+    // constrained profiles came last, and HDR variants only add metadata to the profile they extend.
+    private static final int[][] AVC_PROFILES = {
+            {0x10000}, // ConstrainedBaseline
+            {0x01}, // Baseline
+            {0x04}, // Extended
+            {0x02}, // Main
+            {0x80000}, // ConstrainedHigh
+            {0x08}, // High
+            {0x10}, // High10
+            {0x20}, // High422
+            {0x40}, // High444
+    };
+    private static final int[][] HEVC_PROFILES = {
+            {0x04}, // MainStill
+            {0x01}, // Main
+            {0x02, 0x1000, 0x2000}, // Main10, Main10HDR10, Main10HDR10Plus
+    };
+
+    private final String mName;
+    private final String mMime;
+    private final boolean mEncoder;
+    private final boolean mHardware;
+    private final int[] mProfiles;
+    private final int[] mLevels;
+    private final int mMaxInstances;
+    private final int mWidthAlignment;
+    private final int mHeightAlignment;
+
+    /**
+     * @param profiles       the {@code MediaCodecInfo.CodecProfileLevel} profiles, paired with {@code levels}.
+     * @param maxInstances   how many instances may exist at once, 1 if unknown.
+     * @param widthAlignment required width alignment in pixels, 1 if unknown or not video.
+     */
+    CodecInfo(String name, String mime, boolean encoder, boolean hardware, int[] profiles, int[] levels,
+              int maxInstances, int widthAlignment, int heightAlignment) {
+        if (profiles.length != levels.length) {
+            throw new IllegalArgumentException("profiles and levels differ in length");
+        }
+        mName = name;
+        mMime = mime;
+        mEncoder = encoder;
+        mHardware = hardware;
+        mProfiles = profiles.clone();
+        mLevels = levels.clone();
+        mMaxInstances = maxInstances;
+        mWidthAlignment = widthAlignment;
+        mHeightAlignment = heightAlignment;
+    }
+
+    String getName() {
+        return mName;
+    }
+
+    String getMime() {
+        return mMime;
+    }
+
+    boolean isEncoder() {
+        return mEncoder;
+    }
+
+    boolean isHardware() {
+        return mHardware;
+    }
+
+    int getProfileLevelCount() {
+        return mProfiles.length;
+    }
+
+    int getProfile(int index) {
+        return mProfiles[index];
+    }
+
+    int getLevel(int index) {
+        return mLevels[index];
+    }
+
+    int getMaxInstances() {
+        return mMaxInstances;
+    }
+
+    int getWidthAlignment() {
+        return mWidthAlignment;
+    }
+
+    int getHeightAlignment() {
+        return mHeightAlignment;
+    }
+
+    /**
+     * @return the rank of the most capable profile listed, 0 if none is known. See {@link #getProfileRank}.
+     */
+    int getMaxProfileRank() {
+        int max = 0;
+        for (int profile : mProfiles) {
+            max = Math.max(max, getProfileRank(mMime, profile));
+        }
+        return max;
+    }
+
+    /**
+     * @return the highest level supported in any profile of rank {@code rank}, 0 if none.
+     */
+    int getMaxLevelOfProfileRank(int rank) {
+        int max = 0;
+        for (int i = 0; i < mProfiles.length; i++) {
+            if (getProfileRank(mMime, mProfiles[i]) == rank) {
+                max = Math.max(max, mLevels[i]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the highest level supported in {@code profile}, 0 if none.
+     */
+    int getMaxLevel(int profile) {
+        int max = 0;
+        for (int i = 0; i < mProfiles.length; i++) {
+            if (mProfiles[i] == profile) {
+                max = Math.max(max, mLevels[i]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return where {@code profile} stands among the profiles of {@code mime}, from 1 for the least capable; 0 for
+     * profiles and types without a known order.
+     */
+    static int getProfileRank(String mime, int profile) {
+        int[][] profiles;
+        if (MediaConstants.MIMETYPE_VIDEO_AVC.equalsIgnoreCase(mime)) {
+            profiles = AVC_PROFILES;
+        } else if (MediaConstants.MIMETYPE_VIDEO_HEVC.equalsIgnoreCase(mime)) {
+            profiles = HEVC_PROFILES;
+        } else {
+            return 0;
+        }
+        for (int rank = 0; rank < profiles.length; rank++) {
+            for (int known : profiles[rank]) {
+                if (known == profile) return rank + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CodecInfo)) return false;
+        CodecInfo other = (CodecInfo) o;
+        return mName.equals(other.mName) && mMime.equals(other.mMime) && mEncoder == other.mEncoder
+                && mHardware == other.mHardware && Arrays.equals(mProfiles, other.mProfiles)
+                && Arrays.equals(mLevels, other.mLevels) && mMaxInstances == other.mMaxInstances
+                && mWidthAlignment == other.mWidthAlignment && mHeightAlignment == other.mHeightAlignment;
+    }
+
+    @Override
+    public int hashCode() {
+        return mName.hashCode() * 31 + mMime.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mName + " (" + mMime + (mHardware ? ", hardware" : ", software") + ", max instances "
+                + mMaxInstances + ")";
+    }
+}
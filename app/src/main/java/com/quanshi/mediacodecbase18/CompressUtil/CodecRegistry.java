@@ -0,0 +1,198 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The codecs of a device, ranked per MIME type. Lookups are served from memory; the list can be written to and
+ * read back from a small binary cache tagged with the build fingerprint, so the platform is enumerated once per
+ * system build.
+ * <p>
+ * Codecs are ranked hardware first, then by most capable profile in {@link CodecInfo#getProfileRank} order and
+ * the level reached in it, then by how many instances may run at once, then by the size alignment they need
+ * (looser first), then in platform order.
+ */
+class CodecRegistry {
+    private static final int MAGIC = 0x434f4443; // "CODC"
+    private static final int VERSION = 1;
+
+    static final Comparator<CodecInfo> RANKING = new Comparator<CodecInfo>() {
+        @Override
+        public int compare(CodecInfo a, CodecInfo b) {
+            if (a.isHardware() != b.isHardware()) {
+                return a.isHardware() ? -1 : 1;
+            }
+            int aRank = a.getMaxProfileRank();
+            int bRank = b.getMaxProfileRank();
+            if (aRank != bRank) {
+                return aRank > bRank ? -1 : 1;
+            }
+            int aLevel = a.getMaxLevelOfProfileRank(aRank);
+            int bLevel = b.getMaxLevelOfProfileRank(bRank);
+            if (aLevel != bLevel) {
+                return aLevel > bLevel ? -1 : 1;
+            }
+            if (a.getMaxInstances() != b.getMaxInstances()) {
+                return a.getMaxInstances() > b.getMaxInstances() ? -1 : 1;
+            }
+            long aAlignment = (long) a.getWidthAlignment() * a.getHeightAlignment();
+            long bAlignment = (long) b.getWidthAlignment() * b.getHeightAlignment();
+            if (aAlignment != bAlignment) {
+                return aAlignment < bAlignment ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    private final List<CodecInfo> mCodecs;
+    private final Map<String, List<CodecInfo>> mRanked = new HashMap<>();
+
+    /**
+     * @param codecs in platform order.
+     */
+    CodecRegistry(List<CodecInfo> codecs) {
+        mCodecs = Collections.unmodifiableList(new ArrayList<>(codecs));
+    }
+
+    List<CodecInfo> getCodecs() {
+        return mCodecs;
+    }
+
+    /**
+     * @return the encoders for {@code mime}, best first.
+     */
+    List<CodecInfo> getEncoders(String mime) {
+        return getRanked(mime, true);
+    }
+
+    /**
+     * @return the decoders for {@code mime}, best first.
+     */
+    List<CodecInfo> getDecoders(String mime) {
+        return getRanked(mime, false);
+    }
+
+    /**
+     * @return the best encoder for {@code mime}, or null if there is none.
+     */
+    CodecInfo getBestEncoder(String mime) {
+        List<CodecInfo> encoders = getEncoders(mime);
+        return encoders.isEmpty() ? null : encoders.get(0);
+    }
+
+    /**
+     * @return the best decoder for {@code mime}, or null if there is none.
+     */
+    CodecInfo getBestDecoder(String mime) {
+        List<CodecInfo> decoders = getDecoders(mime);
+        return decoders.isEmpty() ? null : decoders.get(0);
+    }
+
+    private List<CodecInfo> getRanked(String mime, boolean encoder) {
+        String key = (encoder ? "e:" : "d:") + mime.toLowerCase(Locale.US);
+        synchronized (mRanked) {
+            List<CodecInfo> ranked = mRanked.get(key);
+            if (ranked == null) {
+                ranked = new ArrayList<>();
+                for (CodecInfo codec : mCodecs) {
+                    if (codec.isEncoder() == encoder && codec.getMime().equalsIgnoreCase(mime)) {
+                        ranked.add(codec);
+                    }
+                }
+                // Stable, so equally ranked codecs stay in platform order.
+                Collections.sort(ranked, RANKING);
+                ranked = Collections.unmodifiableList(ranked);
+                mRanked.put(key, ranked);
+            }
+            return ranked;
+        }
+    }
+
+    /**
+     * Guesses from the name whether a codec is a software one, for platforms that do not say.
+     */
+    static boolean isSoftwareCodecName(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        return lower.startsWith("omx.google.") || lower.startsWith("c2.android.") || lower.startsWith("omx.ffmpeg.")
+                || lower.startsWith("c2.google.") || lower.contains(".sw.") || lower.endsWith(".sw");
+    }
+
+    /**
+     * Writes the codecs, tagged with {@code fingerprint}. Does not close the stream.
+     */
+    void write(OutputStream out, String fingerprint) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeUTF(fingerprint);
+        data.writeInt(mCodecs.size());
+        for (CodecInfo codec : mCodecs) {
+            data.writeUTF(codec.getName());
+            data.writeUTF(codec.getMime());
+            data.writeBoolean(codec.isEncoder());
+            data.writeBoolean(codec.isHardware());
+            data.writeInt(codec.getMaxInstances());
+            data.writeInt(codec.getWidthAlignment());
+            data.writeInt(codec.getHeightAlignment());
+            data.writeInt(codec.getProfileLevelCount());
+            for (int i = 0; i < codec.getProfileLevelCount(); i++) {
+                data.writeInt(codec.getProfile(i));
+                data.writeInt(codec.getLevel(i));
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads codecs written by {@link #write}. Does not close the stream.
+     *
+     * @return null if they were written by another format version or for another fingerprint.
+     * @throws IOException if the data is truncated or corrupt.
+     */
+    static CodecRegistry read(InputStream in, String fingerprint) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a codec cache");
+        }
+        if (data.readInt() != VERSION || !fingerprint.equals(data.readUTF())) {
+            return null;
+        }
+        int count = data.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid codec count: " + count);
+        }
+        List<CodecInfo> codecs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = data.readUTF();
+            String mime = data.readUTF();
+            boolean encoder = data.readBoolean();
+            boolean hardware = data.readBoolean();
+            int maxInstances = data.readInt();
+            int widthAlignment = data.readInt();
+            int heightAlignment = data.readInt();
+            int profileLevels = data.readInt();
+            if (profileLevels < 0 || profileLevels > 4096) {
+                throw new IOException("Invalid profile level count: " + profileLevels);
+            }
+            int[] profiles = new int[profileLevels];
+            int[] levels = new int[profileLevels];
+            for (int j = 0; j < profileLevels; j++) {
+                profiles[j] = data.readInt();
+                levels[j] = data.readInt();
+            }
+            codecs.add(new CodecInfo(name, mime, encoder, hardware, profiles, levels, maxInstances,
+                    widthAlignment, heightAlignment));
+        }
+        return new CodecRegistry(codecs);
+    }
+}
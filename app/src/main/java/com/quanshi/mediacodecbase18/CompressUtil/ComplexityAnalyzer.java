@@ -0,0 +1,212 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Estimates how hard a video is to compress from its sample sizes and sync flags alone, without decoding, so the
+ * bitrate can follow the content: a slide deck needs far less than camera footage with motion.
+ * <p>
+ * The input encoder spends most of a static GOP on its sync frame, the others only carry small differences; with
+ * motion the others get nearly as big. So each GOP is scored by the mean size of its other frames relative to its
+ * sync frame, raised a little by how much those sizes vary (bursts of motion, cuts). The score of the video is the
+ * frame-weighted {@link #SCORE_PERCENTILE}th percentile of its GOPs, so that a busy part is not starved by a calm
+ * rest.
+ * <p>
+ * Samples are added in decode order; GOPs are weighted by their frames, so timestamps are not needed. Everything
+ * is kept in primitive arrays, an hour of video takes a few milliseconds.
+ */
+public class ComplexityAnalyzer {
+    /** Score of a video that cannot be judged, e.g. all sync frames. */
+    public static final float NEUTRAL_SCORE = 0.5f;
+    /** Other frames at this fraction of the sync frame or below are taken as static content. */
+    static final double STATIC_RATIO = 0.05;
+    /** Other frames at this fraction of the sync frame or above are taken as full motion. */
+    static final double MOTION_RATIO = 0.5;
+    static final double SCORE_PERCENTILE = 75;
+    // Weight of the size variation of the other frames in the score of a GOP.
+    private static final double VARIATION_WEIGHT = 0.2;
+    private static final int INITIAL_CAPACITY = 64;
+    // Resolution of the score percentile.
+    private static final int SCORE_STEPS = 100;
+
+    private final double mPixels;
+    private double[] mGopScores = new double[INITIAL_CAPACITY];
+    private double[] mGopBitsPerPixel = new double[INITIAL_CAPACITY];
+    private int[] mGopFrames = new int[INITIAL_CAPACITY];
+    private int mGopCount;
+    private int mJudgedGopCount;
+
+    private boolean mInGop;
+    private long mSyncSize;
+    private long mGopBytes;
+    private int mFrames;
+    private double mOtherSum;
+    private double mOtherSquareSum;
+
+    public ComplexityAnalyzer(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        mPixels = (double) width * height;
+    }
+
+    /**
+     * @param size bytes of the sample. Samples before the first sync sample are ignored, they cannot be decoded.
+     */
+    public void addSample(int size, boolean sync) {
+        if (sync) {
+            endGop();
+            mInGop = true;
+            mSyncSize = size;
+        } else if (!mInGop) {
+            return;
+        } else {
+            mOtherSum += size;
+            mOtherSquareSum += (double) size * size;
+        }
+        mGopBytes += size;
+        mFrames++;
+    }
+
+    private void endGop() {
+        if (!mInGop) return;
+        if (mGopCount == mGopScores.length) {
+            int capacity = mGopCount * 2;
+            mGopScores = Arrays.copyOf(mGopScores, capacity);
+            mGopBitsPerPixel = Arrays.copyOf(mGopBitsPerPixel, capacity);
+            mGopFrames = Arrays.copyOf(mGopFrames, capacity);
+        }
+        double score = Double.NaN;
+        int otherCount = mFrames - 1;
+        if (otherCount > 0 && mSyncSize > 0) {
+            double mean = mOtherSum / otherCount;
+            double variance = Math.max(0, mOtherSquareSum / otherCount - mean * mean);
+            double variation = mean > 0 ? Math.sqrt(variance) / mean : 0;
+            score = getScore(mean / mSyncSize, variation);
+            mJudgedGopCount++;
+        }
+        mGopScores[mGopCount] = score;
+        mGopBitsPerPixel[mGopCount] = mGopBytes * 8 / (mPixels * mFrames);
+        mGopFrames[mGopCount] = mFrames;
+        mGopCount++;
+        mInGop = false;
+        mSyncSize = 0;
+        mGopBytes = 0;
+        mFrames = 0;
+        mOtherSum = 0;
+        mOtherSquareSum = 0;
+    }
+
+    /**
+     * @param otherToSyncRatio mean size of the frames after the sync frame relative to it.
+     * @param variation        coefficient of variation of those frames' sizes.
+     * @return between 0 (static) and 1 (full motion).
+     */
+    static double getScore(double otherToSyncRatio, double variation) {
+        double motion = (otherToSyncRatio - STATIC_RATIO) / (MOTION_RATIO - STATIC_RATIO);
+        double score = (1 - VARIATION_WEIGHT) * clamp(motion) + VARIATION_WEIGHT * clamp(variation);
+        return clamp(score);
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+
+    /**
+     * Ends the last GOP and scores the video. Samples added afterwards start a new analysis.
+     */
+    public Result finish() {
+        endGop();
+        Result result = new Result(computeScore(), mGopCount, computeMeanBitsPerPixel(),
+                computeBitsPerPixelVariance());
+        mGopCount = 0;
+        mJudgedGopCount = 0;
+        return result;
+    }
+
+    private float computeScore() {
+        if (mJudgedGopCount == 0) return NEUTRAL_SCORE;
+        long[] framesPerStep = new long[SCORE_STEPS + 1];
+        long judgedFrames = 0;
+        for (int i = 0; i < mGopCount; i++) {
+            if (Double.isNaN(mGopScores[i])) continue;
+            framesPerStep[(int) Math.round(mGopScores[i] * SCORE_STEPS)] += mGopFrames[i];
+            judgedFrames += mGopFrames[i];
+        }
+        long rank = (long) Math.ceil(judgedFrames * SCORE_PERCENTILE / 100);
+        long seen = 0;
+        int step = 0;
+        while (step < SCORE_STEPS && (seen += framesPerStep[step]) < rank) {
+            step++;
+        }
+        return (float) step / SCORE_STEPS;
+    }
+
+    private double computeMeanBitsPerPixel() {
+        double sum = 0;
+        long frames = 0;
+        for (int i = 0; i < mGopCount; i++) {
+            sum += mGopBitsPerPixel[i] * mGopFrames[i];
+            frames += mGopFrames[i];
+        }
+        return frames > 0 ? sum / frames : 0;
+    }
+
+    private double computeBitsPerPixelVariance() {
+        double mean = computeMeanBitsPerPixel();
+        double sum = 0;
+        long frames = 0;
+        for (int i = 0; i < mGopCount; i++) {
+            double deviation = mGopBitsPerPixel[i] - mean;
+            sum += deviation * deviation * mGopFrames[i];
+            frames += mGopFrames[i];
+        }
+        return frames > 0 ? sum / frames : 0;
+    }
+
+    public static class Result {
+        private final float mScore;
+        private final int mGopCount;
+        private final double mMeanBitsPerPixel;
+        private final double mBitsPerPixelVariance;
+
+        Result(float score, int gopCount, double meanBitsPerPixel, double bitsPerPixelVariance) {
+            mScore = score;
+            mGopCount = gopCount;
+            mMeanBitsPerPixel = meanBitsPerPixel;
+            mBitsPerPixelVariance = bitsPerPixelVariance;
+        }
+
+        /**
+         * @return between 0 (static) and 1 (full motion), {@link #NEUTRAL_SCORE} if it cannot be told.
+         */
+        public float getScore() {
+            return mScore;
+        }
+
+        public int getGopCount() {
+            return mGopCount;
+        }
+
+        /**
+         * @return bits per pixel per frame the input spends, weighted by the frames of each GOP.
+         */
+        public double getMeanBitsPerPixel() {
+            return mMeanBitsPerPixel;
+        }
+
+        /**
+         * @return variance of the bits per pixel of the GOPs, weighted like the mean.
+         */
+        public double getBitsPerPixelVariance() {
+            return mBitsPerPixelVariance;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "complexity %.2f over %d GOPs, input %.3f bpp (sd %.3f)",
+                    mScore, mGopCount, mMeanBitsPerPixel, Math.sqrt(mBitsPerPixelVariance));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java container writer, wrapped by {@link Mp4SampleMuxer}. Tracks are added before {@link #start()},
+ * samples of each track come in decode order.
+ */
+public interface ContainerWriter {
+    /** Same value as {@code MediaCodec.BUFFER_FLAG_SYNC_FRAME}. */
+    int FLAG_SYNC_FRAME = 1;
+    /** Same value as {@code MediaCodec.BUFFER_FLAG_CODEC_CONFIG}. */
+    int FLAG_CODEC_CONFIG = 2;
+
+    /**
+     * @param sps sequence parameter sets with start codes (csd-0); for H.265 the VPS, SPS and PPS together
+     * @param pps picture parameter sets with start codes (csd-1); may be null for H.265
+     * @return track index
+     */
+    int addVideoTrack(String mime, int width, int height, byte[] sps, byte[] pps);
+
+    /**
+     * @param audioSpecificConfig csd-0 of the AAC track
+     * @return track index
+     */
+    int addAudioTrack(String mime, int sampleRate, int channelCount, byte[] audioSpecificConfig);
+
+    /**
+     * @param degrees 0, 90, 180 or 270
+     */
+    void setOrientationHint(int degrees);
+
+    void start() throws IOException;
+
+    /**
+     * Codec config and empty buffers are ignored.
+     *
+     * @param sample data between position and limit; neither is changed.
+     */
+    void writeSampleData(int trackIndex, ByteBuffer sample, long presentationTimeUs, int flags) throws IOException;
+
+    void stop() throws IOException;
+
+    void release();
+}
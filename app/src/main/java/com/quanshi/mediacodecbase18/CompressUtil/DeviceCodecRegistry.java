@@ -0,0 +1,167 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link CodecRegistry} of this device. The platform codec list is enumerated on first use and, if a cache
+ * directory has been set, stored there for the next process as long as the build fingerprint does not change.
+ */
+public class DeviceCodecRegistry {
+    private static final String TAG = "DeviceCodecRegistry";
+    private static final String CACHE_FILE_NAME = "codecs.cache";
+
+    private static File sCacheDirectory;
+    private static CodecRegistry sRegistry;
+
+    private DeviceCodecRegistry() {
+    }
+
+    /**
+     * Sets where the codec list is cached, e.g. {@code Context.getCacheDir()}. Takes effect if called before the
+     * first transcode.
+     */
+    public static synchronized void setCacheDirectory(File cacheDirectory) {
+        sCacheDirectory = cacheDirectory;
+    }
+
+    static synchronized CodecRegistry get() {
+        if (sRegistry == null) {
+            File cacheFile = sCacheDirectory != null ? new File(sCacheDirectory, CACHE_FILE_NAME) : null;
+            if (cacheFile != null && cacheFile.isFile()) {
+                sRegistry = load(cacheFile);
+            }
+            if (sRegistry == null) {
+                sRegistry = new CodecRegistry(scan());
+                Log.i(TAG, "found " + sRegistry.getCodecs().size() + " codec types");
+                if (cacheFile != null) {
+                    save(sRegistry, cacheFile);
+                }
+            }
+        }
+        return sRegistry;
+    }
+
+    /**
+     * Creates the best ranked encoder for {@code mime}, or the platform's default one if none is listed.
+     */
+    static MediaCodec createEncoder(String mime) throws IOException {
+        CodecInfo codec = get().getBestEncoder(mime);
+        return codec != null ? MediaCodec.createByCodecName(codec.getName()) : MediaCodec.createEncoderByType(mime);
+    }
+
+    /**
+     * Creates the best ranked decoder for {@code mime}, or the platform's default one if none is listed.
+     */
+    static MediaCodec createDecoder(String mime) throws IOException {
+        CodecInfo codec = get().getBestDecoder(mime);
+        return codec != null ? MediaCodec.createByCodecName(codec.getName()) : MediaCodec.createDecoderByType(mime);
+    }
+
+    private static CodecRegistry load(File cacheFile) {
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(cacheFile));
+            CodecRegistry registry = CodecRegistry.read(in, Build.FINGERPRINT);
+            if (registry == null) {
+                Log.i(TAG, "codec cache is from another build, enumerating again.");
+            }
+            return registry;
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read codec cache " + cacheFile, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void save(CodecRegistry registry, File cacheFile) {
+        // Written aside and renamed, so a reader never sees half a file.
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            registry.write(out, Build.FINGERPRINT);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("cannot rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot write codec cache " + cacheFile, e);
+            tempFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static List<CodecInfo> scan() {
+        List<CodecInfo> codecs = new ArrayList<>();
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            String name = codecInfo.getName();
+            for (String type : codecInfo.getSupportedTypes()) {
+                MediaCodecInfo.CodecCapabilities capabilities;
+                try {
+                    capabilities = codecInfo.getCapabilitiesForType(type);
+                } catch (IllegalArgumentException e) {
+                    // Some vendors list types they cannot describe.
+                    Log.w(TAG, name + " has no capabilities for " + type);
+                    continue;
+                }
+                MediaCodecInfo.CodecProfileLevel[] profileLevels = capabilities.profileLevels;
+                int[] profiles = new int[profileLevels.length];
+                int[] levels = new int[profileLevels.length];
+                for (int j = 0; j < profileLevels.length; j++) {
+                    profiles[j] = profileLevels[j].profile;
+                    levels[j] = profileLevels[j].level;
+                }
+                int maxInstances = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                        ? getMaxSupportedInstancesM(capabilities) : 1;
+                int[] alignment = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        ? getSizeAlignmentL(capabilities) : new int[]{1, 1};
+                codecs.add(new CodecInfo(name, type, codecInfo.isEncoder(), !CodecRegistry.isSoftwareCodecName(name),
+                        profiles, levels, maxInstances, alignment[0], alignment[1]));
+            }
+        }
+        return codecs;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static int getMaxSupportedInstancesM(MediaCodecInfo.CodecCapabilities capabilities) {
+        return capabilities.getMaxSupportedInstances();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static int[] getSizeAlignmentL(MediaCodecInfo.CodecCapabilities capabilities) {
+        MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+        if (video == null) return new int[]{1, 1};
+        return new int[]{video.getWidthAlignment(), video.getHeightAlignment()};
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
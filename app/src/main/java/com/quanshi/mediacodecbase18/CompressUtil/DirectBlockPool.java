@@ -0,0 +1,61 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized direct buffers. Direct buffers are expensive to allocate and are only freed by the GC,
+ * so a few idle ones are kept for the next user instead. Thread safe.
+ */
+class DirectBlockPool {
+    private final int mBlockSize;
+    private final int mMaxIdleBlocks;
+    private final ArrayDeque<ByteBuffer> mIdleBlocks = new ArrayDeque<>();
+
+    /**
+     * @param maxIdleBlocks how many released blocks are kept, the rest are left to the GC.
+     */
+    DirectBlockPool(int blockSize, int maxIdleBlocks) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        mBlockSize = blockSize;
+        mMaxIdleBlocks = maxIdleBlocks;
+    }
+
+    int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * @return a cleared block of {@link #getBlockSize()} bytes.
+     */
+    ByteBuffer acquire() {
+        synchronized (mIdleBlocks) {
+            ByteBuffer block = mIdleBlocks.pollFirst();
+            if (block != null) {
+                block.clear();
+                return block;
+            }
+        }
+        return ByteBuffer.allocateDirect(mBlockSize);
+    }
+
+    /**
+     * Takes a block back. Buffers of other sizes are ignored.
+     */
+    void release(ByteBuffer block) {
+        if (block.capacity() != mBlockSize || !block.isDirect()) return;
+        synchronized (mIdleBlocks) {
+            if (mIdleBlocks.size() < mMaxIdleBlocks) {
+                mIdleBlocks.addFirst(block);
+            }
+        }
+    }
+
+    int getIdleBlockCount() {
+        synchronized (mIdleBlocks) {
+            return mIdleBlocks.size();
+        }
+    }
+}
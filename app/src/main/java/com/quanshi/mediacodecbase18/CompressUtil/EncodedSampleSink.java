@@ -0,0 +1,19 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Takes what the encoder of a pipeline produces, usually on to a {@link SampleWriter}.
+ */
+interface EncodedSampleSink {
+    /**
+     * The encoder determined its output format, before its first sample.
+     */
+    void onOutputFormatChanged();
+
+    /**
+     * @param flags {@code BUFFER_FLAG_} values of {@link PipelineCodec}; the end of stream comes as an empty
+     *              sample with its flag.
+     */
+    void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags);
+}
@@ -0,0 +1,59 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * {@link PipelineScheduler} which blocks on a monitor until a codec signals a ready buffer.
+ * Signals that arrive while the pipeline is stepping are remembered, so no wake-up is lost.
+ */
+public class EventPipelineScheduler implements PipelineScheduler {
+    private final Object mLock = new Object();
+    private boolean mWorkAvailable;
+    private long mWakeUpCount;
+    private long mTimeoutCount;
+
+    @Override
+    public void onWorkAvailable() {
+        synchronized (mLock) {
+            if (!mWorkAvailable) {
+                mWorkAvailable = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public boolean awaitWork(long timeoutMs) throws InterruptedException {
+        synchronized (mLock) {
+            long deadlineNs = System.nanoTime() + timeoutMs * 1000000L;
+            while (!mWorkAvailable) {
+                long remainingMs = (deadlineNs - System.nanoTime()) / 1000000L;
+                if (remainingMs <= 0) break;
+                mLock.wait(remainingMs);
+            }
+            if (mWorkAvailable) {
+                mWorkAvailable = false;
+                mWakeUpCount++;
+                return true;
+            }
+            mTimeoutCount++;
+            return false;
+        }
+    }
+
+    /**
+     * @return how many times {@link #awaitWork(long)} returned because of work.
+     */
+    public long getWakeUpCount() {
+        synchronized (mLock) {
+            return mWakeUpCount;
+        }
+    }
+
+    /**
+     * @return how many times {@link #awaitWork(long)} gave up waiting. Should stay close to zero.
+     */
+    public long getTimeoutCount() {
+        synchronized (mLock) {
+            return mTimeoutCount;
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fragmented MP4 muxer for one H.264 or H.265 and/or AAC track each, written in plain Java.
+ * <p>
+ * The output is a series of files: an init segment (ftyp and moov without samples) followed by media fragments
+ * (moof and mdat), each handed to a {@link FragmentSink} on a background thread as soon as it is complete, so the
+ * fragments can be uploaded while encoding goes on. Fragments start at video sync samples; concatenating all files
+ * in sequence order gives a playable fragmented MP4.
+ * <p>
+ * The sink owns the files it is given. If it deletes them once consumed, disk usage stays at about
+ * {@code maxPendingFragments + 1} fragments: when that many are waiting for the sink, writing blocks.
+ */
+public class FragmentedMp4Writer implements ContainerWriter {
+    public static final String INIT_SEGMENT_SUFFIX = "-init.mp4";
+    public static final String FRAGMENT_SUFFIX = ".m4s";
+
+    /** Used without a video track when fragments should be cut at every GOP. */
+    private static final long DEFAULT_FRAGMENT_DURATION_US = 1000 * 1000;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final long STOP_TIMEOUT_MS = 60 * 1000;
+    private static final long MAX_UINT32 = 0xffffffffL;
+
+    private static final int TRUN_DATA_OFFSET = 0x1;
+    private static final int TRUN_SAMPLE_DURATION = 0x100;
+    private static final int TRUN_SAMPLE_SIZE = 0x200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x400;
+    private static final int TRUN_COMPOSITION_OFFSET = 0x800;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x20000;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    /**
+     * Receives the finished files in sequence order, on a single background thread.
+     */
+    public interface FragmentSink {
+        /**
+         * Consumes a fragment, e.g. uploads it. The file may be deleted afterwards. A thrown exception fails the
+         * writer: it is rethrown by the next call to write or stop, and no more fragments are delivered.
+         */
+        void onFragment(Fragment fragment) throws IOException;
+    }
+
+    public static class Fragment {
+        private final File mFile;
+        private final int mSequenceNumber;
+        private final long mStartTimeUs;
+        private final long mDurationUs;
+        private final long mSize;
+
+        Fragment(File file, int sequenceNumber, long startTimeUs, long durationUs, long size) {
+            mFile = file;
+            mSequenceNumber = sequenceNumber;
+            mStartTimeUs = startTimeUs;
+            mDurationUs = durationUs;
+            mSize = size;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return 0 for the init segment, then 1, 2, ... as in the mfhd box.
+         */
+        public int getSequenceNumber() {
+            return mSequenceNumber;
+        }
+
+        public boolean isInitSegment() {
+            return mSequenceNumber == 0;
+        }
+
+        public long getStartTimeUs() {
+            return mStartTimeUs;
+        }
+
+        public long getDurationUs() {
+            return mDurationUs;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Fragment #" + mSequenceNumber + " [" + mStartTimeUs + ", +" + mDurationUs + "us, "
+                    + mSize + " bytes]";
+        }
+    }
+
+    private final File mDirectory;
+    private final String mBaseName;
+    private final long mFragmentDurationUs;
+    private final FragmentSink mSink;
+    private final Semaphore mPendingFragments;
+    private final ExecutorService mDeliveryExecutor;
+    private final List<Track> mTracks = new ArrayList<>();
+    private int mCutTrackIndex = -1;
+    private int mSequenceNumber;
+    private long mFragmentStartTimeUs = -1;
+    private int mRotationDegrees;
+    private boolean mStarted;
+    private boolean mStopped;
+    private volatile IOException mSinkError;
+
+    /**
+     * @param directory           where the init segment, the fragments and temporary files are written.
+     * @param baseName            file name prefix of the fragments.
+     * @param fragmentDurationUs  minimum duration of a fragment; 0 cuts at every video sync sample.
+     * @param maxPendingFragments how many finished files may wait for the sink before writing blocks.
+     */
+    public FragmentedMp4Writer(File directory, String baseName, long fragmentDurationUs, int maxPendingFragments,
+                               FragmentSink sink) {
+        if (fragmentDurationUs < 0) {
+            throw new IllegalArgumentException("fragmentDurationUs must not be negative: " + fragmentDurationUs);
+        }
+        if (maxPendingFragments < 1) {
+            throw new IllegalArgumentException("maxPendingFragments must be positive: " + maxPendingFragments);
+        }
+        mDirectory = directory;
+        mBaseName = baseName;
+        mFragmentDurationUs = fragmentDurationUs;
+        mSink = sink;
+        mPendingFragments = new Semaphore(maxPendingFragments);
+        mDeliveryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "FragmentSink");
+            }
+        });
+    }
+
+    @Override
+    public int addVideoTrack(String mime, int width, int height, byte[] sps, byte[] pps) {
+        int trackIndex = addTrack(Mp4TrackFormat.createVideo(mime, width, height, sps, pps));
+        if (mCutTrackIndex < 0 || !mTracks.get(mCutTrackIndex).mFormat.isVideo()) {
+            mCutTrackIndex = trackIndex;
+        }
+        return trackIndex;
+    }
+
+    @Override
+    public int addAudioTrack(String mime, int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        int trackIndex = addTrack(Mp4TrackFormat.createAudio(mime, sampleRate, channelCount, audioSpecificConfig));
+        if (mCutTrackIndex < 0) {
+            mCutTrackIndex = trackIndex;
+        }
+        return trackIndex;
+    }
+
+    private int addTrack(Mp4TrackFormat format) {
+        if (mStarted) {
+            throw new IllegalStateException("Tracks must be added before start().");
+        }
+        mTracks.add(new Track(format));
+        return mTracks.size() - 1;
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Unsupported angle: " + degrees);
+        }
+        mRotationDegrees = degrees;
+    }
+
+    /**
+     * Writes the init segment and hands it to the sink.
+     */
+    @Override
+    public void start() throws IOException {
+        if (mTracks.isEmpty()) {
+            throw new IllegalStateException("No track added.");
+        }
+        mStarted = true;
+        for (int i = 0; i < mTracks.size(); i++) {
+            mTracks.get(i).open(File.createTempFile(mBaseName, ".track" + i, mDirectory));
+        }
+        acquirePendingFragment();
+        File file = new File(mDirectory, mBaseName + INIT_SEGMENT_SUFFIX);
+        byte[] init = buildInitSegment();
+        writeFile(file, ByteBuffer.wrap(init));
+        deliver(new Fragment(file, 0, 0, 0, init.length));
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer sample, long presentationTimeUs, int flags)
+            throws IOException {
+        if (!mStarted || mStopped) {
+            throw new IllegalStateException("Muxer is not started.");
+        }
+        throwSinkError();
+        if ((flags & FLAG_CODEC_CONFIG) != 0 || !sample.hasRemaining()) return;
+        Track track = mTracks.get(trackIndex);
+        boolean sync = !track.mFormat.isVideo() || (flags & FLAG_SYNC_FRAME) != 0;
+        if (trackIndex == mCutTrackIndex && sync) {
+            if (mFragmentStartTimeUs >= 0 && presentationTimeUs - mFragmentStartTimeUs >= getFragmentDurationUs()) {
+                writeFragment(presentationTimeUs);
+            }
+            if (mFragmentStartTimeUs < 0) {
+                mFragmentStartTimeUs = presentationTimeUs;
+            }
+        }
+        long size = track.mDataWriter.writeSample(sample, track.mFormat.isVideo());
+        track.addSample(size, presentationTimeUs, sync);
+    }
+
+    /**
+     * Writes the last fragment and waits until the sink has consumed everything.
+     */
+    @Override
+    public void stop() throws IOException {
+        if (!mStarted || mStopped) {
+            throw new IllegalStateException("Muxer is not started.");
+        }
+        mStopped = true;
+        throwSinkError();
+        writeFragment(-1);
+        mDeliveryExecutor.shutdown();
+        try {
+            if (!mDeliveryExecutor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Fragment sink did not finish in " + STOP_TIMEOUT_MS + "ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the fragment sink.");
+        }
+        throwSinkError();
+    }
+
+    /**
+     * Stops delivering and deletes the temporary files. Delivered fragments are left to the sink.
+     */
+    @Override
+    public void release() {
+        mDeliveryExecutor.shutdownNow();
+        for (Track track : mTracks) {
+            track.close();
+        }
+    }
+
+    /**
+     * @return the first error thrown by the sink, if any.
+     */
+    public IOException getSinkError() {
+        return mSinkError;
+    }
+
+    @Override
+    public String toString() {
+        return new File(mDirectory, mBaseName).getPath();
+    }
+
+    private long getFragmentDurationUs() {
+        if (mFragmentDurationUs == 0 && !mTracks.get(mCutTrackIndex).mFormat.isVideo()) {
+            return DEFAULT_FRAGMENT_DURATION_US;
+        }
+        return mFragmentDurationUs;
+    }
+
+    /**
+     * Moves the samples collected so far into a fragment file and hands it to the sink.
+     *
+     * @param nextCutTimeUs presentation time of the sync sample starting the next fragment, or -1 at the end.
+     */
+    private void writeFragment(long nextCutTimeUs) throws IOException {
+        boolean empty = true;
+        for (Track track : mTracks) {
+            track.mDataWriter.flush();
+            empty &= track.mSampleCount == 0;
+        }
+        mFragmentStartTimeUs = -1;
+        if (empty) return;
+
+        long startTimeUs = Long.MAX_VALUE;
+        long endTimeUs = 0;
+        for (int i = 0; i < mTracks.size(); i++) {
+            Track track = mTracks.get(i);
+            if (track.mSampleCount == 0) continue;
+            track.finish(i == mCutTrackIndex ? nextCutTimeUs : -1);
+            startTimeUs = Math.min(startTimeUs, track.toUs(track.mBaseDecodeTime));
+            endTimeUs = Math.max(endTimeUs, track.toUs(track.mBaseDecodeTime + track.mDuration));
+        }
+        int sequenceNumber = ++mSequenceNumber;
+        long dataSize = 0;
+        for (Track track : mTracks) {
+            dataSize += track.mDataWriter.getWrittenBytes();
+        }
+        int mdatHeaderSize = dataSize + 8 > MAX_UINT32 ? 16 : 8;
+        byte[] moof = buildMoof(sequenceNumber, 0, 0);
+        moof = buildMoof(sequenceNumber, moof.length, mdatHeaderSize);
+
+        ByteBuffer mdatHeader = ByteBuffer.allocate(mdatHeaderSize);
+        if (mdatHeaderSize == 16) {
+            mdatHeader.putInt(1).putInt(Mp4Demuxer.fourCc("mdat")).putLong(16 + dataSize);
+        } else {
+            mdatHeader.putInt((int) (8 + dataSize)).putInt(Mp4Demuxer.fourCc("mdat"));
+        }
+        mdatHeader.flip();
+
+        acquirePendingFragment();
+        File file = new File(mDirectory, String.format(Locale.US, "%s-%05d%s", mBaseName, sequenceNumber,
+                FRAGMENT_SUFFIX));
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(0);
+            FileChannel channel = output.getChannel();
+            long position = SampleDataWriter.writeFully(channel, ByteBuffer.wrap(moof), 0);
+            position += SampleDataWriter.writeFully(channel, mdatHeader, position);
+            channel.position(position);
+            for (Track track : mTracks) {
+                SampleDataWriter.transferFully(track.mChannel, track.mDataWriter.getWrittenBytes(), channel);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            mPendingFragments.release();
+            throw e;
+        } finally {
+            output.close();
+        }
+        for (Track track : mTracks) {
+            track.reset();
+        }
+        deliver(new Fragment(file, sequenceNumber, startTimeUs, endTimeUs - startTimeUs,
+                moof.length + mdatHeaderSize + dataSize));
+    }
+
+    private void acquirePendingFragment() throws IOException {
+        try {
+            mPendingFragments.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the fragment sink.");
+        }
+        // The sink may have failed while we were blocked.
+        try {
+            throwSinkError();
+        } catch (IOException e) {
+            mPendingFragments.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a written file to the sink thread. A permit of {@link #mPendingFragments} must be held, it is given
+     * back once the sink is done with the file.
+     */
+    private void deliver(final Fragment fragment) {
+        mDeliveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mSinkError == null) {
+                        mSink.onFragment(fragment);
+                    }
+                } catch (IOException e) {
+                    mSinkError = e;
+                } catch (RuntimeException e) {
+                    mSinkError = new IOException("Fragment sink failed on " + fragment, e);
+                } finally {
+                    mPendingFragments.release();
+                }
+            }
+        });
+    }
+
+    private void throwSinkError() throws IOException {
+        IOException error = mSinkError;
+        if (error != null) {
+            throw new IOException("Fragment sink failed.", error);
+        }
+    }
+
+    private static void writeFile(File file, ByteBuffer data) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(0);
+            SampleDataWriter.writeFully(output.getChannel(), data, 0);
+            output.getChannel().force(false);
+        } finally {
+            output.close();
+        }
+    }
+
+    // region boxes
+
+    private byte[] buildInitSegment() {
+        Mp4BoxBuilder b = new Mp4BoxBuilder();
+        b.writeFtyp("iso6", "iso6", "iso5", "avc1", "mp41");
+        int moov = b.start("moov");
+        b.writeMvhd(0, mTracks.size() + 1);
+        for (int i = 0; i < mTracks.size(); i++) {
+            Mp4TrackFormat format = mTracks.get(i).mFormat;
+            int trak = b.start("trak");
+            format.writeTkhd(b, i + 1, 0, mRotationDegrees);
+            int mdia = b.start("mdia");
+            format.writeMediaHeaders(b, 0);
+            int minf = b.start("minf");
+            format.writeMediaInformationHeaders(b);
+            int stbl = b.start("stbl");
+            format.writeStsd(b, 0);
+            // The sample tables stay empty, the samples are described by the fragments.
+            for (String table : new String[]{"stts", "stsc", "stco"}) {
+                int box = b.startFull(table, 0, 0);
+                b.putInt(0);
+                b.end(box);
+            }
+            int stsz = b.startFull("stsz", 0, 0);
+            b.putInt(0).putInt(0);
+            b.end(stsz);
+            b.end(stbl);
+            b.end(minf);
+            b.end(mdia);
+            b.end(trak);
+        }
+        int mvex = b.start("mvex");
+        for (int i = 0; i < mTracks.size(); i++) {
+            int trex = b.startFull("trex", 0, 0);
+            b.putInt(i + 1).putInt(1).putInt(0).putInt(0).putInt(0);
+            b.end(trex);
+        }
+        b.end(mvex);
+        b.end(moov);
+        return b.toByteArray();
+    }
+
+    /**
+     * @param moofSize       size of the box being built, 0 on the first pass which only measures it.
+     * @param mdatHeaderSize header size of the mdat that follows.
+     */
+    private byte[] buildMoof(int sequenceNumber, int moofSize, int mdatHeaderSize) {
+        Mp4BoxBuilder b = new Mp4BoxBuilder();
+        int moof = b.start("moof");
+        int mfhd = b.startFull("mfhd", 0, 0);
+        b.putInt(sequenceNumber);
+        b.end(mfhd);
+        long dataOffset = moofSize + mdatHeaderSize;
+        for (int i = 0; i < mTracks.size(); i++) {
+            Track track = mTracks.get(i);
+            if (track.mSampleCount == 0) continue;
+            boolean video = track.mFormat.isVideo();
+            int traf = b.start("traf");
+            int tfhd = b.startFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+            b.putInt(i + 1);
+            b.end(tfhd);
+            int tfdt = b.startFull("tfdt", 1, 0);
+            b.putLong(track.mBaseDecodeTime);
+            b.end(tfdt);
+            int flags = TRUN_DATA_OFFSET | TRUN_SAMPLE_DURATION | TRUN_SAMPLE_SIZE | TRUN_SAMPLE_FLAGS
+                    | (video ? TRUN_COMPOSITION_OFFSET : 0);
+            int trun = b.startFull("trun", 1, flags);
+            b.putInt(track.mSampleCount).putInt((int) dataOffset);
+            for (int s = 0; s < track.mSampleCount; s++) {
+                b.putInt((int) track.mDecodeDeltas[s]).putInt(track.mSizes[s]);
+                b.putInt(track.mSync[s] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+                if (video) {
+                    b.putInt((int) track.mCompositionOffsets[s]);
+                }
+            }
+            b.end(trun);
+            b.end(traf);
+            dataOffset += track.mDataWriter.getWrittenBytes();
+        }
+        b.end(moof);
+        return b.toByteArray();
+    }
+
+    // endregion
+
+    /**
+     * Samples of one track in the current fragment. Their data is kept in a temporary file until the fragment
+     * is written.
+     */
+    private static class Track {
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final Mp4TrackFormat mFormat;
+        private File mFile;
+        private RandomAccessFile mRandomAccessFile;
+        private FileChannel mChannel;
+        private SampleDataWriter mDataWriter;
+
+        private int mSampleCount;
+        private int[] mSizes = new int[INITIAL_CAPACITY];
+        private long[] mPresentationTimesUs = new long[INITIAL_CAPACITY];
+        private boolean[] mSync = new boolean[INITIAL_CAPACITY];
+        private long mLastDecodeDelta;
+
+        // Derived in finish(), in track timescale units.
+        private long mBaseDecodeTime;
+        private long[] mDecodeDeltas;
+        private long[] mCompositionOffsets;
+        private long mDuration;
+
+        private Track(Mp4TrackFormat format) {
+            mFormat = format;
+            mLastDecodeDelta = format.getDefaultSampleDuration();
+        }
+
+        private void open(File file) throws IOException {
+            mFile = file;
+            mRandomAccessFile = new RandomAccessFile(file, "rw");
+            mChannel = mRandomAccessFile.getChannel();
+            mDataWriter = new SampleDataWriter(mChannel, 0, WRITE_BUFFER_SIZE);
+        }
+
+        private void addSample(long size, long presentationTimeUs, boolean sync) {
+            if (mSampleCount == mSizes.length) {
+                int capacity = mSampleCount * 2;
+                mSizes = Arrays.copyOf(mSizes, capacity);
+                mPresentationTimesUs = Arrays.copyOf(mPresentationTimesUs, capacity);
+                mSync = Arrays.copyOf(mSync, capacity);
+            }
+            mSizes[mSampleCount] = (int) size;
+            mPresentationTimesUs[mSampleCount] = presentationTimeUs;
+            mSync[mSampleCount] = sync;
+            mSampleCount++;
+        }
+
+        /**
+         * Derives decode times from the sorted presentation times of the fragment, which starts with a sync
+         * sample. Composition offsets may be negative (trun version 1).
+         *
+         * @param nextDecodeTimeUs where the next fragment of this track starts, or -1 if unknown.
+         */
+        private void finish(long nextDecodeTimeUs) {
+            int count = mSampleCount;
+            long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = toTimescale(mPresentationTimesUs[i]);
+            }
+            long[] decodeTimes = Arrays.copyOf(times, count);
+            Arrays.sort(decodeTimes);
+            mBaseDecodeTime = decodeTimes[0];
+            mCompositionOffsets = new long[count];
+            mDecodeDeltas = new long[count];
+            mDuration = 0;
+            for (int i = 0; i < count; i++) {
+                mCompositionOffsets[i] = times[i] - decodeTimes[i];
+                if (i + 1 < count) {
+                    mDecodeDeltas[i] = decodeTimes[i + 1] - decodeTimes[i];
+                } else if (nextDecodeTimeUs >= 0 && toTimescale(nextDecodeTimeUs) > decodeTimes[i]) {
+                    mDecodeDeltas[i] = toTimescale(nextDecodeTimeUs) - decodeTimes[i];
+                } else {
+                    mDecodeDeltas[i] = mLastDecodeDelta;
+                }
+                mLastDecodeDelta = mDecodeDeltas[i];
+                mDuration += mDecodeDeltas[i];
+            }
+        }
+
+        private void reset() {
+            mSampleCount = 0;
+            mDataWriter.reset(0);
+        }
+
+        private long toTimescale(long timeUs) {
+            return (timeUs * mFormat.mTimescale + 500000) / 1000000;
+        }
+
+        private long toUs(long time) {
+            return time * 1000000 / mFormat.mTimescale;
+        }
+
+        private void close() {
+            if (mRandomAccessFile == null) return;
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+            mRandomAccessFile = null;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Carries the frame a decoder rendered over to the encoder. {@link SurfaceFrameBridge} draws it from the
+ * decoder's output surface onto the encoder's input surface.
+ */
+interface FrameBridge {
+    /**
+     * Waits for the frame the decoder released with render, and hands it to the encoder. Blocks while the encoder
+     * has no room for it.
+     */
+    void transferFrame(long presentationTimeUs);
+}
@@ -0,0 +1,54 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Decides which decoded frames are encoded so that the output stays at or below a frame rate, e.g. a 60 fps
+ * recording encoded at 30 fps, before any GL or encoder work is spent on the dropped ones.
+ * <p>
+ * Kept frames claim slots on a grid of {@code 1 / maxFrameRate} that starts at the first frame. A frame is kept if
+ * the next slot is due, give or take half the distance to the frame before, so timestamp jitter does not make
+ * the cadence uneven. After a gap the grid moves on instead of catching up. Frames keep their timestamps.
+ */
+class FrameRateDecimator {
+    private final long mIntervalNs;
+    private boolean mStarted;
+    private long mNextSlotNs;
+    private long mLastTimeUs;
+    private int mDroppedCount;
+
+    FrameRateDecimator(double maxFrameRate) {
+        if (!(maxFrameRate > 0)) {
+            throw new IllegalArgumentException("Invalid frame rate: " + maxFrameRate);
+        }
+        mIntervalNs = Math.round(1000000000 / maxFrameRate);
+    }
+
+    /**
+     * @param presentationTimeUs of the next decoded frame, in presentation order.
+     * @return false if the frame is to be dropped.
+     */
+    boolean shouldKeep(long presentationTimeUs) {
+        long timeNs = presentationTimeUs * 1000;
+        if (!mStarted) {
+            mStarted = true;
+            mLastTimeUs = presentationTimeUs;
+            mNextSlotNs = timeNs + mIntervalNs;
+            return true;
+        }
+        long deltaNs = (presentationTimeUs - mLastTimeUs) * 1000;
+        mLastTimeUs = presentationTimeUs;
+        long toleranceNs = deltaNs > 0 ? Math.min(deltaNs, mIntervalNs) / 2 : 0;
+        if (timeNs < mNextSlotNs - toleranceNs) {
+            mDroppedCount++;
+            return false;
+        }
+        mNextSlotNs += mIntervalNs;
+        if (mNextSlotNs <= timeNs) {
+            mNextSlotNs += ((timeNs - mNextSlotNs) / mIntervalNs + 1) * mIntervalNs;
+        }
+        return true;
+    }
+
+    int getDroppedCount() {
+        return mDroppedCount;
+    }
+}
@@ -0,0 +1,108 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+
+/**
+ * A GLES 2.0 EGL context with a recordable config, and the {@link TextureRender} program compiled in it.
+ * Outlives the encoder input surfaces made current with it, so it can be pooled between jobs.
+ */
+class GlContext {
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext mEGLContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig mEGLConfig;
+    private TextureRender mTextureRender;
+
+    /**
+     * Prepares EGL.  We want a GLES 2.0 context and a config that supports recording.
+     */
+    GlContext() {
+        mEGLDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (mEGLDisplay == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("unable to get EGL14 display");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(mEGLDisplay, version, 0, version, 1)) {
+            mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new RuntimeException("unable to initialize EGL14");
+        }
+        // Configure EGL for recordable and OpenGL ES 2.0.  We want enough RGB bits
+        // to minimize artifacts from possible YUV conversion.
+        int[] attribList = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length,
+                numConfigs, 0)) {
+            throw new RuntimeException("unable to find RGB888+recordable ES2 EGL config");
+        }
+        mEGLConfig = configs[0];
+        // Configure context for OpenGL ES 2.0.
+        int[] attrib_list = {
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_NONE
+        };
+        mEGLContext = EGL14.eglCreateContext(mEGLDisplay, mEGLConfig, EGL14.EGL_NO_CONTEXT,
+                attrib_list, 0);
+        checkEglError("eglCreateContext");
+        if (mEGLContext == null) {
+            throw new RuntimeException("null context");
+        }
+    }
+
+    EGLDisplay getDisplay() {
+        return mEGLDisplay;
+    }
+
+    EGLConfig getConfig() {
+        return mEGLConfig;
+    }
+
+    EGLContext getContext() {
+        return mEGLContext;
+    }
+
+    /**
+     * @return the renderer, its program is compiled on the first call. The context must be current.
+     */
+    TextureRender getTextureRender() {
+        if (mTextureRender == null) {
+            TextureRender textureRender = new TextureRender();
+            textureRender.surfaceCreated();
+            mTextureRender = textureRender;
+        }
+        return mTextureRender;
+    }
+
+    /**
+     * Destroys the context, and with it the program. It must not be current on any thread.
+     */
+    void release() {
+        if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(mEGLDisplay);
+        }
+        mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+        mEGLContext = EGL14.EGL_NO_CONTEXT;
+        mEGLConfig = null;
+        mTextureRender = null;
+    }
+
+    private void checkEglError(String msg) {
+        int error;
+        if ((error = EGL14.eglGetError()) != EGL14.EGL_SUCCESS) {
+            throw new RuntimeException(msg + ": EGL error: 0x" + Integer.toHexString(error));
+        }
+    }
+}
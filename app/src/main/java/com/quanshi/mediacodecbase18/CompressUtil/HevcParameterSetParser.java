@@ -0,0 +1,550 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses H.265 video, sequence and picture parameter sets (ITU-T H.265 7.3.2.1 to 7.3.2.3) into reusable holders,
+ * as far as picking an output format and writing an hvcC box needs. csd-0 of an HEVC track carries all three.
+ * Not thread safe.
+ */
+class HevcParameterSetParser {
+    static final int UNKNOWN = -1;
+    static final int NAL_UNIT_TYPE_VPS = 32;
+    static final int NAL_UNIT_TYPE_SPS = 33;
+    static final int NAL_UNIT_TYPE_PPS = 34;
+    static final int PROFILE_IDC_MAIN = 1;
+    static final int PROFILE_IDC_MAIN_10 = 2;
+    private static final int MAX_SHORT_TERM_REF_PIC_SETS = 64;
+    private static final int EXTENDED_SAR = 255;
+    // Table E-1, indexed by aspect_ratio_idc.
+    private static final int[] SAR_WIDTHS = {0, 1, 12, 10, 16, 40, 24, 20, 32, 80, 18, 15, 64, 160, 4, 3, 2};
+    private static final int[] SAR_HEIGHTS = {0, 1, 11, 11, 11, 33, 11, 11, 11, 33, 11, 11, 33, 99, 3, 2, 1};
+
+    private final NalBitReader mReader = new NalBitReader();
+    private final NalUnitScanner mScanner = new NalUnitScanner();
+    /** NumDeltaPocs of the short-term reference picture sets parsed so far. */
+    private final int[] mNumDeltaPocs = new int[MAX_SHORT_TERM_REF_PIC_SETS];
+
+    /**
+     * The general part of profile_tier_level(), which hvcC repeats.
+     */
+    static class ProfileTierLevel {
+        int mProfileSpace;
+        boolean mTierFlag;
+        int mProfileIdc;
+        /** general_profile_compatibility_flag[0] in bit 31 down to [31] in bit 0. */
+        int mProfileCompatibilityFlags;
+        /** The 48 bits from general_progressive_source_flag on, in the low bits. */
+        long mConstraintIndicatorFlags;
+        int mLevelIdc;
+
+        @Override
+        public String toString() {
+            return "profile=" + mProfileIdc + (mTierFlag ? ", high tier" : "") + ", level=" + mLevelIdc;
+        }
+    }
+
+    static class Vps {
+        final ProfileTierLevel mProfileTierLevel = new ProfileTierLevel();
+        int mVpsId;
+        int mMaxLayers;
+        int mMaxSubLayers;
+        boolean mTemporalIdNesting;
+
+        @Override
+        public String toString() {
+            return "Vps{id=" + mVpsId + ", " + mProfileTierLevel + ", sub layers=" + mMaxSubLayers + "}";
+        }
+    }
+
+    static class Sps {
+        final ProfileTierLevel mProfileTierLevel = new ProfileTierLevel();
+        int mVpsId;
+        int mMaxSubLayers;
+        boolean mTemporalIdNesting;
+        int mSpsId;
+        int mChromaFormatIdc;
+        boolean mSeparateColourPlane;
+        /** pic_width_in_luma_samples and pic_height_in_luma_samples. */
+        int mCodedWidth;
+        int mCodedHeight;
+        /** Size after the conformance window. */
+        int mWidth;
+        int mHeight;
+        int mBitDepthLuma;
+        int mBitDepthChroma;
+        int mLog2MaxPicOrderCntLsb;
+        /** Of the highest sub-layer. */
+        int mMaxDecPicBuffering;
+        int mMaxNumReorderPics;
+        int mLog2MinCbSize;
+        int mLog2CtbSize;
+        boolean mScalingListEnabled;
+        boolean mAmpEnabled;
+        boolean mSampleAdaptiveOffsetEnabled;
+        boolean mPcmEnabled;
+        int mNumShortTermRefPicSets;
+        boolean mLongTermRefPicsPresent;
+        boolean mTemporalMvpEnabled;
+        boolean mStrongIntraSmoothingEnabled;
+        int mSarWidth;
+        int mSarHeight;
+        boolean mVideoFullRange;
+        int mColourPrimaries;
+        int mTransferCharacteristics;
+        int mMatrixCoefficients;
+        long mNumUnitsInTick;
+        long mTimeScale;
+        /** 0 if not signaled, which makes no promise about parallel decoding. */
+        int mMinSpatialSegmentationIdc;
+
+        /**
+         * @return frames per second from the VUI timing, 0 if not signaled.
+         */
+        double getFrameRate() {
+            // Unlike H.264, a tick is a picture.
+            return mNumUnitsInTick > 0 && mTimeScale > 0 ? mTimeScale / (double) mNumUnitsInTick : 0;
+        }
+
+        private void clear() {
+            mSeparateColourPlane = false;
+            mScalingListEnabled = false;
+            mSarWidth = 0;
+            mSarHeight = 0;
+            mVideoFullRange = false;
+            mColourPrimaries = UNKNOWN;
+            mTransferCharacteristics = UNKNOWN;
+            mMatrixCoefficients = UNKNOWN;
+            mNumUnitsInTick = 0;
+            mTimeScale = 0;
+            mMinSpatialSegmentationIdc = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Sps{" + mProfileTierLevel + ", " + mWidth + "x" + mHeight + ", chroma=" + mChromaFormatIdc
+                    + ", bit depth=" + mBitDepthLuma + ", fps=" + getFrameRate() + ", reorder="
+                    + mMaxNumReorderPics + "}";
+        }
+    }
+
+    static class Pps {
+        int mPpsId;
+        int mSpsId;
+        boolean mDependentSliceSegmentsEnabled;
+        boolean mOutputFlagPresent;
+        int mNumExtraSliceHeaderBits;
+        boolean mSignDataHidingEnabled;
+        boolean mCabacInitPresent;
+        int mNumRefIdxL0DefaultActive;
+        int mNumRefIdxL1DefaultActive;
+        int mInitQp;
+        boolean mConstrainedIntraPred;
+        boolean mTransformSkipEnabled;
+        boolean mCuQpDeltaEnabled;
+        int mDiffCuQpDeltaDepth;
+        int mCbQpOffset;
+        int mCrQpOffset;
+        boolean mSliceChromaQpOffsetsPresent;
+        boolean mWeightedPred;
+        boolean mWeightedBipred;
+        boolean mTransquantBypassEnabled;
+        boolean mTilesEnabled;
+        boolean mEntropyCodingSyncEnabled;
+        int mNumTileColumns;
+        int mNumTileRows;
+
+        @Override
+        public String toString() {
+            return "Pps{id=" + mPpsId + ", sps=" + mSpsId + ", tiles=" + mNumTileColumns + "x" + mNumTileRows
+                    + ", wavefront=" + mEntropyCodingSyncEnabled + "}";
+        }
+    }
+
+    /**
+     * Parses the first VPS, SPS and PPS of the Annex-B parameter sets between position and limit of {@code csd},
+     * i.e. csd-0 of an HEVC track. The buffer is not changed.
+     *
+     * @throws IllegalStateException if one of them is missing or malformed.
+     */
+    void parseCsd(ByteBuffer csd, Vps vps, Sps sps, Pps pps) {
+        int count = mScanner.scanAnnexB(csd);
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = mScanner.getOffset(i);
+            int end = offset + mScanner.getSize(i);
+            int type = getNalUnitType(csd, offset);
+            int bit = 1 << (type - NAL_UNIT_TYPE_VPS);
+            if (type < NAL_UNIT_TYPE_VPS || type > NAL_UNIT_TYPE_PPS || (found & bit) != 0) continue;
+            if (type == NAL_UNIT_TYPE_VPS) {
+                parseVps(csd, offset, end, vps);
+            } else if (type == NAL_UNIT_TYPE_SPS) {
+                parseSps(csd, offset, end, sps);
+            } else {
+                parsePps(csd, offset, end, pps);
+            }
+            found |= bit;
+        }
+        if (found != 7) {
+            throw new IllegalStateException("Expected a VPS, an SPS and a PPS, found"
+                    + ((found & 1) != 0 ? " VPS" : "") + ((found & 2) != 0 ? " SPS" : "")
+                    + ((found & 4) != 0 ? " PPS" : "") + ".");
+        }
+    }
+
+    /**
+     * Parses the VPS NAL unit between position and limit of {@code nal}, which may start with a start code.
+     *
+     * @throws IllegalStateException if it is not a VPS or it is malformed.
+     */
+    void parseVps(ByteBuffer nal, Vps vps) {
+        parseVps(nal, NalUnitScanner.skipStartCode(nal), nal.limit(), vps);
+    }
+
+    /**
+     * Parses the SPS NAL unit between position and limit of {@code nal}, which may start with a start code.
+     *
+     * @throws IllegalStateException if it is not an SPS or it is malformed.
+     */
+    void parseSps(ByteBuffer nal, Sps sps) {
+        parseSps(nal, NalUnitScanner.skipStartCode(nal), nal.limit(), sps);
+    }
+
+    /**
+     * Parses the PPS NAL unit between position and limit of {@code nal}, which may start with a start code.
+     *
+     * @throws IllegalStateException if it is not a PPS or it is malformed.
+     */
+    void parsePps(ByteBuffer nal, Pps pps) {
+        parsePps(nal, NalUnitScanner.skipStartCode(nal), nal.limit(), pps);
+    }
+
+    /**
+     * @return the nal_unit_type of the NAL unit whose header starts at {@code offset}.
+     */
+    static int getNalUnitType(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) >> 1) & 0x3f;
+    }
+
+    /**
+     * @return parallelismType of hvcC, 0 (unknown) unless min_spatial_segmentation_idc promises something.
+     */
+    static int getParallelismType(Sps sps, Pps pps) {
+        if (sps.mMinSpatialSegmentationIdc == 0) return 0;
+        if (pps.mEntropyCodingSyncEnabled && pps.mTilesEnabled) return 0;
+        if (pps.mEntropyCodingSyncEnabled) return 3;
+        if (pps.mTilesEnabled) return 2;
+        return 1;
+    }
+
+    private void parseVps(ByteBuffer nal, int offset, int end, Vps vps) {
+        resetReader(nal, offset, end, NAL_UNIT_TYPE_VPS);
+        NalBitReader reader = mReader;
+        vps.mVpsId = reader.readBits(4);
+        reader.skipBits(2);  // vps_base_layer_internal_flag, vps_base_layer_available_flag
+        vps.mMaxLayers = reader.readBits(6) + 1;
+        vps.mMaxSubLayers = reader.readBits(3) + 1;
+        vps.mTemporalIdNesting = reader.readFlag();
+        reader.skipBits(16);  // vps_reserved_0xffff_16bits
+        parseProfileTierLevel(vps.mMaxSubLayers - 1, vps.mProfileTierLevel);
+    }
+
+    private void parseSps(ByteBuffer nal, int offset, int end, Sps sps) {
+        resetReader(nal, offset, end, NAL_UNIT_TYPE_SPS);
+        NalBitReader reader = mReader;
+        sps.clear();
+        sps.mVpsId = reader.readBits(4);
+        sps.mMaxSubLayers = reader.readBits(3) + 1;
+        sps.mTemporalIdNesting = reader.readFlag();
+        parseProfileTierLevel(sps.mMaxSubLayers - 1, sps.mProfileTierLevel);
+        sps.mSpsId = reader.readUnsignedExpGolomb();
+        sps.mChromaFormatIdc = reader.readUnsignedExpGolomb();
+        if (sps.mChromaFormatIdc == 3) {
+            sps.mSeparateColourPlane = reader.readFlag();
+        }
+        sps.mCodedWidth = reader.readUnsignedExpGolomb();
+        sps.mCodedHeight = reader.readUnsignedExpGolomb();
+        sps.mWidth = sps.mCodedWidth;
+        sps.mHeight = sps.mCodedHeight;
+        if (reader.readFlag()) {  // conformance_window_flag
+            // 7.4.3.2.1, offsets are in chroma samples.
+            int chromaArrayType = sps.mSeparateColourPlane ? 0 : sps.mChromaFormatIdc;
+            int subWidth = chromaArrayType == 1 || chromaArrayType == 2 ? 2 : 1;
+            int subHeight = chromaArrayType == 1 ? 2 : 1;
+            sps.mWidth -= subWidth * (reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb());
+            sps.mHeight -= subHeight * (reader.readUnsignedExpGolomb() + reader.readUnsignedExpGolomb());
+            if (sps.mWidth <= 0 || sps.mHeight <= 0) {
+                throw new IllegalStateException("Invalid conformance window: " + sps.mWidth + "x" + sps.mHeight);
+            }
+        }
+        sps.mBitDepthLuma = 8 + reader.readUnsignedExpGolomb();
+        sps.mBitDepthChroma = 8 + reader.readUnsignedExpGolomb();
+        sps.mLog2MaxPicOrderCntLsb = 4 + reader.readUnsignedExpGolomb();
+        boolean subLayerOrderingInfo = reader.readFlag();
+        for (int i = subLayerOrderingInfo ? 0 : sps.mMaxSubLayers - 1; i < sps.mMaxSubLayers; i++) {
+            sps.mMaxDecPicBuffering = reader.readUnsignedExpGolomb() + 1;
+            sps.mMaxNumReorderPics = reader.readUnsignedExpGolomb();
+            reader.readUnsignedExpGolomb();  // sps_max_latency_increase_plus1
+        }
+        sps.mLog2MinCbSize = 3 + reader.readUnsignedExpGolomb();
+        sps.mLog2CtbSize = sps.mLog2MinCbSize + reader.readUnsignedExpGolomb();
+        reader.readUnsignedExpGolomb();  // log2_min_luma_transform_block_size_minus2
+        reader.readUnsignedExpGolomb();  // log2_diff_max_min_luma_transform_block_size
+        reader.readUnsignedExpGolomb();  // max_transform_hierarchy_depth_inter
+        reader.readUnsignedExpGolomb();  // max_transform_hierarchy_depth_intra
+        sps.mScalingListEnabled = reader.readFlag();
+        if (sps.mScalingListEnabled && reader.readFlag()) {  // sps_scaling_list_data_present_flag
+            skipScalingListData();
+        }
+        sps.mAmpEnabled = reader.readFlag();
+        sps.mSampleAdaptiveOffsetEnabled = reader.readFlag();
+        sps.mPcmEnabled = reader.readFlag();
+        if (sps.mPcmEnabled) {
+            reader.skipBits(8);  // pcm_sample_bit_depth_luma_minus1, pcm_sample_bit_depth_chroma_minus1
+            reader.readUnsignedExpGolomb();  // log2_min_pcm_luma_coding_block_size_minus3
+            reader.readUnsignedExpGolomb();  // log2_diff_max_min_pcm_luma_coding_block_size
+            reader.skipBits(1);  // pcm_loop_filter_disabled_flag
+        }
+        sps.mNumShortTermRefPicSets = reader.readUnsignedExpGolomb();
+        if (sps.mNumShortTermRefPicSets > MAX_SHORT_TERM_REF_PIC_SETS) {
+            throw new IllegalStateException("Invalid num_short_term_ref_pic_sets: " + sps.mNumShortTermRefPicSets);
+        }
+        for (int i = 0; i < sps.mNumShortTermRefPicSets; i++) {
+            skipShortTermRefPicSet(i);
+        }
+        sps.mLongTermRefPicsPresent = reader.readFlag();
+        if (sps.mLongTermRefPicsPresent) {
+            int count = reader.readUnsignedExpGolomb();
+            for (int i = 0; i < count; i++) {
+                reader.skipBits(sps.mLog2MaxPicOrderCntLsb);  // lt_ref_pic_poc_lsb_sps
+                reader.skipBits(1);  // used_by_curr_pic_lt_sps_flag
+            }
+        }
+        sps.mTemporalMvpEnabled = reader.readFlag();
+        sps.mStrongIntraSmoothingEnabled = reader.readFlag();
+        if (reader.readFlag()) {  // vui_parameters_present_flag
+            parseVui(sps);
+        }
+    }
+
+    private void parsePps(ByteBuffer nal, int offset, int end, Pps pps) {
+        resetReader(nal, offset, end, NAL_UNIT_TYPE_PPS);
+        NalBitReader reader = mReader;
+        pps.mPpsId = reader.readUnsignedExpGolomb();
+        pps.mSpsId = reader.readUnsignedExpGolomb();
+        pps.mDependentSliceSegmentsEnabled = reader.readFlag();
+        pps.mOutputFlagPresent = reader.readFlag();
+        pps.mNumExtraSliceHeaderBits = reader.readBits(3);
+        pps.mSignDataHidingEnabled = reader.readFlag();
+        pps.mCabacInitPresent = reader.readFlag();
+        pps.mNumRefIdxL0DefaultActive = reader.readUnsignedExpGolomb() + 1;
+        pps.mNumRefIdxL1DefaultActive = reader.readUnsignedExpGolomb() + 1;
+        pps.mInitQp = 26 + reader.readSignedExpGolomb();
+        pps.mConstrainedIntraPred = reader.readFlag();
+        pps.mTransformSkipEnabled = reader.readFlag();
+        pps.mCuQpDeltaEnabled = reader.readFlag();
+        pps.mDiffCuQpDeltaDepth = pps.mCuQpDeltaEnabled ? reader.readUnsignedExpGolomb() : 0;
+        pps.mCbQpOffset = reader.readSignedExpGolomb();
+        pps.mCrQpOffset = reader.readSignedExpGolomb();
+        pps.mSliceChromaQpOffsetsPresent = reader.readFlag();
+        pps.mWeightedPred = reader.readFlag();
+        pps.mWeightedBipred = reader.readFlag();
+        pps.mTransquantBypassEnabled = reader.readFlag();
+        pps.mTilesEnabled = reader.readFlag();
+        pps.mEntropyCodingSyncEnabled = reader.readFlag();
+        pps.mNumTileColumns = 1;
+        pps.mNumTileRows = 1;
+        if (pps.mTilesEnabled) {
+            pps.mNumTileColumns = reader.readUnsignedExpGolomb() + 1;
+            pps.mNumTileRows = reader.readUnsignedExpGolomb() + 1;
+        }
+    }
+
+    private void resetReader(ByteBuffer nal, int offset, int end, int nalUnitType) {
+        if (end - offset < 2) {
+            throw new IllegalStateException("Empty NAL unit.");
+        }
+        int type = getNalUnitType(nal, offset);
+        if (type != nalUnitType) {
+            throw new IllegalStateException("Expected NAL unit type " + nalUnitType + ", got " + type + ".");
+        }
+        // Two bytes of NAL unit header.
+        mReader.reset(nal, offset + 2, end);
+    }
+
+    private void parseProfileTierLevel(int maxSubLayersMinus1, ProfileTierLevel ptl) {
+        NalBitReader reader = mReader;
+        ptl.mProfileSpace = reader.readBits(2);
+        ptl.mTierFlag = reader.readFlag();
+        ptl.mProfileIdc = reader.readBits(5);
+        ptl.mProfileCompatibilityFlags = reader.readBits(32);
+        ptl.mConstraintIndicatorFlags = ((long) reader.readBits(16) << 32) | reader.readUnsignedInt();
+        ptl.mLevelIdc = reader.readBits(8);
+        // Only the presence flags are needed to get past the sub-layers.
+        int profilePresent = 0;
+        int levelPresent = 0;
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (reader.readFlag()) profilePresent |= 1 << i;
+            if (reader.readFlag()) levelPresent |= 1 << i;
+        }
+        if (maxSubLayersMinus1 > 0) {
+            reader.skipBits(2 * (8 - maxSubLayersMinus1));  // reserved_zero_2bits
+        }
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if ((profilePresent & (1 << i)) != 0) {
+                reader.skipBits(88);  // sub_layer_profile_space to the constraint flags
+            }
+            if ((levelPresent & (1 << i)) != 0) {
+                reader.skipBits(8);  // sub_layer_level_idc
+            }
+        }
+    }
+
+    private void skipScalingListData() {
+        NalBitReader reader = mReader;
+        for (int sizeId = 0; sizeId < 4; sizeId++) {
+            for (int matrixId = 0; matrixId < 6; matrixId += sizeId == 3 ? 3 : 1) {
+                if (!reader.readFlag()) {  // scaling_list_pred_mode_flag
+                    reader.readUnsignedExpGolomb();  // scaling_list_pred_matrix_id_delta
+                    continue;
+                }
+                int coefficients = Math.min(64, 1 << (4 + (sizeId << 1)));
+                if (sizeId > 1) {
+                    reader.readSignedExpGolomb();  // scaling_list_dc_coef_minus8
+                }
+                for (int i = 0; i < coefficients; i++) {
+                    reader.readSignedExpGolomb();  // scaling_list_delta_coef
+                }
+            }
+        }
+    }
+
+    /**
+     * 7.3.7, st_ref_pic_set() as it appears in the SPS, where a set can only be predicted from the one before it.
+     */
+    private void skipShortTermRefPicSet(int index) {
+        NalBitReader reader = mReader;
+        if (index > 0 && reader.readFlag()) {  // inter_ref_pic_set_prediction_flag
+            reader.skipBits(1);  // delta_rps_sign
+            reader.readUnsignedExpGolomb();  // abs_delta_rps_minus1
+            int numDeltaPocs = 0;
+            for (int j = 0; j <= mNumDeltaPocs[index - 1]; j++) {
+                // The picture counts if it is used_by_curr_pic_flag or use_delta_flag.
+                if (reader.readFlag() || reader.readFlag()) {
+                    numDeltaPocs++;
+                }
+            }
+            mNumDeltaPocs[index] = numDeltaPocs;
+            return;
+        }
+        int numNegativePics = reader.readUnsignedExpGolomb();
+        int numPositivePics = reader.readUnsignedExpGolomb();
+        if (numNegativePics > 16 || numPositivePics > 16) {
+            throw new IllegalStateException("Invalid short-term reference picture set: " + numNegativePics + "+"
+                    + numPositivePics + " pictures.");
+        }
+        for (int i = 0; i < numNegativePics + numPositivePics; i++) {
+            reader.readUnsignedExpGolomb();  // delta_poc_s0_minus1 or delta_poc_s1_minus1
+            reader.skipBits(1);  // used_by_curr_pic_s0_flag or used_by_curr_pic_s1_flag
+        }
+        mNumDeltaPocs[index] = numNegativePics + numPositivePics;
+    }
+
+    private void parseVui(Sps sps) {
+        NalBitReader reader = mReader;
+        if (reader.readFlag()) {  // aspect_ratio_info_present_flag
+            int aspectRatioIdc = reader.readBits(8);
+            if (aspectRatioIdc == EXTENDED_SAR) {
+                sps.mSarWidth = reader.readBits(16);
+                sps.mSarHeight = reader.readBits(16);
+            } else if (aspectRatioIdc < SAR_WIDTHS.length) {
+                sps.mSarWidth = SAR_WIDTHS[aspectRatioIdc];
+                sps.mSarHeight = SAR_HEIGHTS[aspectRatioIdc];
+            }
+        }
+        if (reader.readFlag()) {  // overscan_info_present_flag
+            reader.skipBits(1);  // overscan_appropriate_flag
+        }
+        if (reader.readFlag()) {  // video_signal_type_present_flag
+            reader.skipBits(3);  // video_format
+            sps.mVideoFullRange = reader.readFlag();
+            if (reader.readFlag()) {  // colour_description_present_flag
+                sps.mColourPrimaries = reader.readBits(8);
+                sps.mTransferCharacteristics = reader.readBits(8);
+                sps.mMatrixCoefficients = reader.readBits(8);
+            }
+        }
+        if (reader.readFlag()) {  // chroma_loc_info_present_flag
+            reader.readUnsignedExpGolomb();  // chroma_sample_loc_type_top_field
+            reader.readUnsignedExpGolomb();  // chroma_sample_loc_type_bottom_field
+        }
+        // neutral_chroma_indication_flag, field_seq_flag, frame_field_info_present_flag
+        reader.skipBits(3);
+        if (reader.readFlag()) {  // default_display_window_flag
+            for (int i = 0; i < 4; i++) {
+                reader.readUnsignedExpGolomb();  // def_disp_win_*_offset
+            }
+        }
+        if (reader.readFlag()) {  // vui_timing_info_present_flag
+            sps.mNumUnitsInTick = reader.readUnsignedInt();
+            sps.mTimeScale = reader.readUnsignedInt();
+            if (reader.readFlag()) {  // vui_poc_proportional_to_timing_flag
+                reader.readUnsignedExpGolomb();  // vui_num_ticks_poc_diff_one_minus1
+            }
+            if (reader.readFlag()) {  // vui_hrd_parameters_present_flag
+                skipHrdParameters(sps.mMaxSubLayers - 1);
+            }
+        }
+        if (reader.readFlag()) {  // bitstream_restriction_flag
+            // tiles_fixed_structure_flag, motion_vectors_over_pic_boundaries_flag, restricted_ref_pic_lists_flag
+            reader.skipBits(3);
+            sps.mMinSpatialSegmentationIdc = reader.readUnsignedExpGolomb();
+        }
+    }
+
+    /**
+     * E.2.2, hrd_parameters() with commonInfPresentFlag set, as in the VUI.
+     */
+    private void skipHrdParameters(int maxSubLayersMinus1) {
+        NalBitReader reader = mReader;
+        boolean nalHrd = reader.readFlag();
+        boolean vclHrd = reader.readFlag();
+        boolean subPicHrdParams = false;
+        if (nalHrd || vclHrd) {
+            subPicHrdParams = reader.readFlag();
+            if (subPicHrdParams) {
+                // tick_divisor_minus2, du_cpb_removal_delay_increment_length_minus1,
+                // sub_pic_cpb_params_in_pic_timing_sei_flag, dpb_output_delay_du_length_minus1
+                reader.skipBits(19);
+            }
+            reader.skipBits(8);  // bit_rate_scale, cpb_size_scale
+            if (subPicHrdParams) {
+                reader.skipBits(4);  // cpb_size_du_scale
+            }
+            // initial_cpb_removal_delay_length_minus1, au_cpb_removal_delay_length_minus1,
+            // dpb_output_delay_length_minus1
+            reader.skipBits(15);
+        }
+        for (int i = 0; i <= maxSubLayersMinus1; i++) {
+            boolean fixedPicRateWithinCvs = reader.readFlag()  // fixed_pic_rate_general_flag
+                    || reader.readFlag();  // fixed_pic_rate_within_cvs_flag
+            boolean lowDelayHrd = false;
+            if (fixedPicRateWithinCvs) {
+                reader.readUnsignedExpGolomb();  // elemental_duration_in_tc_minus1
+            } else {
+                lowDelayHrd = reader.readFlag();
+            }
+            int cpbCount = lowDelayHrd ? 1 : reader.readUnsignedExpGolomb() + 1;
+            int subLayerHrdCount = (nalHrd ? 1 : 0) + (vclHrd ? 1 : 0);
+            for (int j = 0; j < subLayerHrdCount * cpbCount; j++) {
+                reader.readUnsignedExpGolomb();  // bit_rate_value_minus1
+                reader.readUnsignedExpGolomb();  // cpb_size_value_minus1
+                if (subPicHrdParams) {
+                    reader.readUnsignedExpGolomb();  // cpb_size_du_value_minus1
+                    reader.readUnsignedExpGolomb();  // bit_rate_du_value_minus1
+                }
+                reader.skipBits(1);  // cbr_flag
+            }
+        }
+    }
+}
@@ -18,7 +18,6 @@
 
 package com.quanshi.mediacodecbase18.CompressUtil;
 import android.opengl.EGL14;
-import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
 import android.opengl.EGLExt;
@@ -33,66 +32,44 @@ import android.view.Surface;
  */
 class InputSurface {
     private static final String TAG = "InputSurface";
-    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
     private EGLDisplay mEGLDisplay = EGL14.EGL_NO_DISPLAY;
     private EGLContext mEGLContext = EGL14.EGL_NO_CONTEXT;
     private EGLSurface mEGLSurface = EGL14.EGL_NO_SURFACE;
+    private GlContext mGlContext;
+    private boolean mOwnsGlContext;
     private Surface mSurface;
     /**
-     * Creates an InputSurface from a Surface.
+     * Creates an InputSurface from a Surface, with an EGL context of its own.
      */
     public InputSurface(Surface surface) {
+        this(surface, new GlContext(), true);
+    }
+    /**
+     * Creates an InputSurface from a Surface, drawn with a shared context which is left alive by
+     * {@link #release()}.
+     */
+    public InputSurface(Surface surface, GlContext glContext) {
+        this(surface, glContext, false);
+    }
+    private InputSurface(Surface surface, GlContext glContext, boolean ownsGlContext) {
         if (surface == null) {
             throw new NullPointerException();
         }
         mSurface = surface;
+        mGlContext = glContext;
+        mOwnsGlContext = ownsGlContext;
+        mEGLDisplay = glContext.getDisplay();
+        mEGLContext = glContext.getContext();
         eglSetup();
     }
     /**
-     * Prepares EGL.  We want a GLES 2.0 context and a surface that supports recording.
+     * Creates a window surface for the Surface we received.
      */
     private void eglSetup() {
-        mEGLDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        if (mEGLDisplay == EGL14.EGL_NO_DISPLAY) {
-            throw new RuntimeException("unable to get EGL14 display");
-        }
-        int[] version = new int[2];
-        if (!EGL14.eglInitialize(mEGLDisplay, version, 0, version, 1)) {
-            mEGLDisplay = null;
-            throw new RuntimeException("unable to initialize EGL14");
-        }
-        // Configure EGL for recordable and OpenGL ES 2.0.  We want enough RGB bits
-        // to minimize artifacts from possible YUV conversion.
-        int[] attribList = {
-                EGL14.EGL_RED_SIZE, 8,
-                EGL14.EGL_GREEN_SIZE, 8,
-                EGL14.EGL_BLUE_SIZE, 8,
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
-                EGL_RECORDABLE_ANDROID, 1,
-                EGL14.EGL_NONE
-        };
-        EGLConfig[] configs = new EGLConfig[1];
-        int[] numConfigs = new int[1];
-        if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs, 0, configs.length,
-                numConfigs, 0)) {
-            throw new RuntimeException("unable to find RGB888+recordable ES2 EGL config");
-        }
-        // Configure context for OpenGL ES 2.0.
-        int[] attrib_list = {
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL14.EGL_NONE
-        };
-        mEGLContext = EGL14.eglCreateContext(mEGLDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
-                attrib_list, 0);
-        checkEglError("eglCreateContext");
-        if (mEGLContext == null) {
-            throw new RuntimeException("null context");
-        }
-        // Create a window surface, and attach it to the Surface we received.
         int[] surfaceAttribs = {
                 EGL14.EGL_NONE
         };
-        mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, configs[0], mSurface,
+        mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, mGlContext.getConfig(), mSurface,
                 surfaceAttribs, 0);
         checkEglError("eglCreateWindowSurface");
         if (mEGLSurface == null) {
@@ -100,20 +77,25 @@ class InputSurface {
         }
     }
     /**
-     * Discard all resources held by this class, notably the EGL context.  Also releases the
+     * Discard all resources held by this class, notably the EGL context unless it is shared.  Also releases the
      * Surface that was passed to our constructor.
      */
     public void release() {
         if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
-            EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
-            EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
-            EGL14.eglReleaseThread();
-            EGL14.eglTerminate(mEGLDisplay);
+            if (mOwnsGlContext) {
+                EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
+                mGlContext.release();
+            } else {
+                // The context goes to the next user, which may live on another thread.
+                makeUnCurrent();
+                EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
+            }
         }
         mSurface.release();
         mEGLDisplay = EGL14.EGL_NO_DISPLAY;
         mEGLContext = EGL14.EGL_NO_CONTEXT;
         mEGLSurface = EGL14.EGL_NO_SURFACE;
+        mGlContext = null;
         mSurface = null;
     }
     /**
@@ -0,0 +1,173 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps expensive objects, like codecs or EGL contexts, warm between users. Objects are grouped by a key telling
+ * which of them can stand in for each other; idle ones are destroyed after a timeout. Thread safe; objects are
+ * created and destroyed outside the lock.
+ */
+class KeyedPool<K, V> {
+    interface Lifecycle<K, V> {
+        V create(K key) throws Exception;
+
+        /**
+         * Readies a released object for the next user.
+         *
+         * @return false if it cannot be reused and must be destroyed.
+         */
+        boolean recycle(K key, V value);
+
+        void destroy(K key, V value);
+    }
+
+    private static class Idle<V> {
+        private final V mValue;
+        private final long mReleaseTimeMs;
+
+        private Idle(V value, long releaseTimeMs) {
+            mValue = value;
+            mReleaseTimeMs = releaseTimeMs;
+        }
+    }
+
+    private final Lifecycle<K, V> mLifecycle;
+    private final int mMaxIdlePerKey;
+    private final long mIdleTimeoutMs;
+    private final Clock mClock;
+    private final Map<K, ArrayDeque<Idle<V>>> mIdle = new HashMap<>();
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxIdlePerKey how many released objects are kept per key.
+     * @param idleTimeoutMs how long a released object is kept.
+     */
+    KeyedPool(Lifecycle<K, V> lifecycle, int maxIdlePerKey, long idleTimeoutMs, Clock clock) {
+        mLifecycle = lifecycle;
+        mMaxIdlePerKey = maxIdlePerKey;
+        mIdleTimeoutMs = idleTimeoutMs;
+        mClock = clock;
+    }
+
+    /**
+     * @return the most recently released object for {@code key}, or a new one.
+     */
+    V acquire(K key) throws Exception {
+        evictExpired();
+        synchronized (mIdle) {
+            ArrayDeque<Idle<V>> idle = mIdle.get(key);
+            if (idle != null && !idle.isEmpty()) {
+                mHitCount++;
+                return idle.pollFirst().mValue;
+            }
+            mMissCount++;
+        }
+        return mLifecycle.create(key);
+    }
+
+    /**
+     * Gives an object back for reuse. It is destroyed if it cannot be recycled or there are enough idle ones.
+     */
+    void release(K key, V value) {
+        if (!mLifecycle.recycle(key, value)) {
+            mLifecycle.destroy(key, value);
+            return;
+        }
+        synchronized (mIdle) {
+            ArrayDeque<Idle<V>> idle = mIdle.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<>();
+                mIdle.put(key, idle);
+            }
+            if (idle.size() < mMaxIdlePerKey) {
+                idle.addFirst(new Idle<>(value, mClock.uptimeMillis()));
+                value = null;
+            }
+        }
+        if (value != null) {
+            mLifecycle.destroy(key, value);
+        }
+        evictExpired();
+    }
+
+    /**
+     * Destroys an object that must not be reused, e.g. after an error.
+     */
+    void discard(K key, V value) {
+        mLifecycle.destroy(key, value);
+    }
+
+    /**
+     * Destroys the objects that have been idle for longer than the timeout.
+     *
+     * @return how many were destroyed.
+     */
+    int evictExpired() {
+        return evict(mClock.uptimeMillis() - mIdleTimeoutMs);
+    }
+
+    /**
+     * Destroys all idle objects.
+     */
+    void clear() {
+        evict(Long.MAX_VALUE);
+    }
+
+    private int evict(long releasedBeforeMs) {
+        List<K> keys = new ArrayList<>();
+        List<V> values = new ArrayList<>();
+        synchronized (mIdle) {
+            for (Map.Entry<K, ArrayDeque<Idle<V>>> entry : mIdle.entrySet()) {
+                // Oldest at the end.
+                Iterator<Idle<V>> iterator = entry.getValue().descendingIterator();
+                while (iterator.hasNext()) {
+                    Idle<V> idle = iterator.next();
+                    if (idle.mReleaseTimeMs > releasedBeforeMs) break;
+                    iterator.remove();
+                    keys.add(entry.getKey());
+                    values.add(idle.mValue);
+                }
+            }
+            mEvictionCount += values.size();
+        }
+        for (int i = 0; i < values.size(); i++) {
+            mLifecycle.destroy(keys.get(i), values.get(i));
+        }
+        return values.size();
+    }
+
+    int getIdleCount() {
+        synchronized (mIdle) {
+            int count = 0;
+            for (ArrayDeque<Idle<V>> idle : mIdle.values()) {
+                count += idle.size();
+            }
+            return count;
+        }
+    }
+
+    long getHitCount() {
+        synchronized (mIdle) {
+            return mHitCount;
+        }
+    }
+
+    long getMissCount() {
+        synchronized (mIdle) {
+            return mMissCount;
+        }
+    }
+
+    long getEvictionCount() {
+        synchronized (mIdle) {
+            return mEvictionCount;
+        }
+    }
+}
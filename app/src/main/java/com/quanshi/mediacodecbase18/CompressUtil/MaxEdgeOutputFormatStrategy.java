@@ -0,0 +1,50 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Scales the video down so that its longer edge fits {@code maxEdge}, keeping the aspect ratio with both edges
+ * rounded to multiples of 16, and picks the bitrate with a {@link BitsPerPixelModel}. Video that fits already and
+ * whose bitrate is not above the model's is left as it is.
+ */
+public class MaxEdgeOutputFormatStrategy implements OutputFormatStrategy {
+    static final int ALIGNMENT = 16;
+
+    private final int mMaxEdge;
+    private final BitsPerPixelModel mBitrateModel;
+
+    public MaxEdgeOutputFormatStrategy(int maxEdge, BitsPerPixelModel bitrateModel) {
+        if (maxEdge < ALIGNMENT) {
+            throw new IllegalArgumentException("maxEdge too small: " + maxEdge);
+        }
+        mMaxEdge = maxEdge;
+        mBitrateModel = bitrateModel;
+    }
+
+    @Override
+    public VideoFormat createVideoOutputFormat(VideoFormat input) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int longer = Math.max(width, height);
+        if (longer > mMaxEdge) {
+            // The longer edge is rounded down so that it still fits.
+            int scaledLonger = mMaxEdge / ALIGNMENT * ALIGNMENT;
+            int scaledShorter = Math.min(scaledLonger, align((double) Math.min(width, height) * mMaxEdge / longer));
+            if (width >= height) {
+                width = scaledLonger;
+                height = scaledShorter;
+            } else {
+                width = scaledShorter;
+                height = scaledLonger;
+            }
+        }
+        int bitrate = mBitrateModel.getBitrate(width, height, input.getFrameRate());
+        if (width == input.getWidth() && height == input.getHeight()
+                && (input.getBitrate() == UNKNOWN || input.getBitrate() <= bitrate)) {
+            return null;
+        }
+        return new VideoFormat(width, height, input.getFrameRate(), bitrate);
+    }
+
+    static int align(double edge) {
+        return (int) Math.max(ALIGNMENT, Math.round(edge / ALIGNMENT) * ALIGNMENT);
+    }
+}
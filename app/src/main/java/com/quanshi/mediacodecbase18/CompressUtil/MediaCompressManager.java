@@ -1,11 +1,12 @@
 package com.quanshi.mediacodecbase18.CompressUtil;
 
 
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import java.io.FileDescriptor;
-import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 视频压缩任务管理
@@ -15,9 +16,30 @@ import java.io.IOException;
 
 public class MediaCompressManager {
     private static final String TAG = "MediaCompressManager";
+    private static final long AGING_INTERVAL_MS = 30 * 1000;
+    private static final long RESOURCE_IDLE_TIMEOUT_MS = 30 * 1000;
 
     private static volatile MediaCompressManager mMediaCompressManager;
 
+    private final TranscodeJobScheduler mScheduler;
+    private final TranscodeResourcePool mResourcePool;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile int mAudioBitrate;
+    private volatile int mAudioSampleRate;
+    private volatile int mAudioChannelCount;
+    private volatile boolean mPreferHevc;
+    private volatile boolean mRemuxFaststart;
+    private volatile boolean mCheckpointing;
+    private volatile int mMaxFrameRate = -1;
+    private volatile long mMaxOutputBytes;
+    private volatile boolean mStagedPipeline;
+    private volatile boolean mAsyncMuxerWriter;
+
+    private MediaCompressManager() {
+        int maxConcurrentTranscodes = MediaTranscodeEngine.getMaxConcurrentTranscodes();
+        mScheduler = new TranscodeJobScheduler(maxConcurrentTranscodes, AGING_INTERVAL_MS);
+        mResourcePool = new TranscodeResourcePool(maxConcurrentTranscodes, RESOURCE_IDLE_TIMEOUT_MS);
+    }
 
     public static MediaCompressManager getInstance() {
         if (mMediaCompressManager == null) {
@@ -30,63 +52,246 @@ public class MediaCompressManager {
         return mMediaCompressManager;
     }
 
-    public AsyncTask compressVideoStream(FileDescriptor inFileDescriptor, String outPath,
-                                         CompressListener listener) {
-
-        MediaCompressTask mediaCompressTask = new MediaCompressTask();
-        mediaCompressTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, inFileDescriptor, outPath, listener);
-        return mediaCompressTask;
-    }
-
-    private class MediaCompressTask extends AsyncTask<Object, Void, Integer> {
-        private FileDescriptor fd;
-        private String outputPath;
-        private CompressListener listener;
-
-        @Override
-        protected Integer doInBackground(Object... params) {
-            fd = (FileDescriptor) params[0];
-            outputPath = (String) params[1];
-            listener = (CompressListener) params[2];
-
-            MediaTranscodeEngine transcodeEngine = new MediaTranscodeEngine();
-            transcodeEngine.setDataSource(fd);
-            try {
-                return transcodeEngine.transcodeVideo(outputPath);
-            } catch (IOException e) {
-                Log.e(TAG, "IOException exception: " + e);
-                return MediaConstants.MEDIA_TRANSCODE_FAIL;
-            } catch (InterruptedException e) {
-                Log.e(TAG, "task is interrupted");
-                return MediaConstants.MEDIA_TRANSCODE_CANCELED;
-            } catch (RuntimeException e) {
-                Log.e(TAG, "task failed");
-                return MediaConstants.MEDIA_TRANSCODE_FAIL;
+    /**
+     * Re-encodes the audio of jobs queued from now on, see {@link MediaTranscodeEngine#setAudioOutputFormat}.
+     * A bitrate of 0 copies the audio track (default).
+     */
+    public void setAudioOutputFormat(int bitrate, int sampleRate, int channelCount) {
+        mAudioBitrate = bitrate;
+        mAudioSampleRate = sampleRate;
+        mAudioChannelCount = channelCount;
+    }
+
+    /**
+     * Encodes the video of jobs queued from now on to H.265 where the device can, see
+     * {@link MediaTranscodeEngine#setPreferHevc}.
+     */
+    public void setPreferHevc(boolean preferHevc) {
+        mPreferHevc = preferHevc;
+    }
+
+    /**
+     * Writes inputs that need no compressing moov first, see {@link MediaTranscodeEngine#setRemuxFaststart}.
+     */
+    public void setRemuxFaststart(boolean faststart) {
+        mRemuxFaststart = faststart;
+    }
+
+    /**
+     * Caps the frame rate of jobs queued from now on, see {@link MediaTranscodeEngine#setMaxFrameRate}. Until
+     * this is called, jobs use the engine's default.
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        mMaxFrameRate = maxFrameRate;
+    }
+
+    /**
+     * Limits the output size of compress jobs queued from now on, see {@link MediaTranscodeEngine#setMaxOutputBytes}.
+     * 0 removes the limit.
+     */
+    public void setMaxOutputBytes(long maxOutputBytes) {
+        mMaxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * Runs the video of compress jobs queued from now on in stages on threads of their own, see
+     * {@link MediaTranscodeEngine#setStagedPipeline}.
+     */
+    public void setStagedPipeline(boolean stagedPipeline) {
+        mStagedPipeline = stagedPipeline;
+    }
+
+    /**
+     * Writes the output of compress jobs queued from now on from a writer thread of its own, see
+     * {@link MediaTranscodeEngine#setAsyncMuxerWriter}.
+     */
+    public void setAsyncMuxerWriter(boolean asyncMuxerWriter) {
+        mAsyncMuxerWriter = asyncMuxerWriter;
+    }
+
+    /**
+     * Lets compress jobs queued from now on resume after the process died, see
+     * {@link MediaTranscodeEngine#setCheckpointing}. The job has to be queued again with the same input and
+     * output path.
+     */
+    public void setCheckpointing(boolean checkpointing) {
+        mCheckpointing = checkpointing;
+    }
+
+    /**
+     * Queues an interactive compress job.
+     *
+     * @return the job, which can be canceled.
+     */
+    public TranscodeJobScheduler.Job compressVideoStream(FileDescriptor inFileDescriptor, String outPath,
+                                                         CompressListener listener) {
+        return compressVideoStream(inFileDescriptor, outPath, TranscodeJobScheduler.Priority.INTERACTIVE, listener);
+    }
+
+    /**
+     * Queues a compress job. Jobs run one after another, or a few at once if the device has enough codec
+     * instances. The listener is called on the main thread.
+     */
+    public TranscodeJobScheduler.Job compressVideoStream(FileDescriptor inFileDescriptor, String outPath,
+                                                         TranscodeJobScheduler.Priority priority,
+                                                         CompressListener listener) {
+        return compressVideoStream(inFileDescriptor, outPath, priority, null, listener);
+    }
+
+    /**
+     * Queues a compress job whose output size and bitrate are decided by {@code outputFormatStrategy}, or by the
+     * engine's default one if it is null.
+     */
+    public TranscodeJobScheduler.Job compressVideoStream(final FileDescriptor inFileDescriptor, final String outPath,
+                                                         TranscodeJobScheduler.Priority priority,
+                                                         final OutputFormatStrategy outputFormatStrategy,
+                                                         final CompressListener listener) {
+        final int audioBitrate = mAudioBitrate;
+        final int audioSampleRate = mAudioSampleRate;
+        final int audioChannelCount = mAudioChannelCount;
+        final boolean preferHevc = mPreferHevc;
+        final boolean remuxFaststart = mRemuxFaststart;
+        final boolean checkpointing = mCheckpointing;
+        final int maxFrameRate = mMaxFrameRate;
+        final long maxOutputBytes = mMaxOutputBytes;
+        final boolean stagedPipeline = mStagedPipeline;
+        final boolean asyncMuxerWriter = mAsyncMuxerWriter;
+        final AtomicReference<TranscodeStats> stats = new AtomicReference<>();
+        TranscodeJobScheduler.Task task = new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() throws Exception {
+                MediaTranscodeEngine transcodeEngine = new MediaTranscodeEngine();
+                transcodeEngine.setDataSource(inFileDescriptor);
+                transcodeEngine.setResourcePool(mResourcePool);
+                transcodeEngine.setCheckpointing(checkpointing);
+                if (maxFrameRate >= 0) {
+                    transcodeEngine.setMaxFrameRate(maxFrameRate);
+                }
+                transcodeEngine.setMaxOutputBytes(maxOutputBytes);
+                transcodeEngine.setStagedPipeline(stagedPipeline);
+                transcodeEngine.setAsyncMuxerWriter(asyncMuxerWriter);
+                if (outputFormatStrategy != null) {
+                    transcodeEngine.setOutputFormatStrategy(outputFormatStrategy);
+                }
+                transcodeEngine.setAudioOutputFormat(audioBitrate, audioSampleRate, audioChannelCount);
+                transcodeEngine.setPreferHevc(preferHevc);
+                transcodeEngine.setRemuxFaststart(remuxFaststart);
+                setEngineListener(transcodeEngine, listener);
+                stats.set(transcodeEngine.transcodeVideo(outPath));
+                return stats.get().getResult();
+            }
+        };
+        return submit(task, priority, stats, listener);
+    }
+
+    /**
+     * Queues a job that keeps only the part of the input presented from {@code startUs} until {@code endUs},
+     * without compressing it, see {@link MediaTranscodeEngine#trimVideo}.
+     */
+    public TranscodeJobScheduler.Job trimVideoStream(final FileDescriptor inFileDescriptor, final String outPath,
+                                                     final long startUs, final long endUs,
+                                                     TranscodeJobScheduler.Priority priority,
+                                                     final CompressListener listener) {
+        final boolean remuxFaststart = mRemuxFaststart;
+        final AtomicReference<TranscodeStats> stats = new AtomicReference<>();
+        TranscodeJobScheduler.Task task = new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() throws Exception {
+                MediaTranscodeEngine transcodeEngine = new MediaTranscodeEngine();
+                transcodeEngine.setDataSource(inFileDescriptor);
+                transcodeEngine.setResourcePool(mResourcePool);
+                transcodeEngine.setRemuxFaststart(remuxFaststart);
+                setEngineListener(transcodeEngine, listener);
+                stats.set(transcodeEngine.trimVideo(outPath, startUs, endUs));
+                return stats.get().getResult();
             }
+        };
+        return submit(task, priority, stats, listener);
+    }
+
+    private void setEngineListener(MediaTranscodeEngine transcodeEngine, final CompressListener listener) {
+        if (listener == null) {
+            return;
         }
+        transcodeEngine.setListener(new MediaTranscodeEngine.Listener() {
+            @Override
+            public void onTranscodeModeChosen(final MediaTranscodeEngine.TranscodeMode mode, final String reason) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onTranscodeModeChosen(mode, reason);
+                    }
+                });
+            }
 
-        @Override
-        protected void onPostExecute(Integer result) {
-            if (listener == null) {
-                return;
+            @Override
+            public void onProgress(final TranscodeStats stats) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onTranscodeProgress(stats);
+                    }
+                });
             }
-            if (result == MediaConstants.MEDIA_TRANSCODE_FAIL) {
-                Log.e(TAG, "compress failed.");
-                listener.onTranscodeFailed(result);
-            } else {
-                Log.i(TAG, "compress success!");
-                listener.onTranscodeCompleted();
+        });
+    }
+
+    private TranscodeJobScheduler.Job submit(TranscodeJobScheduler.Task task, TranscodeJobScheduler.Priority priority,
+                                             final AtomicReference<TranscodeStats> stats,
+                                             final CompressListener listener) {
+        return mScheduler.submit(task, priority, new TranscodeJobScheduler.Listener() {
+            @Override
+            public void onJobFinished(TranscodeJobScheduler.Job job, final int result) {
+                Log.i(TAG, job + " finished with " + result + ", waited " + job.getQueueWaitMs() + "ms, ran "
+                        + job.getRunTimeMs() + "ms; pooled " + mResourcePool + "; " + stats.get());
+                if (job.getFailure() != null) {
+                    Log.e(TAG, job + " failed", job.getFailure());
+                }
+                if (listener == null) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (result == MediaConstants.MEDIA_TRANSCODE_CANCELED) {
+                            listener.onTranscodeCanceled();
+                        } else if (result == MediaConstants.MEDIA_TRANSCODE_FAIL) {
+                            Log.e(TAG, "compress failed.");
+                            listener.onTranscodeFailed(result);
+                        } else {
+                            Log.i(TAG, "compress success!");
+                            listener.onTranscodeCompleted(stats.get());
+                        }
+                    }
+                });
             }
-        }
+        });
+    }
 
-        @Override
-        protected void onCancelled() {
-            listener.onTranscodeCanceled();
-        }
+    public TranscodeJobScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    public TranscodeResourcePool getResourcePool() {
+        return mResourcePool;
     }
 
     public interface CompressListener {
-        void onTranscodeCompleted();
+        /**
+         * Called before the job writes anything, e.g. with {@link MediaTranscodeEngine.TranscodeMode#REMUX} when
+         * the input needs no compressing and is only copied.
+         */
+        void onTranscodeModeChosen(MediaTranscodeEngine.TranscodeMode mode, String reason);
+
+        /**
+         * Called every half second or so while the job runs, see {@link MediaTranscodeEngine#setProgressInterval}.
+         */
+        void onTranscodeProgress(TranscodeStats stats);
+
+        /**
+         * @param stats where the time went, e.g. for logging.
+         */
+        void onTranscodeCompleted(TranscodeStats stats);
 
         void onTranscodeCanceled();
 
@@ -0,0 +1,87 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} backed by the platform {@link MediaExtractor}.
+ */
+public class MediaExtractorSampleSource implements SampleSource {
+    private final MediaExtractor mExtractor = new MediaExtractor();
+
+    public MediaExtractorSampleSource(FileDescriptor fileDescriptor) throws IOException {
+        mExtractor.setDataSource(fileDescriptor);
+    }
+
+    @Override
+    public int getTrackCount() {
+        return mExtractor.getTrackCount();
+    }
+
+    @Override
+    public MediaFormat getTrackFormat(int index) {
+        return mExtractor.getTrackFormat(index);
+    }
+
+    @Override
+    public void selectTrack(int index) {
+        mExtractor.selectTrack(index);
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        mExtractor.seekTo(timeUs, mode);
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return mExtractor.getSampleTrackIndex();
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mExtractor.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mExtractor.getSampleFlags();
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer byteBuf, int offset) {
+        return mExtractor.readSampleData(byteBuf, offset);
+    }
+
+    @Override
+    public ByteBuffer getSampleBuffer() {
+        return null;
+    }
+
+    @Override
+    public boolean advance() {
+        return mExtractor.advance();
+    }
+
+    @Override
+    public void release() {
+        mExtractor.release();
+    }
+
+    public static class Factory implements SampleSource.Factory {
+        private final FileDescriptor mFileDescriptor;
+
+        public Factory(FileDescriptor fileDescriptor) {
+            mFileDescriptor = fileDescriptor;
+        }
+
+        @Override
+        public SampleSource create() throws IOException {
+            return new MediaExtractorSampleSource(mFileDescriptor);
+        }
+    }
+}
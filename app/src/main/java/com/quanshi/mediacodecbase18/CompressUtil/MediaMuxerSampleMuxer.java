@@ -0,0 +1,53 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} backed by the platform {@link MediaMuxer}, which writes moov at the end of the file.
+ */
+public class MediaMuxerSampleMuxer implements SampleMuxer {
+    private final MediaMuxer mMuxer;
+
+    public MediaMuxerSampleMuxer(MediaMuxer muxer) {
+        mMuxer = muxer;
+    }
+
+    public MediaMuxerSampleMuxer(String outputPath) throws IOException {
+        this(new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4));
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mMuxer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        mMuxer.writeSampleData(trackIndex, byteBuf, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
@@ -2,16 +2,21 @@ package com.quanshi.mediacodecbase18.CompressUtil;
 
 
 import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.media.MediaMetadataRetriever;
 import android.media.MediaMuxer;
+import android.os.Build;
 import android.util.Log;
 
+import java.io.File;
 import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
 
 
 /**
@@ -23,65 +28,410 @@ public class MediaTranscodeEngine {
     private static final String TAG = "MediaTranscodeEngine";
 
     private static final double PROGRESS_UNKNOWN = -1.0;
-    private static final long PROGRESS_INTERVAL_STEPS = 100;
-    private static final long SLEEP_TO_WAIT_TRACK_TRANSCODERS = 10;
+    private static final long DEFAULT_PROGRESS_INTERVAL_MS = 500;
+    private static final int DEFAULT_MAX_FRAME_RATE = 30;
+    // Only a safety net, the scheduler is woken up by the codecs.
+    private static final long MAX_WAIT_FOR_TRACK_TRANSCODERS_MS = 100;
+    private static final long MIN_SEGMENT_DURATION_US = 10 * 1000 * 1000;
+    // Most work a crash can cost when checkpointing.
+    private static final long CHECKPOINT_SEGMENT_DURATION_US = 30 * 1000 * 1000;
+    private static final int MAX_PENDING_FRAGMENTS = 3;
+    // How far the audio may run ahead of a staged video pipeline, which reads the input separately.
+    private static final long MAX_STAGED_AUDIO_LEAD_US = 1000 * 1000;
 
     // Refer: http://en.wikipedia.org/wiki/H.264/MPEG-4_AVC#Profiles
     private static final byte PROFILE_IDC_BASELINE = 66;
+    // H.265 keeps the quality of H.264 with about 40% fewer bits.
+    private static final double HEVC_BITRATE_RATIO = 0.6;
 
     private FileDescriptor mInputFileDescriptor;
     private TrackTranscoder mVideoTrackTranscoder;
     private TrackTranscoder mAudioTrackTranscoder;
-    private MediaExtractor mExtractor;
-    private MediaMuxer mMuxer;
+    private SampleSource mExtractor;
+    private SampleSource mVideoExtractor;
+    private SampleMuxer mMuxer;
+    private final EventPipelineScheduler mScheduler = new EventPipelineScheduler();
     private volatile double mProgress;
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    private long mProgressIntervalMs = DEFAULT_PROGRESS_INTERVAL_MS;
+    private long mStartTimeMs;
+    private long mLastProgressTimeMs;
+    private long mLastProgressFrames;
     private long mDurationUs;
+    private int mMaxParallelSegments = 1;
+    private int mMaxFrameRate = DEFAULT_MAX_FRAME_RATE;
+    private long mMaxOutputBytes;
+    private boolean mStagedPipeline;
+    private boolean mAsyncMuxerWriter;
+    private BitrateController mBitrateController;
+    private boolean mCheckpointing;
+    private TranscodeJournal mJournal;
+    private boolean mUseMp4Demuxer;
+    private boolean mUseMp4Muxer;
+    private FragmentedMp4Writer.FragmentSink mFragmentSink;
+    private long mFragmentDurationUs;
+    private TranscodeResourcePool mResourcePool;
+    private OutputFormatStrategy mOutputFormatStrategy;
+    private ComplexityAnalyzer.Result mComplexity;
+    private final AvcParameterSetParser mParameterSetParser = new AvcParameterSetParser();
+    private final AvcParameterSetParser.Sps mInputSps = new AvcParameterSetParser.Sps();
+    private final HevcParameterSetParser mHevcParameterSetParser = new HevcParameterSetParser();
+    private final HevcParameterSetParser.Vps mInputHevcVps = new HevcParameterSetParser.Vps();
+    private final HevcParameterSetParser.Sps mInputHevcSps = new HevcParameterSetParser.Sps();
+    private final HevcParameterSetParser.Pps mInputHevcPps = new HevcParameterSetParser.Pps();
+    private boolean mPreferHevc;
+    private String mVideoOutputMime = MIME_TYPE;
+    private boolean mInputWithinTarget;
+    // Of the input being transcoded, -1 if unknown.
+    private long mInputSize = -1;
+    private boolean mRemuxFaststart;
+    private long mTrimStartUs;
+    private long mTrimEndUs = Long.MAX_VALUE;
+    private boolean mTrimOnly;
+    private int mRotationDegrees = -1;
+    private Listener mListener;
+    private TranscodeMode mTranscodeMode;
+    private String mTranscodeModeReason;
+    private int mAudioBitrate;
+    private int mAudioSampleRate;
+    private int mAudioChannelCount;
 
     private static final String MIME_TYPE = "video/avc";
-    private static final int TARGET_WIDTH = 640;
-    private static final int TARGET_HEIGHT = 480;
-
-    private static final int TARGET_BITRATE = 500 * 1000;
+    private static final int DEFAULT_MAX_EDGE = 640;
+    // Assumed for audio of unknown bitrate when planning the output size.
+    private static final int DEFAULT_AUDIO_BITRATE = 128 * 1000;
+    private static final int MIN_VIDEO_BITRATE = 100 * 1000;
+    private static final int MAX_VIDEO_BITRATE = 20 * 1000 * 1000;
 
     public MediaTranscodeEngine() {
     }
 
+    /**
+     * How {@link #transcodeVideo(String)} produces the output.
+     */
+    public enum TranscodeMode {
+        /** Decode and re-encode the video in one pass. */
+        TRANSCODE,
+        /** Decode and re-encode the video in parallel segments, see {@link #setMaxParallelSegments(int)}. */
+        SEGMENTED_TRANSCODE,
+        /** Copy both tracks sample for sample, because the input is within the target already. */
+        REMUX,
+        /**
+         * Copy the GOPs within the trim range and re-encode only the partial ones at the cuts, see
+         * {@link #trimVideo(String, long, long)}.
+         */
+        SMART_CUT
+    }
+
+    public interface Listener {
+        /**
+         * Called on the transcoding thread once the mode is known, before any sample is written.
+         *
+         * @param reason why, for logs and diagnostics.
+         */
+        void onTranscodeModeChosen(TranscodeMode mode, String reason);
+
+        /**
+         * Called on the transcoding thread at most once per {@link #setProgressInterval(long) interval} while the
+         * tracks are written.
+         */
+        void onProgress(TranscodeStats stats);
+    }
+
     public void setDataSource(FileDescriptor fileDescriptor) {
         mInputFileDescriptor = fileDescriptor;
     }
 
     /**
-     * Returns the first codec capable of encoding the specified MIME type, or null if no
-     * match was found.
+     * Enables segmented mode: the video track is split at sync samples into up to {@code maxParallelSegments}
+     * ranges which are transcoded at the same time, each by its own decoder/encoder pair, and stitched afterwards.
+     * The actual number is also limited by the codec instances the device reports. Defaults to 1 (disabled).
      */
-    private static MediaCodecInfo selectCodec(String mimeType) {
-        int numCodecs = MediaCodecList.getCodecCount();
-        for (int i = 0; i < numCodecs; i++) {
-            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
-            if (!codecInfo.isEncoder()) {
-                Log.d(TAG, "support decoder: " + codecInfo.getName());
-                continue;
-            }
-            String[] types = codecInfo.getSupportedTypes();
-            for (int j = 0; j < types.length; j++) {
-                if (types[j].equalsIgnoreCase(mimeType)) {
-                    return codecInfo;
-                }
+    public void setMaxParallelSegments(int maxParallelSegments) {
+        mMaxParallelSegments = maxParallelSegments;
+    }
+
+    /**
+     * Caps the frame rate of compressed video: frames over it are dropped after decoding, before they are drawn
+     * and encoded, and the {@link OutputFormatStrategy} is given the capped rate. Inputs that need no compressing
+     * keep theirs. 0 keeps all frames. Defaults to 30.
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        if (maxFrameRate < 0) {
+            throw new IllegalArgumentException("Invalid frame rate: " + maxFrameRate);
+        }
+        mMaxFrameRate = maxFrameRate;
+    }
+
+    /**
+     * Makes the output at most {@code maxOutputBytes} large, landing a few percent below: the video bitrate is
+     * planned from the duration and what the audio and the container take, and corrected at every GOP by the
+     * bytes actually written, see {@link BitrateController}. The {@link OutputFormatStrategy} still picks the
+     * size, but not the bitrate, and inputs within it are compressed anyway if they are larger. Segments are not
+     * transcoded in parallel then. Needs Android 4.4 to correct the bitrate. 0 disables it (default).
+     */
+    public void setMaxOutputBytes(long maxOutputBytes) {
+        if (maxOutputBytes < 0) {
+            throw new IllegalArgumentException("Invalid size: " + maxOutputBytes);
+        }
+        mMaxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * Runs the video of a plain transcode in stages on threads of their own: feeding the decoder, drawing onto
+     * the encoder and draining it, handed over in bounded queues, see {@link StagedVideoPipeline}. The pipeline
+     * thread only writes the samples, so a slow {@code swapBuffers} or disk write no longer holds up the rest.
+     * The video is read from a second extractor then. Off by default.
+     */
+    public void setStagedPipeline(boolean stagedPipeline) {
+        mStagedPipeline = stagedPipeline;
+    }
+
+    /**
+     * Writes the samples to the muxer on a writer thread of its own, see {@link AsyncSampleMuxer}, so the pipeline
+     * thread only copies them and a slow disk no longer stalls the encoder output. A fragment sink is called on the
+     * writer thread then. Off by default.
+     */
+    public void setAsyncMuxerWriter(boolean asyncMuxerWriter) {
+        mAsyncMuxerWriter = asyncMuxerWriter;
+    }
+
+    /**
+     * Enables checkpointing: the video is transcoded in segments, also with a single codec pair, each spooled
+     * to a file next to the output and recorded in a {@link TranscodeJournal} when finished. If the process dies,
+     * running the same job again reuses the finished segments and only transcodes the rest; a job that failed or
+     * was canceled is resumed the same way. The journal and spools are removed once the output is complete.
+     * Ignored with {@link #setMaxOutputBytes}, whose bitrate control needs the GOPs in order. Off by default.
+     */
+    public void setCheckpointing(boolean checkpointing) {
+        mCheckpointing = checkpointing;
+    }
+
+    /**
+     * Reads the input with {@link Mp4Demuxer} from a memory mapping instead of {@link MediaExtractor}.
+     * Only plain (non-fragmented) MP4 files can be read this way. Defaults to false.
+     */
+    public void setUseMp4Demuxer(boolean useMp4Demuxer) {
+        mUseMp4Demuxer = useMp4Demuxer;
+    }
+
+    /**
+     * Writes the output with {@link Mp4Writer} in faststart layout (moov before mdat), so it can be played while
+     * it is still downloading. Needs free space for a second copy of the output until the muxer is stopped.
+     * Defaults to false, {@link MediaMuxer} is used.
+     */
+    public void setUseMp4Muxer(boolean useMp4Muxer) {
+        mUseMp4Muxer = useMp4Muxer;
+    }
+
+    /**
+     * Writes the output as fragmented MP4 with {@link FragmentedMp4Writer}: an init segment and then moof/mdat
+     * fragments, each handed to {@code sink} as soon as it is finished so it can be uploaded while transcoding
+     * continues. The files are named after the output path and written to its directory; nothing is written to
+     * the output path itself. Pass null to turn it off (default).
+     *
+     * @param fragmentDurationUs minimum fragment duration; 0 starts a fragment at every video sync frame.
+     */
+    public void setFragmentedOutput(FragmentedMp4Writer.FragmentSink sink, long fragmentDurationUs) {
+        mFragmentSink = sink;
+        mFragmentDurationUs = fragmentDurationUs;
+    }
+
+    /**
+     * Decides the size and bitrate of the output video. Defaults to a {@link MaxEdgeOutputFormatStrategy} fitting
+     * the longer edge in 640 pixels, with a {@link BitsPerPixelModel#forComplexity(float) bitrate model} for the
+     * complexity a {@link ComplexityAnalyzer} finds in the input's MP4 sample tables.
+     */
+    public void setOutputFormatStrategy(OutputFormatStrategy outputFormatStrategy) {
+        mOutputFormatStrategy = outputFormatStrategy;
+    }
+
+    /**
+     * Re-encodes the audio track to AAC-LC with {@link AudioTrackTranscoder} instead of copying it.
+     *
+     * @param bitrate      AAC bitrate in bits per second; 0 copies the audio track as it is (default).
+     * @param sampleRate   output sample rate, 0 keeps the input's.
+     * @param channelCount 1 downmixes to mono, 0 keeps the input's channels.
+     */
+    public void setAudioOutputFormat(int bitrate, int sampleRate, int channelCount) {
+        if (bitrate < 0 || sampleRate < 0 || channelCount < 0 || channelCount > 1) {
+            throw new IllegalArgumentException("Invalid audio output format: " + bitrate + " bps, " + sampleRate
+                    + " Hz, " + channelCount + " channels");
+        }
+        mAudioBitrate = bitrate;
+        mAudioSampleRate = sampleRate;
+        mAudioChannelCount = channelCount;
+    }
+
+    /**
+     * Encodes H.265 when the device has a hardware HEVC encoder and the muxer can store it, at
+     * {@link #HEVC_BITRATE_RATIO} of the bitrate the {@link OutputFormatStrategy} picks. Falls back to H.264
+     * otherwise, or if the HEVC encoder fails to start. Off by default.
+     */
+    public void setPreferHevc(boolean preferHevc) {
+        mPreferHevc = preferHevc;
+    }
+
+    /**
+     * Writes a remuxed or smart cut output with {@link Mp4Writer}, moov first, so it can be played while downloading. Only
+     * used for H.264 or H.265 with AAC; otherwise, and when transcoding, the muxer is picked as usual. Off by
+     * default.
+     */
+    public void setRemuxFaststart(boolean faststart) {
+        mRemuxFaststart = faststart;
+    }
+
+    /**
+     * Keeps only the part of the input presented from {@code startUs} until {@code endUs} when the input needs
+     * no compressing, with a {@link TranscodeMode#SMART_CUT}. Compressing a trimmed input is not supported; use
+     * {@link #trimVideo(String, long, long)} to trim without compressing.
+     *
+     * @param endUs {@link Long#MAX_VALUE} for the end of the input.
+     */
+    public void setTrimRange(long startUs, long endUs) {
+        if (startUs < 0 || endUs <= startUs) {
+            throw new IllegalArgumentException("Invalid trim range: " + startUs + " to " + endUs + " us");
+        }
+        mTrimStartUs = startUs;
+        mTrimEndUs = endUs;
+    }
+
+    /**
+     * Stores {@code degrees} as the rotation of the output instead of the input's, which rotates a remuxed video
+     * without touching a pixel.
+     *
+     * @param degrees 0, 90, 180 or 270; -1 keeps the input's (default).
+     */
+    public void setRotationDegrees(int degrees) {
+        if (degrees != -1 && (degrees < 0 || degrees >= 360 || degrees % 90 != 0)) {
+            throw new IllegalArgumentException("Invalid rotation: " + degrees);
+        }
+        mRotationDegrees = degrees;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param intervalMs least time between two {@link Listener#onProgress(TranscodeStats)} calls, 500 ms by
+     *                   default.
+     */
+    public void setProgressInterval(long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("Invalid progress interval: " + intervalMs + " ms");
+        }
+        mProgressIntervalMs = intervalMs;
+    }
+
+    /**
+     * @return progress of the running transcode between 0 and 1, -1 while unknown. Safe to call from any thread.
+     */
+    public double getProgress() {
+        return mProgress;
+    }
+
+    /**
+     * @return the mode of the last {@link #transcodeVideo(String)}, null before one has picked it.
+     */
+    public TranscodeMode getTranscodeMode() {
+        return mTranscodeMode;
+    }
+
+    /**
+     * @return why {@link #getTranscodeMode()} was picked.
+     */
+    public String getTranscodeModeReason() {
+        return mTranscodeModeReason;
+    }
+
+    /**
+     * Takes the video codecs and the EGL context from {@code resourcePool} and gives them back when done, so jobs
+     * run one after another reuse them. Not used by segmented transcoding. Pass null to turn it off (default).
+     */
+    public void setResourcePool(TranscodeResourcePool resourcePool) {
+        mResourcePool = resourcePool;
+    }
+
+    private SampleMuxer createSampleMuxer(String outputPath, TrackResult trackResult) throws IOException {
+        if (mFragmentSink != null) {
+            File outputFile = new File(outputPath);
+            String baseName = outputFile.getName();
+            int extension = baseName.lastIndexOf('.');
+            if (extension > 0) {
+                baseName = baseName.substring(0, extension);
             }
+            return new Mp4SampleMuxer(new FragmentedMp4Writer(outputFile.getAbsoluteFile().getParentFile(), baseName,
+                    mFragmentDurationUs, MAX_PENDING_FRAGMENTS, mFragmentSink));
         }
-        return null;
+        if (mUseMp4Muxer) {
+            return new Mp4SampleMuxer(outputPath, true);
+        }
+        if ((mTranscodeMode == TranscodeMode.REMUX || mTranscodeMode == TranscodeMode.SMART_CUT) && mRemuxFaststart
+                && isMp4WriterFormat(trackResult)) {
+            return new Mp4SampleMuxer(outputPath, true);
+        }
+        return new MediaMuxerSampleMuxer(outputPath);
+    }
+
+    private static boolean isMp4WriterFormat(TrackResult trackResult) {
+        String videoMime = trackResult.mVideoTrackMime;
+        String audioMime = trackResult.mAudioTrackFormat.getString(MediaFormat.KEY_MIME);
+        return (Mp4TrackFormat.MIME_VIDEO_AVC.equals(videoMime) || Mp4TrackFormat.MIME_VIDEO_HEVC.equals(videoMime))
+                && Mp4TrackFormat.MIME_AUDIO_AAC.equals(audioMime);
+    }
+
+    private SampleSource.Factory createSampleSourceFactory() {
+        if (mUseMp4Demuxer) {
+            return new Mp4SampleSource.Factory(mInputFileDescriptor);
+        }
+        return new MediaExtractorSampleSource.Factory(mInputFileDescriptor);
+    }
+
+    /**
+     * @return how many transcodes the AVC codecs of the device can serve at once, each needing a decoder and an
+     * encoder. 1 if the platform does not tell (API &lt; 23).
+     */
+    public static int getMaxConcurrentTranscodes() {
+        CodecRegistry registry = DeviceCodecRegistry.get();
+        int encoders = getMaxInstances(registry.getBestEncoder(MIME_TYPE));
+        int decoders = getMaxInstances(registry.getBestDecoder(MIME_TYPE));
+        return Math.max(1, Math.min(encoders, decoders));
+    }
+
+    private static int getMaxInstances(CodecInfo codec) {
+        return codec == null ? 1 : codec.getMaxInstances();
     }
 
     private void setupMetadata() throws IOException {
+        if (mExtractor instanceof Mp4SampleSource) {
+            // The demuxer has parsed the headers already.
+            Mp4Demuxer demuxer = ((Mp4SampleSource) mExtractor).getDemuxer();
+            int rotationDegrees = 0;
+            for (int i = 0; i < demuxer.getTrackCount(); i++) {
+                if (Mp4Demuxer.TRACK_TYPE_VIDEO.equals(demuxer.getTrack(i).getHandlerType())) {
+                    rotationDegrees = demuxer.getTrack(i).getRotationDegrees();
+                    break;
+                }
+            }
+            mMuxer.setOrientationHint(mRotationDegrees >= 0 ? mRotationDegrees : rotationDegrees);
+            mDurationUs = demuxer.getDurationUs();
+            Log.d(TAG, "Duration (us): " + mDurationUs);
+            return;
+        }
         MediaMetadataRetriever mediaMetadataRetriever = new MediaMetadataRetriever();
         mediaMetadataRetriever.setDataSource(mInputFileDescriptor);
 
         String rotationString = mediaMetadataRetriever.extractMetadata(
                 MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
-        try {
-            mMuxer.setOrientationHint(Integer.parseInt(rotationString));
-        } catch (NumberFormatException e) {
-            // skip
+        if (mRotationDegrees >= 0) {
+            mMuxer.setOrientationHint(mRotationDegrees);
+        } else {
+            try {
+                mMuxer.setOrientationHint(Integer.parseInt(rotationString));
+            } catch (NumberFormatException e) {
+                // skip
+            }
         }
 
         // TODO: parse ISO 6709
@@ -97,123 +447,755 @@ public class MediaTranscodeEngine {
         Log.d(TAG, "Duration (us): " + mDurationUs);
     }
 
+    /**
+     * @return the video mime type to encode, see {@link #setPreferHevc(boolean)}.
+     */
+    private String chooseVideoOutputMime() {
+        if (!mPreferHevc) {
+            return MIME_TYPE;
+        }
+        CodecInfo hevcEncoder = DeviceCodecRegistry.get().getBestEncoder(MediaConstants.MIMETYPE_VIDEO_HEVC);
+        if (hevcEncoder == null || !hevcEncoder.isHardware()) {
+            Log.i(TAG, "no hardware HEVC encoder, encode AVC.");
+            return MIME_TYPE;
+        }
+        boolean mediaMuxer = mFragmentSink == null && !mUseMp4Muxer;
+        if (mediaMuxer && Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            Log.i(TAG, "MediaMuxer cannot store HEVC before Android 7.0, encode AVC.");
+            return MIME_TYPE;
+        }
+        return MediaConstants.MIMETYPE_VIDEO_HEVC;
+    }
+
     public MediaFormat createVideoOutputFormat(MediaFormat inputFormat) {
-        MediaCodecInfo codecInfo = selectCodec(MIME_TYPE);
+        mInputWithinTarget = false;
+        String mime = mVideoOutputMime;
+        CodecInfo codecInfo = DeviceCodecRegistry.get().getBestEncoder(mime);
         if (codecInfo == null) {
             // Don't fail CTS if they don't have an AVC codec (not here, anyway).
-            Log.e(TAG, "Unable to find an appropriate codec for " + MIME_TYPE);
+            Log.e(TAG, "Unable to find an appropriate codec for " + mime);
             return null;
         }
-        Log.d(TAG, "found codec: " + codecInfo.getName());
+        Log.d(TAG, "found codec: " + codecInfo);
 
         int width = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
         int height = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
-        int longer, shorter, outWidth, outHeight;
-        if (width >= height) {
-            longer = width;
-            shorter = height;
-            outWidth = TARGET_WIDTH;
-            outHeight = TARGET_HEIGHT;
-        } else {
-            shorter = width;
-            longer = height;
-            outWidth = TARGET_HEIGHT;
-            outHeight = TARGET_WIDTH;
+        int frameRate = getOptionalInteger(inputFormat, MediaFormat.KEY_FRAME_RATE);
+        double spsFrameRate = 0;
+        AvcParameterSetParser.Sps sps = parseInputSps(inputFormat);
+        HevcParameterSetParser.Sps hevcSps = sps == null ? parseInputHevcSps(inputFormat) : null;
+        // The container may give the coded size, and often no frame rate at all.
+        if (sps != null) {
+            width = sps.mWidth;
+            height = sps.mHeight;
+            spsFrameRate = sps.getFrameRate();
+        } else if (hevcSps != null) {
+            width = hevcSps.mWidth;
+            height = hevcSps.mHeight;
+            spsFrameRate = hevcSps.getFrameRate();
         }
-
-        /*
-        if (longer * 9 != shorter * 16) {
-            throw new OutputFormatUnavailableException("This video is not 16:9, and is not able to transcode. " +
-                    "(" + width + "x" + height + ")");
+        if (frameRate == OutputFormatStrategy.UNKNOWN && spsFrameRate > 0) {
+            frameRate = (int) Math.round(spsFrameRate);
         }
-        */
-
-        if (shorter <= TARGET_HEIGHT || longer <= TARGET_WIDTH) {
-//            Log.d(TAG, "This video is less or equal to 720p, pass-through. (" + width + "x" + height + ")");
-            Log.i(TAG, "video is no need to compress, video height: " + shorter + ", width: " + longer);
+        if (mMaxFrameRate > 0 && frameRate > mMaxFrameRate) {
+            // Frames over it are dropped before encoding, see VideoTrackTranscoder#setMaxFrameRate.
+            frameRate = mMaxFrameRate;
+        }
+        OutputFormatStrategy.VideoFormat input = new OutputFormatStrategy.VideoFormat(width, height, frameRate,
+                getOptionalInteger(inputFormat, MediaFormat.KEY_BIT_RATE));
+        OutputFormatStrategy strategy = mOutputFormatStrategy;
+        String complexity = "";
+        if (strategy == null) {
+            float score = mComplexity != null ? mComplexity.getScore() : ComplexityAnalyzer.NEUTRAL_SCORE;
+            strategy = new MaxEdgeOutputFormatStrategy(DEFAULT_MAX_EDGE, BitsPerPixelModel.forComplexity(score));
+            complexity = mComplexity != null ? ", " + mComplexity : ", complexity unknown";
+        }
+        OutputFormatStrategy.VideoFormat output = strategy.createVideoOutputFormat(input);
+        if (output == null && mMaxOutputBytes > 0 && mInputSize > mMaxOutputBytes) {
+            // Only the bitrate has to go down, it is planned from the size later.
+            output = new OutputFormatStrategy.VideoFormat(width, height, frameRate, input.getBitrate());
+            complexity += ", larger than " + mMaxOutputBytes + " bytes";
+        }
+        mInputWithinTarget = output == null;
+        if (output == null) {
+            Log.i(TAG, "video is no need to compress: " + input + complexity);
+            mTranscodeModeReason = "input " + input + " is within the target" + complexity;
             return null;
         }
+        mTranscodeModeReason = "compress " + input + " to " + output + complexity;
+        Log.i(TAG, "compress video " + input + " to " + output);
 
-        // H.264 Advanced Video Coding
-        MediaFormat format = MediaFormat.createVideoFormat("video/avc", outWidth, outHeight);
-        format.setInteger(MediaFormat.KEY_BIT_RATE, TARGET_BITRATE);
-        format.setInteger(MediaFormat.KEY_FRAME_RATE, 30);
+        // H.264 Advanced Video Coding, or H.265 High Efficiency Video Coding
+        MediaFormat format = MediaFormat.createVideoFormat(mime, output.getWidth(), output.getHeight());
+        int bitrate = output.getBitrate();
+        if (MediaConstants.MIMETYPE_VIDEO_HEVC.equals(mime)) {
+            bitrate = (int) (bitrate * HEVC_BITRATE_RATIO);
+        }
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, output.getFrameRate() > 0
+                ? output.getFrameRate() : BitsPerPixelModel.DEFAULT_FRAME_RATE);
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 3);  // I帧间隔3s
         format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
         return format;
     }
 
-    private void setupTrackTranscoders() {
-        TrackResult trackResult = getFirstVideoAndAudioTrack(mExtractor);
+    private TrackTranscoder createAudioTrackTranscoder(TrackResult trackResult, QueuedMuxer queuedMuxer) {
+        if (mAudioBitrate == 0) {
+            PassThroughTrackTranscoder audioTrackTranscoder = new PassThroughTrackTranscoder(mExtractor,
+                    trackResult.mAudioTrackIndex, queuedMuxer, QueuedMuxer.SampleType.AUDIO);
+            audioTrackTranscoder.setMetrics(mMetrics);
+            return audioTrackTranscoder;
+        }
+        MediaFormat input = trackResult.mAudioTrackFormat;
+        int sampleRate = mAudioSampleRate > 0 ? mAudioSampleRate : input.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channelCount = mAudioChannelCount > 0 ? mAudioChannelCount
+                : input.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        MediaFormat format = MediaFormat.createAudioFormat(MediaConstants.MIMETYPE_AUDIO_AAC, sampleRate,
+                channelCount);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mAudioBitrate);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        Log.d(TAG, "audio output format: " + format);
+        AudioTrackTranscoder audioTrackTranscoder = new AudioTrackTranscoder(mExtractor, trackResult.mAudioTrackIndex,
+                format, queuedMuxer, mScheduler);
+        audioTrackTranscoder.setMetrics(mMetrics);
+        return audioTrackTranscoder;
+    }
+
+    /**
+     * @return the SPS of an AVC input, or null if there is none or it cannot be parsed.
+     */
+    private AvcParameterSetParser.Sps parseInputSps(MediaFormat inputFormat) {
+        if (!MediaConstants.MIMETYPE_VIDEO_AVC.equals(inputFormat.getString(MediaFormat.KEY_MIME))
+                || !inputFormat.containsKey(MediaConstants.KEY_AVC_SPS)) {
+            return null;
+        }
+        try {
+            mParameterSetParser.parseSps(inputFormat.getByteBuffer(MediaConstants.KEY_AVC_SPS), mInputSps);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "could not parse the input SPS", e);
+            return null;
+        }
+        Log.d(TAG, "input " + mInputSps);
+        return mInputSps;
+    }
 
-        MediaFormat videoOutputFormat = createVideoOutputFormat(trackResult.mVideoTrackFormat);
-        if (videoOutputFormat == null) {
-            throw new RuntimeException("pass-through for both video and audio. No transcoding is necessary.");
+    /**
+     * @return the SPS of an HEVC input, or null if there is none or it cannot be parsed.
+     */
+    private HevcParameterSetParser.Sps parseInputHevcSps(MediaFormat inputFormat) {
+        if (!MediaConstants.MIMETYPE_VIDEO_HEVC.equals(inputFormat.getString(MediaFormat.KEY_MIME))
+                || !inputFormat.containsKey(MediaConstants.KEY_AVC_SPS)) {
+            return null;
         }
+        try {
+            // csd-0 holds the VPS, SPS and PPS.
+            mHevcParameterSetParser.parseCsd(inputFormat.getByteBuffer(MediaConstants.KEY_AVC_SPS), mInputHevcVps,
+                    mInputHevcSps, mInputHevcPps);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "could not parse the input parameter sets", e);
+            return null;
+        }
+        Log.d(TAG, "input " + mInputHevcSps);
+        return mInputHevcSps;
+    }
+
+    private static int getOptionalInteger(MediaFormat format, String key) {
+        return format.containsKey(key) ? format.getInteger(key) : OutputFormatStrategy.UNKNOWN;
+    }
+
+    private QueuedMuxer createQueuedMuxer() {
         QueuedMuxer queuedMuxer = new QueuedMuxer(mMuxer, new QueuedMuxer.Listener() {
             @Override
             public void onDetermineOutputFormat() {
+                // AVC encoders may pick any profile, so only HEVC output is checked.
+                MediaFormat videoFormat = mVideoTrackTranscoder.getDeterminedFormat();
+                if ((mTranscodeMode == TranscodeMode.TRANSCODE
+                        || mTranscodeMode == TranscodeMode.SEGMENTED_TRANSCODE)
+                        && MediaConstants.MIMETYPE_VIDEO_HEVC.equals(videoFormat.getString(MediaFormat.KEY_MIME))) {
+                    validateVideoOutputFormat(videoFormat);
+                }
 //                validateVideoOutputFormat(mVideoTrackTranscoder.getDeterminedFormat());
 //                validateAudioOutputFormat(mAudioTrackTranscoder.getDeterminedFormat());
             }
         });
+        queuedMuxer.setMetrics(mMetrics);
+        return queuedMuxer;
+    }
+
+    private void setupTrackTranscoders(TrackResult trackResult, MediaFormat videoOutputFormat) throws IOException {
+        QueuedMuxer queuedMuxer = createQueuedMuxer();
+        queuedMuxer.setBitrateController(mBitrateController);
+        if (mStagedPipeline) {
+            // The feeder thread of the video reads on its own, so the shared extractor only serves the audio.
+            mVideoExtractor = createSampleSourceFactory().create();
+        }
 
-        mVideoTrackTranscoder = new VideoTrackTranscoder(mExtractor, trackResult.mVideoTrackIndex,
-                videoOutputFormat, queuedMuxer);
+        try {
+            setupVideoTrackTranscoder(trackResult, videoOutputFormat, queuedMuxer);
+        } catch (RuntimeException e) {
+            if (!MediaConstants.MIMETYPE_VIDEO_HEVC.equals(mVideoOutputMime)) throw e;
+            // Some HEVC encoders are listed but refuse the size or bitrate asked for.
+            Log.w(TAG, "HEVC encoder failed to start, fall back to AVC.", e);
+            mVideoTrackTranscoder.release();
+            mVideoTrackTranscoder = null;
+            mVideoOutputMime = MIME_TYPE;
+            videoOutputFormat = createVideoOutputFormat(trackResult.mVideoTrackFormat);
+            if (videoOutputFormat == null) throw e;
+            setupVideoTrackTranscoder(trackResult, videoOutputFormat, queuedMuxer);
+        }
+
+        mAudioTrackTranscoder = createAudioTrackTranscoder(trackResult, queuedMuxer);
+        mAudioTrackTranscoder.setup();
+
+        if (mVideoExtractor == null) {
+            mExtractor.selectTrack(trackResult.mVideoTrackIndex);
+        }
+        mExtractor.selectTrack(trackResult.mAudioTrackIndex);
+    }
+
+    private void setupVideoTrackTranscoder(TrackResult trackResult, MediaFormat videoOutputFormat,
+                                           QueuedMuxer queuedMuxer) {
+        if (mBitrateController != null) {
+            videoOutputFormat.setInteger(MediaFormat.KEY_BIT_RATE, mBitrateController.getBitrate());
+        }
+        VideoTrackTranscoder videoTrackTranscoder = new VideoTrackTranscoder(
+                mVideoExtractor != null ? mVideoExtractor : mExtractor, trackResult.mVideoTrackIndex,
+                videoOutputFormat, queuedMuxer, mScheduler);
+        videoTrackTranscoder.setStaged(mVideoExtractor != null);
+        videoTrackTranscoder.setResourcePool(mResourcePool);
+        videoTrackTranscoder.setMetrics(mMetrics);
+        videoTrackTranscoder.setMaxFrameRate(mMaxFrameRate);
+        videoTrackTranscoder.setBitrateController(mBitrateController);
+        mVideoTrackTranscoder = videoTrackTranscoder;
         mVideoTrackTranscoder.setup();
+    }
 
-        mAudioTrackTranscoder = new PassThroughTrackTranscoder(mExtractor, trackResult.mAudioTrackIndex,
-                queuedMuxer, QueuedMuxer.SampleType.AUDIO);
+    /**
+     * Copies both tracks as they are.
+     */
+    private void setupRemuxTrackTranscoders(TrackResult trackResult) {
+        QueuedMuxer queuedMuxer = createQueuedMuxer();
+        PassThroughTrackTranscoder videoTrackTranscoder = new PassThroughTrackTranscoder(mExtractor,
+                trackResult.mVideoTrackIndex, queuedMuxer, QueuedMuxer.SampleType.VIDEO);
+        videoTrackTranscoder.setMetrics(mMetrics);
+        mVideoTrackTranscoder = videoTrackTranscoder;
+        PassThroughTrackTranscoder audioTrackTranscoder = new PassThroughTrackTranscoder(mExtractor,
+                trackResult.mAudioTrackIndex, queuedMuxer, QueuedMuxer.SampleType.AUDIO);
+        audioTrackTranscoder.setMetrics(mMetrics);
+        mAudioTrackTranscoder = audioTrackTranscoder;
+        mVideoTrackTranscoder.setup();
         mAudioTrackTranscoder.setup();
 
         mExtractor.selectTrack(trackResult.mVideoTrackIndex);
         mExtractor.selectTrack(trackResult.mAudioTrackIndex);
     }
 
-    private void runPipelines() {
-        long loopCount = 0;
+    /**
+     * Re-encodes the partial GOPs at the cuts up front, then sets up the copying of the rest of the trim range
+     * and of the audio within it.
+     */
+    private void setupSmartCutTrackTranscoders(String outputPath, TrackResult trackResult)
+            throws IOException, InterruptedException {
+        long[] syncTimesUs = getSyncSampleTimes(trackResult.mVideoTrackIndex);
+        List<SmartCutPlanner.Part> parts = SmartCutPlanner.plan(syncTimesUs, syncTimesUs.length, mDurationUs,
+                mTrimStartUs, mTrimEndUs);
+        long startUs = parts.get(0).getStartTimeUs();
+        boolean copies = false;
+        long encodedUs = 0;
+        for (SmartCutPlanner.Part part : parts) {
+            if (part.isCopy()) {
+                copies = true;
+            } else {
+                encodedUs += Math.min(part.getEndTimeUs(), mDurationUs > 0 ? mDurationUs : part.getEndTimeUs())
+                        - part.getStartTimeUs();
+            }
+        }
+        Log.i(TAG, "smart cut " + parts);
+        mTranscodeModeReason += ", re-encode " + encodedUs + " us at the cuts" + (copies ? " and copy the rest" : "");
+        notifyTranscodeMode(TranscodeMode.SMART_CUT);
+
+        MediaFormat encodeFormat = createSmartCutVideoFormat(trackResult.mVideoTrackFormat);
+        VideoSegmentEncoder.Factory encoderFactory = new VideoSegmentEncoder.Factory(createSampleSourceFactory(),
+                trackResult.mVideoTrackIndex, encodeFormat, parts.size());
+        File spoolDirectory = new File(outputPath).getAbsoluteFile().getParentFile();
+        SegmentSpool[] spools = new SegmentSpool[parts.size()];
+        QueuedMuxer queuedMuxer = createQueuedMuxer();
+        try {
+            for (int i = 0; i < parts.size(); i++) {
+                if (parts.get(i).isCopy()) continue;
+                spools[i] = new SegmentSpool(spoolDirectory, i);
+                encoderFactory.create().encode(i, parts.get(i), spools[i]);
+            }
+            SmartCutVideoTrackTranscoder videoTrackTranscoder = new SmartCutVideoTrackTranscoder(mExtractor,
+                    trackResult.mVideoTrackIndex, parts, spools, queuedMuxer);
+            videoTrackTranscoder.setMetrics(mMetrics);
+            mVideoTrackTranscoder = videoTrackTranscoder;
+        } finally {
+            mMetrics.add(encoderFactory.getMetrics());
+            if (mVideoTrackTranscoder == null) {
+                for (SegmentSpool spool : spools) {
+                    if (spool != null) spool.release();
+                }
+            }
+        }
+        mVideoTrackTranscoder.setup();
+
+        // Audio is cut at the first and the last sample within the range.
+        PassThroughTrackTranscoder audioTrackTranscoder = new PassThroughTrackTranscoder(mExtractor,
+                trackResult.mAudioTrackIndex, queuedMuxer, QueuedMuxer.SampleType.AUDIO);
+        audioTrackTranscoder.setTrimRange(startUs, mTrimEndUs, false);
+        audioTrackTranscoder.setMetrics(mMetrics);
+        mAudioTrackTranscoder = audioTrackTranscoder;
+        mAudioTrackTranscoder.setup();
+
+        // Without a copied part the video samples of the shared extractor are not needed at all.
+        if (copies) {
+            mExtractor.selectTrack(trackResult.mVideoTrackIndex);
+        }
+        mExtractor.selectTrack(trackResult.mAudioTrackIndex);
+        mExtractor.seekTo(startUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        if (mDurationUs > 0) {
+            mDurationUs = Math.min(mDurationUs, mTrimEndUs) - startUs;
+        }
+    }
+
+    /**
+     * @return a format to re-encode the cut GOPs like the input: same codec, size and bitrate and, for AVC where
+     * the encoder supports them, the same profile and level, so the parameter sets are as close as the encoder
+     * allows.
+     */
+    private MediaFormat createSmartCutVideoFormat(MediaFormat inputFormat) {
+        String mime = inputFormat.getString(MediaFormat.KEY_MIME);
+        CodecInfo codecInfo = DeviceCodecRegistry.get().getBestEncoder(mime);
+        if (codecInfo == null) {
+            throw new RuntimeException("No " + mime + " encoder available to re-encode the cuts.");
+        }
+        int width = inputFormat.getInteger(MediaFormat.KEY_WIDTH);
+        int height = inputFormat.getInteger(MediaFormat.KEY_HEIGHT);
+        int frameRate = getOptionalInteger(inputFormat, MediaFormat.KEY_FRAME_RATE);
+        double spsFrameRate = 0;
+        AvcParameterSetParser.Sps sps = parseInputSps(inputFormat);
+        HevcParameterSetParser.Sps hevcSps = sps == null ? parseInputHevcSps(inputFormat) : null;
+        if (sps != null) {
+            width = sps.mWidth;
+            height = sps.mHeight;
+            spsFrameRate = sps.getFrameRate();
+        } else if (hevcSps != null) {
+            width = hevcSps.mWidth;
+            height = hevcSps.mHeight;
+            spsFrameRate = hevcSps.getFrameRate();
+        }
+        if (frameRate == OutputFormatStrategy.UNKNOWN) {
+            frameRate = spsFrameRate > 0 ? (int) Math.round(spsFrameRate) : BitsPerPixelModel.DEFAULT_FRAME_RATE;
+        }
+        int bitrate = getOptionalInteger(inputFormat, MediaFormat.KEY_BIT_RATE);
+        if (bitrate <= 0) {
+            // A few seconds at the cuts, so rather too many bits than visibly worse frames.
+            bitrate = new BitsPerPixelModel(BitsPerPixelModel.HIGH_MOTION).getBitrate(width, height, frameRate);
+        }
+
+        MediaFormat format = MediaFormat.createVideoFormat(mime, width, height);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 3);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        if (sps != null) {
+            int profile = getAvcCodecProfile(sps.mProfileIdc);
+            int level = getAvcCodecLevel(sps.mLevelIdc, sps.getConstraintSetFlag(3));
+            if (profile != 0 && level != 0 && codecInfo.getMaxLevel(profile) >= level) {
+                format.setInteger(MediaConstants.KEY_PROFILE, profile);
+                format.setInteger(MediaConstants.KEY_LEVEL, level);
+            }
+        }
+        Log.d(TAG, "smart cut video format: " + format);
+        return format;
+    }
+
+    /**
+     * @return the {@link MediaCodecInfo.CodecProfileLevel} profile of an H.264 profile_idc, 0 for the ones
+     * encoders do not offer.
+     */
+    private static int getAvcCodecProfile(int profileIdc) {
+        switch (profileIdc) {
+            case 66:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+            case 77:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
+            case 88:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileExtended;
+            case 100:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileHigh;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param constraintSet3 level 1b when level_idc is 11, see A.3.1.
+     * @return the {@link MediaCodecInfo.CodecProfileLevel} level of an H.264 level_idc, 0 if unknown.
+     */
+    private static int getAvcCodecLevel(int levelIdc, boolean constraintSet3) {
+        switch (levelIdc) {
+            case 9:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel1b;
+            case 10:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel1;
+            case 11:
+                return constraintSet3 ? MediaCodecInfo.CodecProfileLevel.AVCLevel1b
+                        : MediaCodecInfo.CodecProfileLevel.AVCLevel11;
+            case 12:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel12;
+            case 13:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel13;
+            case 20:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel2;
+            case 21:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel21;
+            case 22:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel22;
+            case 30:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel3;
+            case 31:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel31;
+            case 32:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel32;
+            case 40:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel4;
+            case 41:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel41;
+            case 42:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel42;
+            case 50:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel5;
+            case 51:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel51;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Transcodes the video track in parallel segments, then sets up the muxing of the stitched segments
+     * and the audio pass-through.
+     *
+     * @return false if the input cannot be split, in which case nothing has been set up.
+     */
+    private boolean setupSegmentedTrackTranscoders(String outputPath, TrackResult trackResult,
+                                                   MediaFormat videoOutputFormat)
+            throws IOException, InterruptedException {
+        // Every segment holds a decoder and an encoder, so both limit how many can run at once.
+        String outputMime = videoOutputFormat.getString(MediaFormat.KEY_MIME);
+        int parallelism = Math.min(mMaxParallelSegments, Runtime.getRuntime().availableProcessors());
+        CodecRegistry registry = DeviceCodecRegistry.get();
+        parallelism = Math.min(parallelism, getMaxInstances(registry.getBestEncoder(outputMime)));
+        parallelism = Math.min(parallelism, getMaxInstances(registry.getBestDecoder(trackResult.mVideoTrackMime)));
+        if (parallelism <= 1 && !mCheckpointing) {
+            Log.i(TAG, "codecs do not allow parallel segments, transcode in one pass.");
+            mTranscodeModeReason += ", in one pass as the codecs do not allow parallel segments";
+            return false;
+        }
+        parallelism = Math.max(1, parallelism);
+        int maxSegments = parallelism;
+        if (mCheckpointing && mDurationUs > 0) {
+            maxSegments = (int) Math.max(maxSegments, mDurationUs / CHECKPOINT_SEGMENT_DURATION_US);
+        }
+        long[] syncTimesUs = getSyncSampleTimes(trackResult.mVideoTrackIndex);
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncTimesUs, syncTimesUs.length, mDurationUs,
+                maxSegments, MIN_SEGMENT_DURATION_US);
+        if (segments.size() <= 1) {
+            Log.i(TAG, "video is too short to split, transcode in one pass.");
+            mTranscodeModeReason += ", in one pass as the video is too short to split";
+            return false;
+        }
+        Log.i(TAG, "transcode " + segments.size() + " segments with " + parallelism + " codec pairs: " + segments);
+        mTranscodeModeReason += ", in " + segments.size() + " segments on " + parallelism + " codec pairs";
+        notifyTranscodeMode(TranscodeMode.SEGMENTED_TRANSCODE);
+
+        VideoSegmentEncoder.Factory encoderFactory = new VideoSegmentEncoder.Factory(createSampleSourceFactory(),
+                trackResult.mVideoTrackIndex, videoOutputFormat, segments.size());
+        encoderFactory.setMaxFrameRate(mMaxFrameRate);
+        File spoolDirectory = new File(outputPath).getAbsoluteFile().getParentFile();
+        SegmentedTranscodeRunner runner = new SegmentedTranscodeRunner(encoderFactory, parallelism, spoolDirectory);
+        if (mCheckpointing) {
+            mJournal = TranscodeJournal.open(new File(outputPath).getAbsoluteFile(),
+                    getCheckpointKey(trackResult, videoOutputFormat, syncTimesUs, segments), Clock.SYSTEM);
+            runner.setCheckpoint(mJournal);
+            Log.i(TAG, "checkpoint journal has " + mJournal.getFinishedSegmentCount() + " finished segments.");
+        }
+        List<SegmentSpool> spools = runner.run(segments);
+        mMetrics.add(encoderFactory.getMetrics());
+        MediaFormat actualOutputFormat = encoderFactory.getActualOutputFormat(0);
+        if (actualOutputFormat == null) {
+            // The first segment was restored from the journal.
+            actualOutputFormat = createRestoredOutputFormat(videoOutputFormat, spools.get(0).getCodecConfig());
+        }
+
+        QueuedMuxer queuedMuxer = createQueuedMuxer();
+        SegmentedVideoTrackTranscoder videoTrackTranscoder = new SegmentedVideoTrackTranscoder(spools,
+                actualOutputFormat, queuedMuxer);
+        videoTrackTranscoder.setKeepSegments(mJournal != null);
+        mVideoTrackTranscoder = videoTrackTranscoder;
+        mVideoTrackTranscoder.setup();
+
+        mAudioTrackTranscoder = createAudioTrackTranscoder(trackResult, queuedMuxer);
+        mAudioTrackTranscoder.setup();
+
+        mExtractor.selectTrack(trackResult.mAudioTrackIndex);
+        return true;
+    }
+
+    /**
+     * @return what the spooled segments of a checkpointed transcode depend on.
+     */
+    private String getCheckpointKey(TrackResult trackResult, MediaFormat videoOutputFormat, long[] syncTimesUs,
+                                    List<SegmentPlanner.Segment> segments) {
+        return mDurationUs + ";" + Arrays.hashCode(syncTimesUs) + ";" + trackResult.mVideoTrackFormat + ";"
+                + videoOutputFormat + ";" + mMaxFrameRate + ";" + segments;
+    }
+
+    /**
+     * @return the output format the encoder of a restored segment reported, rebuilt from the requested one and
+     * the parameter sets spooled with the segment.
+     */
+    private static MediaFormat createRestoredOutputFormat(MediaFormat requested, byte[] codecConfig) {
+        String mime = requested.getString(MediaFormat.KEY_MIME);
+        MediaFormat format = MediaFormat.createVideoFormat(mime, requested.getInteger(MediaFormat.KEY_WIDTH),
+                requested.getInteger(MediaFormat.KEY_HEIGHT));
+        if (codecConfig == null) {
+            throw new IllegalStateException("Restored segment has no codec config.");
+        }
+        int split = codecConfig.length;
+        if (MediaConstants.MIMETYPE_VIDEO_AVC.equals(mime)) {
+            // csd-0 holds the SPS, csd-1 the PPS; HEVC keeps all parameter sets in csd-0.
+            ByteBuffer buffer = ByteBuffer.wrap(codecConfig);
+            split = NalUnitScanner.findStartCode(buffer, NalUnitScanner.skipStartCode(buffer), codecConfig.length);
+            if (split > 0 && split < codecConfig.length && codecConfig[split - 1] == 0) split--;
+        }
+        format.setByteBuffer(MediaConstants.KEY_AVC_SPS, ByteBuffer.wrap(Arrays.copyOfRange(codecConfig, 0, split)));
+        if (split < codecConfig.length) {
+            format.setByteBuffer(MediaConstants.KEY_AVC_PPS,
+                    ByteBuffer.wrap(Arrays.copyOfRange(codecConfig, split, codecConfig.length)));
+        }
+        return format;
+    }
+
+    /**
+     * Plans the video bitrate of {@link #setMaxOutputBytes(long)}, with the audio taking what its track has, or
+     * what its bitrate gives.
+     *
+     * @return null if the duration is unknown.
+     */
+    private BitrateController createBitrateController(TrackResult trackResult, MediaFormat videoOutputFormat,
+                                                      InputProbe inputProbe) {
         if (mDurationUs <= 0) {
-//            double progress = PROGRESS_UNKNOWN;
-//            mProgress = progress;
-//            if (mProgressCallback != null) mProgressCallback.onProgress(progress); // unknown
+            Log.w(TAG, "duration unknown, cannot plan for " + mMaxOutputBytes + " bytes.");
+            return null;
+        }
+        MediaFormat audioFormat = trackResult.mAudioTrackFormat;
+        long audioBytes = -1;
+        if (mAudioBitrate > 0) {
+            audioBytes = mAudioBitrate * mDurationUs / 8 / 1000000;
+        } else {
+            Mp4Demuxer.Track audioTrack = inputProbe.getMp4Track(Mp4Demuxer.TRACK_TYPE_AUDIO);
+            if (audioTrack != null) {
+                audioBytes = 0;
+                for (int i = 0; i < audioTrack.getSampleCount(); i++) {
+                    audioBytes += audioTrack.getSampleSize(i);
+                }
+            } else if (audioFormat.containsKey(MediaFormat.KEY_BIT_RATE)) {
+                audioBytes = audioFormat.getInteger(MediaFormat.KEY_BIT_RATE) * mDurationUs / 8 / 1000000;
+            }
+        }
+        if (audioBytes < 0) {
+            audioBytes = DEFAULT_AUDIO_BITRATE * mDurationUs / 8 / 1000000;
         }
+        // AAC frames hold 1024 samples.
+        long sampleCount = mDurationUs * videoOutputFormat.getInteger(MediaFormat.KEY_FRAME_RATE) / 1000000
+                + mDurationUs * audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) / 1024 / 1000000;
+        BitrateController controller = new BitrateController(mMaxOutputBytes, mDurationUs, audioBytes,
+                sampleCount, MIN_VIDEO_BITRATE, MAX_VIDEO_BITRATE);
+        if (controller.getPlannedVideoBytes() <= 0) {
+            Log.w(TAG, "audio alone takes " + audioBytes + " bytes, the output will be larger than "
+                    + mMaxOutputBytes);
+        }
+        Log.i(TAG, "planned " + controller.getPlannedVideoBytes() + " bytes of video at "
+                + controller.getBitrate() + "bps, " + audioBytes + " bytes of audio");
+        return controller;
+    }
+
+    /**
+     * Scores the video track from the sample sizes and sync flags of its MP4 sample tables, without reading or
+     * decoding samples. Other containers would need the extractor to step through every sample, too slow for a
+     * pre-pass, so they are not analyzed.
+     *
+     * @return null if the input could not be analyzed.
+     */
+    private ComplexityAnalyzer.Result analyzeComplexity(TrackResult trackResult, InputProbe inputProbe) {
+        long startMs = Clock.SYSTEM.uptimeMillis();
+        Mp4Demuxer.Track track = inputProbe.getMp4Track(Mp4Demuxer.TRACK_TYPE_VIDEO);
+        if (track == null || track.getSampleCount() == 0) return null;
+        MediaFormat format = trackResult.mVideoTrackFormat;
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(format.getInteger(MediaFormat.KEY_WIDTH),
+                format.getInteger(MediaFormat.KEY_HEIGHT));
+        int sampleCount = track.getSampleCount();
+        for (int i = 0; i < sampleCount; i++) {
+            analyzer.addSample(track.getSampleSize(i), track.isSyncSample(i));
+        }
+        ComplexityAnalyzer.Result result = analyzer.finish();
+        Log.i(TAG, "analyzed " + sampleCount + " samples in " + (Clock.SYSTEM.uptimeMillis() - startMs) + "ms: "
+                + result);
+        return result;
+    }
+
+    /**
+     * Takes the sync sample table from the demuxer, or scans the video track with an extractor of its own,
+     * reading sample flags only.
+     */
+    private long[] getSyncSampleTimes(int videoTrackIndex) throws IOException {
+        if (mExtractor instanceof Mp4SampleSource) {
+            Mp4Demuxer.Track track = ((Mp4SampleSource) mExtractor).getDemuxer().getTrack(videoTrackIndex);
+            long[] syncTimesUs = new long[track.getSyncSampleCount()];
+            for (int i = 0; i < syncTimesUs.length; i++) {
+                syncTimesUs[i] = track.getSamplePresentationTimeUs(track.getSyncSample(i));
+            }
+            return syncTimesUs;
+        }
+        SampleSource extractor = new MediaExtractorSampleSource(mInputFileDescriptor);
+        try {
+            extractor.selectTrack(videoTrackIndex);
+            long[] syncTimesUs = new long[64];
+            int count = 0;
+            while (extractor.getSampleTrackIndex() >= 0) {
+                if ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                    if (count == syncTimesUs.length) {
+                        syncTimesUs = Arrays.copyOf(syncTimesUs, count * 2);
+                    }
+                    syncTimesUs[count++] = extractor.getSampleTime();
+                }
+                extractor.advance();
+            }
+            return Arrays.copyOf(syncTimesUs, count);
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private void notifyTranscodeMode(TranscodeMode mode) {
+        mTranscodeMode = mode;
+        Log.i(TAG, "transcode mode " + mode + ": " + mTranscodeModeReason);
+        if (mListener != null) {
+            mListener.onTranscodeModeChosen(mode, mTranscodeModeReason);
+        }
+    }
+
+    private void runPipelines() throws InterruptedException {
+        mProgress = mDurationUs > 0 ? 0 : PROGRESS_UNKNOWN;
+        mLastProgressTimeMs = mStartTimeMs;
+        mLastProgressFrames = mMetrics.getVideoFramesOut();
         while (!(mVideoTrackTranscoder.isFinished() && mAudioTrackTranscoder.isFinished())) {
-            boolean stepped = mVideoTrackTranscoder.stepPipeline() || mAudioTrackTranscoder.stepPipeline();
-            loopCount++;
-            if (mDurationUs > 0 && loopCount % PROGRESS_INTERVAL_STEPS == 0) {
-                double videoProgress = mVideoTrackTranscoder.isFinished() ? 1.0 : Math.min(1.0,
-                        (double) mVideoTrackTranscoder.getWrittenPresentationTimeUs() / mDurationUs);
-                double audioProgress = mAudioTrackTranscoder.isFinished() ? 1.0 : Math.min(1.0,
-                        (double) mAudioTrackTranscoder.getWrittenPresentationTimeUs() / mDurationUs);
-                double progress = (videoProgress + audioProgress) / 2.0;
-                mProgress = progress;
-
-//                String proStr = String.format(Locale.CHINA, "progress: %.2f", progress * 100);
-                Log.d(TAG, "current progress: " + progress * 100);
-//                if (mProgressCallback != null) mProgressCallback.onProgress(progress);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            // Step the track that is behind first, so tracks which never wait on a codec stay interleaved.
+            TrackTranscoder first = mVideoTrackTranscoder;
+            TrackTranscoder second = mAudioTrackTranscoder;
+            if (!mVideoTrackTranscoder.isFinished() && !mAudioTrackTranscoder.isFinished()
+                    && mAudioTrackTranscoder.getWrittenPresentationTimeUs()
+                    < mVideoTrackTranscoder.getWrittenPresentationTimeUs()) {
+                first = mAudioTrackTranscoder;
+                second = mVideoTrackTranscoder;
+            }
+            if (mVideoExtractor != null && second == mAudioTrackTranscoder && !mVideoTrackTranscoder.isFinished()
+                    && mAudioTrackTranscoder.getWrittenPresentationTimeUs()
+                    > mVideoTrackTranscoder.getWrittenPresentationTimeUs() + MAX_STAGED_AUDIO_LEAD_US) {
+                // Keeps the tracks interleaved when the video is not read from the same extractor.
+                second = null;
+            }
+            boolean stepped = first.stepPipeline() || (second != null && second.stepPipeline());
+            long nowMs = Clock.SYSTEM.uptimeMillis();
+            if (nowMs - mLastProgressTimeMs >= mProgressIntervalMs) {
+                reportProgress(nowMs);
             }
             if (!stepped) {
-                try {
-                    Thread.sleep(SLEEP_TO_WAIT_TRACK_TRANSCODERS);
-                } catch (InterruptedException e) {
-                    // nothing to do
-                }
+                mScheduler.awaitWork(MAX_WAIT_FOR_TRACK_TRANSCODERS_MS);
             }
         }
+        Log.d(TAG, "pipeline woke up " + mScheduler.getWakeUpCount() + " times, "
+                + mScheduler.getTimeoutCount() + " timeouts");
+    }
+
+    private void reportProgress(long nowMs) {
+        if (mDurationUs > 0) {
+            mProgress = TranscodeProgress.compute(mDurationUs, mVideoTrackTranscoder.isFinished(),
+                    mVideoTrackTranscoder.getWrittenPresentationTimeUs(), mAudioTrackTranscoder.isFinished(),
+                    mAudioTrackTranscoder.getWrittenPresentationTimeUs());
+        }
+        long frames = mMetrics.getVideoFramesOut();
+        double fps = (frames - mLastProgressFrames) * 1000.0 / (nowMs - mLastProgressTimeMs);
+        mLastProgressTimeMs = nowMs;
+        mLastProgressFrames = frames;
+        TranscodeStats stats = new TranscodeStats(mMetrics, MediaConstants.MEDIA_TRANSCODE_SUCC, mProgress,
+                nowMs - mStartTimeMs, fps);
+        Log.d(TAG, "progress: " + stats);
+        if (mListener != null) {
+            mListener.onProgress(stats);
+        }
+    }
+
+    /**
+     * @return the stats of the finished transcode, frames per second taken over all of it.
+     */
+    private TranscodeStats createFinalStats(int result) {
+        long wallTimeMs = Clock.SYSTEM.uptimeMillis() - mStartTimeMs;
+        if (result == MediaConstants.MEDIA_TRANSCODE_SUCC) {
+            mProgress = 1;
+        }
+        double fps = wallTimeMs > 0 ? mMetrics.getVideoFramesOut() * 1000.0 / wallTimeMs : 0;
+        TranscodeStats stats = new TranscodeStats(mMetrics, result, mProgress, wallTimeMs, fps);
+        Log.i(TAG, "transcode finished: " + stats);
+        return stats;
     }
 
     public static void validateVideoOutputFormat(MediaFormat format) {
         String mime = format.getString(MediaFormat.KEY_MIME);
+        if (MediaConstants.MIMETYPE_VIDEO_HEVC.equals(mime)) {
+            validateHevcOutputFormat(format);
+            return;
+        }
         // Refer: http://developer.android.com/guide/appendix/media-formats.html#core
         // Refer: http://en.wikipedia.org/wiki/MPEG-4_Part_14#Data_streams
         if (!MediaConstants.MIMETYPE_VIDEO_AVC.equals(mime)) {
-            throw new RuntimeException("Video codecs other than AVC is not supported, actual mime type: " + mime);
+            throw new RuntimeException("Video codecs other than AVC and HEVC are not supported, actual mime type: "
+                    + mime);
         }
-        ByteBuffer spsBuffer = AvcCsdUtils.getSpsBuffer(format);
-        byte profileIdc = AvcSpsUtils.getProfileIdc(spsBuffer);
-        if (profileIdc != PROFILE_IDC_BASELINE) {
+        AvcParameterSetParser.Sps sps = new AvcParameterSetParser.Sps();
+        new AvcParameterSetParser().parseSps(format.getByteBuffer(MediaConstants.KEY_AVC_SPS), sps);
+        if (sps.mProfileIdc != PROFILE_IDC_BASELINE) {
             throw new RuntimeException("Non-baseline AVC video profile is not supported by Android OS, " +
-                    "actual profile_idc: " + profileIdc);
+                    "actual profile_idc: " + sps.mProfileIdc);
+        }
+    }
+
+    /**
+     * hvcC is built from csd-0, so it must hold a VPS, an SPS and a PPS, and players only need to handle Main and
+     * Main 10.
+     */
+    private static void validateHevcOutputFormat(MediaFormat format) {
+        if (!format.containsKey(MediaConstants.KEY_AVC_SPS)) {
+            throw new RuntimeException("HEVC output format has no csd-0.");
+        }
+        HevcParameterSetParser.Sps sps = new HevcParameterSetParser.Sps();
+        try {
+            new HevcParameterSetParser().parseCsd(format.getByteBuffer(MediaConstants.KEY_AVC_SPS),
+                    new HevcParameterSetParser.Vps(), sps, new HevcParameterSetParser.Pps());
+        } catch (IllegalStateException e) {
+            throw new RuntimeException("Broken HEVC parameter sets in csd-0.", e);
+        }
+        int profileIdc = sps.mProfileTierLevel.mProfileIdc;
+        if (profileIdc != HevcParameterSetParser.PROFILE_IDC_MAIN
+                && profileIdc != HevcParameterSetParser.PROFILE_IDC_MAIN_10) {
+            throw new RuntimeException("HEVC video profile other than Main and Main 10 is not supported, "
+                    + "actual general_profile_idc: " + profileIdc);
         }
     }
 
@@ -236,7 +1218,67 @@ public class MediaTranscodeEngine {
         public MediaFormat mAudioTrackFormat;
     }
 
-    public static TrackResult getFirstVideoAndAudioTrack(MediaExtractor extractor) {
+    /**
+     * The input as the planning before transcoding sees it: its size and, for MP4, its sample tables. Reads through
+     * one channel, opened once and dropped with {@link #release()}, and parses the sample tables at most once. The
+     * descriptor stays open; a FileInputStream created from a descriptor does not own it.
+     */
+    private static class InputProbe {
+        private FileChannel mChannel;
+        private Mp4Demuxer mDemuxer;
+        private boolean mDemuxerOpened;
+
+        /**
+         * @param source the extractor in use, whose demuxer is taken if it has one.
+         */
+        InputProbe(FileDescriptor fileDescriptor, SampleSource source) {
+            mChannel = new FileInputStream(fileDescriptor).getChannel();
+            if (source instanceof Mp4SampleSource) {
+                mDemuxer = ((Mp4SampleSource) source).getDemuxer();
+                mDemuxerOpened = true;
+            }
+        }
+
+        /**
+         * @return -1 if unknown.
+         */
+        long getSize() {
+            try {
+                return mChannel.size();
+            } catch (IOException e) {
+                Log.w(TAG, "could not get the input size", e);
+                return -1;
+            }
+        }
+
+        /**
+         * @return the first track of {@code handlerType}; null if the input is no MP4 or has no such track.
+         */
+        Mp4Demuxer.Track getMp4Track(String handlerType) {
+            if (!mDemuxerOpened) {
+                mDemuxerOpened = true;
+                try {
+                    mDemuxer = new Mp4Demuxer(mChannel);
+                } catch (IOException | RuntimeException e) {
+                    Log.i(TAG, "input is no MP4: " + e);
+                }
+            }
+            if (mDemuxer == null) return null;
+            for (int i = 0; i < mDemuxer.getTrackCount(); i++) {
+                if (handlerType.equals(mDemuxer.getTrack(i).getHandlerType())) {
+                    return mDemuxer.getTrack(i);
+                }
+            }
+            return null;
+        }
+
+        void release() {
+            mDemuxer = null;
+            mChannel = null;
+        }
+    }
+
+    public static TrackResult getFirstVideoAndAudioTrack(SampleSource extractor) {
         TrackResult trackResult = new TrackResult();
         trackResult.mVideoTrackIndex = -1;
         trackResult.mAudioTrackIndex = -1;
@@ -265,10 +1307,11 @@ public class MediaTranscodeEngine {
      * 主要通过降低视频流的比特率，分辨率，帧率达到压缩的目的，音频流不做处理，直接输出到目标文件。
      *
      * @param outputPath 目标输出路径
+     * @return 结果及各阶段耗时统计，见 {@link TranscodeStats#getResult()}
      * @throws IOException
      * @throws InterruptedException
      */
-    public int transcodeVideo(String outputPath) throws IOException, InterruptedException {
+    public TranscodeStats transcodeVideo(String outputPath) throws IOException, InterruptedException {
         if (outputPath == null) {
             Log.e(TAG, "Output path cannot be null.");
             throw new NullPointerException("Output path cannot be null.");
@@ -277,16 +1320,71 @@ public class MediaTranscodeEngine {
             Log.e(TAG, "Data source is not set");
             throw new IllegalStateException("Data source is not set.");
         }
+        mTranscodeMode = null;
+        mTranscodeModeReason = null;
+        mMetrics.clear();
+        mStartTimeMs = Clock.SYSTEM.uptimeMillis();
+        InputProbe inputProbe = null;
+        boolean outputComplete = false;
         try {
             // NOTE: use single extractor to keep from running out audio track fast.
-            mExtractor = new MediaExtractor();
-            mExtractor.setDataSource(mInputFileDescriptor);
-            mMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mExtractor = createSampleSourceFactory().create();
+            TrackResult trackResult = getFirstVideoAndAudioTrack(mExtractor);
+            inputProbe = new InputProbe(mInputFileDescriptor, mExtractor);
+            mInputSize = inputProbe.getSize();
+            boolean trimmed = mTrimStartUs > 0 || mTrimEndUs != Long.MAX_VALUE;
+            MediaFormat videoOutputFormat = null;
+            if (mTrimOnly) {
+                mTranscodeModeReason = "trim only";
+                mTranscodeMode = TranscodeMode.SMART_CUT;
+            } else {
+                mVideoOutputMime = chooseVideoOutputMime();
+                mComplexity = mOutputFormatStrategy == null ? analyzeComplexity(trackResult, inputProbe) : null;
+                videoOutputFormat = createVideoOutputFormat(trackResult.mVideoTrackFormat);
+                if (videoOutputFormat == null) {
+                    if (!mInputWithinTarget) {
+                        throw new RuntimeException("No " + mVideoOutputMime + " encoder available.");
+                    }
+                    mTranscodeMode = trimmed ? TranscodeMode.SMART_CUT : TranscodeMode.REMUX;
+                } else if (trimmed) {
+                    throw new IllegalStateException("Trimming is only supported without compressing.");
+                }
+            }
+            mMuxer = createSampleMuxer(outputPath, trackResult);
+            if (mAsyncMuxerWriter) {
+                mMuxer = new AsyncSampleMuxer(mMuxer);
+            }
             setupMetadata();
-            setupTrackTranscoders();
+            if (mMaxOutputBytes > 0 && mTranscodeMode == null) {
+                mBitrateController = createBitrateController(trackResult, videoOutputFormat, inputProbe);
+                if (mCheckpointing) {
+                    // Segments would be encoded out of order, while the bitrate follows the bytes written so far.
+                    Log.w(TAG, "checkpointing is ignored with a maximum output size.");
+                }
+            }
+            inputProbe.release();
+            inputProbe = null;
+            if (mTranscodeMode == TranscodeMode.SMART_CUT) {
+                setupSmartCutTrackTranscoders(outputPath, trackResult);
+            } else if (mTranscodeMode == TranscodeMode.REMUX) {
+                notifyTranscodeMode(TranscodeMode.REMUX);
+                setupRemuxTrackTranscoders(trackResult);
+            } else if ((mMaxParallelSegments <= 1 && !mCheckpointing) || mBitrateController != null
+                    || !setupSegmentedTrackTranscoders(outputPath, trackResult, videoOutputFormat)) {
+                notifyTranscodeMode(TranscodeMode.TRANSCODE);
+                setupTrackTranscoders(trackResult, videoOutputFormat);
+            }
             runPipelines();
             mMuxer.stop();
+            outputComplete = true;
+            if (mBitrateController != null) {
+                Log.i(TAG, "output for " + mMaxOutputBytes + " bytes: " + mBitrateController);
+            }
         } finally {
+            mBitrateController = null;
+            if (inputProbe != null) {
+                inputProbe.release();
+            }
             try {
                 if (mVideoTrackTranscoder != null) {
                     mVideoTrackTranscoder.release();
@@ -300,6 +1398,19 @@ public class MediaTranscodeEngine {
                     mExtractor.release();
                     mExtractor = null;
                 }
+                if (mVideoExtractor != null) {
+                    mVideoExtractor.release();
+                    mVideoExtractor = null;
+                }
+                if (mJournal != null) {
+                    // Until the output is complete, the next run resumes from the spooled segments.
+                    if (outputComplete) {
+                        mJournal.delete();
+                    } else {
+                        mJournal.close();
+                    }
+                    mJournal = null;
+                }
             } catch (RuntimeException e) {
                 // Too fatal to make alive the app, because it may leak native resources.
                 //noinspection ThrowFromFinallyBlock
@@ -313,11 +1424,30 @@ public class MediaTranscodeEngine {
                 }
             } catch (RuntimeException e) {
                 Log.e(TAG, "Failed to release muxer.", e);
-                return MediaConstants.MEDIA_TRANSCODE_FAIL;
+                //noinspection ReturnInsideFinallyBlock
+                return createFinalStats(MediaConstants.MEDIA_TRANSCODE_FAIL);
             }
         }
 
-        return MediaConstants.MEDIA_TRANSCODE_SUCC;
+        return createFinalStats(MediaConstants.MEDIA_TRANSCODE_SUCC);
+    }
+
+    /**
+     * Keeps only the part of the input presented from {@code startUs} until {@code endUs}, without compressing
+     * it. Whole GOPs within the range are copied; only the partial GOPs at the cuts are decoded and encoded
+     * again, so trimming a long recording takes about as long as copying it. The range stays set, see
+     * {@link #setTrimRange(long, long)}.
+     *
+     * @param endUs {@link Long#MAX_VALUE} for the end of the input.
+     */
+    public TranscodeStats trimVideo(String outputPath, long startUs, long endUs) throws IOException, InterruptedException {
+        setTrimRange(startUs, endUs);
+        mTrimOnly = true;
+        try {
+            return transcodeVideo(outputPath);
+        } finally {
+            mTrimOnly = false;
+        }
     }
 
 
@@ -0,0 +1,138 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Big-endian ISO-BMFF box writer over a growable array. Boxes are opened with {@link #start(String)} and their
+ * size is patched by {@link #end(int)}.
+ */
+class Mp4BoxBuilder {
+    static final int MOVIE_TIMESCALE = 1000;
+
+    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+
+    int start(String type) {
+        int position = mBuffer.position();
+        putInt(0).putFourCc(type);
+        return position;
+    }
+
+    int startFull(String type, int version, int flags) {
+        int position = start(type);
+        putInt((version << 24) | flags);
+        return position;
+    }
+
+    void end(int start) {
+        mBuffer.putInt(start, mBuffer.position() - start);
+    }
+
+    int position() {
+        return mBuffer.position();
+    }
+
+    Mp4BoxBuilder putByte(int value) {
+        ensure(1);
+        mBuffer.put((byte) value);
+        return this;
+    }
+
+    Mp4BoxBuilder putShort(int value) {
+        ensure(2);
+        mBuffer.putShort((short) value);
+        return this;
+    }
+
+    Mp4BoxBuilder putInt(int value) {
+        ensure(4);
+        mBuffer.putInt(value);
+        return this;
+    }
+
+    void putInt(int position, int value) {
+        mBuffer.putInt(position, value);
+    }
+
+    Mp4BoxBuilder putLong(long value) {
+        ensure(8);
+        mBuffer.putLong(value);
+        return this;
+    }
+
+    Mp4BoxBuilder putBytes(byte[] bytes) {
+        ensure(bytes.length);
+        mBuffer.put(bytes);
+        return this;
+    }
+
+    Mp4BoxBuilder putZeros(int count) {
+        ensure(count);
+        mBuffer.position(mBuffer.position() + count);
+        return this;
+    }
+
+    Mp4BoxBuilder putFourCc(String type) {
+        return putInt(Mp4Demuxer.fourCc(type));
+    }
+
+    Mp4BoxBuilder putAscii(String text) {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            mBuffer.put((byte) text.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Transformation matrix of mvhd/tkhd for a clockwise rotation.
+     */
+    Mp4BoxBuilder putMatrix(int rotationDegrees) {
+        int a = 0x10000, b = 0, c = 0, d = 0x10000;
+        switch (rotationDegrees) {
+            case 90:
+                a = 0; b = 0x10000; c = -0x10000; d = 0;
+                break;
+            case 180:
+                a = -0x10000; d = -0x10000;
+                break;
+            case 270:
+                a = 0; b = -0x10000; c = 0x10000; d = 0;
+                break;
+            default:
+                break;
+        }
+        return putInt(a).putInt(b).putInt(0).putInt(c).putInt(d).putInt(0).putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    void writeFtyp(String majorBrand, String... compatibleBrands) {
+        int ftyp = start("ftyp");
+        putFourCc(majorBrand).putInt(0x200);
+        for (String brand : compatibleBrands) {
+            putFourCc(brand);
+        }
+        end(ftyp);
+    }
+
+    void writeMvhd(long duration, int nextTrackId) {
+        int mvhd = startFull("mvhd", 0, 0);
+        putInt(0).putInt(0).putInt(MOVIE_TIMESCALE).putInt((int) duration);
+        putInt(0x10000).putShort(0x100).putZeros(10);
+        putMatrix(0);
+        putZeros(24).putInt(nextTrackId);
+        end(mvhd);
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer.array(), mBuffer.position());
+    }
+
+    private void ensure(int count) {
+        if (mBuffer.remaining() < count) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2, mBuffer.position() + count));
+            mBuffer.flip();
+            grown.put(mBuffer);
+            mBuffer = grown;
+        }
+    }
+}
@@ -0,0 +1,963 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ISO-BMFF (MP4) demuxer working on a memory mapped file.
+ * <p>
+ * The sample tables of all tracks are parsed once into primitive arrays. Samples are then handed out as views of the
+ * mapping ({@link #getSampleBuffer()}) or copied by {@link #readSampleData(ByteBuffer, int)}, which behaves like
+ * {@code MediaExtractor.readSampleData} and converts length-prefixed NAL units to Annex-B on the way.
+ * The cursor methods mirror {@code MediaExtractor}, so it can stand in for it.
+ * <p>
+ * Fragmented files (moof) are not supported.
+ */
+public class Mp4Demuxer {
+    /** Same value as {@code MediaExtractor.SAMPLE_FLAG_SYNC}. */
+    public static final int SAMPLE_FLAG_SYNC = 1;
+    /** Same value as {@code MediaExtractor.SEEK_TO_PREVIOUS_SYNC}. */
+    public static final int SEEK_TO_PREVIOUS_SYNC = 0;
+    /** Same value as {@code MediaExtractor.SEEK_TO_NEXT_SYNC}. */
+    public static final int SEEK_TO_NEXT_SYNC = 1;
+    /** Same value as {@code MediaExtractor.SEEK_TO_CLOSEST_SYNC}. */
+    public static final int SEEK_TO_CLOSEST_SYNC = 2;
+
+    public static final String TRACK_TYPE_VIDEO = "vide";
+    public static final String TRACK_TYPE_AUDIO = "soun";
+
+    private static final int MAX_MAP_WINDOW = 1 << 30;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private final FileChannel mChannel;
+    private final long mFileSize;
+    private final Track[] mTracks;
+    private long mDurationUs;
+    private MappedByteBuffer[] mWindows;
+    private long mWindowStride;
+    private int mWindowSize;
+    private long mMovieTimescale;
+    // Type of the box last returned by nextBox().
+    private int mLastBoxType;
+
+    /**
+     * Parses the file. The channel is not closed by the demuxer.
+     */
+    public Mp4Demuxer(FileChannel channel) throws IOException {
+        mChannel = channel;
+        mFileSize = channel.size();
+        ByteBuffer moov = null;
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= mFileSize) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            long size = header.getInt() & 0xffffffffL;
+            int type = header.getInt();
+            int headerSize = 8;
+            if (size == 1) {
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = mFileSize - position;
+            }
+            if (size < headerSize) {
+                throw new IOException("Broken box " + fourCc(type) + " at " + position);
+            }
+            if (type == fourCc("moov")) {
+                moov = channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize, size - headerSize);
+            } else if (type == fourCc("moof")) {
+                throw new IOException("Fragmented MP4 is not supported.");
+            }
+            position += size;
+        }
+        if (moov == null) {
+            throw new IOException("No moov box found, not an MP4 file?");
+        }
+        List<Track> tracks = new ArrayList<>();
+        parseMoov(moov, tracks);
+        mTracks = tracks.toArray(new Track[tracks.size()]);
+        setupWindows();
+    }
+
+    public int getTrackCount() {
+        return mTracks.length;
+    }
+
+    public Track getTrack(int index) {
+        return mTracks[index];
+    }
+
+    /**
+     * @return duration from the movie header, or the longest track.
+     */
+    public long getDurationUs() {
+        return mDurationUs;
+    }
+
+    public void selectTrack(int index) {
+        mTracks[index].mSelected = true;
+    }
+
+    public void unselectTrack(int index) {
+        mTracks[index].mSelected = false;
+    }
+
+    /**
+     * Moves every selected track to a sync sample near {@code timeUs}, see {@code MediaExtractor.seekTo}.
+     */
+    public void seekTo(long timeUs, int mode) {
+        for (Track track : mTracks) {
+            if (track.mSelected) track.seekTo(timeUs, mode);
+        }
+    }
+
+    /**
+     * @return the selected track whose next sample comes first in decode order, or -1 at the end of all of them.
+     */
+    public int getSampleTrackIndex() {
+        int next = -1;
+        for (int i = 0; i < mTracks.length; i++) {
+            Track track = mTracks[i];
+            if (!track.mSelected || track.mCursor >= track.mSampleCount) continue;
+            if (next < 0) {
+                next = i;
+                continue;
+            }
+            Track best = mTracks[next];
+            long decodeTimeUs = track.mDecodeTimesUs[track.mCursor];
+            long bestDecodeTimeUs = best.mDecodeTimesUs[best.mCursor];
+            if (decodeTimeUs < bestDecodeTimeUs || (decodeTimeUs == bestDecodeTimeUs
+                    && track.mOffsets[track.mCursor] < best.mOffsets[best.mCursor])) {
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    public long getSampleTime() {
+        int index = getSampleTrackIndex();
+        if (index < 0) return -1;
+        Track track = mTracks[index];
+        return track.mPresentationTimesUs[track.mCursor];
+    }
+
+    public int getSampleFlags() {
+        int index = getSampleTrackIndex();
+        if (index < 0) return -1;
+        Track track = mTracks[index];
+        return track.isSyncSample(track.mCursor) ? SAMPLE_FLAG_SYNC : 0;
+    }
+
+    /**
+     * @return size of the current sample as stored in the file, or -1 at the end.
+     */
+    public int getSampleSize() {
+        int index = getSampleTrackIndex();
+        if (index < 0) return -1;
+        Track track = mTracks[index];
+        return track.mSizes[track.mCursor];
+    }
+
+    public boolean advance() {
+        int index = getSampleTrackIndex();
+        if (index < 0) return false;
+        mTracks[index].mCursor++;
+        return getSampleTrackIndex() >= 0;
+    }
+
+    /**
+     * @return read-only view of the current sample as stored in the file (NAL units stay length-prefixed),
+     * or null at the end. No bytes are copied.
+     */
+    public ByteBuffer getSampleBuffer() {
+        int index = getSampleTrackIndex();
+        if (index < 0) return null;
+        Track track = mTracks[index];
+        return getSampleBuffer(track.mOffsets[track.mCursor], track.mSizes[track.mCursor]);
+    }
+
+    /**
+     * Copies the current sample into {@code byteBuf} at {@code offset}, converting length-prefixed NAL units to
+     * start codes for H.264/H.265 tracks, as {@code MediaExtractor} does. On return the position of the buffer is
+     * {@code offset} and the limit is the end of the sample.
+     *
+     * @return sample size written, or -1 at the end.
+     */
+    public int readSampleData(ByteBuffer byteBuf, int offset) {
+        int index = getSampleTrackIndex();
+        if (index < 0) return -1;
+        Track track = mTracks[index];
+        ByteBuffer sample = getSampleBuffer(track.mOffsets[track.mCursor], track.mSizes[track.mCursor]);
+        byteBuf.clear();
+        byteBuf.position(offset);
+        if (track.mNalLengthSize == 0) {
+            byteBuf.put(sample);
+        } else if (track.mNalLengthSize == START_CODE.length) {
+            // Same size, replace the lengths after copying.
+            byteBuf.put(sample);
+            NalUnitScanner.convertToAnnexB(byteBuf, offset, byteBuf.position());
+        } else {
+            while (sample.remaining() > track.mNalLengthSize) {
+                int nalSize = 0;
+                for (int i = 0; i < track.mNalLengthSize; i++) {
+                    nalSize = (nalSize << 8) | (sample.get() & 0xff);
+                }
+                nalSize = Math.min(nalSize, sample.remaining());
+                byteBuf.put(START_CODE);
+                int limit = sample.limit();
+                sample.limit(sample.position() + nalSize);
+                byteBuf.put(sample);
+                sample.limit(limit);
+            }
+        }
+        byteBuf.limit(byteBuf.position());
+        byteBuf.position(offset);
+        return byteBuf.limit() - offset;
+    }
+
+    private ByteBuffer getSampleBuffer(long offset, int size) {
+        int window = (int) (offset / mWindowStride);
+        if (mWindows[window] == null) {
+            long start = window * mWindowStride;
+            try {
+                mWindows[window] = mChannel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(mWindowSize, mFileSize - start));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not map " + start + "+" + mWindowSize, e);
+            }
+        }
+        ByteBuffer sample = mWindows[window].duplicate();
+        int position = (int) (offset - window * mWindowStride);
+        sample.limit(position + size).position(position);
+        return sample.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Maps the file lazily in windows. Consecutive windows overlap by the largest sample, so every sample lies
+     * entirely within the window its offset falls in.
+     */
+    private void setupWindows() throws IOException {
+        int maxSampleSize = 0;
+        for (Track track : mTracks) {
+            maxSampleSize = Math.max(maxSampleSize, track.mMaxSampleSize);
+            for (int i = 0; i < track.mSampleCount; i++) {
+                if (track.mOffsets[i] + track.mSizes[i] > mFileSize) {
+                    throw new IOException("Sample #" + i + " of track " + track.mTrackId + " is out of the file.");
+                }
+            }
+        }
+        if (mFileSize <= MAX_MAP_WINDOW) {
+            mWindowSize = (int) Math.max(mFileSize, 1);
+            mWindowStride = mWindowSize;
+        } else {
+            mWindowSize = MAX_MAP_WINDOW;
+            mWindowStride = MAX_MAP_WINDOW - maxSampleSize;
+        }
+        mWindows = new MappedByteBuffer[(int) ((mFileSize + mWindowStride - 1) / mWindowStride) + 1];
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = mChannel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+
+    // region box parsing
+
+    private void parseMoov(ByteBuffer moov, List<Track> tracks) throws IOException {
+        long movieDuration = 0;
+        while (moov.remaining() >= 8) {
+            ByteBuffer box = nextBox(moov);
+            int type = mLastBoxType;
+            if (type == fourCc("mvhd")) {
+                int version = box.get() & 0xff;
+                box.position(box.position() + 3 + (version == 1 ? 16 : 8));
+                mMovieTimescale = box.getInt() & 0xffffffffL;
+                movieDuration = version == 1 ? box.getLong() : box.getInt() & 0xffffffffL;
+            } else if (type == fourCc("trak")) {
+                Track track = parseTrak(box);
+                if (track != null) tracks.add(track);
+            }
+        }
+        if (mMovieTimescale > 0) {
+            mDurationUs = scale(movieDuration, mMovieTimescale);
+        }
+        for (Track track : tracks) {
+            mDurationUs = Math.max(mDurationUs, track.mDurationUs);
+        }
+    }
+
+    /**
+     * Returns the payload of the next child box and skips it in {@code parent}. The type is left in mLastBoxType.
+     */
+    private ByteBuffer nextBox(ByteBuffer parent) throws IOException {
+        int start = parent.position();
+        long size = parent.getInt() & 0xffffffffL;
+        mLastBoxType = parent.getInt();
+        int headerSize = 8;
+        if (size == 1) {
+            size = parent.getLong();
+            headerSize = 16;
+        } else if (size == 0) {
+            size = parent.limit() - start;
+        }
+        if (size < headerSize || start + size > parent.limit()) {
+            throw new IOException("Broken box " + fourCc(mLastBoxType) + " (" + size + " bytes)");
+        }
+        ByteBuffer payload = parent.duplicate();
+        payload.position(start + headerSize);
+        payload.limit((int) (start + size));
+        parent.position((int) (start + size));
+        return payload.slice();
+    }
+
+    private Track parseTrak(ByteBuffer trak) throws IOException {
+        Track track = new Track();
+        ByteBuffer stbl = null;
+        long editMediaTime = 0;
+        while (trak.remaining() >= 8) {
+            ByteBuffer box = nextBox(trak);
+            int type = mLastBoxType;
+            if (type == fourCc("tkhd")) {
+                parseTkhd(box, track);
+            } else if (type == fourCc("edts")) {
+                editMediaTime = parseEdts(box, track);
+            } else if (type == fourCc("mdia")) {
+                stbl = parseMdia(box, track);
+            }
+        }
+        if (stbl == null || track.mTimescale == 0 || track.mHandlerType == null) {
+            return null;
+        }
+        parseStbl(stbl, track, editMediaTime);
+        return track;
+    }
+
+    private static void parseTkhd(ByteBuffer box, Track track) {
+        int version = box.get() & 0xff;
+        box.position(box.position() + 3 + (version == 1 ? 16 : 8));
+        track.mTrackId = box.getInt();
+        // reserved, duration, reserved[2], layer, alternate_group, volume, reserved
+        box.position(box.position() + 4 + (version == 1 ? 8 : 4) + 8 + 8);
+        int a = box.getInt();
+        int b = box.getInt();
+        box.getInt();
+        int c = box.getInt();
+        int d = box.getInt();
+        box.position(box.position() + 16);
+        track.mDisplayWidth = box.getInt() >>> 16;
+        track.mDisplayHeight = box.getInt() >>> 16;
+        // Refer: MPEG4Extractor.cpp, kRotationAngles
+        if (a == 0 && b == 0x10000 && c == -0x10000 && d == 0) {
+            track.mRotationDegrees = 90;
+        } else if (a == -0x10000 && b == 0 && c == 0 && d == -0x10000) {
+            track.mRotationDegrees = 180;
+        } else if (a == 0 && b == -0x10000 && c == 0x10000 && d == 0) {
+            track.mRotationDegrees = 270;
+        }
+    }
+
+    /**
+     * Leading empty edits delay the track, they are kept in the track's mEditStartUs.
+     *
+     * @return media time the first non-empty edit starts at, which is where presentation starts.
+     */
+    private long parseEdts(ByteBuffer edts, Track track) throws IOException {
+        while (edts.remaining() >= 8) {
+            ByteBuffer box = nextBox(edts);
+            if (mLastBoxType != fourCc("elst")) continue;
+            int version = box.get() & 0xff;
+            box.position(box.position() + 3);
+            int entryCount = box.getInt();
+            for (int i = 0; i < entryCount; i++) {
+                long segmentDuration;
+                long mediaTime;
+                if (version == 1) {
+                    segmentDuration = box.getLong();
+                    mediaTime = box.getLong();
+                } else {
+                    segmentDuration = box.getInt() & 0xffffffffL;
+                    mediaTime = box.getInt();
+                }
+                box.getInt(); // media_rate
+                if (mediaTime >= 0) return mediaTime;
+                if (mMovieTimescale > 0) {
+                    track.mEditStartUs += scale(segmentDuration, mMovieTimescale);
+                }
+            }
+        }
+        return 0;
+    }
+
+    private ByteBuffer parseMdia(ByteBuffer mdia, Track track) throws IOException {
+        ByteBuffer stbl = null;
+        while (mdia.remaining() >= 8) {
+            ByteBuffer box = nextBox(mdia);
+            int type = mLastBoxType;
+            if (type == fourCc("mdhd")) {
+                int version = box.get() & 0xff;
+                box.position(box.position() + 3 + (version == 1 ? 16 : 8));
+                track.mTimescale = box.getInt() & 0xffffffffL;
+                long duration = version == 1 ? box.getLong() : box.getInt() & 0xffffffffL;
+                track.mDurationUs = scale(duration, track.mTimescale);
+            } else if (type == fourCc("hdlr")) {
+                box.position(box.position() + 8);
+                track.mHandlerType = fourCc(box.getInt());
+            } else if (type == fourCc("minf")) {
+                while (box.remaining() >= 8) {
+                    ByteBuffer child = nextBox(box);
+                    if (mLastBoxType == fourCc("stbl")) stbl = child;
+                }
+            }
+        }
+        return stbl;
+    }
+
+    private void parseStbl(ByteBuffer stbl, Track track, long editMediaTime) throws IOException {
+        ByteBuffer stts = null, ctts = null, stss = null, stsz = null, stz2 = null, stsc = null, stco = null;
+        boolean co64 = false;
+        while (stbl.remaining() >= 8) {
+            ByteBuffer box = nextBox(stbl);
+            int type = mLastBoxType;
+            if (type == fourCc("stsd")) {
+                parseStsd(box, track);
+            } else if (type == fourCc("stts")) {
+                stts = box;
+            } else if (type == fourCc("ctts")) {
+                ctts = box;
+            } else if (type == fourCc("stss")) {
+                stss = box;
+            } else if (type == fourCc("stsz")) {
+                stsz = box;
+            } else if (type == fourCc("stz2")) {
+                stz2 = box;
+            } else if (type == fourCc("stsc")) {
+                stsc = box;
+            } else if (type == fourCc("stco")) {
+                stco = box;
+            } else if (type == fourCc("co64")) {
+                stco = box;
+                co64 = true;
+            }
+        }
+        if (stts == null || stsc == null || stco == null || (stsz == null && stz2 == null)) {
+            throw new IOException("Incomplete sample table in track " + track.mTrackId);
+        }
+
+        // Sample sizes.
+        int sampleCount;
+        int[] sizes;
+        if (stsz != null) {
+            stsz.position(4);
+            int constantSize = stsz.getInt();
+            sampleCount = stsz.getInt();
+            sizes = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                sizes[i] = constantSize != 0 ? constantSize : stsz.getInt();
+            }
+        } else {
+            stz2.position(7);
+            int fieldSize = stz2.get() & 0xff;
+            sampleCount = stz2.getInt();
+            sizes = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                if (fieldSize == 16) {
+                    sizes[i] = stz2.getShort() & 0xffff;
+                } else if (fieldSize == 8) {
+                    sizes[i] = stz2.get() & 0xff;
+                } else {
+                    int packed = stz2.get(stz2.position() + i / 2) & 0xff;
+                    sizes[i] = (i % 2 == 0) ? packed >>> 4 : packed & 0x0f;
+                }
+            }
+        }
+
+        // Sample offsets from chunk offsets and the sample-to-chunk runs.
+        long[] offsets = new long[sampleCount];
+        stco.position(4);
+        int chunkCount = stco.getInt();
+        long[] chunkOffsets = new long[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunkOffsets[i] = co64 ? stco.getLong() : stco.getInt() & 0xffffffffL;
+        }
+        stsc.position(4);
+        int runCount = stsc.getInt();
+        int[] firstChunks = new int[runCount];
+        int[] samplesPerChunk = new int[runCount];
+        for (int i = 0; i < runCount; i++) {
+            firstChunks[i] = stsc.getInt() - 1;
+            samplesPerChunk[i] = stsc.getInt();
+            stsc.getInt(); // sample_description_index
+        }
+        int sample = 0;
+        for (int run = 0; run < runCount && sample < sampleCount; run++) {
+            int lastChunk = run + 1 < runCount ? firstChunks[run + 1] : chunkCount;
+            for (int chunk = firstChunks[run]; chunk < lastChunk && sample < sampleCount; chunk++) {
+                long offset = chunkOffsets[chunk];
+                for (int i = 0; i < samplesPerChunk[run] && sample < sampleCount; i++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample < sampleCount) {
+            throw new IOException("Chunk table of track " + track.mTrackId + " covers only " + sample + " of "
+                    + sampleCount + " samples.");
+        }
+
+        // Decode times, then presentation times shifted by the composition offsets and the edit list.
+        long[] decodeTimesUs = new long[sampleCount];
+        long[] presentationTimesUs = new long[sampleCount];
+        long[] decodeTimes = new long[sampleCount];
+        stts.position(4);
+        int entryCount = stts.getInt();
+        sample = 0;
+        long time = 0;
+        for (int i = 0; i < entryCount && sample < sampleCount; i++) {
+            int count = stts.getInt();
+            long delta = stts.getInt() & 0xffffffffL;
+            for (int j = 0; j < count && sample < sampleCount; j++) {
+                decodeTimes[sample++] = time;
+                time += delta;
+            }
+        }
+        for (; sample < sampleCount; sample++) {
+            decodeTimes[sample] = time;
+        }
+        if (ctts != null) {
+            ctts.position(4);
+            entryCount = ctts.getInt();
+            sample = 0;
+            for (int i = 0; i < entryCount && sample < sampleCount; i++) {
+                int count = ctts.getInt();
+                int offset = ctts.getInt();
+                for (int j = 0; j < count && sample < sampleCount; j++) {
+                    presentationTimesUs[sample] = offset;
+                    sample++;
+                }
+            }
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            decodeTimesUs[i] = scale(decodeTimes[i] - editMediaTime, track.mTimescale) + track.mEditStartUs;
+            presentationTimesUs[i] = scale(decodeTimes[i] + presentationTimesUs[i] - editMediaTime, track.mTimescale)
+                    + track.mEditStartUs;
+        }
+
+        // Sync samples; no stss means every sample is a sync sample.
+        byte[] flags = new byte[sampleCount];
+        int[] syncSamples;
+        if (stss != null) {
+            stss.position(4);
+            int syncCount = stss.getInt();
+            syncSamples = new int[syncCount];
+            int valid = 0;
+            for (int i = 0; i < syncCount; i++) {
+                int index = stss.getInt() - 1;
+                if (index < 0 || index >= sampleCount) continue;
+                flags[index] = SAMPLE_FLAG_SYNC;
+                syncSamples[valid++] = index;
+            }
+            syncSamples = Arrays.copyOf(syncSamples, valid);
+            Arrays.sort(syncSamples);
+        } else {
+            syncSamples = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                flags[i] = SAMPLE_FLAG_SYNC;
+                syncSamples[i] = i;
+            }
+        }
+
+        track.mSampleCount = sampleCount;
+        track.mOffsets = offsets;
+        track.mSizes = sizes;
+        track.mDecodeTimesUs = decodeTimesUs;
+        track.mPresentationTimesUs = presentationTimesUs;
+        track.mFlags = flags;
+        track.mSyncSamples = syncSamples;
+        int maxSize = 0;
+        for (int size : sizes) {
+            maxSize = Math.max(maxSize, size);
+        }
+        track.mMaxSampleSize = maxSize;
+        if (track.mDurationUs <= 0 && sampleCount > 0) {
+            track.mDurationUs = scale(time, track.mTimescale);
+        }
+    }
+
+    private void parseStsd(ByteBuffer stsd, Track track) throws IOException {
+        stsd.position(8); // version, flags, entry_count; only the first entry is used
+        if (stsd.remaining() < 8) return;
+        ByteBuffer entry = nextBox(stsd);
+        String entryType = fourCc(mLastBoxType);
+        track.mSampleEntryType = entryType;
+        if (TRACK_TYPE_VIDEO.equals(track.mHandlerType)) {
+            entry.position(24);
+            track.mWidth = entry.getShort() & 0xffff;
+            track.mHeight = entry.getShort() & 0xffff;
+            entry.position(78);
+            while (entry.remaining() >= 8) {
+                ByteBuffer box = nextBox(entry);
+                if (mLastBoxType == fourCc("avcC")) {
+                    track.mMime = "video/avc";
+                    parseAvcC(box, track);
+                } else if (mLastBoxType == fourCc("hvcC")) {
+                    track.mMime = "video/hevc";
+                    parseHvcC(box, track);
+                }
+            }
+            if (track.mMime == null) {
+                if ("mp4v".equals(entryType)) {
+                    track.mMime = "video/mp4v-es";
+                } else if ("s263".equals(entryType)) {
+                    track.mMime = "video/3gpp";
+                }
+            }
+        } else if (TRACK_TYPE_AUDIO.equals(track.mHandlerType)) {
+            entry.position(8);
+            int version = entry.getShort() & 0xffff;
+            entry.position(16);
+            track.mChannelCount = entry.getShort() & 0xffff;
+            entry.position(24);
+            track.mSampleRate = entry.getInt() >>> 16;
+            entry.position(version == 1 ? 44 : version == 2 ? 64 : 28);
+            parseAudioChildren(entry, track);
+            if (track.mMime == null) {
+                if ("samr".equals(entryType)) {
+                    track.mMime = "audio/3gpp";
+                } else if ("sawb".equals(entryType)) {
+                    track.mMime = "audio/amr-wb";
+                }
+            }
+        }
+    }
+
+    private void parseAudioChildren(ByteBuffer parent, Track track) throws IOException {
+        while (parent.remaining() >= 8) {
+            ByteBuffer box = nextBox(parent);
+            if (mLastBoxType == fourCc("esds")) {
+                box.position(4);
+                parseEsDescriptor(box, track);
+            } else if (mLastBoxType == fourCc("wave")) {
+                // QuickTime wraps esds in a wave box.
+                parseAudioChildren(box, track);
+            }
+        }
+    }
+
+    private static void parseAvcC(ByteBuffer avcC, Track track) {
+        avcC.position(4);
+        track.mNalLengthSize = (avcC.get() & 0x03) + 1;
+        int spsCount = avcC.get() & 0x1f;
+        track.mCsd0 = readParameterSets(avcC, spsCount);
+        int ppsCount = avcC.get() & 0xff;
+        track.mCsd1 = readParameterSets(avcC, ppsCount);
+    }
+
+    private static void parseHvcC(ByteBuffer hvcC, Track track) {
+        hvcC.position(21);
+        track.mNalLengthSize = (hvcC.get() & 0x03) + 1;
+        int arrayCount = hvcC.get() & 0xff;
+        ByteBuffer csd = ByteBuffer.allocate(hvcC.remaining() + arrayCount * 64);
+        for (int i = 0; i < arrayCount; i++) {
+            hvcC.get(); // array_completeness, reserved, NAL_unit_type
+            int nalCount = hvcC.getShort() & 0xffff;
+            byte[] nals = readParameterSets(hvcC, nalCount);
+            if (csd.remaining() < nals.length) {
+                ByteBuffer grown = ByteBuffer.allocate(csd.capacity() * 2 + nals.length);
+                csd.flip();
+                grown.put(csd);
+                csd = grown;
+            }
+            csd.put(nals);
+        }
+        track.mCsd0 = Arrays.copyOf(csd.array(), csd.position());
+    }
+
+    /**
+     * Reads {@code count} 16-bit length-prefixed NAL units and returns them with start codes.
+     */
+    private static byte[] readParameterSets(ByteBuffer buffer, int count) {
+        int start = buffer.position();
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            int size = buffer.getShort() & 0xffff;
+            buffer.position(buffer.position() + size);
+            total += START_CODE.length + size;
+        }
+        buffer.position(start);
+        byte[] result = new byte[total];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int size = buffer.getShort() & 0xffff;
+            System.arraycopy(START_CODE, 0, result, position, START_CODE.length);
+            buffer.get(result, position + START_CODE.length, size);
+            position += START_CODE.length + size;
+        }
+        return result;
+    }
+
+    /**
+     * Refer: ISO/IEC 14496-1, ES_Descriptor / DecoderConfigDescriptor / DecoderSpecificInfo.
+     */
+    private static void parseEsDescriptor(ByteBuffer buffer, Track track) {
+        while (buffer.remaining() >= 2) {
+            int tag = buffer.get() & 0xff;
+            int size = readDescriptorSize(buffer);
+            int end = Math.min(buffer.limit(), buffer.position() + size);
+            if (tag == 0x03) {
+                buffer.getShort(); // ES_ID
+                int flags = buffer.get() & 0xff;
+                if ((flags & 0x80) != 0) buffer.getShort();
+                if ((flags & 0x40) != 0) buffer.position(buffer.position() + (buffer.get() & 0xff));
+                if ((flags & 0x20) != 0) buffer.getShort();
+                // Children follow.
+            } else if (tag == 0x04) {
+                int objectType = buffer.get() & 0xff;
+                if (objectType == 0x40 || objectType == 0x66 || objectType == 0x67 || objectType == 0x68) {
+                    track.mMime = "audio/mp4a-latm";
+                } else if (objectType == 0x69 || objectType == 0x6b) {
+                    track.mMime = "audio/mpeg";
+                }
+                buffer.position(buffer.position() + 12);
+            } else if (tag == 0x05) {
+                track.mCsd0 = new byte[end - buffer.position()];
+                buffer.get(track.mCsd0);
+                return;
+            } else {
+                buffer.position(end);
+            }
+        }
+    }
+
+    private static int readDescriptorSize(ByteBuffer buffer) {
+        int size = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = buffer.get() & 0xff;
+            size = (size << 7) | (b & 0x7f);
+            if ((b & 0x80) == 0) break;
+        }
+        return size;
+    }
+
+    // endregion
+
+    private static long scale(long value, long timescale) {
+        return value / timescale * 1000000L + (value % timescale) * 1000000L / timescale;
+    }
+
+    static int fourCc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    static String fourCc(int type) {
+        return new String(new char[]{(char) (type >>> 24), (char) ((type >> 16) & 0xff),
+                (char) ((type >> 8) & 0xff), (char) (type & 0xff)});
+    }
+
+    /**
+     * One track and its sample table. Sample indices are in decode order.
+     */
+    public static class Track {
+        private int mTrackId;
+        private String mHandlerType;
+        private String mSampleEntryType;
+        private String mMime;
+        private long mTimescale;
+        private long mDurationUs;
+        private int mWidth;
+        private int mHeight;
+        private int mDisplayWidth;
+        private int mDisplayHeight;
+        private int mRotationDegrees;
+        private int mSampleRate;
+        private int mChannelCount;
+        private byte[] mCsd0;
+        private byte[] mCsd1;
+        private int mNalLengthSize;
+        private int mSampleCount;
+        private long[] mOffsets;
+        private int[] mSizes;
+        private long[] mDecodeTimesUs;
+        private long[] mPresentationTimesUs;
+        private byte[] mFlags;
+        private int[] mSyncSamples;
+        private int mMaxSampleSize;
+        private long mEditStartUs;
+        private boolean mSelected;
+        private int mCursor;
+
+        public int getTrackId() {
+            return mTrackId;
+        }
+
+        /**
+         * @return handler type, e.g. {@link #TRACK_TYPE_VIDEO} or {@link #TRACK_TYPE_AUDIO}.
+         */
+        public String getHandlerType() {
+            return mHandlerType;
+        }
+
+        /**
+         * @return four character code of the sample entry, e.g. "avc1" or "mp4a".
+         */
+        public String getSampleEntryType() {
+            return mSampleEntryType;
+        }
+
+        /**
+         * @return MIME type as used by MediaFormat, or null if the codec is not known.
+         */
+        public String getMime() {
+            return mMime;
+        }
+
+        public long getDurationUs() {
+            return mDurationUs;
+        }
+
+        public int getWidth() {
+            return mWidth != 0 ? mWidth : mDisplayWidth;
+        }
+
+        public int getHeight() {
+            return mHeight != 0 ? mHeight : mDisplayHeight;
+        }
+
+        public int getRotationDegrees() {
+            return mRotationDegrees;
+        }
+
+        public int getSampleRate() {
+            return mSampleRate;
+        }
+
+        public int getChannelCount() {
+            return mChannelCount;
+        }
+
+        /**
+         * @return SPS (H.264), VPS+SPS+PPS (H.265) with start codes, or the AudioSpecificConfig (AAC).
+         */
+        public byte[] getCsd0() {
+            return mCsd0;
+        }
+
+        /**
+         * @return PPS with start codes (H.264), otherwise null.
+         */
+        public byte[] getCsd1() {
+            return mCsd1;
+        }
+
+        /**
+         * @return size of the NAL unit length prefix in samples, or 0 if samples are not NAL units.
+         */
+        public int getNalLengthSize() {
+            return mNalLengthSize;
+        }
+
+        public int getSampleCount() {
+            return mSampleCount;
+        }
+
+        public long getSampleOffset(int index) {
+            return mOffsets[index];
+        }
+
+        public int getSampleSize(int index) {
+            return mSizes[index];
+        }
+
+        public long getSampleDecodeTimeUs(int index) {
+            return mDecodeTimesUs[index];
+        }
+
+        public long getSamplePresentationTimeUs(int index) {
+            return mPresentationTimesUs[index];
+        }
+
+        public boolean isSyncSample(int index) {
+            return mFlags[index] == SAMPLE_FLAG_SYNC;
+        }
+
+        public int getSyncSampleCount() {
+            return mSyncSamples.length;
+        }
+
+        /**
+         * @return index of the {@code n}th sync sample.
+         */
+        public int getSyncSample(int n) {
+            return mSyncSamples[n];
+        }
+
+        public int getMaxSampleSize() {
+            return mMaxSampleSize;
+        }
+
+        /**
+         * @return buffer size {@link #readSampleData(ByteBuffer, int)} needs for any sample of this track.
+         */
+        public int getMaxReadSize() {
+            if (mNalLengthSize == 0 || mNalLengthSize >= START_CODE.length) return mMaxSampleSize;
+            // Every NAL unit takes at least one byte besides its length.
+            return mMaxSampleSize + mMaxSampleSize / (mNalLengthSize + 1) * (START_CODE.length - mNalLengthSize);
+        }
+
+        private void seekTo(long timeUs, int mode) {
+            if (mSyncSamples.length == 0) {
+                mCursor = mSampleCount;
+                return;
+            }
+            // Last sync sample at or before timeUs, by presentation time.
+            int low = 0;
+            int high = mSyncSamples.length - 1;
+            int previous = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (mPresentationTimesUs[mSyncSamples[mid]] <= timeUs) {
+                    previous = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int next = previous + 1;
+            int chosen;
+            switch (mode) {
+                case SEEK_TO_PREVIOUS_SYNC:
+                    chosen = Math.max(previous, 0);
+                    break;
+                case SEEK_TO_NEXT_SYNC:
+                    if (previous >= 0 && mPresentationTimesUs[mSyncSamples[previous]] == timeUs) {
+                        chosen = previous;
+                    } else {
+                        chosen = next;
+                    }
+                    break;
+                default:
+                    if (previous < 0) {
+                        chosen = 0;
+                    } else if (next >= mSyncSamples.length) {
+                        chosen = previous;
+                    } else {
+                        long before = timeUs - mPresentationTimesUs[mSyncSamples[previous]];
+                        long after = mPresentationTimesUs[mSyncSamples[next]] - timeUs;
+                        chosen = after < before ? next : previous;
+                    }
+                    break;
+            }
+            mCursor = chosen < mSyncSamples.length ? mSyncSamples[chosen] : mSampleCount;
+        }
+    }
+}
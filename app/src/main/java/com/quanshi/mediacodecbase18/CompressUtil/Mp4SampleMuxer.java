@@ -0,0 +1,95 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} backed by a pure Java {@link ContainerWriter}, {@link Mp4Writer} or {@link FragmentedMp4Writer}.
+ * Supports H.264 and H.265 video and AAC audio.
+ */
+public class Mp4SampleMuxer implements SampleMuxer {
+    private final ContainerWriter mWriter;
+
+    public Mp4SampleMuxer(ContainerWriter writer) {
+        mWriter = writer;
+    }
+
+    /**
+     * @param faststart write moov before mdat, see {@link Mp4Writer#Mp4Writer(File, boolean)}.
+     */
+    public Mp4SampleMuxer(String outputPath, boolean faststart) throws IOException {
+        this(new Mp4Writer(new File(outputPath), faststart));
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mWriter.setOrientationHint(degrees);
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        if (mime.startsWith("video/")) {
+            return mWriter.addVideoTrack(mime, format.getInteger(MediaFormat.KEY_WIDTH),
+                    format.getInteger(MediaFormat.KEY_HEIGHT), getBytes(format, MediaConstants.KEY_AVC_SPS),
+                    getBytes(format, MediaConstants.KEY_AVC_PPS));
+        }
+        return mWriter.addAudioTrack(mime, format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), getBytes(format, MediaConstants.KEY_AVC_SPS));
+    }
+
+    @Override
+    public void start() {
+        try {
+            mWriter.start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start writing " + mWriter, e);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        int position = byteBuf.position();
+        int limit = byteBuf.limit();
+        byteBuf.limit(bufferInfo.offset + bufferInfo.size);
+        byteBuf.position(bufferInfo.offset);
+        try {
+            mWriter.writeSampleData(trackIndex, byteBuf, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write " + mWriter, e);
+        } finally {
+            byteBuf.limit(limit);
+            byteBuf.position(position);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            mWriter.stop();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not finish " + mWriter, e);
+        }
+    }
+
+    @Override
+    public void release() {
+        mWriter.release();
+    }
+
+    /**
+     * @return the buffer's bytes, csd buffers are read from the start regardless of their position.
+     */
+    private static byte[] getBytes(MediaFormat format, String key) {
+        if (!format.containsKey(key)) return null;
+        ByteBuffer buffer = format.getByteBuffer(key).duplicate();
+        buffer.rewind();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,138 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaFormat;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleSource} backed by {@link Mp4Demuxer}. Reads samples straight from a memory mapping of the file
+ * instead of copying them through the native extractor, and hands out audio samples without any copy.
+ */
+public class Mp4SampleSource implements SampleSource {
+    private final Mp4Demuxer mDemuxer;
+    private final MediaFormat[] mFormats;
+
+    public Mp4SampleSource(Mp4Demuxer demuxer) {
+        mDemuxer = demuxer;
+        mFormats = new MediaFormat[demuxer.getTrackCount()];
+    }
+
+    /**
+     * The descriptor stays open; a FileInputStream created from a descriptor does not own it.
+     */
+    public Mp4SampleSource(FileDescriptor fileDescriptor) throws IOException {
+        this(new Mp4Demuxer(new FileInputStream(fileDescriptor).getChannel()));
+    }
+
+    public Mp4Demuxer getDemuxer() {
+        return mDemuxer;
+    }
+
+    @Override
+    public int getTrackCount() {
+        return mDemuxer.getTrackCount();
+    }
+
+    /**
+     * @return a format with the keys MediaExtractor would set for the track, including csd buffers with
+     * start codes. The mime is "application/octet-stream" for unknown codecs.
+     */
+    @Override
+    public MediaFormat getTrackFormat(int index) {
+        if (mFormats[index] == null) {
+            mFormats[index] = createFormat(mDemuxer.getTrack(index));
+        }
+        return mFormats[index];
+    }
+
+    private static MediaFormat createFormat(Mp4Demuxer.Track track) {
+        String mime = track.getMime() != null ? track.getMime() : "application/octet-stream";
+        MediaFormat format;
+        if (Mp4Demuxer.TRACK_TYPE_VIDEO.equals(track.getHandlerType())) {
+            format = MediaFormat.createVideoFormat(mime, track.getWidth(), track.getHeight());
+            if (track.getRotationDegrees() != 0) {
+                format.setInteger(MediaConstants.KEY_ROTATION_DEGREES, track.getRotationDegrees());
+            }
+        } else if (Mp4Demuxer.TRACK_TYPE_AUDIO.equals(track.getHandlerType())) {
+            format = MediaFormat.createAudioFormat(mime, track.getSampleRate(), track.getChannelCount());
+        } else {
+            format = new MediaFormat();
+            format.setString(MediaFormat.KEY_MIME, mime);
+        }
+        if (track.getCsd0() != null) {
+            format.setByteBuffer(MediaConstants.KEY_AVC_SPS, ByteBuffer.wrap(track.getCsd0()));
+        }
+        if (track.getCsd1() != null) {
+            format.setByteBuffer(MediaConstants.KEY_AVC_PPS, ByteBuffer.wrap(track.getCsd1()));
+        }
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, track.getMaxReadSize());
+        format.setLong(MediaFormat.KEY_DURATION, track.getDurationUs());
+        return format;
+    }
+
+    @Override
+    public void selectTrack(int index) {
+        mDemuxer.selectTrack(index);
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        mDemuxer.seekTo(timeUs, mode);
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return mDemuxer.getSampleTrackIndex();
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mDemuxer.getSampleTime();
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mDemuxer.getSampleFlags();
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer byteBuf, int offset) {
+        return mDemuxer.readSampleData(byteBuf, offset);
+    }
+
+    /**
+     * NAL unit samples are stored length-prefixed but read with start codes, so only those need a copy.
+     */
+    @Override
+    public ByteBuffer getSampleBuffer() {
+        int index = mDemuxer.getSampleTrackIndex();
+        if (index < 0 || mDemuxer.getTrack(index).getNalLengthSize() != 0) return null;
+        return mDemuxer.getSampleBuffer();
+    }
+
+    @Override
+    public boolean advance() {
+        return mDemuxer.advance();
+    }
+
+    @Override
+    public void release() {
+        // The mapping is freed with the demuxer; the descriptor belongs to the caller.
+    }
+
+    public static class Factory implements SampleSource.Factory {
+        private final FileDescriptor mFileDescriptor;
+
+        public Factory(FileDescriptor fileDescriptor) {
+            mFileDescriptor = fileDescriptor;
+        }
+
+        @Override
+        public SampleSource create() throws IOException {
+            return new Mp4SampleSource(mFileDescriptor);
+        }
+    }
+}
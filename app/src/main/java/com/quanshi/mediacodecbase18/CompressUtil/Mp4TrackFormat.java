@@ -0,0 +1,257 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What the MP4 writers know about a track, and the boxes describing it that do not depend on the samples.
+ */
+class Mp4TrackFormat {
+    static final String MIME_VIDEO_AVC = "video/avc";
+    static final String MIME_VIDEO_HEVC = "video/hevc";
+    static final String MIME_AUDIO_AAC = "audio/mp4a-latm";
+    private static final int VIDEO_TIMESCALE = 90000;
+
+    final String mMime;
+    final int mTimescale;
+    int mWidth;
+    int mHeight;
+    List<byte[]> mSps;
+    List<byte[]> mPps;
+    /** HEVC only, like the parsed parameter sets hvcC repeats. */
+    List<byte[]> mVps;
+    HevcParameterSetParser.Sps mHevcSps;
+    HevcParameterSetParser.Pps mHevcPps;
+    int mSampleRate;
+    int mChannelCount;
+    byte[] mAudioSpecificConfig;
+
+    private Mp4TrackFormat(String mime, int timescale) {
+        mMime = mime;
+        mTimescale = timescale;
+    }
+
+    /**
+     * @param sps sequence parameter sets with start codes (csd-0); for HEVC the VPS, SPS and PPS together
+     * @param pps picture parameter sets with start codes (csd-1); may be null for HEVC
+     */
+    static Mp4TrackFormat createVideo(String mime, int width, int height, byte[] sps, byte[] pps) {
+        if (MIME_VIDEO_HEVC.equals(mime)) {
+            return createHevc(width, height, sps, pps);
+        }
+        if (!MIME_VIDEO_AVC.equals(mime)) {
+            throw new IllegalArgumentException("Unsupported video mime type: " + mime);
+        }
+        if (sps == null || pps == null) {
+            throw new IllegalArgumentException("H.264 track needs SPS and PPS.");
+        }
+        Mp4TrackFormat format = new Mp4TrackFormat(mime, VIDEO_TIMESCALE);
+        format.mWidth = width;
+        format.mHeight = height;
+        format.mSps = SampleDataWriter.splitNalUnits(sps);
+        format.mPps = SampleDataWriter.splitNalUnits(pps);
+        if (format.mSps.isEmpty() || format.mSps.get(0).length < 4) {
+            throw new IllegalArgumentException("Broken SPS.");
+        }
+        return format;
+    }
+
+    private static Mp4TrackFormat createHevc(int width, int height, byte[] csd0, byte[] csd1) {
+        if (csd0 == null) {
+            throw new IllegalArgumentException("H.265 track needs VPS, SPS and PPS.");
+        }
+        Mp4TrackFormat format = new Mp4TrackFormat(MIME_VIDEO_HEVC, VIDEO_TIMESCALE);
+        format.mWidth = width;
+        format.mHeight = height;
+        format.mVps = new ArrayList<>();
+        format.mSps = new ArrayList<>();
+        format.mPps = new ArrayList<>();
+        List<byte[]> nalUnits = SampleDataWriter.splitNalUnits(csd0);
+        if (csd1 != null) {
+            nalUnits.addAll(SampleDataWriter.splitNalUnits(csd1));
+        }
+        for (byte[] nal : nalUnits) {
+            int type = HevcParameterSetParser.getNalUnitType(ByteBuffer.wrap(nal), 0);
+            if (type == HevcParameterSetParser.NAL_UNIT_TYPE_VPS) {
+                format.mVps.add(nal);
+            } else if (type == HevcParameterSetParser.NAL_UNIT_TYPE_SPS) {
+                format.mSps.add(nal);
+            } else if (type == HevcParameterSetParser.NAL_UNIT_TYPE_PPS) {
+                format.mPps.add(nal);
+            }
+        }
+        if (format.mVps.isEmpty() || format.mSps.isEmpty() || format.mPps.isEmpty()) {
+            throw new IllegalArgumentException("H.265 track needs VPS, SPS and PPS.");
+        }
+        HevcParameterSetParser parser = new HevcParameterSetParser();
+        format.mHevcSps = new HevcParameterSetParser.Sps();
+        format.mHevcPps = new HevcParameterSetParser.Pps();
+        try {
+            parser.parseSps(ByteBuffer.wrap(format.mSps.get(0)), format.mHevcSps);
+            parser.parsePps(ByteBuffer.wrap(format.mPps.get(0)), format.mHevcPps);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Broken SPS or PPS.", e);
+        }
+        return format;
+    }
+
+    /**
+     * @param audioSpecificConfig csd-0 of the AAC track
+     */
+    static Mp4TrackFormat createAudio(String mime, int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        if (!MIME_AUDIO_AAC.equals(mime)) {
+            throw new IllegalArgumentException("Unsupported audio mime type: " + mime);
+        }
+        Mp4TrackFormat format = new Mp4TrackFormat(mime, sampleRate);
+        format.mSampleRate = sampleRate;
+        format.mChannelCount = channelCount;
+        format.mAudioSpecificConfig = audioSpecificConfig;
+        return format;
+    }
+
+    boolean isVideo() {
+        return mSps != null;
+    }
+
+    /**
+     * @return duration the last sample is given when nothing follows it.
+     */
+    long getDefaultSampleDuration() {
+        return isVideo() ? mTimescale / 30 : 1024;
+    }
+
+    void writeTkhd(Mp4BoxBuilder b, int trackId, long movieDuration, int rotationDegrees) {
+        boolean video = isVideo();
+        int tkhd = b.startFull("tkhd", 0, 7);
+        b.putInt(0).putInt(0).putInt(trackId).putInt(0).putInt((int) movieDuration);
+        b.putZeros(8).putShort(0).putShort(video ? 0 : 1).putShort(video ? 0 : 0x100).putShort(0);
+        b.putMatrix(video ? rotationDegrees : 0);
+        b.putInt(mWidth << 16).putInt(mHeight << 16);
+        b.end(tkhd);
+    }
+
+    /**
+     * Writes mdhd and hdlr, the first children of mdia.
+     */
+    void writeMediaHeaders(Mp4BoxBuilder b, long duration) {
+        int mdhd = b.startFull("mdhd", 0, 0);
+        b.putInt(0).putInt(0).putInt(mTimescale).putInt((int) duration);
+        b.putShort(0x55c4).putShort(0); // "und"
+        b.end(mdhd);
+        int hdlr = b.startFull("hdlr", 0, 0);
+        b.putInt(0).putFourCc(isVideo() ? "vide" : "soun").putZeros(12);
+        b.putAscii(isVideo() ? "VideoHandle" : "SoundHandle").putZeros(1);
+        b.end(hdlr);
+    }
+
+    /**
+     * Writes vmhd/smhd and dinf, the children of minf before stbl.
+     */
+    void writeMediaInformationHeaders(Mp4BoxBuilder b) {
+        if (isVideo()) {
+            int vmhd = b.startFull("vmhd", 0, 1);
+            b.putZeros(8);
+            b.end(vmhd);
+        } else {
+            int smhd = b.startFull("smhd", 0, 0);
+            b.putZeros(4);
+            b.end(smhd);
+        }
+        int dinf = b.start("dinf");
+        int dref = b.startFull("dref", 0, 0);
+        b.putInt(1);
+        b.end(b.startFull("url ", 0, 1));
+        b.end(dref);
+        b.end(dinf);
+    }
+
+    void writeStsd(Mp4BoxBuilder b, long averageBitrate) {
+        int stsd = b.startFull("stsd", 0, 0);
+        b.putInt(1);
+        if (mVps != null) {
+            writeHvc1(b);
+        } else if (isVideo()) {
+            writeAvc1(b);
+        } else {
+            writeMp4a(b, averageBitrate);
+        }
+        b.end(stsd);
+    }
+
+    private void writeAvc1(Mp4BoxBuilder b) {
+        int avc1 = b.start("avc1");
+        b.putZeros(6).putShort(1).putZeros(16).putShort(mWidth).putShort(mHeight);
+        b.putInt(0x480000).putInt(0x480000).putInt(0).putShort(1).putZeros(32).putShort(0x18).putShort(-1);
+        int avcC = b.start("avcC");
+        byte[] sps = mSps.get(0);
+        b.putByte(1).putByte(sps[1]).putByte(sps[2]).putByte(sps[3]).putByte(0xff);
+        b.putByte(0xe0 | mSps.size());
+        for (byte[] nal : mSps) {
+            b.putShort(nal.length).putBytes(nal);
+        }
+        b.putByte(mPps.size());
+        for (byte[] nal : mPps) {
+            b.putShort(nal.length).putBytes(nal);
+        }
+        b.end(avcC);
+        b.end(avc1);
+    }
+
+    /**
+     * hvc1 keeps all parameter sets in hvcC (ISO/IEC 14496-15 8.3.3), which is what players expect.
+     */
+    private void writeHvc1(Mp4BoxBuilder b) {
+        int hvc1 = b.start("hvc1");
+        b.putZeros(6).putShort(1).putZeros(16).putShort(mWidth).putShort(mHeight);
+        b.putInt(0x480000).putInt(0x480000).putInt(0).putShort(1).putZeros(32).putShort(0x18).putShort(-1);
+        int hvcC = b.start("hvcC");
+        HevcParameterSetParser.Sps sps = mHevcSps;
+        HevcParameterSetParser.ProfileTierLevel ptl = sps.mProfileTierLevel;
+        b.putByte(1);
+        b.putByte((ptl.mProfileSpace << 6) | (ptl.mTierFlag ? 0x20 : 0) | ptl.mProfileIdc);
+        b.putInt(ptl.mProfileCompatibilityFlags);
+        b.putShort((int) (ptl.mConstraintIndicatorFlags >>> 32)).putInt((int) ptl.mConstraintIndicatorFlags);
+        b.putByte(ptl.mLevelIdc);
+        b.putShort(0xf000 | sps.mMinSpatialSegmentationIdc);
+        b.putByte(0xfc | HevcParameterSetParser.getParallelismType(sps, mHevcPps));
+        b.putByte(0xfc | sps.mChromaFormatIdc);
+        b.putByte(0xf8 | (sps.mBitDepthLuma - 8));
+        b.putByte(0xf8 | (sps.mBitDepthChroma - 8));
+        // avgFrameRate and constantFrameRate unspecified, 4-byte lengths.
+        b.putShort(0);
+        b.putByte((sps.mMaxSubLayers << 3) | (sps.mTemporalIdNesting ? 4 : 0) | 3);
+        b.putByte(3);
+        writeHvcCArray(b, HevcParameterSetParser.NAL_UNIT_TYPE_VPS, mVps);
+        writeHvcCArray(b, HevcParameterSetParser.NAL_UNIT_TYPE_SPS, mSps);
+        writeHvcCArray(b, HevcParameterSetParser.NAL_UNIT_TYPE_PPS, mPps);
+        b.end(hvcC);
+        b.end(hvc1);
+    }
+
+    private static void writeHvcCArray(Mp4BoxBuilder b, int nalUnitType, List<byte[]> nalUnits) {
+        // array_completeness: the array holds every parameter set of its type.
+        b.putByte(0x80 | nalUnitType).putShort(nalUnits.size());
+        for (byte[] nal : nalUnits) {
+            b.putShort(nal.length).putBytes(nal);
+        }
+    }
+
+    private void writeMp4a(Mp4BoxBuilder b, long averageBitrate) {
+        int mp4a = b.start("mp4a");
+        b.putZeros(6).putShort(1).putZeros(8);
+        b.putShort(mChannelCount).putShort(16).putShort(0).putShort(0).putInt(mSampleRate << 16);
+        int esds = b.startFull("esds", 0, 0);
+        byte[] config = mAudioSpecificConfig != null ? mAudioSpecificConfig : new byte[0];
+        int decoderSpecificInfoSize = 2 + config.length;
+        int decoderConfigSize = 2 + 13 + decoderSpecificInfoSize;
+        int esSize = 3 + decoderConfigSize + 3;
+        b.putByte(0x03).putByte(esSize).putShort(0).putByte(0);
+        b.putByte(0x04).putByte(decoderConfigSize - 2).putByte(0x40).putByte(0x15);
+        b.putByte(0).putShort(0).putInt((int) averageBitrate).putInt((int) averageBitrate);
+        b.putByte(0x05).putByte(config.length).putBytes(config);
+        b.putByte(0x06).putByte(1).putByte(2);
+        b.end(esds);
+        b.end(mp4a);
+    }
+}
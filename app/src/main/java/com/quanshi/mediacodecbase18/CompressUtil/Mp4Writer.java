@@ -0,0 +1,474 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * MP4 muxer for one H.264 or H.265 and/or AAC track each, written in plain Java.
+ * <p>
+ * Sample data is streamed through a large direct buffer into the file while the sample tables are kept in
+ * primitive arrays; moov is built when the muxer is stopped. With faststart, mdat is streamed into a side file and
+ * moved behind moov with {@link FileChannel#transferTo}, so players can start before the whole file has been
+ * downloaded and the data never passes through the Java heap.
+ * <p>
+ * Video samples may come with start codes (as encoders output them) or already length-prefixed; they are stored
+ * with 4-byte lengths.
+ */
+public class Mp4Writer implements ContainerWriter {
+    public static final String MIME_VIDEO_AVC = Mp4TrackFormat.MIME_VIDEO_AVC;
+    public static final String MIME_VIDEO_HEVC = Mp4TrackFormat.MIME_VIDEO_HEVC;
+    public static final String MIME_AUDIO_AAC = Mp4TrackFormat.MIME_AUDIO_AAC;
+
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MOVIE_TIMESCALE = Mp4BoxBuilder.MOVIE_TIMESCALE;
+    private static final int MDAT_HEADER_SIZE = 16;
+    private static final long MAX_UINT32 = 0xffffffffL;
+
+    private final File mOutputFile;
+    private final boolean mFaststart;
+    private final RandomAccessFile mOutput;
+    private final File mMdatFile;
+    private final RandomAccessFile mMdat;
+    private final FileChannel mMdatChannel;
+    private final SampleDataWriter mDataWriter;
+    private final List<Track> mTracks = new ArrayList<>();
+    private long mMdatPosition;
+    private int mLastTrackIndex = -1;
+    private int mRotationDegrees;
+    private boolean mStarted;
+    private boolean mStopped;
+
+    /**
+     * @param faststart write moov before mdat. Needs room for a second copy of the sample data until stopped.
+     */
+    public Mp4Writer(File outputFile, boolean faststart) throws IOException {
+        mOutputFile = outputFile;
+        mFaststart = faststart;
+        mOutput = new RandomAccessFile(outputFile, "rw");
+        mOutput.setLength(0);
+        if (faststart) {
+            mMdatFile = File.createTempFile(outputFile.getName(), ".mdat", outputFile.getAbsoluteFile().getParentFile());
+            mMdat = new RandomAccessFile(mMdatFile, "rw");
+            mMdatChannel = mMdat.getChannel();
+        } else {
+            mMdatFile = null;
+            mMdat = null;
+            mMdatChannel = mOutput.getChannel();
+        }
+        mDataWriter = new SampleDataWriter(mMdatChannel, 0, WRITE_BUFFER_SIZE);
+    }
+
+    @Override
+    public int addVideoTrack(String mime, int width, int height, byte[] sps, byte[] pps) {
+        return addTrack(Mp4TrackFormat.createVideo(mime, width, height, sps, pps));
+    }
+
+    @Override
+    public int addAudioTrack(String mime, int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        return addTrack(Mp4TrackFormat.createAudio(mime, sampleRate, channelCount, audioSpecificConfig));
+    }
+
+    private int addTrack(Mp4TrackFormat format) {
+        if (mStarted) {
+            throw new IllegalStateException("Tracks must be added before start().");
+        }
+        mTracks.add(new Track(format));
+        return mTracks.size() - 1;
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Unsupported angle: " + degrees);
+        }
+        mRotationDegrees = degrees;
+    }
+
+    @Override
+    public void start() throws IOException {
+        if (mTracks.isEmpty()) {
+            throw new IllegalStateException("No track added.");
+        }
+        mStarted = true;
+        if (!mFaststart) {
+            // mdat follows ftyp directly; its header is patched in stop().
+            SampleDataWriter.writeFully(mOutput.getChannel(), ByteBuffer.wrap(buildFtyp()), 0);
+            mMdatPosition = mOutput.getChannel().size() + MDAT_HEADER_SIZE;
+            mDataWriter.reset(mMdatPosition);
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer sample, long presentationTimeUs, int flags)
+            throws IOException {
+        if (!mStarted || mStopped) {
+            throw new IllegalStateException("Muxer is not started.");
+        }
+        if ((flags & FLAG_CODEC_CONFIG) != 0 || !sample.hasRemaining()) return;
+        Track track = mTracks.get(trackIndex);
+        if (trackIndex != mLastTrackIndex) {
+            track.addChunk(mDataWriter.getWrittenBytes());
+            mLastTrackIndex = trackIndex;
+        }
+        long size = mDataWriter.writeSample(sample, track.mFormat.isVideo());
+        track.addSample(size, presentationTimeUs, (flags & FLAG_SYNC_FRAME) != 0);
+    }
+
+    /**
+     * Writes the sample tables and finishes the file.
+     */
+    @Override
+    public void stop() throws IOException {
+        if (!mStarted || mStopped) {
+            throw new IllegalStateException("Muxer is not started.");
+        }
+        mStopped = true;
+        mDataWriter.flush();
+        byte[] ftyp = buildFtyp();
+        long movieDuration = 0;
+        for (Track track : mTracks) {
+            track.finish();
+            movieDuration = Math.max(movieDuration, track.getMovieDuration());
+        }
+        Mp4BoxBuilder moovBuilder = new Mp4BoxBuilder();
+        moovBuilder.start("moov");
+        moovBuilder.writeMvhd(movieDuration, mTracks.size() + 1);
+        OpenTrak[] traks = new OpenTrak[mTracks.size()];
+        for (int i = 0; i < traks.length; i++) {
+            traks[i] = buildOpenTrak(mTracks.get(i), i + 1);
+        }
+        FileChannel output = mOutput.getChannel();
+        if (mFaststart) {
+            boolean co64 = needsCo64(ftyp.length + getMoovSize(moovBuilder, traks, false));
+            long mdatPosition = ftyp.length + getMoovSize(moovBuilder, traks, co64) + MDAT_HEADER_SIZE;
+            byte[] moov = finishMoov(moovBuilder, traks, mdatPosition, co64);
+            long position = 0;
+            position += SampleDataWriter.writeFully(output, ByteBuffer.wrap(ftyp), position);
+            position += SampleDataWriter.writeFully(output, ByteBuffer.wrap(moov), position);
+            position += SampleDataWriter.writeFully(output, buildMdatHeader(), position);
+            // transferTo() appends at the channel position, which the positional writes above left alone.
+            output.position(position);
+            SampleDataWriter.transferFully(mMdatChannel, getWrittenBytes(), output);
+        } else {
+            boolean co64 = needsCo64(0);
+            SampleDataWriter.writeFully(output, buildMdatHeader(), mMdatPosition - MDAT_HEADER_SIZE);
+            SampleDataWriter.writeFully(output, ByteBuffer.wrap(finishMoov(moovBuilder, traks, mMdatPosition, co64)),
+                    mMdatPosition + getWrittenBytes());
+        }
+        output.force(false);
+    }
+
+    /**
+     * Closes the files. The output is left as it is if the muxer has not been stopped.
+     */
+    @Override
+    public void release() {
+        close(mOutput);
+        if (mMdat != null) {
+            close(mMdat);
+            //noinspection ResultOfMethodCallIgnored
+            mMdatFile.delete();
+        }
+    }
+
+    public File getOutputFile() {
+        return mOutputFile;
+    }
+
+    /**
+     * @return bytes of sample data written so far.
+     */
+    public long getWrittenBytes() {
+        return mDataWriter.getWrittenBytes();
+    }
+
+    @Override
+    public String toString() {
+        return mOutputFile.getPath();
+    }
+
+    private boolean needsCo64(long headerSize) {
+        return mMdatPosition + headerSize + MDAT_HEADER_SIZE + getWrittenBytes() > MAX_UINT32;
+    }
+
+    // region boxes
+
+    private ByteBuffer buildMdatHeader() {
+        ByteBuffer header = ByteBuffer.allocate(MDAT_HEADER_SIZE);
+        header.putInt(1).putInt(Mp4Demuxer.fourCc("mdat")).putLong(MDAT_HEADER_SIZE + getWrittenBytes());
+        header.flip();
+        return header;
+    }
+
+    private static byte[] buildFtyp() {
+        Mp4BoxBuilder b = new Mp4BoxBuilder();
+        b.writeFtyp("isom", "isom", "iso2", "avc1", "mp41");
+        return b.toByteArray();
+    }
+
+    /**
+     * The boxes of a track up to its chunk offsets, which come last in the trak and are the only part depending on
+     * where mdat starts. So the rest is built once, and the size of moov follows from it.
+     */
+    private static class OpenTrak {
+        final Mp4BoxBuilder mBuilder = new Mp4BoxBuilder();
+        int mMdia;
+        int mMinf;
+        int mStbl;
+    }
+
+    private OpenTrak buildOpenTrak(Track track, int trackId) {
+        OpenTrak trak = new OpenTrak();
+        Mp4BoxBuilder b = trak.mBuilder;
+        Mp4TrackFormat format = track.mFormat;
+        b.start("trak");
+        format.writeTkhd(b, trackId, track.getMovieDuration(), mRotationDegrees);
+
+        if (track.mStartTimeUs > 0 || track.mCompositionDelay > 0) {
+            int edts = b.start("edts");
+            int elst = b.startFull("elst", 0, 0);
+            b.putInt(track.mStartTimeUs > 0 ? 2 : 1);
+            if (track.mStartTimeUs > 0) {
+                b.putInt((int) (track.mStartTimeUs * MOVIE_TIMESCALE / 1000000)).putInt(-1).putInt(0x10000);
+            }
+            b.putInt((int) (track.mDuration * MOVIE_TIMESCALE / format.mTimescale))
+                    .putInt((int) track.mCompositionDelay).putInt(0x10000);
+            b.end(elst);
+            b.end(edts);
+        }
+
+        trak.mMdia = b.start("mdia");
+        format.writeMediaHeaders(b, track.mDuration);
+        trak.mMinf = b.start("minf");
+        format.writeMediaInformationHeaders(b);
+        trak.mStbl = b.start("stbl");
+        format.writeStsd(b, track.getAverageBitrate());
+        buildTimeTables(b, track);
+        buildSampleTables(b, track);
+        return trak;
+    }
+
+    private int getMoovSize(Mp4BoxBuilder moovBuilder, OpenTrak[] traks, boolean co64) {
+        int size = moovBuilder.position();
+        for (int i = 0; i < traks.length; i++) {
+            // Full box header and entry count, then the offsets.
+            size += traks[i].mBuilder.position() + 16 + mTracks.get(i).mChunkCount * (co64 ? 8 : 4);
+        }
+        return size;
+    }
+
+    private byte[] finishMoov(Mp4BoxBuilder moovBuilder, OpenTrak[] traks, long mdatPosition, boolean co64) {
+        for (int i = 0; i < traks.length; i++) {
+            OpenTrak trak = traks[i];
+            Mp4BoxBuilder b = trak.mBuilder;
+            buildChunkOffsets(b, mTracks.get(i), mdatPosition, co64);
+            b.end(trak.mStbl);
+            b.end(trak.mMinf);
+            b.end(trak.mMdia);
+            b.end(0);
+            moovBuilder.putBytes(b.toByteArray());
+        }
+        moovBuilder.end(0);
+        return moovBuilder.toByteArray();
+    }
+
+    private static void buildTimeTables(Mp4BoxBuilder b, Track track) {
+        int count = track.mSampleCount;
+        int stts = b.startFull("stts", 0, 0);
+        int entryCountPosition = b.position();
+        b.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < count; ) {
+            long delta = track.mDecodeDeltas[i];
+            int run = 1;
+            while (i + run < count && track.mDecodeDeltas[i + run] == delta) run++;
+            b.putInt(run).putInt((int) delta);
+            entries++;
+            i += run;
+        }
+        b.putInt(entryCountPosition, entries);
+        b.end(stts);
+
+        if (track.mCompositionDelay > 0) {
+            int ctts = b.startFull("ctts", 0, 0);
+            entryCountPosition = b.position();
+            b.putInt(0);
+            entries = 0;
+            for (int i = 0; i < count; ) {
+                long offset = track.mCompositionOffsets[i];
+                int run = 1;
+                while (i + run < count && track.mCompositionOffsets[i + run] == offset) run++;
+                b.putInt(run).putInt((int) offset);
+                entries++;
+                i += run;
+            }
+            b.putInt(entryCountPosition, entries);
+            b.end(ctts);
+        }
+    }
+
+    private static void buildSampleTables(Mp4BoxBuilder b, Track track) {
+        int count = track.mSampleCount;
+        int syncCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (track.mSync[i]) syncCount++;
+        }
+        if (syncCount < count) {
+            int stss = b.startFull("stss", 0, 0);
+            b.putInt(syncCount);
+            for (int i = 0; i < count; i++) {
+                if (track.mSync[i]) b.putInt(i + 1);
+            }
+            b.end(stss);
+        }
+
+        int stsz = b.startFull("stsz", 0, 0);
+        b.putInt(0).putInt(count);
+        for (int i = 0; i < count; i++) {
+            b.putInt(track.mSizes[i]);
+        }
+        b.end(stsz);
+
+        int stsc = b.startFull("stsc", 0, 0);
+        int entryCountPosition = b.position();
+        b.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < track.mChunkCount; i++) {
+            if (i == 0 || track.mChunkSampleCounts[i] != track.mChunkSampleCounts[i - 1]) {
+                b.putInt(i + 1).putInt(track.mChunkSampleCounts[i]).putInt(1);
+                entries++;
+            }
+        }
+        b.putInt(entryCountPosition, entries);
+        b.end(stsc);
+    }
+
+    private static void buildChunkOffsets(Mp4BoxBuilder b, Track track, long mdatPosition, boolean co64) {
+        int stco = b.startFull(co64 ? "co64" : "stco", 0, 0);
+        b.putInt(track.mChunkCount);
+        for (int i = 0; i < track.mChunkCount; i++) {
+            long offset = mdatPosition + track.mChunkOffsets[i];
+            if (co64) {
+                b.putLong(offset);
+            } else {
+                b.putInt((int) offset);
+            }
+        }
+        b.end(stco);
+    }
+
+    // endregion
+
+    private static void close(RandomAccessFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Sample table of one track, in growable primitive arrays.
+     */
+    private static class Track {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final Mp4TrackFormat mFormat;
+
+        private int mSampleCount;
+        private int[] mSizes = new int[INITIAL_CAPACITY];
+        private long[] mPresentationTimesUs = new long[INITIAL_CAPACITY];
+        private boolean[] mSync = new boolean[INITIAL_CAPACITY];
+        private int mChunkCount;
+        private long[] mChunkOffsets = new long[64];
+        private int[] mChunkSampleCounts = new int[64];
+        private long mTotalBytes;
+
+        // Derived in finish(), in track timescale units.
+        private long[] mDecodeDeltas;
+        private long[] mCompositionOffsets;
+        private long mCompositionDelay;
+        private long mDuration;
+        private long mStartTimeUs;
+
+        private Track(Mp4TrackFormat format) {
+            mFormat = format;
+        }
+
+        private void addChunk(long offset) {
+            if (mChunkCount == mChunkOffsets.length) {
+                mChunkOffsets = Arrays.copyOf(mChunkOffsets, mChunkCount * 2);
+                mChunkSampleCounts = Arrays.copyOf(mChunkSampleCounts, mChunkCount * 2);
+            }
+            mChunkOffsets[mChunkCount] = offset;
+            mChunkSampleCounts[mChunkCount] = 0;
+            mChunkCount++;
+        }
+
+        private void addSample(long size, long presentationTimeUs, boolean sync) {
+            if (mSampleCount == mSizes.length) {
+                int capacity = mSampleCount * 2;
+                mSizes = Arrays.copyOf(mSizes, capacity);
+                mPresentationTimesUs = Arrays.copyOf(mPresentationTimesUs, capacity);
+                mSync = Arrays.copyOf(mSync, capacity);
+            }
+            mSizes[mSampleCount] = (int) size;
+            mPresentationTimesUs[mSampleCount] = presentationTimeUs;
+            mSync[mSampleCount] = sync;
+            mSampleCount++;
+            mChunkSampleCounts[mChunkCount - 1]++;
+            mTotalBytes += size;
+        }
+
+        /**
+         * Derives decode times from the sorted presentation times. If samples are reordered, decode times are
+         * moved back by the largest reordering so composition offsets stay positive, and the edit list skips it.
+         */
+        private void finish() {
+            int count = mSampleCount;
+            int timescale = mFormat.mTimescale;
+            long[] times = new long[count];
+            for (int i = 0; i < count; i++) {
+                times[i] = (mPresentationTimesUs[i] * timescale + 500000) / 1000000;
+            }
+            long[] decodeTimes = Arrays.copyOf(times, count);
+            Arrays.sort(decodeTimes);
+            long delay = 0;
+            for (int i = 0; i < count; i++) {
+                delay = Math.max(delay, decodeTimes[i] - times[i]);
+            }
+            mCompositionDelay = delay;
+            mCompositionOffsets = new long[count];
+            mDecodeDeltas = new long[count];
+            for (int i = 0; i < count; i++) {
+                mCompositionOffsets[i] = times[i] - decodeTimes[i] + delay;
+                if (i + 1 < count) {
+                    mDecodeDeltas[i] = decodeTimes[i + 1] - decodeTimes[i];
+                } else if (i > 0) {
+                    mDecodeDeltas[i] = mDecodeDeltas[i - 1];
+                } else {
+                    mDecodeDeltas[i] = mFormat.getDefaultSampleDuration();
+                }
+            }
+            mStartTimeUs = count > 0 ? decodeTimes[0] * 1000000 / timescale : 0;
+            mDuration = 0;
+            for (long delta : mDecodeDeltas) {
+                mDuration += delta;
+            }
+        }
+
+        private long getMovieDuration() {
+            return mStartTimeUs * MOVIE_TIMESCALE / 1000000 + mDuration * MOVIE_TIMESCALE / mFormat.mTimescale;
+        }
+
+        private long getAverageBitrate() {
+            return mDuration > 0 ? mTotalBytes * 8 * mFormat.mTimescale / mDuration : 0;
+        }
+    }
+}
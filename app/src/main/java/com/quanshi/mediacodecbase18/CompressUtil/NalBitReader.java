@@ -0,0 +1,151 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the RBSP of a NAL unit bit by bit, dropping emulation prevention bytes (the 03 of 00 00 03) on the way.
+ * Reset it for every NAL unit; nothing is allocated, so one reader can parse any number of them.
+ */
+class NalBitReader {
+    private ByteBuffer mBuffer;
+    private int mPosition;
+    private int mEnd;
+    private int mZeros;
+    /** Bits loaded but not read yet, in the low {@link #mCacheBits} bits. */
+    private long mCache;
+    private int mCacheBits;
+    private long mBitsRead;
+    /** RBSP bit offset of the rbsp_stop_one_bit, -1 if there is none. */
+    private long mStopBitOffset;
+
+    /**
+     * Starts reading the RBSP between {@code offset} and {@code end} of {@code buffer}, i.e. after the NAL header.
+     * The position and limit of the buffer are not used or changed.
+     */
+    void reset(ByteBuffer buffer, int offset, int end) {
+        mBuffer = buffer;
+        mPosition = offset;
+        mEnd = end;
+        mZeros = 0;
+        mCache = 0;
+        mCacheBits = 0;
+        mBitsRead = 0;
+        mStopBitOffset = findStopBitOffset(buffer, offset, end);
+    }
+
+    boolean readFlag() {
+        return readBits(1) != 0;
+    }
+
+    /**
+     * @param count 0 to 32; 32 bits may come out negative, see {@link #readUnsignedInt()}.
+     */
+    int readBits(int count) {
+        if (count == 0) return 0;
+        while (mCacheBits < count) {
+            mCache = (mCache << 8) | nextByte();
+            mCacheBits += 8;
+        }
+        mCacheBits -= count;
+        mBitsRead += count;
+        return (int) ((mCache >>> mCacheBits) & ((1L << count) - 1));
+    }
+
+    long readUnsignedInt() {
+        return readBits(32) & 0xffffffffL;
+    }
+
+    void skipBits(int count) {
+        while (count > 32) {
+            readBits(32);
+            count -= 32;
+        }
+        readBits(count);
+    }
+
+    /**
+     * @return ue(v)
+     */
+    int readUnsignedExpGolomb() {
+        // Counts the leading zeros of the cached bits at once instead of reading them one by one.
+        int leadingZeros = 0;
+        while (true) {
+            if (mCacheBits == 0) {
+                mCache = nextByte();
+                mCacheBits = 8;
+            }
+            long cached = mCache & ((1L << mCacheBits) - 1);
+            if (cached != 0) {
+                int zeros = Long.numberOfLeadingZeros(cached) - (64 - mCacheBits);
+                leadingZeros += zeros;
+                mCacheBits -= zeros + 1;
+                mBitsRead += zeros + 1;
+                break;
+            }
+            leadingZeros += mCacheBits;
+            mBitsRead += mCacheBits;
+            mCacheBits = 0;
+            if (leadingZeros > 30) break;
+        }
+        if (leadingZeros > 30) {
+            throw new IllegalStateException("Invalid exp-Golomb code at bit " + mBitsRead + ".");
+        }
+        return (1 << leadingZeros) - 1 + readBits(leadingZeros);
+    }
+
+    /**
+     * @return se(v)
+     */
+    int readSignedExpGolomb() {
+        int codeNum = readUnsignedExpGolomb();
+        return (codeNum & 1) != 0 ? (codeNum + 1) / 2 : -(codeNum / 2);
+    }
+
+    /**
+     * @return true if there is syntax left before the rbsp_stop_one_bit, more_rbsp_data() in the spec.
+     */
+    boolean hasMoreRbspData() {
+        return mBitsRead < mStopBitOffset;
+    }
+
+    long getBitsRead() {
+        return mBitsRead;
+    }
+
+    private int nextByte() {
+        if (mPosition >= mEnd) {
+            throw new IllegalStateException("Read past the end of the NAL unit.");
+        }
+        int value = mBuffer.get(mPosition++) & 0xff;
+        if (mZeros >= 2 && value == 3) {
+            if (mPosition >= mEnd) {
+                throw new IllegalStateException("Read past the end of the NAL unit.");
+            }
+            value = mBuffer.get(mPosition++) & 0xff;
+            mZeros = 0;
+        }
+        mZeros = value == 0 ? mZeros + 1 : 0;
+        return value;
+    }
+
+    private static long findStopBitOffset(ByteBuffer buffer, int offset, int end) {
+        long rbspBytes = 0;
+        long lastIndex = -1;
+        int lastValue = 0;
+        int zeros = 0;
+        for (int i = offset; i < end; i++) {
+            int value = buffer.get(i) & 0xff;
+            if (zeros >= 2 && value == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = value == 0 ? zeros + 1 : 0;
+            if (value != 0) {
+                lastIndex = rbspBytes;
+                lastValue = value;
+            }
+            rbspBytes++;
+        }
+        return lastIndex < 0 ? -1 : lastIndex * 8 + 7 - Integer.numberOfTrailingZeros(lastValue);
+    }
+}
@@ -0,0 +1,270 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Finds the NAL units of a sample, Annex-B (start codes) or length-prefixed (AVCC/HVCC), and converts between the
+ * two in place. Boundaries go to a reusable array of offset/size pairs, so scanning allocates nothing once it has
+ * grown to the largest sample. Offsets are absolute in the buffer; position and limit are only changed by the
+ * conversions. Not thread safe.
+ */
+class NalUnitScanner {
+    static final int LENGTH_SIZE = 4;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long LOW_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    /** Offset of NAL unit i at 2i, its size at 2i + 1. */
+    private int[] mBoundaries = new int[INITIAL_CAPACITY * 2];
+    private int mCount;
+
+    /**
+     * Finds the NAL units between position and limit of an Annex-B {@code buffer}. Their sizes leave out the
+     * zero bytes in front of the next start code. Bytes before the first start code are ignored.
+     *
+     * @return number of NAL units found.
+     */
+    int scanAnnexB(ByteBuffer buffer) {
+        mCount = 0;
+        int end = buffer.limit();
+        int startCode = findStartCode(buffer, buffer.position(), end);
+        while (startCode < end) {
+            int nalStart = startCode + 3;
+            int next = findStartCode(buffer, nalStart, end);
+            int nalEnd = next;
+            // A 4-byte start code leaves a zero byte in front of it.
+            while (nalEnd > nalStart && buffer.get(nalEnd - 1) == 0) nalEnd--;
+            if (nalEnd > nalStart) {
+                add(nalStart, nalEnd - nalStart);
+            }
+            startCode = next;
+        }
+        return mCount;
+    }
+
+    /**
+     * Finds the NAL units between position and limit of a length-prefixed {@code buffer}.
+     *
+     * @param lengthSize bytes of each length, 1 to 4.
+     * @return number of NAL units found.
+     * @throws IllegalStateException if a length runs past the limit.
+     */
+    int scanLengthPrefixed(ByteBuffer buffer, int lengthSize) {
+        mCount = 0;
+        int end = buffer.limit();
+        int position = buffer.position();
+        while (position + lengthSize <= end) {
+            int size = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                size = (size << 8) | (buffer.get(position + i) & 0xff);
+            }
+            position += lengthSize;
+            if (size < 0 || size > end - position) {
+                throw new IllegalStateException("NAL unit of " + size + " bytes at " + position + " runs past " + end
+                        + ".");
+            }
+            if (size > 0) {
+                add(position, size);
+            }
+            position += size;
+        }
+        return mCount;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    int getOffset(int index) {
+        return mBoundaries[2 * index];
+    }
+
+    int getSize(int index) {
+        return mBoundaries[2 * index + 1];
+    }
+
+    /**
+     * @return the boundaries of the last scan, offset of NAL unit i at 2i and its size at 2i + 1. Reused by the
+     * next scan.
+     */
+    int[] getBoundaries() {
+        return mBoundaries;
+    }
+
+    /**
+     * @return nal_unit_type of NAL unit {@code index} of the last scan of {@code buffer}, H.264 numbering.
+     */
+    int getAvcNalUnitType(ByteBuffer buffer, int index) {
+        return buffer.get(getOffset(index)) & 0x1f;
+    }
+
+    /**
+     * @return index of the first NAL unit of the last scan of {@code buffer} with the H.264 nal_unit_type, or -1.
+     */
+    int findAvcNalUnit(ByteBuffer buffer, int nalUnitType) {
+        for (int i = 0; i < mCount; i++) {
+            if (getAvcNalUnitType(buffer, i) == nalUnitType) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return size of the NAL units of the last scan with {@link #LENGTH_SIZE}-byte lengths in front of each.
+     */
+    int getLengthPrefixedSize() {
+        int size = 0;
+        for (int i = 0; i < mCount; i++) {
+            size += LENGTH_SIZE + getSize(i);
+        }
+        return size;
+    }
+
+    /**
+     * Rewrites the Annex-B sample between position and limit of {@code buffer} with {@link #LENGTH_SIZE}-byte
+     * lengths, in place. With 4-byte start codes only the start codes are overwritten; 3-byte start codes make
+     * the sample longer, which needs room up to the capacity. On return the limit is the end of the new sample.
+     *
+     * @return number of NAL units.
+     * @throws IllegalStateException if the converted sample does not fit in the buffer; nothing is changed then.
+     */
+    int convertToLengthPrefixed(ByteBuffer buffer) {
+        int count = scanAnnexB(buffer);
+        int start = buffer.position();
+        int size = getLengthPrefixedSize();
+        if (size > buffer.capacity() - start) {
+            throw new IllegalStateException("Length-prefixed sample needs " + size + " bytes, only "
+                    + (buffer.capacity() - start) + " available.");
+        }
+        // Absolute gets and puts stop at the limit.
+        buffer.limit(Math.max(buffer.limit(), start + size));
+        // Payloads moving up go last to first and those moving down first to last, so no payload is overwritten
+        // before it has moved. The lengths only go where no payload is left.
+        int target = start + size;
+        for (int i = count - 1; i >= 0; i--) {
+            target -= getSize(i);
+            if (target > getOffset(i)) {
+                move(buffer, getOffset(i), target, getSize(i));
+            }
+            target -= LENGTH_SIZE;
+        }
+        target = start;
+        for (int i = 0; i < count; i++) {
+            target += LENGTH_SIZE;
+            if (target < getOffset(i)) {
+                move(buffer, getOffset(i), target, getSize(i));
+            }
+            mBoundaries[2 * i] = target;
+            target += getSize(i);
+        }
+        buffer.limit(start + size);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(getOffset(i) - LENGTH_SIZE, getSize(i));
+        }
+        return count;
+    }
+
+    /**
+     * Rewrites a sample with {@link #LENGTH_SIZE}-byte lengths between {@code from} and {@code end} of
+     * {@code buffer} to Annex-B with 4-byte start codes, in place; the size does not change. Like the demuxer
+     * always did, a truncated last NAL unit is kept as it is.
+     */
+    static void convertToAnnexB(ByteBuffer buffer, int from, int end) {
+        int position = from;
+        while (position + LENGTH_SIZE <= end) {
+            int nalSize = buffer.getInt(position);
+            buffer.putInt(position, 1);
+            if (nalSize < 0) break;
+            position += LENGTH_SIZE + nalSize;
+        }
+    }
+
+    static boolean startsWithStartCode(ByteBuffer sample) {
+        int p = sample.position();
+        if (sample.remaining() < 4 || sample.get(p) != 0 || sample.get(p + 1) != 0) return false;
+        return sample.get(p + 2) == 1 || (sample.get(p + 2) == 0 && sample.get(p + 3) == 1);
+    }
+
+    /**
+     * @return offset of the NAL unit at the position of {@code nal} behind its start code, the position if there
+     * is none.
+     */
+    static int skipStartCode(ByteBuffer nal) {
+        int start = nal.position();
+        int end = nal.limit();
+        int offset = start;
+        while (offset < end && nal.get(offset) == 0) offset++;
+        if (offset - start >= 2 && offset < end && nal.get(offset) == 1) {
+            return offset + 1;
+        }
+        return start;
+    }
+
+    /**
+     * Looks at eight bytes at a time and only checks the zero bytes that are followed by another one, which
+     * compressed data has few of.
+     *
+     * @return position of the next 00 00 01 at or after {@code from}, or {@code end}.
+     */
+    static int findStartCode(ByteBuffer buffer, int from, int end) {
+        boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = from;
+        // The last byte of a word needs the two bytes after it.
+        while (i + 10 <= end) {
+            long word = buffer.getLong(i);
+            if (littleEndian) word = Long.reverseBytes(word);
+            // The high bit of every zero byte, first byte of the word highest.
+            long zeros = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+            // Zero bytes followed by a zero byte; the last one is followed by the next word.
+            long candidates = zeros & ((zeros << 8) | 0x80L);
+            while (candidates != 0) {
+                int byteIndex = Long.numberOfLeadingZeros(candidates) >>> 3;
+                int j = i + byteIndex;
+                if (buffer.get(j + 1) == 0 && buffer.get(j + 2) == 1) return j;
+                candidates &= ~(Long.MIN_VALUE >>> (byteIndex * 8));
+            }
+            i += 8;
+        }
+        for (; i + 2 < end; i++) {
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) return i;
+        }
+        return end;
+    }
+
+    /**
+     * Copies {@code size} bytes within {@code buffer}, overlapping or not.
+     */
+    private static void move(ByteBuffer buffer, int from, int to, int size) {
+        if (buffer.hasArray()) {
+            int base = buffer.arrayOffset();
+            System.arraycopy(buffer.array(), base + from, buffer.array(), base + to, size);
+            return;
+        }
+        // Words are read before they are overwritten as long as the copy runs away from the overlap.
+        int longs = size / 8;
+        if (to < from) {
+            for (int i = 0; i < longs * 8; i += 8) {
+                buffer.putLong(to + i, buffer.getLong(from + i));
+            }
+            for (int i = longs * 8; i < size; i++) {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+        } else {
+            for (int i = size - 1; i >= longs * 8; i--) {
+                buffer.put(to + i, buffer.get(from + i));
+            }
+            for (int i = (longs - 1) * 8; i >= 0; i -= 8) {
+                buffer.putLong(to + i, buffer.getLong(from + i));
+            }
+        }
+    }
+
+    private void add(int offset, int size) {
+        if (2 * mCount == mBoundaries.length) {
+            mBoundaries = Arrays.copyOf(mBoundaries, mBoundaries.length * 2);
+        }
+        mBoundaries[2 * mCount] = offset;
+        mBoundaries[2 * mCount + 1] = size;
+        mCount++;
+    }
+}
@@ -0,0 +1,67 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Decides the size, frame rate and bitrate of the transcoded video from those of the input. Only arithmetic, no
+ * codec is created; the engine builds the encoder format from the result.
+ */
+public interface OutputFormatStrategy {
+    int UNKNOWN = -1;
+
+    /**
+     * @param input the input video; frame rate and bitrate are {@link #UNKNOWN} if the container does not tell.
+     * @return the output video, or null to leave the video as it is.
+     */
+    VideoFormat createVideoOutputFormat(VideoFormat input);
+
+    final class VideoFormat {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFrameRate;
+        private final int mBitrate;
+
+        public VideoFormat(int width, int height, int frameRate, int bitrate) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+            }
+            mWidth = width;
+            mHeight = height;
+            mFrameRate = frameRate;
+            mBitrate = bitrate;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getFrameRate() {
+            return mFrameRate;
+        }
+
+        public int getBitrate() {
+            return mBitrate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof VideoFormat)) return false;
+            VideoFormat other = (VideoFormat) o;
+            return mWidth == other.mWidth && mHeight == other.mHeight && mFrameRate == other.mFrameRate
+                    && mBitrate == other.mBitrate;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((mWidth * 31 + mHeight) * 31 + mFrameRate) * 31 + mBitrate;
+        }
+
+        @Override
+        public String toString() {
+            return mWidth + "x" + mHeight + "@" + mFrameRate + "fps, " + mBitrate + "bps";
+        }
+    }
+}
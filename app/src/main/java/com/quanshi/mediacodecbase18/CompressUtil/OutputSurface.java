@@ -52,6 +52,7 @@ class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
     private Object mFrameSyncObject = new Object();     // guards mFrameAvailable
     private boolean mFrameAvailable;
     private TextureRender mTextureRender;
+    private boolean mSharedTextureRender;
     /**
      * Creates an OutputSurface backed by a pbuffer with the specifed dimensions.  The new
      * EGL context and surface will be made current.  Creates a Surface that can be passed
@@ -72,13 +73,24 @@ class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
     public OutputSurface() {
         setup();
     }
+    /**
+     * Creates an OutputSurface on the current EGL context, reusing a renderer whose program is
+     * already compiled in it.  The renderer outlives {@link #release()}.
+     */
+    public OutputSurface(TextureRender textureRender) {
+        mTextureRender = textureRender;
+        mSharedTextureRender = true;
+        setup();
+    }
     /**
      * Creates instances of TextureRender and SurfaceTexture, and a Surface associated
      * with the SurfaceTexture.
      */
     private void setup() {
-        mTextureRender = new TextureRender();
-        mTextureRender.surfaceCreated();
+        if (mTextureRender == null) {
+            mTextureRender = new TextureRender();
+            mTextureRender.surfaceCreated();
+        }
         // Even if we don't access the SurfaceTexture after the constructor returns, we
         // still need to keep a reference to it.  The Surface doesn't retain a reference
         // at the Java level, so if we don't either then the object can get GCed, which
@@ -166,6 +178,10 @@ class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
         // this causes a bunch of warnings that appear harmless but might confuse someone:
         //  W BufferQueue: [unnamed-3997-2] cancelBuffer: BufferQueue has been abandoned!
         //mSurfaceTexture.release();
+        // The texture of a shared renderer is attached to the next SurfaceTexture, so let go of it now.
+        if (mSharedTextureRender) {
+            mSurfaceTexture.release();
+        }
         mEGLDisplay = EGL14.EGL_NO_DISPLAY;
         mEGLContext = EGL14.EGL_NO_CONTEXT;
         mEGLSurface = EGL14.EGL_NO_SURFACE;
@@ -211,7 +227,7 @@ class OutputSurface implements SurfaceTexture.OnFrameAvailableListener {
                         throw new RuntimeException("Surface frame wait timed out");
                     }
                 } catch (InterruptedException ie) {
-                    // shouldn't happen
+                    // a staged pipeline being stopped
                     throw new RuntimeException(ie);
                 }
             }
@@ -24,9 +24,9 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class PassThroughTrackTranscoder implements TrackTranscoder {
-    private final MediaExtractor mExtractor;
+    private final SampleSource mExtractor;
     private final int mTrackIndex;
-    private final QueuedMuxer mMuxer;
+    private final SampleWriter mMuxer;
     private final QueuedMuxer.SampleType mSampleType;
     private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
     private int mBufferSize;
@@ -34,9 +34,13 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
     private boolean mIsEOS;
     private MediaFormat mActualOutputFormat;
     private long mWrittenPresentationTimeUs;
+    private long mStartUs;
+    private long mEndUs = Long.MAX_VALUE;
+    private boolean mEndAtSyncSample;
+    private PipelineMetrics mMetrics = new PipelineMetrics();
 
-    public PassThroughTrackTranscoder(MediaExtractor extractor, int trackIndex,
-                                      QueuedMuxer muxer, QueuedMuxer.SampleType sampleType) {
+    public PassThroughTrackTranscoder(SampleSource extractor, int trackIndex,
+                                      SampleWriter muxer, QueuedMuxer.SampleType sampleType) {
         mExtractor = extractor;
         mTrackIndex = trackIndex;
         mMuxer = muxer;
@@ -48,6 +52,24 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
         mBuffer = ByteBuffer.allocateDirect(mBufferSize).order(ByteOrder.nativeOrder());
     }
 
+    /**
+     * Copies only the samples presented from {@code startUs} until {@code endUs}, moved to start at 0. The source
+     * must have been seeked to {@code startUs} or before. With {@code endAtSyncSample} copying goes on until the
+     * first sync sample at or after {@code endUs}, so a video track ends with a whole GOP.
+     */
+    public void setTrimRange(long startUs, long endUs, boolean endAtSyncSample) {
+        mStartUs = startUs;
+        mEndUs = endUs;
+        mEndAtSyncSample = endAtSyncSample;
+    }
+
+    /**
+     * Record the reading of samples into {@code metrics}.
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
     @Override
     public void setup() {
     }
@@ -60,30 +82,63 @@ public class PassThroughTrackTranscoder implements TrackTranscoder {
     @SuppressLint("Assert")
     @Override
     public boolean stepPipeline() {
-        if (mIsEOS) return false;
         int trackIndex = mExtractor.getSampleTrackIndex();
+        if (mIsEOS) {
+            // Samples past the end of the trim range are skipped so the other track can go on.
+            if (trackIndex != mTrackIndex) return false;
+            mExtractor.advance();
+            return true;
+        }
         if (trackIndex < 0) {
-            mBuffer.clear();
-            mBufferInfo.set(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            mMuxer.writeSampleData(mSampleType, mBuffer, mBufferInfo);
-            mIsEOS = true;
+            writeEndOfStream();
             return true;
         }
         if (trackIndex != mTrackIndex) return false;
 
-        mBuffer.clear();
-        int sampleSize = mExtractor.readSampleData(mBuffer, 0);
-        assert sampleSize <= mBufferSize;
+        long sampleTimeUs = mExtractor.getSampleTime();
         boolean isKeyFrame = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+        if (sampleTimeUs >= mEndUs && (isKeyFrame || !mEndAtSyncSample)) {
+            writeEndOfStream();
+            return true;
+        }
+        if (sampleTimeUs < mStartUs) {
+            mExtractor.advance();
+            return true;
+        }
+
+        // Write the source's own view of the sample when it has one, saving a copy.
+        long startNs = System.nanoTime();
+        ByteBuffer sample = mExtractor.getSampleBuffer();
+        int sampleSize;
+        int offset;
+        if (sample != null) {
+            offset = sample.position();
+            sampleSize = sample.remaining();
+        } else {
+            sample = mBuffer;
+            sample.clear();
+            offset = 0;
+            sampleSize = mExtractor.readSampleData(sample, 0);
+            assert sampleSize <= mBufferSize;
+        }
+        mMetrics.record(PipelineMetrics.STAGE_EXTRACT, startNs);
+        mMetrics.addBytesIn(sampleSize);
         int flags = isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0;
-        mBufferInfo.set(0, sampleSize, mExtractor.getSampleTime(), flags);
-        mMuxer.writeSampleData(mSampleType, mBuffer, mBufferInfo);
+        mBufferInfo.set(offset, sampleSize, sampleTimeUs - mStartUs, flags);
+        mMuxer.writeSampleData(mSampleType, sample, mBufferInfo);
         mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
 
         mExtractor.advance();
         return true;
     }
 
+    private void writeEndOfStream() {
+        mBuffer.clear();
+        mBufferInfo.set(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        mMuxer.writeSampleData(mSampleType, mBuffer, mBufferInfo);
+        mIsEOS = true;
+    }
+
     @Override
     public long getWrittenPresentationTimeUs() {
         return mWrittenPresentationTimeUs;
@@ -0,0 +1,57 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The buffer exchange of a decoder or encoder as a pipeline drives it, without platform types, and none of the
+ * calls block. {@link CodecEventBridge} adapts a MediaCodec.
+ */
+interface PipelineCodec {
+    /** Same values as in {@link android.media.MediaCodec}. */
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+    int BUFFER_FLAG_SYNC_FRAME = 1;
+    int BUFFER_FLAG_CODEC_CONFIG = 2;
+    int BUFFER_FLAG_END_OF_STREAM = 4;
+
+    /**
+     * @return index of an input buffer, or {@link #INFO_TRY_AGAIN_LATER}.
+     */
+    int dequeueInputBuffer();
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    /**
+     * Ends the input of a codec fed through a surface.
+     */
+    void signalEndOfInputStream();
+
+    /**
+     * @return index of an output buffer, whose info is then returned by the getters below, or one of the
+     * {@code INFO_} codes.
+     */
+    int dequeueOutputBuffer();
+
+    int getOutputOffset();
+
+    int getOutputSize();
+
+    long getOutputPresentationTimeUs();
+
+    int getOutputFlags();
+
+    ByteBuffer getOutputBuffer(int index);
+
+    /**
+     * @param render draw the buffer to the output surface.
+     */
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * @return output buffers the codec had ready when the last one was taken.
+     */
+    int getPendingOutputCount();
+}
@@ -0,0 +1,164 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.Arrays;
+
+/**
+ * Counters and latency histograms of the pipeline stages, plus a few live gauges. Everything is kept in arrays
+ * allocated up front, so recording costs a {@link System#nanoTime()} and a few array writes. Written and read by
+ * the thread that runs the pipeline; pipelines on other threads keep their own and are {@link #add added} when
+ * they are done.
+ */
+class PipelineMetrics {
+    static final int STAGE_EXTRACT = 0;
+    static final int STAGE_DECODE_DEQUEUE = 1;
+    static final int STAGE_AWAIT_IMAGE = 2;
+    static final int STAGE_DRAW_IMAGE = 3;
+    static final int STAGE_SWAP_BUFFERS = 4;
+    static final int STAGE_ENCODE_DRAIN = 5;
+    static final int STAGE_MUX_WRITE = 6;
+    static final int STAGE_COUNT = 7;
+    private static final String[] STAGE_NAMES = {"extract", "decode-dequeue", "awaitNewImage", "drawImage",
+            "swapBuffers", "encode-drain", "mux-write"};
+
+    /** Output events the decoder had queued after the last one was taken. */
+    static final int GAUGE_DECODER_QUEUE = 0;
+    /** Output events the encoder had queued after the last one was taken. */
+    static final int GAUGE_ENCODER_QUEUE = 1;
+    /** Samples held back by the muxer until both track formats are known. */
+    static final int GAUGE_MUXER_QUEUE = 2;
+    /** Decoded frames waiting for the GL thread of a {@link StagedVideoPipeline}. */
+    static final int GAUGE_FRAME_HAND_OFF = 3;
+    /** Encoded samples waiting for the muxer in a {@link StagedVideoPipeline}. */
+    static final int GAUGE_SAMPLE_HAND_OFF = 4;
+    static final int GAUGE_COUNT = 5;
+
+    /** Bucket i counts durations below 2^i microseconds, the last one everything longer. */
+    static final int BUCKET_COUNT = 32;
+
+    private final long[] mCounts = new long[STAGE_COUNT];
+    private final long[] mTotalNs = new long[STAGE_COUNT];
+    private final long[] mMaxNs = new long[STAGE_COUNT];
+    private final long[] mBuckets = new long[STAGE_COUNT * BUCKET_COUNT];
+    private final int[] mGauges = new int[GAUGE_COUNT];
+    private long mBytesIn;
+    private long mBytesOut;
+    private long mVideoFramesOut;
+
+    /**
+     * Records that {@code stage} took from {@code startNs} until now.
+     *
+     * @return now, to start the next stage with.
+     */
+    long record(int stage, long startNs) {
+        long nowNs = System.nanoTime();
+        record(stage, startNs, nowNs);
+        return nowNs;
+    }
+
+    void record(int stage, long startNs, long endNs) {
+        long durationNs = Math.max(0, endNs - startNs);
+        mCounts[stage]++;
+        mTotalNs[stage] += durationNs;
+        if (durationNs > mMaxNs[stage]) mMaxNs[stage] = durationNs;
+        mBuckets[stage * BUCKET_COUNT + getBucket(durationNs)]++;
+    }
+
+    void addBytesIn(long bytes) {
+        mBytesIn += bytes;
+    }
+
+    void addBytesOut(long bytes) {
+        mBytesOut += bytes;
+    }
+
+    void addVideoFrameOut() {
+        mVideoFramesOut++;
+    }
+
+    void setGauge(int gauge, int value) {
+        mGauges[gauge] = value;
+    }
+
+    long getCount(int stage) {
+        return mCounts[stage];
+    }
+
+    long getTotalNs(int stage) {
+        return mTotalNs[stage];
+    }
+
+    long getMaxNs(int stage) {
+        return mMaxNs[stage];
+    }
+
+    long getBytesIn() {
+        return mBytesIn;
+    }
+
+    long getBytesOut() {
+        return mBytesOut;
+    }
+
+    long getVideoFramesOut() {
+        return mVideoFramesOut;
+    }
+
+    int getGauge(int gauge) {
+        return mGauges[gauge];
+    }
+
+    /**
+     * Adds the counters and histograms of {@code other}, e.g. of a segment transcoded on another thread. Gauges
+     * are left alone.
+     */
+    synchronized void add(PipelineMetrics other) {
+        synchronized (other) {
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                mCounts[i] += other.mCounts[i];
+                mTotalNs[i] += other.mTotalNs[i];
+                mMaxNs[i] = Math.max(mMaxNs[i], other.mMaxNs[i]);
+            }
+            for (int i = 0; i < mBuckets.length; i++) {
+                mBuckets[i] += other.mBuckets[i];
+            }
+            mBytesIn += other.mBytesIn;
+            mBytesOut += other.mBytesOut;
+            mVideoFramesOut += other.mVideoFramesOut;
+        }
+    }
+
+    /**
+     * @return the histogram of {@code stage} copied into {@code dst}, {@link #BUCKET_COUNT} entries.
+     */
+    long[] copyBuckets(int stage, long[] dst) {
+        System.arraycopy(mBuckets, stage * BUCKET_COUNT, dst, 0, BUCKET_COUNT);
+        return dst;
+    }
+
+    void clear() {
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mTotalNs, 0);
+        Arrays.fill(mMaxNs, 0);
+        Arrays.fill(mBuckets, 0);
+        Arrays.fill(mGauges, 0);
+        mBytesIn = 0;
+        mBytesOut = 0;
+        mVideoFramesOut = 0;
+    }
+
+    static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    static int getBucket(long durationNs) {
+        long durationUs = durationNs / 1000;
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(durationUs));
+    }
+
+    /**
+     * @return the smallest duration bucket {@code bucket} does not hold, in nanoseconds.
+     */
+    static long getBucketLimitNs(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) * 1000;
+    }
+}
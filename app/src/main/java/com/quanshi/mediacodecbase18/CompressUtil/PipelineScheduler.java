@@ -0,0 +1,22 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Parks the pipeline thread while no codec has anything to do.
+ * <p>
+ * Codecs (or their callbacks) call {@link #onWorkAvailable()} whenever an input or output buffer becomes ready;
+ * the pipeline thread calls {@link #awaitWork(long)} after a step in which nothing moved.
+ */
+public interface PipelineScheduler {
+    /**
+     * Signals that a buffer is ready. May be called from any thread.
+     */
+    void onWorkAvailable();
+
+    /**
+     * Blocks until {@link #onWorkAvailable()} has been called since the previous return of this method,
+     * or the timeout elapsed. Returns immediately if work became available in between.
+     *
+     * @return true if woken up by work, false on timeout.
+     */
+    boolean awaitWork(long timeoutMs) throws InterruptedException;
+}
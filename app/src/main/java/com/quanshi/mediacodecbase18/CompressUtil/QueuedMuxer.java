@@ -21,32 +21,61 @@ import android.media.MediaMuxer;
 import android.util.Log;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * This class queues until all output track formats are determined.
  */
-public class QueuedMuxer {
+public class QueuedMuxer implements SampleWriter {
     private static final String TAG = "QueuedMuxer";
-    private static final int BUFFER_SIZE = 64 * 1024;
-    private final MediaMuxer mMuxer;
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_QUEUED_BYTES = 32 * 1024 * 1024;
+    // Shared by all muxers, so a job finds the blocks of the previous one.
+    private static final DirectBlockPool BLOCK_POOL = new DirectBlockPool(BLOCK_SIZE, 8);
+    private static final SampleType[] SAMPLE_TYPES = SampleType.values();
+    private final SampleMuxer mMuxer;
     private final Listener mListener;
     private MediaFormat mVideoFormat;
     private MediaFormat mAudioFormat;
     private int mVideoTrackIndex;
     private int mAudioTrackIndex;
-    private ByteBuffer mByteBuffer;
-    private final List<SampleInfo> mSampleInfoList;
+    private final SampleQueue mSampleQueue;
     private boolean mStarted;
+    private PipelineMetrics mMetrics = new PipelineMetrics();
+    private BitrateController mBitrateController;
 
     public QueuedMuxer(MediaMuxer muxer, Listener listener) {
+        this(new MediaMuxerSampleMuxer(muxer), listener);
+    }
+
+    public QueuedMuxer(SampleMuxer muxer, Listener listener) {
+        this(muxer, listener, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    /**
+     * @param maxQueuedBytes how much memory samples written before both output formats are known may take;
+     *                       writing more throws {@link IllegalStateException}.
+     */
+    public QueuedMuxer(SampleMuxer muxer, Listener listener, long maxQueuedBytes) {
         mMuxer = muxer;
         mListener = listener;
-        mSampleInfoList = new ArrayList<>();
+        mSampleQueue = new SampleQueue(BLOCK_POOL, maxQueuedBytes);
     }
 
+    /**
+     * Record the writes, bytes and video frames handed to the muxer into {@code metrics}.
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Report every sample written to {@code bitrateController}, queued ones as they come in.
+     */
+    void setBitrateController(BitrateController bitrateController) {
+        mBitrateController = bitrateController;
+    }
+
+    @Override
     public void setOutputFormat(SampleType sampleType, MediaFormat format) {
         switch (sampleType) {
             case VIDEO:
@@ -72,35 +101,48 @@ public class QueuedMuxer {
         mMuxer.start();
         mStarted = true;
 
-        if (mByteBuffer == null) {
-            mByteBuffer = ByteBuffer.allocate(0);
-        }
-        mByteBuffer.flip();
-        Log.v(TAG, "Output format determined, writing " + mSampleInfoList.size() +
-                " samples / " + mByteBuffer.limit() + " bytes to muxer.");
-        MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
-        int offset = 0;
-        for (SampleInfo sampleInfo : mSampleInfoList) {
-            sampleInfo.writeToBufferInfo(bufferInfo, offset);
-            mMuxer.writeSampleData(getTrackIndexForSampleType(sampleInfo.mSampleType), mByteBuffer, bufferInfo);
-            offset += sampleInfo.mSize;
-        }
-        mSampleInfoList.clear();
-        mByteBuffer = null;
+        Log.v(TAG, "Output format determined, writing " + mSampleQueue.getSampleCount() +
+                " samples / " + mSampleQueue.getQueuedBytes() + " bytes to muxer.");
+        final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+        mSampleQueue.drain(new SampleQueue.Consumer() {
+            @Override
+            public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                                 int flags) {
+                bufferInfo.set(offset, size, presentationTimeUs, flags);
+                writeToMuxer(SAMPLE_TYPES[track], block, bufferInfo);
+            }
+        });
+        mMetrics.setGauge(PipelineMetrics.GAUGE_MUXER_QUEUE, 0);
     }
 
+    @Override
     public void writeSampleData(SampleType sampleType, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        if (mBitrateController != null && bufferInfo.size > 0) {
+            if (sampleType == SampleType.VIDEO) {
+                mBitrateController.onVideoSample(bufferInfo.presentationTimeUs, bufferInfo.size,
+                        (bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0);
+            } else {
+                mBitrateController.onAudioSample(bufferInfo.presentationTimeUs, bufferInfo.size);
+            }
+        }
         if (mStarted) {
-            mMuxer.writeSampleData(getTrackIndexForSampleType(sampleType), byteBuf, bufferInfo);
+            writeToMuxer(sampleType, byteBuf, bufferInfo);
             return;
         }
         byteBuf.limit(bufferInfo.offset + bufferInfo.size);
         byteBuf.position(bufferInfo.offset);
-        if (mByteBuffer == null) {
-            mByteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+        mSampleQueue.add(sampleType.ordinal(), byteBuf, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        mMetrics.setGauge(PipelineMetrics.GAUGE_MUXER_QUEUE, mSampleQueue.getSampleCount());
+    }
+
+    private void writeToMuxer(SampleType sampleType, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) {
+        long startNs = System.nanoTime();
+        mMuxer.writeSampleData(getTrackIndexForSampleType(sampleType), byteBuf, bufferInfo);
+        mMetrics.record(PipelineMetrics.STAGE_MUX_WRITE, startNs);
+        mMetrics.addBytesOut(bufferInfo.size);
+        if (sampleType == SampleType.VIDEO && bufferInfo.size > 0) {
+            mMetrics.addVideoFrameOut();
         }
-        mByteBuffer.put(byteBuf);
-        mSampleInfoList.add(new SampleInfo(sampleType, bufferInfo.size, bufferInfo));
     }
 
     private int getTrackIndexForSampleType(SampleType sampleType) {
@@ -116,24 +158,6 @@ public class QueuedMuxer {
 
     public enum SampleType {VIDEO, AUDIO}
 
-    private static class SampleInfo {
-        private final SampleType mSampleType;
-        private final int mSize;
-        private final long mPresentationTimeUs;
-        private final int mFlags;
-
-        private SampleInfo(SampleType sampleType, int size, MediaCodec.BufferInfo bufferInfo) {
-            mSampleType = sampleType;
-            mSize = size;
-            mPresentationTimeUs = bufferInfo.presentationTimeUs;
-            mFlags = bufferInfo.flags;
-        }
-
-        private void writeToBufferInfo(MediaCodec.BufferInfo bufferInfo, int offset) {
-            bufferInfo.set(offset, mSize, mPresentationTimeUs, mFlags);
-        }
-    }
-
     public interface Listener {
         void onDetermineOutputFormat();
     }
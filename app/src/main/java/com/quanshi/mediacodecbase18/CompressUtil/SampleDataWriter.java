@@ -0,0 +1,138 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Appends sample data to a file region through a large direct buffer, storing Annex-B NAL units with 4-byte
+ * lengths as MP4 wants them.
+ */
+class SampleDataWriter {
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final ByteBuffer mLengthBuffer = ByteBuffer.allocate(4);
+    private final NalUnitScanner mScanner = new NalUnitScanner();
+    private long mBasePosition;
+    private long mWrittenBytes;
+
+    SampleDataWriter(FileChannel channel, long basePosition, int bufferSize) {
+        mChannel = channel;
+        mBasePosition = basePosition;
+        mBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * @return bytes written since the base position, buffered ones included.
+     */
+    long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    /**
+     * Starts over at {@code basePosition}. Buffered bytes must have been flushed.
+     */
+    void reset(long basePosition) {
+        mBasePosition = basePosition;
+        mWrittenBytes = 0;
+    }
+
+    /**
+     * Appends the bytes between position and limit of {@code sample}, neither of which is changed.
+     *
+     * @param nalUnits convert start codes to lengths if the sample comes as Annex-B.
+     * @return bytes written for the sample.
+     */
+    long writeSample(ByteBuffer sample, boolean nalUnits) throws IOException {
+        long start = mWrittenBytes;
+        int position = sample.position();
+        int limit = sample.limit();
+        try {
+            if (nalUnits && NalUnitScanner.startsWithStartCode(sample)) {
+                writeAnnexBAsLengthPrefixed(sample);
+            } else {
+                write(sample);
+            }
+        } finally {
+            sample.limit(limit);
+            sample.position(position);
+        }
+        return mWrittenBytes - start;
+    }
+
+    void flush() throws IOException {
+        mBuffer.flip();
+        int size = mBuffer.remaining();
+        writeFully(mChannel, mBuffer, mBasePosition + mWrittenBytes - size);
+        mBuffer.clear();
+    }
+
+    private void writeAnnexBAsLengthPrefixed(ByteBuffer sample) throws IOException {
+        int end = sample.limit();
+        int count = mScanner.scanAnnexB(sample);
+        for (int i = 0; i < count; i++) {
+            int nalStart = mScanner.getOffset(i);
+            int nalSize = mScanner.getSize(i);
+            mLengthBuffer.clear();
+            mLengthBuffer.putInt(nalSize).flip();
+            write(mLengthBuffer);
+            sample.limit(nalStart + nalSize);
+            sample.position(nalStart);
+            write(sample);
+            sample.limit(end);
+        }
+    }
+
+    private void write(ByteBuffer src) throws IOException {
+        int size = src.remaining();
+        if (size > mBuffer.remaining()) {
+            flush();
+        }
+        if (size > mBuffer.capacity()) {
+            writeFully(mChannel, src, mBasePosition + mWrittenBytes);
+        } else {
+            mBuffer.put(src);
+        }
+        mWrittenBytes += size;
+    }
+
+    static long writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        long written = 0;
+        while (src.hasRemaining()) {
+            written += channel.write(src, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * Copies {@code count} bytes from the start of {@code src} to the current position of {@code dst}, in the kernel
+     * where the platform allows.
+     */
+    static void transferFully(FileChannel src, long count, FileChannel dst) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long done = src.transferTo(transferred, count - transferred, dst);
+            if (done <= 0) {
+                throw new IOException("Could not transfer data, " + transferred + " of " + count + " bytes done.");
+            }
+            transferred += done;
+        }
+    }
+
+    /**
+     * @return the NAL units of an Annex-B byte stream, without start codes.
+     */
+    static List<byte[]> splitNalUnits(byte[] stream) {
+        NalUnitScanner scanner = new NalUnitScanner();
+        int count = scanner.scanAnnexB(ByteBuffer.wrap(stream));
+        List<byte[]> nalUnits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = scanner.getOffset(i);
+            nalUnits.add(Arrays.copyOfRange(stream, offset, offset + scanner.getSize(i)));
+        }
+        return nalUnits;
+    }
+}
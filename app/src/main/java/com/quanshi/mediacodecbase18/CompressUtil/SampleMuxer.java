@@ -0,0 +1,24 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The part of {@link android.media.MediaMuxer} {@link QueuedMuxer} uses, so the output container can be written by
+ * {@link MediaMuxerSampleMuxer} or by the pure Java {@link Mp4SampleMuxer}.
+ */
+public interface SampleMuxer {
+    void setOrientationHint(int degrees);
+
+    int addTrack(MediaFormat format);
+
+    void start();
+
+    void writeSampleData(int trackIndex, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo);
+
+    void stop();
+
+    void release();
+}
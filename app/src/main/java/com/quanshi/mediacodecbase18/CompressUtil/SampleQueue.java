@@ -0,0 +1,143 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap FIFO of samples, used to hold encoder output until the muxer can be started.
+ * <p>
+ * Sample data is copied into blocks taken from a {@link DirectBlockPool}, each sample contiguous within one block,
+ * so {@link #drain(Consumer)} hands the blocks themselves to the consumer without another copy. Samples larger
+ * than a block get a block of their own. The metadata is kept in parallel primitive arrays.
+ */
+class SampleQueue {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final DirectBlockPool mPool;
+    private final long mMaxBytes;
+    private final List<ByteBuffer> mBlocks = new ArrayList<>();
+    private long mAllocatedBytes;
+    private long mQueuedBytes;
+
+    private int mSampleCount;
+    private int[] mTracks = new int[INITIAL_CAPACITY];
+    private int[] mBlockIndices = new int[INITIAL_CAPACITY];
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+    private int[] mSizes = new int[INITIAL_CAPACITY];
+    private long[] mPresentationTimesUs = new long[INITIAL_CAPACITY];
+    private int[] mFlags = new int[INITIAL_CAPACITY];
+
+    interface Consumer {
+        /**
+         * @param block  buffer holding the sample at {@code offset}; position and limit may be changed.
+         */
+        void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs, int flags);
+    }
+
+    /**
+     * @param maxBytes hard cap on the memory held in blocks.
+     */
+    SampleQueue(DirectBlockPool pool, long maxBytes) {
+        mPool = pool;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Copies the bytes between position and limit of {@code data}, whose position is moved to its limit.
+     *
+     * @throws IllegalStateException if the sample does not fit under the cap; the queue is left as it was.
+     */
+    void add(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+        int size = data.remaining();
+        ByteBuffer block = mBlocks.isEmpty() ? null : mBlocks.get(mBlocks.size() - 1);
+        if (block == null || block.remaining() < size) {
+            block = addBlock(size);
+        }
+        if (mSampleCount == mSizes.length) {
+            grow();
+        }
+        int index = mSampleCount++;
+        mTracks[index] = track;
+        mBlockIndices[index] = mBlocks.size() - 1;
+        mOffsets[index] = block.position();
+        mSizes[index] = size;
+        mPresentationTimesUs[index] = presentationTimeUs;
+        mFlags[index] = flags;
+        block.put(data);
+        mQueuedBytes += size;
+    }
+
+    /**
+     * Hands all samples to {@code consumer} in the order they were added and empties the queue.
+     */
+    void drain(Consumer consumer) {
+        try {
+            for (int i = 0; i < mSampleCount; i++) {
+                consumer.onSample(mTracks[i], mBlocks.get(mBlockIndices[i]), mOffsets[i], mSizes[i],
+                        mPresentationTimesUs[i], mFlags[i]);
+            }
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Drops all samples and gives the blocks back to the pool.
+     */
+    void clear() {
+        for (ByteBuffer block : mBlocks) {
+            mPool.release(block);
+        }
+        mBlocks.clear();
+        mSampleCount = 0;
+        mAllocatedBytes = 0;
+        mQueuedBytes = 0;
+    }
+
+    int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @return bytes of sample data in the queue.
+     */
+    long getQueuedBytes() {
+        return mQueuedBytes;
+    }
+
+    /**
+     * @return bytes held in blocks, counted against the cap.
+     */
+    long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    int getBlockCount() {
+        return mBlocks.size();
+    }
+
+    private ByteBuffer addBlock(int sampleSize) {
+        int blockSize = Math.max(sampleSize, mPool.getBlockSize());
+        if (mAllocatedBytes + blockSize > mMaxBytes) {
+            throw new IllegalStateException("Sample queue is full: " + mSampleCount + " samples / " + mQueuedBytes
+                    + " bytes queued, " + sampleSize + " more bytes do not fit in " + mMaxBytes + ".");
+        }
+        ByteBuffer block = sampleSize > mPool.getBlockSize()
+                ? ByteBuffer.allocateDirect(sampleSize) : mPool.acquire();
+        mBlocks.add(block);
+        mAllocatedBytes += blockSize;
+        return block;
+    }
+
+    private void grow() {
+        int capacity = mSampleCount * 2;
+        mTracks = Arrays.copyOf(mTracks, capacity);
+        mBlockIndices = Arrays.copyOf(mBlockIndices, capacity);
+        mOffsets = Arrays.copyOf(mOffsets, capacity);
+        mSizes = Arrays.copyOf(mSizes, capacity);
+        mPresentationTimesUs = Arrays.copyOf(mPresentationTimesUs, capacity);
+        mFlags = Arrays.copyOf(mFlags, capacity);
+    }
+}
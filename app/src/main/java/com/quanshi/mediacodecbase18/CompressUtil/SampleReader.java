@@ -0,0 +1,28 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The cursor over the samples of the selected tracks that a pipeline reads from, the part of a
+ * {@link SampleSource} that needs no platform types, so that pipelines can be run on the JVM against a fake.
+ */
+public interface SampleReader {
+    /** Same value as {@link android.media.MediaExtractor#SAMPLE_FLAG_SYNC}. */
+    int SAMPLE_FLAG_SYNC = 1;
+
+    /**
+     * @return the track of the current sample, or -1 at the end.
+     */
+    int getSampleTrackIndex();
+
+    long getSampleTime();
+
+    /**
+     * @return {@link #SAMPLE_FLAG_SYNC} and the other flags of the sample.
+     */
+    int getSampleFlags();
+
+    int readSampleData(ByteBuffer byteBuf, int offset);
+
+    boolean advance();
+}
@@ -0,0 +1,36 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the encoded samples a {@link TrackTranscoder} reads, with the cursor semantics of
+ * {@link android.media.MediaExtractor}. {@link MediaExtractorSampleSource} wraps the platform extractor,
+ * {@link Mp4SampleSource} reads MP4 files through a memory mapping.
+ */
+public interface SampleSource extends SampleReader {
+    int getTrackCount();
+
+    MediaFormat getTrackFormat(int index);
+
+    void selectTrack(int index);
+
+    void seekTo(long timeUs, int mode);
+
+    /**
+     * @return the current sample without copying it, in the same form {@link #readSampleData(ByteBuffer, int)}
+     * would produce, or null if the source can only copy. The bytes are between position and limit.
+     */
+    ByteBuffer getSampleBuffer();
+
+    void release();
+
+    interface Factory {
+        /**
+         * @return a new source over the input, with no track selected.
+         */
+        SampleSource create() throws IOException;
+    }
+}
@@ -0,0 +1,16 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of the samples produced by a {@link TrackTranscoder}.
+ * {@link QueuedMuxer} is the usual implementation; segmented transcoding spools into files instead.
+ */
+public interface SampleWriter {
+    void setOutputFormat(QueuedMuxer.SampleType sampleType, MediaFormat format);
+
+    void writeSampleData(QueuedMuxer.SampleType sampleType, ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo);
+}
@@ -0,0 +1,18 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.IOException;
+
+/**
+ * Transcodes one {@link SegmentPlanner.Segment} with a codec pair of its own.
+ * Called on a worker thread of {@link SegmentedTranscodeRunner}.
+ */
+public interface SegmentEncoder {
+    /**
+     * Transcodes the segment and appends the encoded samples to {@code output}. Blocks until done.
+     */
+    void encode(SegmentPlanner.Segment segment, SegmentSpool output) throws IOException, InterruptedException;
+
+    interface Factory {
+        SegmentEncoder create();
+    }
+}
@@ -0,0 +1,119 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a video track into GOP-aligned ranges that can be transcoded independently.
+ * <p>
+ * Every segment starts on a sync sample, so each one can be decoded without the samples before it.
+ * Cut points are chosen as the sync samples closest to an even split of the duration.
+ */
+public class SegmentPlanner {
+
+    /**
+     * Plans at most {@code maxSegments} segments over the given sync sample times.
+     *
+     * @param syncTimesUs          presentation times of the sync samples in decode order.
+     * @param syncCount            number of valid entries in {@code syncTimesUs}.
+     * @param durationUs           duration of the track, or a non-positive value if unknown.
+     * @param maxSegments          upper bound of segments, usually the number of codec pairs that may run at once.
+     * @param minSegmentDurationUs segments shorter than this are not worth a codec pair of their own.
+     * @return segments in presentation order. The last one always ends at {@link Segment#END_OF_STREAM}.
+     */
+    public static List<Segment> plan(long[] syncTimesUs, int syncCount, long durationUs,
+                                     int maxSegments, long minSegmentDurationUs) {
+        if (syncCount <= 0) {
+            throw new IllegalArgumentException("Video track has no sync sample.");
+        }
+        long firstSyncUs = syncTimesUs[0];
+        int segmentCount = Math.min(maxSegments, syncCount);
+        if (durationUs > 0 && minSegmentDurationUs > 0) {
+            segmentCount = (int) Math.min(segmentCount, (durationUs - firstSyncUs) / minSegmentDurationUs);
+        }
+        if (segmentCount <= 1 || durationUs <= firstSyncUs) {
+            return Collections.singletonList(new Segment(0, firstSyncUs, Segment.END_OF_STREAM));
+        }
+
+        List<Segment> segments = new ArrayList<>(segmentCount);
+        long segmentStartUs = firstSyncUs;
+        int lastCut = 0;
+        for (int i = 1; i < segmentCount; i++) {
+            long idealUs = firstSyncUs + (durationUs - firstSyncUs) * i / segmentCount;
+            int cut = findNearestSync(syncTimesUs, syncCount, idealUs);
+            if (cut <= lastCut) {
+                // Long GOP, the nearest sync sample is already taken by the previous cut.
+                cut = lastCut + 1;
+            }
+            if (cut >= syncCount || durationUs - syncTimesUs[cut] < minSegmentDurationUs) break;
+            if (syncTimesUs[cut] - segmentStartUs < minSegmentDurationUs) continue;
+            segments.add(new Segment(segments.size(), segmentStartUs, syncTimesUs[cut]));
+            segmentStartUs = syncTimesUs[cut];
+            lastCut = cut;
+        }
+        segments.add(new Segment(segments.size(), segmentStartUs, Segment.END_OF_STREAM));
+        return segments;
+    }
+
+    private static int findNearestSync(long[] syncTimesUs, int syncCount, long timeUs) {
+        int low = 0;
+        int high = syncCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (syncTimesUs[mid] < timeUs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low > 0 && timeUs - syncTimesUs[low - 1] <= syncTimesUs[low] - timeUs) {
+            return low - 1;
+        }
+        return low;
+    }
+
+    public static class Segment {
+        /** End time of the last segment, which runs until the end of the track. */
+        public static final long END_OF_STREAM = Long.MAX_VALUE;
+
+        private final int mIndex;
+        private final long mStartTimeUs;
+        private final long mEndTimeUs;
+
+        public Segment(int index, long startTimeUs, long endTimeUs) {
+            mIndex = index;
+            mStartTimeUs = startTimeUs;
+            mEndTimeUs = endTimeUs;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * @return presentation time of the sync sample this segment starts with.
+         */
+        public long getStartTimeUs() {
+            return mStartTimeUs;
+        }
+
+        /**
+         * @return presentation time of the sync sample the next segment starts with (exclusive),
+         * or {@link #END_OF_STREAM}.
+         */
+        public long getEndTimeUs() {
+            return mEndTimeUs;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment#" + mIndex + "[" + mStartTimeUs + ", "
+                    + (mEndTimeUs == END_OF_STREAM ? "EOS" : String.valueOf(mEndTimeUs)) + ")";
+        }
+    }
+
+    private SegmentPlanner() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,229 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Encoded samples of one segment, kept in a temporary file until the segment is stitched.
+ * <p>
+ * Sample metadata is kept in parallel primitive arrays so a long segment does not create an object per sample.
+ */
+public class SegmentSpool {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private long[] mOffsets = new long[INITIAL_CAPACITY];
+    private int[] mSizes = new int[INITIAL_CAPACITY];
+    private long[] mPresentationTimesUs = new long[INITIAL_CAPACITY];
+    private int[] mFlags = new int[INITIAL_CAPACITY];
+    private int mSampleCount;
+    private long mWrittenBytes;
+    private int mMaxSampleSize;
+    private byte[] mCodecConfig;
+
+    public SegmentSpool(File directory, int segmentIndex) throws IOException {
+        this(File.createTempFile("segment" + segmentIndex + "_", ".spool", directory));
+    }
+
+    private SegmentSpool(File file) throws IOException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    /**
+     * Opens a spool in {@code file}, dropping whatever it held before, e.g. a segment a crashed run did not finish.
+     */
+    static SegmentSpool create(File file) throws IOException {
+        SegmentSpool spool = new SegmentSpool(file);
+        spool.mRandomAccessFile.setLength(0);
+        return spool;
+    }
+
+    /**
+     * Reopens a spool from {@code file} and the sample table {@link #writeIndex(DataOutput) written} for it.
+     *
+     * @throws IOException if the file does not hold all samples of the table anymore.
+     */
+    static SegmentSpool restore(File file, DataInput index) throws IOException {
+        long writtenBytes = index.readLong();
+        int sampleCount = index.readInt();
+        int codecConfigLength = index.readInt();
+        if (sampleCount < 0 || codecConfigLength < -1) {
+            throw new IOException("Corrupt index of segment spool " + file);
+        }
+        if (!file.isFile() || file.length() < writtenBytes) {
+            throw new IOException("Segment spool " + file + " is missing or truncated.");
+        }
+        SegmentSpool spool = new SegmentSpool(file);
+        try {
+            int capacity = Math.max(INITIAL_CAPACITY, sampleCount);
+            spool.mOffsets = new long[capacity];
+            spool.mSizes = new int[capacity];
+            spool.mPresentationTimesUs = new long[capacity];
+            spool.mFlags = new int[capacity];
+            long offset = 0;
+            for (int i = 0; i < sampleCount; i++) {
+                int size = index.readInt();
+                spool.mOffsets[i] = offset;
+                spool.mSizes[i] = size;
+                spool.mPresentationTimesUs[i] = index.readLong();
+                spool.mFlags[i] = index.readInt();
+                spool.mMaxSampleSize = Math.max(spool.mMaxSampleSize, size);
+                offset += size;
+            }
+            if (offset != writtenBytes) {
+                throw new IOException("Index of segment spool " + file + " does not add up.");
+            }
+            if (codecConfigLength >= 0) {
+                spool.mCodecConfig = new byte[codecConfigLength];
+                index.readFully(spool.mCodecConfig);
+            }
+            spool.mSampleCount = sampleCount;
+            spool.mWrittenBytes = writtenBytes;
+            // Anything behind the last sample was written after the index.
+            spool.mRandomAccessFile.setLength(writtenBytes);
+            return spool;
+        } catch (IOException e) {
+            spool.mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the remaining bytes of {@code sample}. The buffer position is advanced to its limit.
+     */
+    public void append(ByteBuffer sample, long presentationTimeUs, int flags) throws IOException {
+        if (mSampleCount == mSizes.length) {
+            int capacity = mSampleCount * 2;
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+            mPresentationTimesUs = Arrays.copyOf(mPresentationTimesUs, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+        }
+        int size = sample.remaining();
+        mOffsets[mSampleCount] = mWrittenBytes;
+        mSizes[mSampleCount] = size;
+        mPresentationTimesUs[mSampleCount] = presentationTimeUs;
+        mFlags[mSampleCount] = flags;
+        mSampleCount++;
+        while (sample.hasRemaining()) {
+            mChannel.write(sample, mWrittenBytes + size - sample.remaining());
+        }
+        mWrittenBytes += size;
+        mMaxSampleSize = Math.max(mMaxSampleSize, size);
+    }
+
+    /**
+     * Reads sample {@code index} into {@code dst} at its current position. The position is advanced by the sample size.
+     */
+    public void readSample(int index, ByteBuffer dst) throws IOException {
+        int size = mSizes[index];
+        if (dst.remaining() < size) {
+            throw new IllegalArgumentException("Buffer too small for sample #" + index + ": " + size);
+        }
+        int limit = dst.limit();
+        dst.limit(dst.position() + size);
+        long position = mOffsets[index];
+        while (dst.hasRemaining()) {
+            int read = mChannel.read(dst, position);
+            if (read < 0) {
+                dst.limit(limit);
+                throw new IOException("Unexpected end of segment spool " + mFile);
+            }
+            position += read;
+        }
+        dst.limit(limit);
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getSampleSize(int index) {
+        return mSizes[index];
+    }
+
+    public long getPresentationTimeUs(int index) {
+        return mPresentationTimesUs[index];
+    }
+
+    public int getSampleFlags(int index) {
+        return mFlags[index];
+    }
+
+    public int getMaxSampleSize() {
+        return mMaxSampleSize;
+    }
+
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    /**
+     * @param codecConfig parameter sets (e.g. SPS and PPS with start codes) the encoder of this segment reported.
+     */
+    public void setCodecConfig(byte[] codecConfig) {
+        mCodecConfig = codecConfig;
+    }
+
+    public byte[] getCodecConfig() {
+        return mCodecConfig;
+    }
+
+    /**
+     * Writes the sample table and codec config, enough to {@link #restore} the spool from its file.
+     */
+    void writeIndex(DataOutput output) throws IOException {
+        output.writeLong(mWrittenBytes);
+        output.writeInt(mSampleCount);
+        output.writeInt(mCodecConfig == null ? -1 : mCodecConfig.length);
+        for (int i = 0; i < mSampleCount; i++) {
+            output.writeInt(mSizes[i]);
+            output.writeLong(mPresentationTimesUs[i]);
+            output.writeInt(mFlags[i]);
+        }
+        if (mCodecConfig != null) {
+            output.write(mCodecConfig);
+        }
+    }
+
+    /**
+     * Flushes the written samples to the storage device.
+     */
+    void sync() throws IOException {
+        mChannel.force(false);
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Closes the spool file, keeping it for a later run to restore.
+     */
+    public void close() {
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Closes and deletes the spool file.
+     */
+    public void release() {
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+}
@@ -0,0 +1,126 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Joins encoded segments into one continuous stream, one sample per {@link #stepSample()}.
+ * <p>
+ * Segments keep their source timestamps unless a segment would overlap the previous one, in which case it is
+ * shifted to start one frame after it. A segment whose encoder reported other parameter sets than the first
+ * one gets them prepended in-band to its first sync sample, because the track can only carry one csd.
+ */
+public class SegmentStitcher {
+    /** Same value as {@code MediaCodec.BUFFER_FLAG_SYNC_FRAME}. */
+    public static final int FLAG_SYNC_FRAME = 1;
+    private static final long DEFAULT_FRAME_DURATION_US = 1000000 / 30;
+
+    private final List<SegmentSpool> mSegments;
+    private final Sink mSink;
+    private final byte[] mTrackCodecConfig;
+    private ByteBuffer mBuffer;
+    private int mSegmentIndex = -1;
+    private int mSampleIndex;
+    private long mOffsetUs;
+    private long mFrameDurationUs = DEFAULT_FRAME_DURATION_US;
+    private long mLastPresentationTimeUs = Long.MIN_VALUE;
+    private long mWrittenPresentationTimeUs;
+
+    public SegmentStitcher(List<SegmentSpool> segments, Sink sink) {
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to stitch.");
+        }
+        mSegments = segments;
+        mSink = sink;
+        mTrackCodecConfig = segments.get(0).getCodecConfig();
+        nextSegment();
+    }
+
+    /**
+     * Writes the next sample to the sink.
+     *
+     * @return false if all segments have been written.
+     */
+    public boolean stepSample() throws IOException {
+        while (!isFinished() && mSampleIndex == mSegments.get(mSegmentIndex).getSampleCount()) {
+            nextSegment();
+        }
+        if (isFinished()) return false;
+
+        SegmentSpool segment = mSegments.get(mSegmentIndex);
+        int flags = segment.getSampleFlags(mSampleIndex);
+        byte[] inBandConfig = null;
+        if (mSampleIndex == 0) {
+            if ((flags & FLAG_SYNC_FRAME) == 0) {
+                throw new IllegalStateException("Segment #" + mSegmentIndex + " does not start with a sync frame.");
+            }
+            byte[] codecConfig = segment.getCodecConfig();
+            if (codecConfig != null && !Arrays.equals(codecConfig, mTrackCodecConfig)) {
+                inBandConfig = codecConfig;
+            }
+        }
+        int size = segment.getSampleSize(mSampleIndex) + (inBandConfig == null ? 0 : inBandConfig.length);
+        if (mBuffer == null || mBuffer.capacity() < size) {
+            mBuffer = ByteBuffer.allocateDirect(Math.max(size, segment.getMaxSampleSize())).order(ByteOrder.nativeOrder());
+        }
+        mBuffer.clear();
+        if (inBandConfig != null) mBuffer.put(inBandConfig);
+        segment.readSample(mSampleIndex, mBuffer);
+        mBuffer.flip();
+
+        long presentationTimeUs = segment.getPresentationTimeUs(mSampleIndex) + mOffsetUs;
+        mSink.writeSample(mBuffer, presentationTimeUs, flags);
+        mWrittenPresentationTimeUs = presentationTimeUs;
+        mLastPresentationTimeUs = Math.max(mLastPresentationTimeUs, presentationTimeUs);
+        mSampleIndex++;
+        return true;
+    }
+
+    public boolean isFinished() {
+        return mSegmentIndex >= mSegments.size();
+    }
+
+    public long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    private void nextSegment() {
+        if (mSegmentIndex >= 0) {
+            updateFrameDuration(mSegments.get(mSegmentIndex));
+        }
+        mSegmentIndex++;
+        mSampleIndex = 0;
+        if (isFinished()) return;
+
+        SegmentSpool segment = mSegments.get(mSegmentIndex);
+        if (segment.getSampleCount() == 0 || mLastPresentationTimeUs == Long.MIN_VALUE) return;
+        long firstPresentationTimeUs = Long.MAX_VALUE;
+        for (int i = 0; i < segment.getSampleCount(); i++) {
+            firstPresentationTimeUs = Math.min(firstPresentationTimeUs, segment.getPresentationTimeUs(i));
+        }
+        long earliestAllowedUs = mLastPresentationTimeUs + mFrameDurationUs;
+        if (firstPresentationTimeUs + mOffsetUs < earliestAllowedUs) {
+            mOffsetUs = earliestAllowedUs - firstPresentationTimeUs;
+        }
+    }
+
+    private void updateFrameDuration(SegmentSpool segment) {
+        int count = segment.getSampleCount();
+        if (count < 2) return;
+        long first = segment.getPresentationTimeUs(0);
+        long last = segment.getPresentationTimeUs(count - 1);
+        if (last > first) {
+            mFrameDurationUs = (last - first) / (count - 1);
+        }
+    }
+
+    public interface Sink {
+        /**
+         * @param sample bytes between position and limit.
+         */
+        void writeSample(ByteBuffer sample, long presentationTimeUs, int flags) throws IOException;
+    }
+}
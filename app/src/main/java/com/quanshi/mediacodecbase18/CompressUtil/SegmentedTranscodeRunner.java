@@ -0,0 +1,157 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the segments of a segmented transcode on a bounded number of worker threads.
+ */
+public class SegmentedTranscodeRunner {
+    private static final long STOP_TIMEOUT_MS = 5000;
+
+    private final SegmentEncoder.Factory mEncoderFactory;
+    private final int mParallelism;
+    private final File mSpoolDirectory;
+    private Checkpoint mCheckpoint;
+
+    /**
+     * @param parallelism    how many segments may be transcoded at once, i.e. how many codec pairs may be alive.
+     * @param spoolDirectory where encoded segments are kept until they are stitched.
+     */
+    public SegmentedTranscodeRunner(SegmentEncoder.Factory encoderFactory, int parallelism, File spoolDirectory) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mEncoderFactory = encoderFactory;
+        mParallelism = parallelism;
+        mSpoolDirectory = spoolDirectory;
+    }
+
+    /**
+     * Keeps the segments of a run that was cut short and reuses them on the next one. Off by default.
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        mCheckpoint = checkpoint;
+    }
+
+    /**
+     * Transcodes all segments and blocks until they are done.
+     *
+     * @return encoded segments in the order of {@code segments}. The caller owns them and must release them.
+     */
+    public List<SegmentSpool> run(List<SegmentPlanner.Segment> segments) throws IOException, InterruptedException {
+        final List<SegmentSpool> spools = new ArrayList<>(segments.size());
+        boolean[] restored = new boolean[segments.size()];
+        int pendingCount = 0;
+        ExecutorService executor = null;
+        boolean succeeded = false;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                SegmentPlanner.Segment segment = segments.get(i);
+                SegmentSpool spool = mCheckpoint != null ? mCheckpoint.restore(segment) : null;
+                restored[i] = spool != null;
+                if (spool == null) {
+                    spool = mCheckpoint != null ? mCheckpoint.createSpool(segment)
+                            : new SegmentSpool(mSpoolDirectory, segment.getIndex());
+                    pendingCount++;
+                }
+                spools.add(spool);
+            }
+            List<Future<Void>> futures = new ArrayList<>(pendingCount);
+            if (pendingCount > 0) {
+                executor = Executors.newFixedThreadPool(Math.min(mParallelism, pendingCount),
+                        new SegmentThreadFactory());
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                if (restored[i]) continue;
+                final SegmentPlanner.Segment segment = segments.get(i);
+                final SegmentSpool spool = spools.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        mEncoderFactory.create().encode(segment, spool);
+                        if (mCheckpoint != null) {
+                            mCheckpoint.commit(segment, spool);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) throw (IOException) cause;
+                    if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+            succeeded = true;
+            return spools;
+        } finally {
+            if (!succeeded) {
+                // Stop the remaining segments, they are of no use anymore.
+                if (executor != null) {
+                    executor.shutdownNow();
+                    try {
+                        executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                for (SegmentSpool spool : spools) {
+                    // The journal keeps pointing at the finished ones, for the next run.
+                    if (mCheckpoint != null) {
+                        spool.close();
+                    } else {
+                        spool.release();
+                    }
+                }
+            } else if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Where the spools of a checkpointed run are kept, see {@link TranscodeJournal}.
+     */
+    public interface Checkpoint {
+        /**
+         * @return the spool of {@code segment} as an earlier run finished it, or null if it has to be transcoded.
+         */
+        SegmentSpool restore(SegmentPlanner.Segment segment) throws IOException;
+
+        /**
+         * @return an empty spool for {@code segment} that outlives the process.
+         */
+        SegmentSpool createSpool(SegmentPlanner.Segment segment) throws IOException;
+
+        /**
+         * Records that {@code segment} has been transcoded completely. Called on the worker thread.
+         */
+        void commit(SegmentPlanner.Segment segment, SegmentSpool spool) throws IOException;
+    }
+
+    private static class SegmentThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "SegmentTranscoder-" + mCount.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Writes video segments that have already been transcoded in parallel to the muxer, as one track.
+ */
+public class SegmentedVideoTrackTranscoder implements TrackTranscoder, SegmentStitcher.Sink {
+    private final List<SegmentSpool> mSegments;
+    private final MediaFormat mOutputFormat;
+    private final SampleWriter mMuxer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private SegmentStitcher mStitcher;
+    private boolean mIsEOS;
+    private boolean mKeepSegments;
+    private long mWrittenPresentationTimeUs;
+
+    public SegmentedVideoTrackTranscoder(List<SegmentSpool> segments, MediaFormat outputFormat, SampleWriter muxer) {
+        mSegments = segments;
+        mOutputFormat = outputFormat;
+        mMuxer = muxer;
+    }
+
+    /**
+     * Closes the segments on release without deleting them, for a {@link TranscodeJournal} to restore or delete.
+     */
+    public void setKeepSegments(boolean keepSegments) {
+        mKeepSegments = keepSegments;
+    }
+
+    @Override
+    public void setup() {
+        mStitcher = new SegmentStitcher(mSegments, this);
+        mMuxer.setOutputFormat(QueuedMuxer.SampleType.VIDEO, mOutputFormat);
+    }
+
+    @Override
+    public MediaFormat getDeterminedFormat() {
+        return mOutputFormat;
+    }
+
+    @Override
+    public boolean stepPipeline() {
+        if (mIsEOS) return false;
+        try {
+            if (mStitcher.stepSample()) return true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read transcoded segment.", e);
+        }
+        mBufferInfo.set(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, ByteBuffer.allocate(0), mBufferInfo);
+        mIsEOS = true;
+        return true;
+    }
+
+    @Override
+    public void writeSample(ByteBuffer sample, long presentationTimeUs, int flags) {
+        mBufferInfo.set(sample.position(), sample.remaining(), presentationTimeUs, flags);
+        mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, sample, mBufferInfo);
+        mWrittenPresentationTimeUs = presentationTimeUs;
+    }
+
+    @Override
+    public long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mIsEOS;
+    }
+
+    @Override
+    public void release() {
+        for (SegmentSpool segment : mSegments) {
+            if (mKeepSegments) {
+                segment.close();
+            } else {
+                segment.release();
+            }
+        }
+    }
+}
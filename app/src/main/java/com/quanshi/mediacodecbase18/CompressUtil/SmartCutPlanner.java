@@ -0,0 +1,140 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plans a trim of a video track that copies the GOPs within the range and re-encodes only the partial GOPs at
+ * the cut points.
+ * <p>
+ * The head is re-encoded from the start of the range until the first sync sample in it, the tail from the last
+ * sync sample in the range until its end. A cut on a sync sample needs no re-encoding on that side. If no whole
+ * GOP lies within the range, all of it is re-encoded in one part.
+ */
+public class SmartCutPlanner {
+
+    /**
+     * @param syncTimesUs presentation times of the sync samples in decode order.
+     * @param syncCount   number of valid entries in {@code syncTimesUs}.
+     * @param durationUs  duration of the track, or a non-positive value if unknown.
+     * @param startUs     first presentation time to keep. Frames before the first sync sample cannot be decoded,
+     *                    so the range never starts before it.
+     * @param endUs       presentation time to stop at (exclusive), {@link Part#END_OF_STREAM} or anything past the
+     *                    duration for the end of the track.
+     * @return parts in presentation order, which together cover the range.
+     */
+    public static List<Part> plan(long[] syncTimesUs, int syncCount, long durationUs, long startUs, long endUs) {
+        if (syncCount <= 0) {
+            throw new IllegalArgumentException("Video track has no sync sample.");
+        }
+        long rangeStartUs = Math.max(startUs, syncTimesUs[0]);
+        long rangeEndUs = durationUs > 0 && endUs >= durationUs ? Part.END_OF_STREAM : endUs;
+        if (rangeEndUs <= rangeStartUs || (durationUs > 0 && rangeStartUs >= durationUs)) {
+            throw new IllegalArgumentException("Nothing to keep between " + startUs + " and " + endUs + " us.");
+        }
+
+        int first = findFirstSyncAtOrAfter(syncTimesUs, syncCount, rangeStartUs);
+        int last = rangeEndUs == Part.END_OF_STREAM ? syncCount - 1
+                : findFirstSyncAtOrAfter(syncTimesUs, syncCount, rangeEndUs + 1) - 1;
+        long copyEndUs = rangeEndUs == Part.END_OF_STREAM ? Part.END_OF_STREAM : syncTimesUs[last];
+        if (first >= syncCount || syncTimesUs[first] >= copyEndUs) {
+            // Start and end are in the same GOP, or in two neighbouring ones that are both cut.
+            int decodeStart = first < syncCount && syncTimesUs[first] == rangeStartUs ? first : first - 1;
+            return Collections.singletonList(new Part(Part.ENCODE, rangeStartUs, rangeEndUs,
+                    syncTimesUs[decodeStart]));
+        }
+
+        List<Part> parts = new ArrayList<>(3);
+        if (syncTimesUs[first] > rangeStartUs) {
+            parts.add(new Part(Part.ENCODE, rangeStartUs, syncTimesUs[first], syncTimesUs[first - 1]));
+        }
+        parts.add(new Part(Part.COPY, syncTimesUs[first], copyEndUs, syncTimesUs[first]));
+        if (copyEndUs < rangeEndUs) {
+            parts.add(new Part(Part.ENCODE, copyEndUs, rangeEndUs, copyEndUs));
+        }
+        return parts;
+    }
+
+    /**
+     * @return index of the first sync sample presented at or after {@code timeUs}, {@code syncCount} if none.
+     */
+    private static int findFirstSyncAtOrAfter(long[] syncTimesUs, int syncCount, long timeUs) {
+        int low = 0;
+        int high = syncCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (syncTimesUs[mid] < timeUs) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public static class Part {
+        /** End time of a part that runs until the end of the track. */
+        public static final long END_OF_STREAM = Long.MAX_VALUE;
+        /** Samples are copied as they are. */
+        public static final int COPY = 0;
+        /** Frames are decoded and encoded again. */
+        public static final int ENCODE = 1;
+
+        private final int mType;
+        private final long mStartTimeUs;
+        private final long mEndTimeUs;
+        private final long mDecodeStartTimeUs;
+
+        public Part(int type, long startTimeUs, long endTimeUs, long decodeStartTimeUs) {
+            mType = type;
+            mStartTimeUs = startTimeUs;
+            mEndTimeUs = endTimeUs;
+            mDecodeStartTimeUs = decodeStartTimeUs;
+        }
+
+        /**
+         * @return {@link #COPY} or {@link #ENCODE}.
+         */
+        public int getType() {
+            return mType;
+        }
+
+        public boolean isCopy() {
+            return mType == COPY;
+        }
+
+        /**
+         * @return presentation time of the first frame of this part.
+         */
+        public long getStartTimeUs() {
+            return mStartTimeUs;
+        }
+
+        /**
+         * @return presentation time the next part starts at (exclusive), or {@link #END_OF_STREAM}. The end of a
+         * copied part is a sync sample.
+         */
+        public long getEndTimeUs() {
+            return mEndTimeUs;
+        }
+
+        /**
+         * @return presentation time of the sync sample decoding has to start at, the start itself when copying.
+         */
+        public long getDecodeStartTimeUs() {
+            return mDecodeStartTimeUs;
+        }
+
+        @Override
+        public String toString() {
+            return (mType == COPY ? "Copy" : "Encode") + "[" + mStartTimeUs + ", "
+                    + (mEndTimeUs == END_OF_STREAM ? "EOS" : String.valueOf(mEndTimeUs)) + ")"
+                    + (mDecodeStartTimeUs != mStartTimeUs ? " from " + mDecodeStartTimeUs : "");
+        }
+    }
+
+    private SmartCutPlanner() {
+        throw new RuntimeException();
+    }
+}
@@ -0,0 +1,234 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the video of a smart cut: the re-encoded parts from their spools, the copied part sample for sample from
+ * the shared extractor, all moved back by the start of the cut.
+ * <p>
+ * The track keeps the parameter sets of the input. Where an encoder reported others, they are prepended in-band
+ * to the first sample of its part, and the input's ones to the first copied sample after it.
+ */
+public class SmartCutVideoTrackTranscoder implements TrackTranscoder {
+    private final SampleSource mExtractor;
+    private final int mTrackIndex;
+    private final List<SmartCutPlanner.Part> mParts;
+    private final SegmentSpool[] mSpools;
+    private final SampleWriter mMuxer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final MediaFormat mOutputFormat;
+    private final byte[] mTrackCodecConfig;
+    private final long mStartUs;
+    private final int mCopyPartIndex;
+    private ByteBuffer mBuffer;
+    private int mPartIndex;
+    private int mSampleIndex;
+    private byte[] mInBandConfig;
+    private boolean mIsEOS;
+    private long mWrittenPresentationTimeUs;
+    private PipelineMetrics mMetrics = new PipelineMetrics();
+
+    /**
+     * @param extractor shared with the audio, seeked to the sync sample at or before the start of the cut. The
+     *                  video track only needs to be selected if a part is copied.
+     * @param spools    the re-encoded samples of each {@link SmartCutPlanner.Part#ENCODE} part, null for the
+     *                  copied one.
+     */
+    public SmartCutVideoTrackTranscoder(SampleSource extractor, int trackIndex, List<SmartCutPlanner.Part> parts,
+                                        SegmentSpool[] spools, SampleWriter muxer) {
+        mExtractor = extractor;
+        mTrackIndex = trackIndex;
+        mParts = parts;
+        mSpools = spools;
+        mMuxer = muxer;
+        mOutputFormat = extractor.getTrackFormat(trackIndex);
+        mTrackCodecConfig = VideoSegmentEncoder.getCodecConfig(mOutputFormat);
+        mStartUs = parts.get(0).getStartTimeUs();
+        int copyPartIndex = parts.size();
+        for (int i = 0; i < parts.size(); i++) {
+            if (parts.get(i).isCopy()) copyPartIndex = i;
+        }
+        mCopyPartIndex = copyPartIndex;
+    }
+
+    /**
+     * Record the reading of copied samples into {@code metrics}.
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    @Override
+    public void setup() {
+        int bufferSize = mOutputFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? mOutputFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : 0;
+        for (SegmentSpool spool : mSpools) {
+            if (spool != null) bufferSize = Math.max(bufferSize, spool.getMaxSampleSize());
+        }
+        mBuffer = ByteBuffer.allocateDirect(bufferSize + getCodecConfigLength()).order(ByteOrder.nativeOrder());
+        mMuxer.setOutputFormat(QueuedMuxer.SampleType.VIDEO, mOutputFormat);
+        startPart();
+    }
+
+    @Override
+    public MediaFormat getDeterminedFormat() {
+        return mOutputFormat;
+    }
+
+    @Override
+    public boolean stepPipeline() {
+        if (mIsEOS) return skipSample();
+        if (mPartIndex == mParts.size()) {
+            mBuffer.clear();
+            mBufferInfo.set(0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, mBuffer, mBufferInfo);
+            mIsEOS = true;
+            return true;
+        }
+        if (mPartIndex == mCopyPartIndex) return stepCopy();
+        // Video samples of the shared extractor that are not copied are skipped meanwhile, so the audio can go on.
+        boolean stepped = skipSample();
+        try {
+            return stepSpool() || stepped;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read re-encoded part " + mParts.get(mPartIndex), e);
+        }
+    }
+
+    private boolean stepSpool() throws IOException {
+        SegmentSpool spool = mSpools[mPartIndex];
+        if (mSampleIndex == spool.getSampleCount()) {
+            nextPart();
+            return true;
+        }
+        int flags = spool.getSampleFlags(mSampleIndex);
+        if (mSampleIndex == 0 && (flags & SegmentStitcher.FLAG_SYNC_FRAME) == 0) {
+            throw new IllegalStateException("Re-encoded part " + mParts.get(mPartIndex)
+                    + " does not start with a sync frame.");
+        }
+        mBuffer.clear();
+        putInBandConfig();
+        spool.readSample(mSampleIndex, mBuffer);
+        mBuffer.flip();
+        writeSample(spool.getPresentationTimeUs(mSampleIndex), flags);
+        mSampleIndex++;
+        return true;
+    }
+
+    private boolean stepCopy() {
+        int trackIndex = mExtractor.getSampleTrackIndex();
+        if (trackIndex < 0) {
+            nextPart();
+            return true;
+        }
+        if (trackIndex != mTrackIndex) return false;
+        SmartCutPlanner.Part part = mParts.get(mPartIndex);
+        long sampleTimeUs = mExtractor.getSampleTime();
+        boolean isKeyFrame = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
+        if (isKeyFrame && sampleTimeUs >= part.getEndTimeUs()) {
+            nextPart();
+            return true;
+        }
+        if (mSampleIndex == 0 && !(isKeyFrame && sampleTimeUs >= part.getStartTimeUs())) {
+            // Still in the GOP the head was re-encoded from.
+            mExtractor.advance();
+            return true;
+        }
+        if (sampleTimeUs < part.getStartTimeUs()) {
+            // Leading frames of an open GOP refer to the GOP before, which is not copied.
+            mExtractor.advance();
+            return true;
+        }
+        long startNs = System.nanoTime();
+        mBuffer.clear();
+        putInBandConfig();
+        int offset = mBuffer.position();
+        int sampleSize = mExtractor.readSampleData(mBuffer, offset);
+        mMetrics.record(PipelineMetrics.STAGE_EXTRACT, startNs);
+        mMetrics.addBytesIn(sampleSize);
+        mBuffer.limit(offset + sampleSize);
+        mBuffer.position(0);
+        writeSample(sampleTimeUs, isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        mSampleIndex++;
+        mExtractor.advance();
+        return true;
+    }
+
+    /**
+     * Drops the next sample of the shared extractor if it is a video sample that is not going to be copied.
+     */
+    private boolean skipSample() {
+        if (mCopyPartIndex == mParts.size() || mExtractor.getSampleTrackIndex() != mTrackIndex) return false;
+        if (mPartIndex < mCopyPartIndex && (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0
+                && mExtractor.getSampleTime() >= mParts.get(mCopyPartIndex).getStartTimeUs()) {
+            // The first copied sample waits until the head has been written.
+            return false;
+        }
+        mExtractor.advance();
+        return true;
+    }
+
+    private void nextPart() {
+        mPartIndex++;
+        startPart();
+    }
+
+    private void startPart() {
+        mSampleIndex = 0;
+        mInBandConfig = null;
+        if (mPartIndex == mParts.size()) return;
+        byte[] codecConfig = mPartIndex == mCopyPartIndex ? mTrackCodecConfig : mSpools[mPartIndex].getCodecConfig();
+        byte[] previousConfig = mPartIndex == 0 || mPartIndex - 1 == mCopyPartIndex ? mTrackCodecConfig
+                : mSpools[mPartIndex - 1].getCodecConfig();
+        if (codecConfig != null && !Arrays.equals(codecConfig, previousConfig)) {
+            mInBandConfig = codecConfig;
+        }
+    }
+
+    private void putInBandConfig() {
+        if (mSampleIndex == 0 && mInBandConfig != null) {
+            mBuffer.put(mInBandConfig);
+        }
+    }
+
+    private int getCodecConfigLength() {
+        int length = mTrackCodecConfig == null ? 0 : mTrackCodecConfig.length;
+        for (SegmentSpool spool : mSpools) {
+            if (spool != null && spool.getCodecConfig() != null) {
+                length = Math.max(length, spool.getCodecConfig().length);
+            }
+        }
+        return length;
+    }
+
+    private void writeSample(long presentationTimeUs, int flags) {
+        mBufferInfo.set(0, mBuffer.remaining(), presentationTimeUs - mStartUs, flags);
+        mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, mBuffer, mBufferInfo);
+        mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
+    }
+
+    @Override
+    public long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return mIsEOS;
+    }
+
+    @Override
+    public void release() {
+        for (SegmentSpool spool : mSpools) {
+            if (spool != null) spool.release();
+        }
+    }
+}
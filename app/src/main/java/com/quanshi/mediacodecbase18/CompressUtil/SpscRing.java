@@ -0,0 +1,172 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.Locale;
+
+/**
+ * Bounded hand-off from one producer thread to one consumer thread, over slots allocated up front and reused, so
+ * passing an item neither locks nor allocates. The producer fills the slot from {@link #claim()} and
+ * {@link #publish()}es it; the consumer reads the slot from {@link #peek()} and {@link #release()}s it.
+ * <p>
+ * A full ring makes {@link #claim()} return null, which is the backpressure: the producer waits on its
+ * {@link PipelineScheduler}, which is signalled when the consumer frees a slot of a full ring. The consumer's is
+ * signalled when an item lands in an empty ring. Both sides write their index before reading the other's, so one
+ * of them always sees the other and no wake-up is lost.
+ */
+class SpscRing<T> {
+    interface SlotFactory<T> {
+        T create();
+    }
+
+    private final Object[] mSlots;
+    private final int mMask;
+    private final PipelineScheduler mProducerScheduler;
+    private final PipelineScheduler mConsumerScheduler;
+    // Items taken by the consumer and published by the producer, only ever growing.
+    private volatile long mHead;
+    private volatile long mTail;
+
+    // Producer side.
+    private long mCachedHead;
+    private long mPublishCount;
+    private long mOccupancySum;
+    private int mMaxOccupancy;
+    private long mFullCount;
+
+    // Consumer side.
+    private long mCachedTail;
+    private long mEmptyCount;
+
+    /**
+     * @param capacity a power of two.
+     */
+    SpscRing(int capacity, SlotFactory<T> slotFactory, PipelineScheduler producerScheduler,
+             PipelineScheduler consumerScheduler) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mSlots = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mSlots[i] = slotFactory.create();
+        }
+        mMask = capacity - 1;
+        mProducerScheduler = producerScheduler;
+        mConsumerScheduler = consumerScheduler;
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return the slot to fill for the next item, or null if the ring is full. The same slot is returned until it
+     * is published.
+     */
+    @SuppressWarnings("unchecked")
+    T claim() {
+        long tail = mTail;
+        if (tail - mCachedHead == mSlots.length) {
+            mCachedHead = mHead;
+            if (tail - mCachedHead == mSlots.length) {
+                mFullCount++;
+                return null;
+            }
+        }
+        return (T) mSlots[(int) tail & mMask];
+    }
+
+    /**
+     * Producer only: hands the claimed slot to the consumer.
+     */
+    void publish() {
+        long tail = mTail + 1;
+        mTail = tail;
+        long head = mHead;
+        mCachedHead = head;
+        int occupancy = (int) (tail - head);
+        mPublishCount++;
+        mOccupancySum += occupancy;
+        if (occupancy > mMaxOccupancy) mMaxOccupancy = occupancy;
+        if (occupancy == 1) {
+            mConsumerScheduler.onWorkAvailable();
+        }
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the oldest published slot, or null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    T peek() {
+        long head = mHead;
+        if (head == mCachedTail) {
+            mCachedTail = mTail;
+            if (head == mCachedTail) {
+                mEmptyCount++;
+                return null;
+            }
+        }
+        return (T) mSlots[(int) head & mMask];
+    }
+
+    /**
+     * Consumer only: gives the slot from {@link #peek()} back to the producer.
+     */
+    void release() {
+        long head = mHead + 1;
+        mHead = head;
+        long tail = mTail;
+        mCachedTail = tail;
+        if (tail - head == mSlots.length - 1) {
+            mProducerScheduler.onWorkAvailable();
+        }
+    }
+
+    int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return items in the ring now; from threads other than the two sides a snapshot that may be stale.
+     */
+    int size() {
+        long head = mHead;
+        return (int) (mTail - head);
+    }
+
+    /**
+     * @return the most items the ring held, seen by the producer.
+     */
+    int getMaxOccupancy() {
+        return mMaxOccupancy;
+    }
+
+    /**
+     * @return items in the ring on average, right after a publish.
+     */
+    double getAverageOccupancy() {
+        return mPublishCount == 0 ? 0 : (double) mOccupancySum / mPublishCount;
+    }
+
+    /**
+     * @return how many times the producer found the ring full and had to wait.
+     */
+    long getFullCount() {
+        return mFullCount;
+    }
+
+    /**
+     * @return how many times the consumer found the ring empty.
+     */
+    long getEmptyCount() {
+        return mEmptyCount;
+    }
+
+    long getPublishCount() {
+        return mPublishCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d/%d, max %d, avg %.1f, full %d, empty %d", size(),
+                mSlots.length, mMaxOccupancy, getAverageOccupancy(), mFullCount, mEmptyCount);
+    }
+}
@@ -0,0 +1,523 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The steps of {@link VideoPipeline} spread over threads, so that a slow {@code swapBuffers} or a slow disk write
+ * only holds up the other stages once the hand-off between them is full:
+ * <ul>
+ * <li>the feeder thread moves samples from the reader into the decoder and takes the decoded frames to be drawn;
+ * <li>the GL thread renders those frames and draws them onto the encoder's surface;
+ * <li>the drain thread copies the encoder's output and releases its buffers right away;
+ * <li>the thread calling {@link #drainSamples()}, the pipeline thread of the engine, hands the copies to the sink,
+ * together with the other tracks.
+ * </ul>
+ * The stages are connected by {@link SpscRing}s: decoded frames by their decoder buffer index, encoded samples as
+ * copies into slot buffers, which only grow up to the largest sample. Each stage thread waits on the scheduler
+ * its codec signals, which the rings signal as well. An error in a stage stops the stage threads and is thrown
+ * from {@link #drainSamples()}.
+ */
+class StagedVideoPipeline {
+    static final int FRAME_RING_CAPACITY = 4;
+    static final int SAMPLE_RING_CAPACITY = 16;
+    private static final int INITIAL_SAMPLE_CAPACITY = 64 * 1024;
+    private static final long MAX_WAIT_MS = 100;
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    /**
+     * A decoded frame to be drawn, or the end of stream.
+     */
+    static class Frame {
+        int mBufferIndex;
+        long mPresentationTimeUs;
+        boolean mEndOfStream;
+    }
+
+    /**
+     * A copy of an encoder output buffer, or the encoder's format change.
+     */
+    static class Sample {
+        ByteBuffer mData = ByteBuffer.allocateDirect(INITIAL_SAMPLE_CAPACITY);
+        long mPresentationTimeUs;
+        int mFlags;
+        boolean mFormatChanged;
+    }
+
+    /**
+     * Runs on the GL thread around its frames, to take the EGL context over from the thread that set it up.
+     */
+    interface GlThreadHooks {
+        void onGlThreadStart();
+
+        void onGlThreadStop();
+    }
+
+    private final SampleReader mReader;
+    private final int mTrackIndex;
+    private final PipelineCodec mDecoder;
+    private final PipelineScheduler mDecoderScheduler;
+    private final FrameBridge mFrameBridge;
+    private final PipelineCodec mEncoder;
+    private final PipelineScheduler mEncoderScheduler;
+    private final EncodedSampleSink mSink;
+    private final PipelineScheduler mSinkScheduler;
+    private final EventPipelineScheduler mGlScheduler = new EventPipelineScheduler();
+    private final SpscRing<Frame> mFrameRing;
+    private final SpscRing<Sample> mSampleRing;
+    private final GlStage mGlStage;
+    private final Stage[] mStages;
+    private long mEndSyncTimeUs = Long.MAX_VALUE;
+    private long mRenderStartTimeUs = Long.MIN_VALUE;
+    private long mRenderEndTimeUs = Long.MAX_VALUE;
+    private FrameRateDecimator mDecimator;
+    private GlThreadHooks mGlThreadHooks;
+    private PipelineMetrics mMetrics = new PipelineMetrics();
+    private PipelineMetrics mFrameBridgeMetrics;
+    private volatile boolean mStopped;
+    private volatile RuntimeException mError;
+    private volatile boolean mIsDecoderEOS;
+    private boolean mStarted;
+    private boolean mMetricsAdded;
+    private boolean mIsFinished;
+    private long mWrittenPresentationTimeUs;
+
+    // Feeder thread.
+    private boolean mIsExtractorEOS;
+    private final PipelineMetrics mFeederMetrics = new PipelineMetrics();
+
+    // Drain thread.
+    private boolean mIsEncoderEOS;
+    private boolean mOutputFormatDetermined;
+    private final PipelineMetrics mDrainMetrics = new PipelineMetrics();
+
+    /**
+     * @param decoderScheduler signalled by the decoder's buffer events, waited on by the feeder thread.
+     * @param encoderScheduler signalled by the encoder's buffer events, waited on by the drain thread.
+     * @param sinkScheduler    signalled when encoded samples are ready for {@link #drainSamples()}.
+     */
+    StagedVideoPipeline(SampleReader reader, int trackIndex, PipelineCodec decoder, PipelineScheduler decoderScheduler,
+                        FrameBridge frameBridge, PipelineCodec encoder, PipelineScheduler encoderScheduler,
+                        EncodedSampleSink sink, PipelineScheduler sinkScheduler) {
+        mReader = reader;
+        mTrackIndex = trackIndex;
+        mDecoder = decoder;
+        mDecoderScheduler = decoderScheduler;
+        mFrameBridge = frameBridge;
+        mEncoder = encoder;
+        mEncoderScheduler = encoderScheduler;
+        mSink = sink;
+        mSinkScheduler = sinkScheduler;
+        mFrameRing = new SpscRing<>(FRAME_RING_CAPACITY, new SpscRing.SlotFactory<Frame>() {
+            @Override
+            public Frame create() {
+                return new Frame();
+            }
+        }, decoderScheduler, mGlScheduler);
+        mSampleRing = new SpscRing<>(SAMPLE_RING_CAPACITY, new SpscRing.SlotFactory<Sample>() {
+            @Override
+            public Sample create() {
+                return new Sample();
+            }
+        }, encoderScheduler, sinkScheduler);
+        mGlStage = new GlStage();
+        mStages = new Stage[]{new FeederStage(), mGlStage, new DrainStage()};
+    }
+
+    /**
+     * See {@link VideoTrackTranscoder#setEndSyncTimeUs(long)}.
+     */
+    void setEndSyncTimeUs(long endSyncTimeUs) {
+        mEndSyncTimeUs = endSyncTimeUs;
+    }
+
+    /**
+     * See {@link VideoTrackTranscoder#setRenderRange(long, long)}.
+     */
+    void setRenderRange(long startUs, long endUs) {
+        mRenderStartTimeUs = startUs;
+        mRenderEndTimeUs = endUs;
+    }
+
+    /**
+     * @param decimator decides which decoded frames are encoded, or null to encode all. Used on the feeder thread.
+     */
+    void setDecimator(FrameRateDecimator decimator) {
+        mDecimator = decimator;
+    }
+
+    void setGlThreadHooks(GlThreadHooks glThreadHooks) {
+        mGlThreadHooks = glThreadHooks;
+    }
+
+    /**
+     * @param metrics            of the calling thread; the stage threads record into their own, which are added
+     *                           to it once they are done.
+     * @param frameBridgeMetrics what the frame bridge records into on the GL thread, added as well.
+     */
+    void setMetrics(PipelineMetrics metrics, PipelineMetrics frameBridgeMetrics) {
+        mMetrics = metrics;
+        mFrameBridgeMetrics = frameBridgeMetrics;
+    }
+
+    /**
+     * Starts the stage threads.
+     */
+    void start() {
+        if (mStarted) throw new IllegalStateException("Already started.");
+        mStarted = true;
+        for (Stage stage : mStages) {
+            stage.mThread.start();
+        }
+    }
+
+    /**
+     * Hands the encoded samples copied so far to the sink.
+     *
+     * @return true if any were.
+     * @throws RuntimeException the error that stopped a stage.
+     */
+    boolean drainSamples() {
+        boolean busy = false;
+        Sample sample;
+        while (!mIsFinished && (sample = mSampleRing.peek()) != null) {
+            if (sample.mFormatChanged) {
+                mSink.onOutputFormatChanged();
+            } else {
+                int size = sample.mData.limit();
+                mSink.writeSample(sample.mData, 0, size, sample.mPresentationTimeUs, sample.mFlags);
+                if ((sample.mFlags & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    mIsFinished = true;
+                } else {
+                    mWrittenPresentationTimeUs = sample.mPresentationTimeUs;
+                }
+            }
+            mSampleRing.release();
+            busy = true;
+        }
+        // Read across threads, so possibly a little stale.
+        mMetrics.setGauge(PipelineMetrics.GAUGE_DECODER_QUEUE,
+                mFeederMetrics.getGauge(PipelineMetrics.GAUGE_DECODER_QUEUE));
+        mMetrics.setGauge(PipelineMetrics.GAUGE_ENCODER_QUEUE,
+                mDrainMetrics.getGauge(PipelineMetrics.GAUGE_ENCODER_QUEUE));
+        mMetrics.setGauge(PipelineMetrics.GAUGE_FRAME_HAND_OFF, mFrameRing.size());
+        mMetrics.setGauge(PipelineMetrics.GAUGE_SAMPLE_HAND_OFF, mSampleRing.size());
+        if (mIsFinished) {
+            stop();
+        } else if (mError != null) {
+            throw mError;
+        }
+        return busy;
+    }
+
+    long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    boolean isDecoderFinished() {
+        return mIsDecoderEOS;
+    }
+
+    boolean isFinished() {
+        return mIsFinished;
+    }
+
+    /**
+     * Stops the stage threads and waits for them, then adds their metrics. Safe to call more than once. The GL
+     * stage is interrupted, so a wait for a rendered frame ends at once.
+     *
+     * @return false if a stage thread did not stop in time, e.g. stuck in a codec or GL call.
+     */
+    boolean stop() {
+        mStopped = true;
+        for (Stage stage : mStages) {
+            stage.mScheduler.onWorkAvailable();
+        }
+        // A wait for a rendered frame only times out after seconds. The other stages are not interrupted, as
+        // that would close the channel the feeder reads from.
+        mGlStage.mThread.interrupt();
+        long deadlineMs = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        boolean stopped = true;
+        for (Stage stage : mStages) {
+            try {
+                stage.mThread.join(Math.max(1, deadlineMs - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (stage.mThread.isAlive()) stopped = false;
+        }
+        if (stopped && !mMetricsAdded) {
+            mMetricsAdded = true;
+            mMetrics.add(mFeederMetrics);
+            mMetrics.add(mDrainMetrics);
+            if (mFrameBridgeMetrics != null) mMetrics.add(mFrameBridgeMetrics);
+        }
+        return stopped;
+    }
+
+    SpscRing<Frame> getFrameRing() {
+        return mFrameRing;
+    }
+
+    SpscRing<Sample> getSampleRing() {
+        return mSampleRing;
+    }
+
+    @Override
+    public String toString() {
+        return "frames " + mFrameRing + "; samples " + mSampleRing;
+    }
+
+    private void onStageError(RuntimeException error) {
+        synchronized (this) {
+            if (mError == null) mError = error;
+        }
+        mStopped = true;
+        for (Stage stage : mStages) {
+            stage.mScheduler.onWorkAvailable();
+        }
+        mSinkScheduler.onWorkAvailable();
+    }
+
+    private abstract class Stage implements Runnable {
+        final PipelineScheduler mScheduler;
+        final Thread mThread;
+
+        Stage(String name, PipelineScheduler scheduler) {
+            mScheduler = scheduler;
+            mThread = new Thread(this, name);
+        }
+
+        /**
+         * @return true if anything moved.
+         */
+        abstract boolean step();
+
+        abstract boolean isDone();
+
+        void onStart() {
+        }
+
+        void onStop() {
+        }
+
+        @Override
+        public void run() {
+            try {
+                onStart();
+                try {
+                    while (!mStopped && !isDone()) {
+                        if (!step()) mScheduler.awaitWork(MAX_WAIT_MS);
+                    }
+                } finally {
+                    onStop();
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            } catch (RuntimeException e) {
+                // Once stopped, the interrupt may come out of a wait as any exception.
+                if (!mStopped) onStageError(e);
+            }
+        }
+    }
+
+    private class FeederStage extends Stage {
+        FeederStage() {
+            super("VideoFeeder", mDecoderScheduler);
+        }
+
+        @Override
+        boolean step() {
+            boolean busy = false;
+            while (drainExtractor()) busy = true;
+            while (drainDecoder()) busy = true;
+            return busy;
+        }
+
+        @Override
+        boolean isDone() {
+            return mIsDecoderEOS;
+        }
+
+        private boolean drainExtractor() {
+            if (mIsExtractorEOS) return false;
+            int trackIndex = mReader.getSampleTrackIndex();
+            if (trackIndex >= 0 && trackIndex != mTrackIndex) {
+                throw new IllegalStateException("Sample of track " + trackIndex + " in the video feeder.");
+            }
+            int inputBufIndex = mDecoder.dequeueInputBuffer();
+            if (inputBufIndex < 0) return false;
+            long startNs = System.nanoTime();
+            boolean isKeyFrame = (mReader.getSampleFlags() & SampleReader.SAMPLE_FLAG_SYNC) != 0;
+            if (trackIndex < 0 || (isKeyFrame && mReader.getSampleTime() >= mEndSyncTimeUs)) {
+                mIsExtractorEOS = true;
+                mDecoder.queueInputBuffer(inputBufIndex, 0, 0, 0, PipelineCodec.BUFFER_FLAG_END_OF_STREAM);
+                return false;
+            }
+            int sampleSize = mReader.readSampleData(mDecoder.getInputBuffer(inputBufIndex), 0);
+            mDecoder.queueInputBuffer(inputBufIndex, 0, sampleSize, mReader.getSampleTime(),
+                    isKeyFrame ? PipelineCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+            mReader.advance();
+            mFeederMetrics.record(PipelineMetrics.STAGE_EXTRACT, startNs);
+            mFeederMetrics.addBytesIn(sampleSize);
+            return true;
+        }
+
+        private boolean drainDecoder() {
+            if (mIsDecoderEOS) return false;
+            // Only take a frame from the decoder when it can be handed on; until then the decoder holds it.
+            Frame frame = mFrameRing.claim();
+            if (frame == null) return false;
+            long startNs = System.nanoTime();
+            int decoderStatus = mDecoder.dequeueOutputBuffer();
+            switch (decoderStatus) {
+                case PipelineCodec.INFO_TRY_AGAIN_LATER:
+                    return false;
+                case PipelineCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                case PipelineCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                    return true;
+            }
+            long presentationTimeUs = mDecoder.getOutputPresentationTimeUs();
+            boolean endOfStream = (mDecoder.getOutputFlags() & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            boolean doRender = !endOfStream && mDecoder.getOutputSize() > 0
+                    && presentationTimeUs >= mRenderStartTimeUs && presentationTimeUs < mRenderEndTimeUs
+                    && (mDecimator == null || mDecimator.shouldKeep(presentationTimeUs));
+            mFeederMetrics.setGauge(PipelineMetrics.GAUGE_DECODER_QUEUE, mDecoder.getPendingOutputCount());
+            if (!doRender) {
+                mDecoder.releaseOutputBuffer(decoderStatus, false);
+                mFeederMetrics.record(PipelineMetrics.STAGE_DECODE_DEQUEUE, startNs);
+                if (!endOfStream) return true;
+                decoderStatus = -1;
+            }
+            frame.mBufferIndex = decoderStatus;
+            frame.mPresentationTimeUs = presentationTimeUs;
+            frame.mEndOfStream = endOfStream;
+            mFrameRing.publish();
+            if (endOfStream) {
+                mIsDecoderEOS = true;
+            } else {
+                mFeederMetrics.record(PipelineMetrics.STAGE_DECODE_DEQUEUE, startNs);
+            }
+            return true;
+        }
+    }
+
+    private class GlStage extends Stage {
+        private boolean mDone;
+
+        GlStage() {
+            super("VideoGl", mGlScheduler);
+        }
+
+        @Override
+        void onStart() {
+            if (mGlThreadHooks != null) mGlThreadHooks.onGlThreadStart();
+        }
+
+        @Override
+        void onStop() {
+            if (mGlThreadHooks != null) mGlThreadHooks.onGlThreadStop();
+        }
+
+        @Override
+        boolean step() {
+            boolean busy = false;
+            Frame frame;
+            while (!mDone && !mStopped && (frame = mFrameRing.peek()) != null) {
+                if (frame.mEndOfStream) {
+                    mEncoder.signalEndOfInputStream();
+                    mDone = true;
+                } else {
+                    // NOTE: blocks while the encoder has no room for the frame.
+                    mDecoder.releaseOutputBuffer(frame.mBufferIndex, true);
+                    mFrameBridge.transferFrame(frame.mPresentationTimeUs);
+                }
+                mFrameRing.release();
+                busy = true;
+            }
+            return busy;
+        }
+
+        @Override
+        boolean isDone() {
+            return mDone;
+        }
+    }
+
+    private class DrainStage extends Stage {
+        DrainStage() {
+            super("VideoDrain", mEncoderScheduler);
+        }
+
+        @Override
+        boolean step() {
+            boolean busy = false;
+            while (drainEncoder()) busy = true;
+            return busy;
+        }
+
+        @Override
+        boolean isDone() {
+            return mIsEncoderEOS;
+        }
+
+        private boolean drainEncoder() {
+            if (mIsEncoderEOS) return false;
+            Sample sample = mSampleRing.claim();
+            if (sample == null) return false;
+            long startNs = System.nanoTime();
+            int encoderStatus = mEncoder.dequeueOutputBuffer();
+            switch (encoderStatus) {
+                case PipelineCodec.INFO_TRY_AGAIN_LATER:
+                    return false;
+                case PipelineCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                    if (mOutputFormatDetermined) {
+                        throw new RuntimeException("Video output format changed twice.");
+                    }
+                    mOutputFormatDetermined = true;
+                    sample.mFormatChanged = true;
+                    mSampleRing.publish();
+                    return true;
+                case PipelineCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                    return true;
+            }
+            if (!mOutputFormatDetermined) {
+                throw new RuntimeException("Could not determine actual output format.");
+            }
+            int flags = mEncoder.getOutputFlags();
+            if ((flags & PipelineCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                // SPS or PPS, which should be passed by MediaFormat.
+                mEncoder.releaseOutputBuffer(encoderStatus, false);
+                return true;
+            }
+            int size = mEncoder.getOutputSize();
+            long presentationTimeUs = mEncoder.getOutputPresentationTimeUs();
+            if ((flags & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mIsEncoderEOS = true;
+                size = 0;
+                presentationTimeUs = 0;
+            }
+            ByteBuffer data = sample.mData;
+            if (data.capacity() < size) {
+                data = ByteBuffer.allocateDirect(Math.max(size, data.capacity() * 2));
+                sample.mData = data;
+            }
+            data.clear();
+            if (size > 0) {
+                ByteBuffer output = mEncoder.getOutputBuffer(encoderStatus);
+                int offset = mEncoder.getOutputOffset();
+                output.limit(offset + size);
+                output.position(offset);
+                data.put(output);
+            }
+            data.flip();
+            mEncoder.releaseOutputBuffer(encoderStatus, false);
+            sample.mPresentationTimeUs = presentationTimeUs;
+            sample.mFlags = flags;
+            sample.mFormatChanged = false;
+            mDrainMetrics.setGauge(PipelineMetrics.GAUGE_ENCODER_QUEUE, mEncoder.getPendingOutputCount());
+            mDrainMetrics.record(PipelineMetrics.STAGE_ENCODE_DRAIN, startNs);
+            mSampleRing.publish();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Draws the frames a decoder renders to an {@link OutputSurface} onto the {@link InputSurface} of an encoder
+ * with GL. The pipeline thread must have the input surface's context current.
+ */
+class SurfaceFrameBridge implements FrameBridge {
+    private final OutputSurface mDecoderOutputSurface;
+    private final InputSurface mEncoderInputSurface;
+    private final PipelineMetrics mMetrics;
+
+    SurfaceFrameBridge(OutputSurface decoderOutputSurface, InputSurface encoderInputSurface,
+                       PipelineMetrics metrics) {
+        mDecoderOutputSurface = decoderOutputSurface;
+        mEncoderInputSurface = encoderInputSurface;
+        mMetrics = metrics;
+    }
+
+    @Override
+    public void transferFrame(long presentationTimeUs) {
+        long startNs = System.nanoTime();
+        mDecoderOutputSurface.awaitNewImage(); // rendered texture of arrival waiting
+        startNs = mMetrics.record(PipelineMetrics.STAGE_AWAIT_IMAGE, startNs);
+        mDecoderOutputSurface.drawImage(); // drawing the texture in OpenGL
+        startNs = mMetrics.record(PipelineMetrics.STAGE_DRAW_IMAGE, startNs);
+        mEncoderInputSurface.setPresentationTime(presentationTimeUs * 1000);
+        mEncoderInputSurface.swapBuffers();  // Send the currently drawn content to Encoder
+        mMetrics.record(PipelineMetrics.STAGE_SWAP_BUFFERS, startNs);
+    }
+}
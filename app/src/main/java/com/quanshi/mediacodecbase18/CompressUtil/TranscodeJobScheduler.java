@@ -0,0 +1,339 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs transcode jobs with at most a fixed number at once, so jobs do not fight over the hardware codecs.
+ * <p>
+ * Waiting jobs are picked by priority class and in submission order within a class. A background job that has
+ * waited for an aging interval competes as an interactive one, so a steady stream of interactive jobs cannot
+ * starve it. Cancelling a running job interrupts its thread; the task is expected to stop on interruption.
+ */
+public class TranscodeJobScheduler {
+    public enum Priority {INTERACTIVE, BACKGROUND}
+
+    public enum State {QUEUED, RUNNING, FINISHED}
+
+    /**
+     * The work of a job, run on a worker thread.
+     */
+    public interface Task {
+        /**
+         * @return one of the {@code MediaConstants.MEDIA_TRANSCODE_*} results.
+         */
+        int run() throws Exception;
+    }
+
+    /**
+     * Called once per job on the worker thread, or on the cancelling thread for a job that never started.
+     */
+    public interface Listener {
+        /**
+         * @param result {@link MediaConstants#MEDIA_TRANSCODE_SUCC}, {@link MediaConstants#MEDIA_TRANSCODE_FAIL} or
+         *               {@link MediaConstants#MEDIA_TRANSCODE_CANCELED}.
+         */
+        void onJobFinished(Job job, int result);
+    }
+
+    private final Object mLock = new Object();
+    private final List<Job> mQueue = new ArrayList<>();
+    private final ExecutorService mExecutor;
+    private final Clock mClock;
+    private final long mAgingIntervalMs;
+    private int mMaxRunningJobs;
+    private int mRunningJobs;
+    private long mNextSequence;
+    private long mFinishedJobs;
+    private long mTotalQueueWaitMs;
+    private long mTotalRunTimeMs;
+
+    /**
+     * @param maxRunningJobs  how many jobs may run at once.
+     * @param agingIntervalMs how long a background job waits before it is treated as interactive.
+     */
+    public TranscodeJobScheduler(int maxRunningJobs, long agingIntervalMs) {
+        this(maxRunningJobs, agingIntervalMs, Clock.SYSTEM);
+    }
+
+    TranscodeJobScheduler(int maxRunningJobs, long agingIntervalMs, Clock clock) {
+        if (maxRunningJobs < 1) {
+            throw new IllegalArgumentException("maxRunningJobs must be positive: " + maxRunningJobs);
+        }
+        mMaxRunningJobs = maxRunningJobs;
+        mAgingIntervalMs = agingIntervalMs;
+        mClock = clock;
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "TranscodeJob-" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Changes the limit. Running jobs are not stopped if it goes down.
+     */
+    public void setMaxRunningJobs(int maxRunningJobs) {
+        if (maxRunningJobs < 1) {
+            throw new IllegalArgumentException("maxRunningJobs must be positive: " + maxRunningJobs);
+        }
+        synchronized (mLock) {
+            mMaxRunningJobs = maxRunningJobs;
+            dispatchLocked();
+        }
+    }
+
+    public Job submit(Task task, Priority priority, Listener listener) {
+        synchronized (mLock) {
+            Job job = new Job(task, priority, listener, mNextSequence++, mClock.uptimeMillis());
+            mQueue.add(job);
+            dispatchLocked();
+            return job;
+        }
+    }
+
+    public int getQueuedJobCount() {
+        synchronized (mLock) {
+            return mQueue.size();
+        }
+    }
+
+    public int getRunningJobCount() {
+        synchronized (mLock) {
+            return mRunningJobs;
+        }
+    }
+
+    /**
+     * @return average time finished jobs waited in the queue, 0 if none finished.
+     */
+    public long getAverageQueueWaitMs() {
+        synchronized (mLock) {
+            return mFinishedJobs == 0 ? 0 : mTotalQueueWaitMs / mFinishedJobs;
+        }
+    }
+
+    /**
+     * @return average run time of finished jobs, 0 if none finished.
+     */
+    public long getAverageRunTimeMs() {
+        synchronized (mLock) {
+            return mFinishedJobs == 0 ? 0 : mTotalRunTimeMs / mFinishedJobs;
+        }
+    }
+
+    /**
+     * Cancels all jobs and stops the worker threads once the running ones have returned.
+     */
+    public void shutdown() {
+        List<Job> jobs;
+        synchronized (mLock) {
+            jobs = new ArrayList<>(mQueue);
+        }
+        for (Job job : jobs) {
+            job.cancel();
+        }
+        mExecutor.shutdownNow();
+    }
+
+    boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return mExecutor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatchLocked() {
+        while (mRunningJobs < mMaxRunningJobs && !mQueue.isEmpty()) {
+            Job job = pollNextLocked();
+            job.mState = State.RUNNING;
+            job.mStartTimeMs = mClock.uptimeMillis();
+            mRunningJobs++;
+            final Job started = job;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.execute();
+                }
+            });
+        }
+    }
+
+    private Job pollNextLocked() {
+        long now = mClock.uptimeMillis();
+        int best = 0;
+        for (int i = 1; i < mQueue.size(); i++) {
+            Job candidate = mQueue.get(i);
+            Job current = mQueue.get(best);
+            int candidateRank = candidate.getEffectiveRank(now);
+            int currentRank = current.getEffectiveRank(now);
+            if (candidateRank < currentRank
+                    || (candidateRank == currentRank && candidate.mSequence < current.mSequence)) {
+                best = i;
+            }
+        }
+        return mQueue.remove(best);
+    }
+
+    private void onFinished(Job job, int result) {
+        synchronized (mLock) {
+            mFinishedJobs++;
+            mTotalQueueWaitMs += job.getQueueWaitMs();
+            mTotalRunTimeMs += job.getRunTimeMs();
+            if (job.mStartTimeMs >= 0) {
+                mRunningJobs--;
+            }
+            dispatchLocked();
+        }
+        job.mListener.onJobFinished(job, result);
+    }
+
+    public class Job {
+        private final Task mTask;
+        private final Priority mPriority;
+        private final Listener mListener;
+        private final long mSequence;
+        private final long mSubmitTimeMs;
+        // Guarded by mLock.
+        private State mState = State.QUEUED;
+        private long mStartTimeMs = -1;
+        private long mEndTimeMs = -1;
+        private Thread mThread;
+        private boolean mCanceled;
+        private Exception mFailure;
+
+        private Job(Task task, Priority priority, Listener listener, long sequence, long submitTimeMs) {
+            mTask = task;
+            mPriority = priority;
+            mListener = listener;
+            mSequence = sequence;
+            mSubmitTimeMs = submitTimeMs;
+        }
+
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        public State getState() {
+            synchronized (mLock) {
+                return mState;
+            }
+        }
+
+        public boolean isCanceled() {
+            synchronized (mLock) {
+                return mCanceled;
+            }
+        }
+
+        /**
+         * @return what the task threw, including the {@link InterruptedException} of a cancel; null if it returned.
+         */
+        public Exception getFailure() {
+            synchronized (mLock) {
+                return mFailure;
+            }
+        }
+
+        /**
+         * @return time spent in the queue, so far if the job has not started.
+         */
+        public long getQueueWaitMs() {
+            synchronized (mLock) {
+                return (mStartTimeMs >= 0 ? mStartTimeMs : mEndTimeMs >= 0 ? mEndTimeMs : mClock.uptimeMillis())
+                        - mSubmitTimeMs;
+            }
+        }
+
+        /**
+         * @return time spent running, so far if the job is still running; 0 if it never ran.
+         */
+        public long getRunTimeMs() {
+            synchronized (mLock) {
+                if (mStartTimeMs < 0) return 0;
+                return (mEndTimeMs >= 0 ? mEndTimeMs : mClock.uptimeMillis()) - mStartTimeMs;
+            }
+        }
+
+        /**
+         * Removes the job from the queue, or interrupts it if it is running. The listener is told either way,
+         * unless the job has finished already.
+         *
+         * @return false if the job had finished.
+         */
+        public boolean cancel() {
+            synchronized (mLock) {
+                if (mState == State.FINISHED || mCanceled) return false;
+                mCanceled = true;
+                if (mState == State.RUNNING) {
+                    if (mThread != null) {
+                        mThread.interrupt();
+                    }
+                    return true;
+                }
+                mQueue.remove(this);
+                mState = State.FINISHED;
+                mEndTimeMs = mClock.uptimeMillis();
+            }
+            onFinished(this, MediaConstants.MEDIA_TRANSCODE_CANCELED);
+            return true;
+        }
+
+        private void execute() {
+            synchronized (mLock) {
+                if (mCanceled) {
+                    finish(MediaConstants.MEDIA_TRANSCODE_CANCELED);
+                    return;
+                }
+                mThread = Thread.currentThread();
+            }
+            int result;
+            Exception failure = null;
+            try {
+                result = mTask.run();
+            } catch (InterruptedException e) {
+                result = MediaConstants.MEDIA_TRANSCODE_CANCELED;
+                failure = e;
+            } catch (Exception e) {
+                result = MediaConstants.MEDIA_TRANSCODE_FAIL;
+                failure = e;
+            }
+            synchronized (mLock) {
+                mThread = null;
+                mFailure = failure;
+                if (mCanceled) {
+                    result = MediaConstants.MEDIA_TRANSCODE_CANCELED;
+                }
+            }
+            // The interrupt of a cancel may still be pending, it must not leak into the next job.
+            Thread.interrupted();
+            finish(result);
+        }
+
+        private void finish(int result) {
+            synchronized (mLock) {
+                mState = State.FINISHED;
+                mEndTimeMs = mClock.uptimeMillis();
+            }
+            onFinished(this, result);
+        }
+
+        private int getEffectiveRank(long nowMs) {
+            int rank = mPriority.ordinal();
+            if (mAgingIntervalMs > 0) {
+                rank -= (int) Math.min(rank, (nowMs - mSubmitTimeMs) / mAgingIntervalMs);
+            }
+            return rank;
+        }
+
+        @Override
+        public String toString() {
+            return "Job #" + mSequence + " (" + mPriority + ")";
+        }
+    }
+}
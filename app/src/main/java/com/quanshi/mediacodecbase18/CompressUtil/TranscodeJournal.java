@@ -0,0 +1,246 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of a checkpointed segmented transcode, kept next to the output: which GOP-aligned segments
+ * are finished, the bytes their spools hold and the parameter sets their encoders started with. If the process
+ * dies, the next run of the same job reuses those segments and transcodes only the others.
+ * <p>
+ * Each record carries a CRC32, so one torn by a crash is dropped with everything after it. Records are written
+ * as segments finish, which survives the process dying, but forced to the device at most every
+ * {@link #SYNC_INTERVAL_MS}; a record lost with the device only costs its segment being transcoded again.
+ */
+class TranscodeJournal implements SegmentedTranscodeRunner.Checkpoint {
+    static final long SYNC_INTERVAL_MS = 3000;
+    private static final int MAGIC = 0x544a524e;
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER = 1;
+    private static final int RECORD_SEGMENT = 2;
+    // Length, type and CRC.
+    private static final int RECORD_OVERHEAD = 12;
+
+    private final File mFile;
+    private final File mOutputFile;
+    private final Clock mClock;
+    private final RandomAccessFile mRandomAccessFile;
+    private final Map<Integer, byte[]> mFinishedSegments = new HashMap<>();
+    private final CRC32 mCrc = new CRC32();
+    private long mLastSyncTimeMs;
+    private boolean mDirty;
+    private int mSyncCount;
+
+    private TranscodeJournal(File outputFile, Clock clock) throws IOException {
+        mOutputFile = outputFile;
+        mFile = getJournalFile(outputFile);
+        mClock = clock;
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+    }
+
+    /**
+     * Opens the journal of the job writing {@code outputFile}. Segments an earlier run finished are kept if it was
+     * started with the same {@code key}; otherwise the journal starts over.
+     *
+     * @param key identifies the input, the output format and the segment plan, everything the spooled samples
+     *            depend on.
+     */
+    static TranscodeJournal open(File outputFile, String key, Clock clock) throws IOException {
+        TranscodeJournal journal = new TranscodeJournal(outputFile, clock);
+        try {
+            journal.load(key);
+        } catch (IOException e) {
+            journal.mRandomAccessFile.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    static File getJournalFile(File outputFile) {
+        return new File(outputFile.getPath() + ".journal");
+    }
+
+    private void load(String key) throws IOException {
+        long validLength = 0;
+        boolean keyMatches = false;
+        byte[] record;
+        while ((record = readRecord(validLength)) != null) {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+            int type = input.readInt();
+            if (validLength == 0) {
+                keyMatches = type == RECORD_HEADER && input.readInt() == MAGIC && input.readInt() == VERSION
+                        && key.equals(input.readUTF());
+                if (!keyMatches) break;
+            } else if (type == RECORD_SEGMENT) {
+                mFinishedSegments.put(input.readInt(), record);
+            }
+            validLength += RECORD_OVERHEAD - 4 + record.length;
+        }
+        if (!keyMatches) {
+            mFinishedSegments.clear();
+            for (int i = 0; getSpoolFile(i).delete(); i++) {
+                // Left by a run of the other job.
+            }
+            mRandomAccessFile.setLength(0);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(RECORD_HEADER);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(key);
+            writeRecord(bytes.toByteArray());
+            sync();
+            return;
+        }
+        // A torn record at the end would hide everything appended after it.
+        mRandomAccessFile.setLength(validLength);
+        mRandomAccessFile.seek(validLength);
+    }
+
+    /**
+     * @return type and payload of the record at {@code position}, or null at the end of the file or if the record
+     * is incomplete or corrupt.
+     */
+    private byte[] readRecord(long position) throws IOException {
+        long fileLength = mRandomAccessFile.length();
+        if (position + RECORD_OVERHEAD > fileLength) return null;
+        mRandomAccessFile.seek(position);
+        int length = mRandomAccessFile.readInt();
+        if (length < 4 || length > fileLength - position - RECORD_OVERHEAD + 4) return null;
+        byte[] record = new byte[length];
+        mRandomAccessFile.readFully(record);
+        int crc = mRandomAccessFile.readInt();
+        mCrc.reset();
+        mCrc.update(record, 0, record.length);
+        return (int) mCrc.getValue() == crc ? record : null;
+    }
+
+    /**
+     * Appends {@code record}, type and payload, at the current file position.
+     */
+    private void writeRecord(byte[] record) throws IOException {
+        mCrc.reset();
+        mCrc.update(record, 0, record.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + RECORD_OVERHEAD - 4);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(record.length);
+        output.write(record);
+        output.writeInt((int) mCrc.getValue());
+        mRandomAccessFile.write(bytes.toByteArray());
+    }
+
+    private void sync() throws IOException {
+        mRandomAccessFile.getFD().sync();
+        mLastSyncTimeMs = mClock.uptimeMillis();
+        mDirty = false;
+        mSyncCount++;
+    }
+
+    File getSpoolFile(int segmentIndex) {
+        return new File(mOutputFile.getPath() + ".segment" + segmentIndex);
+    }
+
+    /**
+     * @return null also if the journal has other bounds for the segment or its spool file is missing or truncated.
+     */
+    @Override
+    public synchronized SegmentSpool restore(SegmentPlanner.Segment segment) throws IOException {
+        byte[] record = mFinishedSegments.get(segment.getIndex());
+        if (record == null) return null;
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        input.readInt();
+        input.readInt();
+        if (input.readLong() != segment.getStartTimeUs() || input.readLong() != segment.getEndTimeUs()) {
+            return null;
+        }
+        try {
+            return SegmentSpool.restore(getSpoolFile(segment.getIndex()), input);
+        } catch (IOException e) {
+            // The spool is gone or incomplete, so the segment is transcoded again.
+            return null;
+        }
+    }
+
+    @Override
+    public SegmentSpool createSpool(SegmentPlanner.Segment segment) throws IOException {
+        return SegmentSpool.create(getSpoolFile(segment.getIndex()));
+    }
+
+    @Override
+    public synchronized void commit(SegmentPlanner.Segment segment, SegmentSpool spool) throws IOException {
+        // The samples have to be on the device before a record that points at them can be.
+        spool.sync();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(RECORD_SEGMENT);
+        output.writeInt(segment.getIndex());
+        output.writeLong(segment.getStartTimeUs());
+        output.writeLong(segment.getEndTimeUs());
+        spool.writeIndex(output);
+        byte[] record = bytes.toByteArray();
+        writeRecord(record);
+        mFinishedSegments.put(segment.getIndex(), record);
+        mDirty = true;
+        if (mClock.uptimeMillis() - mLastSyncTimeMs >= SYNC_INTERVAL_MS) {
+            sync();
+        }
+    }
+
+    /**
+     * Forces records written since the last sync to the device.
+     */
+    synchronized void flush() throws IOException {
+        if (mDirty) sync();
+    }
+
+    synchronized int getFinishedSegmentCount() {
+        return mFinishedSegments.size();
+    }
+
+    /**
+     * @return how often the journal has been forced to the device.
+     */
+    synchronized int getSyncCount() {
+        return mSyncCount;
+    }
+
+    /**
+     * Forces the last records to the device and closes the journal, keeping it and the spools for the next run.
+     */
+    synchronized void close() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // The segments of the lost records are transcoded again.
+        }
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Closes the journal and deletes it and the spools once the output is complete.
+     */
+    synchronized void delete() {
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+        for (int i = 0; getSpoolFile(i).delete(); i++) {
+            // All segments are finished, so the spools have consecutive indices.
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * Progress of a transcode, the mean of how far the video and the audio track have been written.
+ */
+final class TranscodeProgress {
+    static final double UNKNOWN = -1.0;
+
+    /**
+     * @return progress between 0 and 1, or {@link #UNKNOWN} if the duration is not known.
+     */
+    static double compute(long durationUs, boolean videoFinished, long videoWrittenUs, boolean audioFinished,
+                          long audioWrittenUs) {
+        if (durationUs <= 0) return UNKNOWN;
+        double videoProgress = videoFinished ? 1.0 : Math.min(1.0, (double) videoWrittenUs / durationUs);
+        double audioProgress = audioFinished ? 1.0 : Math.min(1.0, (double) audioWrittenUs / durationUs);
+        return (videoProgress + audioProgress) / 2.0;
+    }
+
+    private TranscodeProgress() {
+        throw new RuntimeException();
+    }
+}
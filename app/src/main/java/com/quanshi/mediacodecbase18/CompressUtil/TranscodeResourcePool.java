@@ -0,0 +1,171 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps codecs and EGL contexts warm between transcode jobs, so back-to-back jobs skip codec allocation,
+ * context creation and shader compilation.
+ * <p>
+ * Codecs are pooled by MIME type. A released codec must have been stopped; it is reset where the platform
+ * allows and configured again by the next job. Resources idle for longer than the timeout are released.
+ */
+public class TranscodeResourcePool {
+    private static final String TAG = "TranscodeResourcePool";
+    private static final String GL_CONTEXT_KEY = "gl";
+
+    private final KeyedPool<String, MediaCodec> mEncoders;
+    private final KeyedPool<String, MediaCodec> mDecoders;
+    private final KeyedPool<String, GlContext> mGlContexts;
+    private final ScheduledExecutorService mEvictor;
+
+    /**
+     * @param maxIdlePerType how many idle codecs of each MIME type, and idle EGL contexts, are kept.
+     * @param idleTimeoutMs  how long an idle resource is kept.
+     */
+    public TranscodeResourcePool(int maxIdlePerType, long idleTimeoutMs) {
+        mEncoders = new KeyedPool<>(new CodecLifecycle(true), maxIdlePerType, idleTimeoutMs, Clock.SYSTEM);
+        mDecoders = new KeyedPool<>(new CodecLifecycle(false), maxIdlePerType, idleTimeoutMs, Clock.SYSTEM);
+        mGlContexts = new KeyedPool<>(new KeyedPool.Lifecycle<String, GlContext>() {
+            @Override
+            public GlContext create(String key) {
+                return new GlContext();
+            }
+
+            @Override
+            public boolean recycle(String key, GlContext value) {
+                return true;
+            }
+
+            @Override
+            public void destroy(String key, GlContext value) {
+                value.release();
+            }
+        }, maxIdlePerType, idleTimeoutMs, Clock.SYSTEM);
+        mEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long periodMs = Math.max(1, idleTimeoutMs / 2);
+        mEvictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                int evicted = mEncoders.evictExpired() + mDecoders.evictExpired() + mGlContexts.evictExpired();
+                if (evicted > 0) {
+                    Log.d(TAG, "evicted " + evicted + " idle resources, " + TranscodeResourcePool.this);
+                }
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    MediaCodec acquireEncoder(String mime) throws Exception {
+        return mEncoders.acquire(mime);
+    }
+
+    MediaCodec acquireDecoder(String mime) throws Exception {
+        return mDecoders.acquire(mime);
+    }
+
+    /**
+     * @param codec a stopped encoder created for {@code mime}.
+     */
+    void releaseEncoder(String mime, MediaCodec codec) {
+        mEncoders.release(mime, codec);
+    }
+
+    /**
+     * @param codec a stopped decoder created for {@code mime}.
+     */
+    void releaseDecoder(String mime, MediaCodec codec) {
+        mDecoders.release(mime, codec);
+    }
+
+    /**
+     * @return a context that is not current on any thread.
+     */
+    GlContext acquireGlContext() throws Exception {
+        return mGlContexts.acquire(GL_CONTEXT_KEY);
+    }
+
+    /**
+     * @param glContext a context that is no longer current on any thread.
+     */
+    void releaseGlContext(GlContext glContext) {
+        mGlContexts.release(GL_CONTEXT_KEY, glContext);
+    }
+
+    public long getHitCount() {
+        return mEncoders.getHitCount() + mDecoders.getHitCount() + mGlContexts.getHitCount();
+    }
+
+    public long getMissCount() {
+        return mEncoders.getMissCount() + mDecoders.getMissCount() + mGlContexts.getMissCount();
+    }
+
+    /**
+     * Releases all idle resources and stops evicting. Resources in use are released when given back.
+     */
+    public void release() {
+        mEvictor.shutdownNow();
+        mEncoders.clear();
+        mDecoders.clear();
+        mGlContexts.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "encoders " + mEncoders.getHitCount() + "/" + mEncoders.getMissCount()
+                + ", decoders " + mDecoders.getHitCount() + "/" + mDecoders.getMissCount()
+                + ", GL contexts " + mGlContexts.getHitCount() + "/" + mGlContexts.getMissCount()
+                + " hits/misses";
+    }
+
+    private static class CodecLifecycle implements KeyedPool.Lifecycle<String, MediaCodec> {
+        private final boolean mEncoder;
+
+        private CodecLifecycle(boolean encoder) {
+            mEncoder = encoder;
+        }
+
+        @Override
+        public MediaCodec create(String mime) throws Exception {
+            return mEncoder ? DeviceCodecRegistry.createEncoder(mime) : DeviceCodecRegistry.createDecoder(mime);
+        }
+
+        @Override
+        public boolean recycle(String mime, MediaCodec codec) {
+            // A stopped codec is back in the uninitialized state and can be configured again; reset() also
+            // recovers one that hit an error. flush() is no use here: an encoder fed by an input surface
+            // cannot leave end of stream without being stopped.
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return true;
+            try {
+                resetL(codec);
+                return true;
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "cannot reset " + mime + " codec", e);
+                return false;
+            }
+        }
+
+        @Override
+        public void destroy(String mime, MediaCodec codec) {
+            codec.release();
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private static void resetL(MediaCodec codec) {
+            codec.reset();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.Locale;
+
+/**
+ * Where the time of a transcode went: how often each pipeline stage ran and how long it took, bytes read and
+ * written, and the live gauges at the time it was taken. Handed to progress callbacks while running and returned
+ * by {@link MediaTranscodeEngine#transcodeVideo(String)} at the end.
+ */
+public class TranscodeStats {
+    public static final int STAGE_EXTRACT = PipelineMetrics.STAGE_EXTRACT;
+    public static final int STAGE_DECODE_DEQUEUE = PipelineMetrics.STAGE_DECODE_DEQUEUE;
+    public static final int STAGE_AWAIT_IMAGE = PipelineMetrics.STAGE_AWAIT_IMAGE;
+    public static final int STAGE_DRAW_IMAGE = PipelineMetrics.STAGE_DRAW_IMAGE;
+    public static final int STAGE_SWAP_BUFFERS = PipelineMetrics.STAGE_SWAP_BUFFERS;
+    public static final int STAGE_ENCODE_DRAIN = PipelineMetrics.STAGE_ENCODE_DRAIN;
+    public static final int STAGE_MUX_WRITE = PipelineMetrics.STAGE_MUX_WRITE;
+    public static final int STAGE_COUNT = PipelineMetrics.STAGE_COUNT;
+
+    private final int mResult;
+    private final double mProgress;
+    private final long mWallTimeMs;
+    private final long mBytesIn;
+    private final long mBytesOut;
+    private final long mVideoFramesOut;
+    private final double mFps;
+    private final int[] mGauges = new int[PipelineMetrics.GAUGE_COUNT];
+    private final long[] mCounts = new long[STAGE_COUNT];
+    private final long[] mTotalNs = new long[STAGE_COUNT];
+    private final long[] mMaxNs = new long[STAGE_COUNT];
+    private final long[][] mBuckets = new long[STAGE_COUNT][PipelineMetrics.BUCKET_COUNT];
+
+    TranscodeStats(PipelineMetrics metrics, int result, double progress, long wallTimeMs, double fps) {
+        mResult = result;
+        mProgress = progress;
+        mWallTimeMs = wallTimeMs;
+        mFps = fps;
+        mBytesIn = metrics.getBytesIn();
+        mBytesOut = metrics.getBytesOut();
+        mVideoFramesOut = metrics.getVideoFramesOut();
+        for (int i = 0; i < PipelineMetrics.GAUGE_COUNT; i++) {
+            mGauges[i] = metrics.getGauge(i);
+        }
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mCounts[i] = metrics.getCount(i);
+            mTotalNs[i] = metrics.getTotalNs(i);
+            mMaxNs[i] = metrics.getMaxNs(i);
+            metrics.copyBuckets(i, mBuckets[i]);
+        }
+    }
+
+    /**
+     * @return {@link MediaConstants#MEDIA_TRANSCODE_SUCC} or {@link MediaConstants#MEDIA_TRANSCODE_FAIL} once
+     * finished, {@link MediaConstants#MEDIA_TRANSCODE_SUCC} while running.
+     */
+    public int getResult() {
+        return mResult;
+    }
+
+    /**
+     * @return between 0 and 1, or -1 if the duration of the input is not known.
+     */
+    public double getProgress() {
+        return mProgress;
+    }
+
+    public long getWallTimeMs() {
+        return mWallTimeMs;
+    }
+
+    /**
+     * @return sample bytes read from the input.
+     */
+    public long getBytesIn() {
+        return mBytesIn;
+    }
+
+    /**
+     * @return sample bytes handed to the muxer.
+     */
+    public long getBytesOut() {
+        return mBytesOut;
+    }
+
+    public long getVideoFramesOut() {
+        return mVideoFramesOut;
+    }
+
+    /**
+     * @return video frames written per second since the previous stats, or over the whole run for the final ones.
+     */
+    public double getFps() {
+        return mFps;
+    }
+
+    /**
+     * @return output buffers the video decoder had ready but not yet taken.
+     */
+    public int getDecoderQueueDepth() {
+        return mGauges[PipelineMetrics.GAUGE_DECODER_QUEUE];
+    }
+
+    /**
+     * @return output buffers the video encoder had ready but not yet taken.
+     */
+    public int getEncoderQueueDepth() {
+        return mGauges[PipelineMetrics.GAUGE_ENCODER_QUEUE];
+    }
+
+    /**
+     * @return samples the muxer holds back until both track formats are known.
+     */
+    public int getMuxerQueueDepth() {
+        return mGauges[PipelineMetrics.GAUGE_MUXER_QUEUE];
+    }
+
+    /**
+     * @return decoded frames waiting to be drawn, with {@link MediaTranscodeEngine#setStagedPipeline(boolean)}.
+     */
+    public int getFrameHandOffDepth() {
+        return mGauges[PipelineMetrics.GAUGE_FRAME_HAND_OFF];
+    }
+
+    /**
+     * @return encoded samples waiting to be written, with {@link MediaTranscodeEngine#setStagedPipeline(boolean)}.
+     */
+    public int getSampleHandOffDepth() {
+        return mGauges[PipelineMetrics.GAUGE_SAMPLE_HAND_OFF];
+    }
+
+    public static String getStageName(int stage) {
+        return PipelineMetrics.getStageName(stage);
+    }
+
+    public long getStageCount(int stage) {
+        return mCounts[stage];
+    }
+
+    public long getStageTotalNs(int stage) {
+        return mTotalNs[stage];
+    }
+
+    public long getStageMaxNs(int stage) {
+        return mMaxNs[stage];
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return a bound that {@code percentile} percent of the runs of {@code stage} took less than, rounded up to
+     * a power of two microseconds; 0 if it never ran.
+     */
+    public long getStagePercentileNs(int stage, double percentile) {
+        long count = mCounts[stage];
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        long[] buckets = mBuckets[stage];
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(PipelineMetrics.getBucketLimitNs(i), mMaxNs[stage]);
+            }
+        }
+        return mMaxNs[stage];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "TranscodeStats{result=%d, progress=%.3f, %d ms, in=%d B, out=%d B, "
+                        + "%d frames, %.1f fps, queues=%d/%d/%d, hand-offs=%d/%d", mResult, mProgress, mWallTimeMs,
+                mBytesIn, mBytesOut, mVideoFramesOut, mFps, getDecoderQueueDepth(), getEncoderQueueDepth(),
+                getMuxerQueueDepth(), getFrameHandOffDepth(), getSampleHandOffDepth()));
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (mCounts[i] == 0) continue;
+            builder.append(String.format(Locale.US, ", %s: %d x %.1f us (p50 %d, p99 %d, max %d us)",
+                    getStageName(i), mCounts[i], mTotalNs[i] / 1000.0 / mCounts[i],
+                    getStagePercentileNs(i, 50) / 1000, getStagePercentileNs(i, 99) / 1000, mMaxNs[i] / 1000));
+        }
+        return builder.append('}').toString();
+    }
+}
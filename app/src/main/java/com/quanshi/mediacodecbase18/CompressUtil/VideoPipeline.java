@@ -0,0 +1,200 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+/**
+ * The extractor -> decoder -> surface -> encoder -> muxer steps of a video track, with their end of stream
+ * handling. It only talks to the interfaces of the stages, so the same code runs on the device, wired up by
+ * {@link VideoTrackTranscoder}, and on the JVM against fakes.
+ */
+class VideoPipeline {
+    private static final int DRAIN_STATE_NONE = 0;
+    private static final int DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY = 1;
+    private static final int DRAIN_STATE_CONSUMED = 2;
+
+    private final SampleReader mReader;
+    private final int mTrackIndex;
+    private final PipelineCodec mDecoder;
+    private final FrameBridge mFrameBridge;
+    private final PipelineCodec mEncoder;
+    private final EncodedSampleSink mSink;
+    private long mEndSyncTimeUs = Long.MAX_VALUE;
+    private long mRenderStartTimeUs = Long.MIN_VALUE;
+    private long mRenderEndTimeUs = Long.MAX_VALUE;
+    private FrameRateDecimator mDecimator;
+    private PipelineMetrics mMetrics = new PipelineMetrics();
+    private boolean mIsExtractorEOS;
+    private boolean mIsDecoderEOS;
+    private boolean mIsEncoderEOS;
+    private boolean mOutputFormatDetermined;
+    private long mWrittenPresentationTimeUs;
+
+    VideoPipeline(SampleReader reader, int trackIndex, PipelineCodec decoder, FrameBridge frameBridge,
+                  PipelineCodec encoder, EncodedSampleSink sink) {
+        mReader = reader;
+        mTrackIndex = trackIndex;
+        mDecoder = decoder;
+        mFrameBridge = frameBridge;
+        mEncoder = encoder;
+        mSink = sink;
+    }
+
+    /**
+     * See {@link VideoTrackTranscoder#setEndSyncTimeUs(long)}.
+     */
+    void setEndSyncTimeUs(long endSyncTimeUs) {
+        mEndSyncTimeUs = endSyncTimeUs;
+    }
+
+    /**
+     * See {@link VideoTrackTranscoder#setRenderRange(long, long)}.
+     */
+    void setRenderRange(long startUs, long endUs) {
+        mRenderStartTimeUs = startUs;
+        mRenderEndTimeUs = endUs;
+    }
+
+    /**
+     * @param decimator decides which decoded frames are encoded, or null to encode all.
+     */
+    void setDecimator(FrameRateDecimator decimator) {
+        mDecimator = decimator;
+    }
+
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @return true if data moved in the pipeline.
+     */
+    boolean stepPipeline() {
+        boolean busy = false;
+
+        int status;
+        while (drainExtractor() != DRAIN_STATE_NONE) busy = true;
+        do {
+            status = drainDecoder();
+            if (status != DRAIN_STATE_NONE) busy = true;
+            // NOTE: not repeating to keep from deadlock when encoder is full.
+        } while (status == DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY);
+
+        while (drainEncoder() != DRAIN_STATE_NONE) busy = true;
+
+        return busy;
+    }
+
+    long getWrittenPresentationTimeUs() {
+        return mWrittenPresentationTimeUs;
+    }
+
+    boolean isDecoderFinished() {
+        return mIsDecoderEOS;
+    }
+
+    boolean isFinished() {
+        return mIsEncoderEOS;
+    }
+
+    private int drainExtractor() {
+        if (mIsExtractorEOS) return DRAIN_STATE_NONE;
+        int trackIndex = mReader.getSampleTrackIndex();
+        if (trackIndex >= 0 && trackIndex != mTrackIndex) {
+            return DRAIN_STATE_NONE;
+        }
+        int inputBufIndex = mDecoder.dequeueInputBuffer();
+        if (inputBufIndex < 0) return DRAIN_STATE_NONE;
+        long startNs = System.nanoTime();
+        boolean isKeyFrame = (mReader.getSampleFlags() & SampleReader.SAMPLE_FLAG_SYNC) != 0;
+        if (trackIndex < 0 || (isKeyFrame && mReader.getSampleTime() >= mEndSyncTimeUs)) {
+            mIsExtractorEOS = true;
+            mDecoder.queueInputBuffer(inputBufIndex, 0, 0, 0, PipelineCodec.BUFFER_FLAG_END_OF_STREAM);
+            return DRAIN_STATE_NONE;
+        }
+        int sampleSize = mReader.readSampleData(mDecoder.getInputBuffer(inputBufIndex), 0);
+        mDecoder.queueInputBuffer(inputBufIndex, 0, sampleSize, mReader.getSampleTime(),
+                isKeyFrame ? PipelineCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        mReader.advance();
+        mMetrics.record(PipelineMetrics.STAGE_EXTRACT, startNs);
+        mMetrics.addBytesIn(sampleSize);
+        return DRAIN_STATE_CONSUMED;
+    }
+
+    private int drainDecoder() {
+        if (mIsDecoderEOS) return DRAIN_STATE_NONE;
+        long startNs = System.nanoTime();
+        int decoderStatus = mDecoder.dequeueOutputBuffer();
+        switch (decoderStatus) {
+            case PipelineCodec.INFO_TRY_AGAIN_LATER:
+                return DRAIN_STATE_NONE;
+            case PipelineCodec.INFO_OUTPUT_FORMAT_CHANGED:
+            case PipelineCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        long presentationTimeUs = mDecoder.getOutputPresentationTimeUs();
+        int size = mDecoder.getOutputSize();
+        if ((mDecoder.getOutputFlags() & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mEncoder.signalEndOfInputStream();
+            mIsDecoderEOS = true;
+            size = 0;
+        }
+        boolean doRender = size > 0 && presentationTimeUs >= mRenderStartTimeUs
+                && presentationTimeUs < mRenderEndTimeUs
+                && (mDecimator == null || mDecimator.shouldKeep(presentationTimeUs));
+        // NOTE: doRender will block if buffer (of encoder) is full.
+        // Refer: http://bigflake.com/mediacodec/CameraToMpegTest.java.txt
+        mDecoder.releaseOutputBuffer(decoderStatus, doRender);
+        mMetrics.setGauge(PipelineMetrics.GAUGE_DECODER_QUEUE, mDecoder.getPendingOutputCount());
+        mMetrics.record(PipelineMetrics.STAGE_DECODE_DEQUEUE, startNs);
+        if (doRender) {
+            mFrameBridge.transferFrame(presentationTimeUs);
+        }
+        return DRAIN_STATE_CONSUMED;
+    }
+
+    private int drainEncoder() {
+        if (mIsEncoderEOS) return DRAIN_STATE_NONE;
+        long startNs = System.nanoTime();
+        int encoderStatus = mEncoder.dequeueOutputBuffer();
+        switch (encoderStatus) {
+            case PipelineCodec.INFO_TRY_AGAIN_LATER:
+                // no output available yet
+                return DRAIN_STATE_NONE;
+            case PipelineCodec.INFO_OUTPUT_FORMAT_CHANGED:
+                // should happen before receiving buffers, and should only happen once
+                if (mOutputFormatDetermined) {
+                    throw new RuntimeException("Video output format changed twice.");
+                }
+                mOutputFormatDetermined = true;
+                mSink.onOutputFormatChanged();
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+            case PipelineCodec.INFO_OUTPUT_BUFFERS_CHANGED:
+                // not expected for an encoder
+                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        if (!mOutputFormatDetermined) {
+            throw new RuntimeException("Could not determine actual output format.");
+        }
+
+        int flags = mEncoder.getOutputFlags();
+        int offset = mEncoder.getOutputOffset();
+        int size = mEncoder.getOutputSize();
+        long presentationTimeUs = mEncoder.getOutputPresentationTimeUs();
+        if ((flags & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mIsEncoderEOS = true;
+            offset = 0;
+            size = 0;
+            presentationTimeUs = 0;
+        }
+        if ((flags & PipelineCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            // SPS or PPS, which should be passed by MediaFormat.
+            mEncoder.releaseOutputBuffer(encoderStatus, false);
+            return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
+        }
+        mMetrics.setGauge(PipelineMetrics.GAUGE_ENCODER_QUEUE, mEncoder.getPendingOutputCount());
+        // Muxing is timed by the muxer, as mux-write.
+        mMetrics.record(PipelineMetrics.STAGE_ENCODE_DRAIN, startNs);
+        mSink.writeSample(mEncoder.getOutputBuffer(encoderStatus), offset, size, presentationTimeUs, flags);
+        mWrittenPresentationTimeUs = presentationTimeUs;
+        mEncoder.releaseOutputBuffer(encoderStatus, false);
+        return DRAIN_STATE_CONSUMED;
+    }
+}
@@ -0,0 +1,187 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transcodes one segment of the video track with its own sample source and {@link VideoTrackTranscoder},
+ * spooling the encoded samples instead of muxing them.
+ */
+public class VideoSegmentEncoder implements SegmentEncoder {
+    private static final String TAG = "VideoSegmentEncoder";
+    // Only a safety net, the scheduler is woken up by the codecs.
+    private static final long MAX_WAIT_FOR_TRACK_TRANSCODER_MS = 100;
+
+    private final SampleSource.Factory mSourceFactory;
+    private final int mTrackIndex;
+    private final MediaFormat mOutputFormat;
+    private final MediaFormat[] mActualOutputFormats;
+    private final PipelineMetrics mMetrics;
+    private final double mMaxFrameRate;
+
+    private VideoSegmentEncoder(SampleSource.Factory sourceFactory, int trackIndex, MediaFormat outputFormat,
+                                MediaFormat[] actualOutputFormats, PipelineMetrics metrics, double maxFrameRate) {
+        mSourceFactory = sourceFactory;
+        mTrackIndex = trackIndex;
+        mOutputFormat = outputFormat;
+        mActualOutputFormats = actualOutputFormats;
+        mMetrics = metrics;
+        mMaxFrameRate = maxFrameRate;
+    }
+
+    @Override
+    public void encode(SegmentPlanner.Segment segment, SegmentSpool output) throws IOException, InterruptedException {
+        Log.d(TAG, "start " + segment);
+        encode(segment.getIndex(), segment.getStartTimeUs(), segment.getEndTimeUs(), null, output);
+        Log.d(TAG, "finished " + segment + ", " + output.getSampleCount() + " samples / "
+                + output.getWrittenBytes() + " bytes");
+    }
+
+    /**
+     * Re-encodes a partial GOP of a smart cut: decodes from the sync sample the part needs and encodes only the
+     * frames within it, keeping their timestamps.
+     *
+     * @param index slot of the part in {@link Factory#getActualOutputFormat(int)}.
+     */
+    public void encode(int index, SmartCutPlanner.Part part, SegmentSpool output)
+            throws IOException, InterruptedException {
+        Log.d(TAG, "start " + part);
+        encode(index, part.getDecodeStartTimeUs(), part.getEndTimeUs(), part, output);
+        Log.d(TAG, "finished " + part + ", " + output.getSampleCount() + " samples / "
+                + output.getWrittenBytes() + " bytes");
+    }
+
+    private void encode(int index, long startSyncTimeUs, long endSyncTimeUs, SmartCutPlanner.Part renderRange,
+                        SegmentSpool output) throws IOException, InterruptedException {
+        SampleSource source = mSourceFactory.create();
+        VideoTrackTranscoder transcoder = null;
+        PipelineScheduler scheduler = new EventPipelineScheduler();
+        // Recorded apart and added when done, as segments run on several threads.
+        PipelineMetrics metrics = new PipelineMetrics();
+        try {
+            transcoder = new VideoTrackTranscoder(source, mTrackIndex, mOutputFormat,
+                    new SpoolWriter(index, output), scheduler);
+            transcoder.setMetrics(metrics);
+            transcoder.setEndSyncTimeUs(endSyncTimeUs);
+            if (renderRange != null) {
+                transcoder.setRenderRange(renderRange.getStartTimeUs(), renderRange.getEndTimeUs());
+            } else {
+                // A smart cut has to keep the frame rate of the GOPs it copies.
+                transcoder.setMaxFrameRate(mMaxFrameRate);
+            }
+            transcoder.setup();
+            source.seekTo(startSyncTimeUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+            while (!transcoder.isFinished()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!transcoder.stepPipeline()) {
+                    scheduler.awaitWork(MAX_WAIT_FOR_TRACK_TRANSCODER_MS);
+                }
+            }
+        } finally {
+            if (transcoder != null) {
+                transcoder.release();
+            }
+            source.release();
+            mMetrics.add(metrics);
+        }
+    }
+
+    private class SpoolWriter implements SampleWriter {
+        private final int mSegmentIndex;
+        private final SegmentSpool mSpool;
+
+        private SpoolWriter(int segmentIndex, SegmentSpool spool) {
+            mSegmentIndex = segmentIndex;
+            mSpool = spool;
+        }
+
+        @Override
+        public void setOutputFormat(QueuedMuxer.SampleType sampleType, MediaFormat format) {
+            mActualOutputFormats[mSegmentIndex] = format;
+            mSpool.setCodecConfig(getCodecConfig(format));
+        }
+
+        @Override
+        public void writeSampleData(QueuedMuxer.SampleType sampleType, ByteBuffer byteBuf,
+                                    MediaCodec.BufferInfo bufferInfo) {
+            if (bufferInfo.size == 0) return;
+            byteBuf.limit(bufferInfo.offset + bufferInfo.size);
+            byteBuf.position(bufferInfo.offset);
+            try {
+                mSpool.append(byteBuf, bufferInfo.presentationTimeUs,
+                        bufferInfo.flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not spool segment #" + mSegmentIndex, e);
+            }
+        }
+    }
+
+    /**
+     * @return csd-0 followed by csd-1, both still carrying their start codes.
+     */
+    static byte[] getCodecConfig(MediaFormat format) {
+        ByteBuffer sps = format.containsKey(MediaConstants.KEY_AVC_SPS)
+                ? format.getByteBuffer(MediaConstants.KEY_AVC_SPS).duplicate() : null;
+        ByteBuffer pps = format.containsKey(MediaConstants.KEY_AVC_PPS)
+                ? format.getByteBuffer(MediaConstants.KEY_AVC_PPS).duplicate() : null;
+        if (sps == null) return null;
+        sps.rewind();
+        byte[] codecConfig = new byte[sps.remaining() + (pps == null ? 0 : pps.rewind().remaining())];
+        sps.get(codecConfig, 0, sps.remaining());
+        if (pps != null) {
+            pps.get(codecConfig, codecConfig.length - pps.remaining(), pps.remaining());
+        }
+        return codecConfig;
+    }
+
+    public static class Factory implements SegmentEncoder.Factory {
+        private final SampleSource.Factory mSourceFactory;
+        private final int mTrackIndex;
+        private final MediaFormat mOutputFormat;
+        private final MediaFormat[] mActualOutputFormats;
+        private final PipelineMetrics mMetrics = new PipelineMetrics();
+        private double mMaxFrameRate;
+
+        public Factory(SampleSource.Factory sourceFactory, int trackIndex, MediaFormat outputFormat,
+                       int segmentCount) {
+            mSourceFactory = sourceFactory;
+            mTrackIndex = trackIndex;
+            mOutputFormat = outputFormat;
+            mActualOutputFormats = new MediaFormat[segmentCount];
+        }
+
+        @Override
+        public VideoSegmentEncoder create() {
+            return new VideoSegmentEncoder(mSourceFactory, mTrackIndex, mOutputFormat, mActualOutputFormats,
+                    mMetrics, mMaxFrameRate);
+        }
+
+        /**
+         * Caps the frame rate of segments, see {@link VideoTrackTranscoder#setMaxFrameRate(double)}.
+         */
+        public void setMaxFrameRate(double maxFrameRate) {
+            mMaxFrameRate = maxFrameRate;
+        }
+
+        /**
+         * @return the stage timings of all segments that have finished.
+         */
+        PipelineMetrics getMetrics() {
+            return mMetrics;
+        }
+
+        /**
+         * @return output format the encoder of the given segment determined, valid after the segment finished.
+         */
+        public MediaFormat getActualOutputFormat(int segmentIndex) {
+            return mActualOutputFormats[segmentIndex];
+        }
+    }
+}
@@ -15,62 +15,145 @@
  */
 package com.quanshi.mediacodecbase18.CompressUtil;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
-import android.media.MediaExtractor;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
 // Refer: https://android.googlesource.com/platform/cts/+/lollipop-release/tests/tests/media/src/android/media/cts/ExtractDecodeEditEncodeMuxTest.java
 public class VideoTrackTranscoder implements TrackTranscoder {
     private static final String TAG = "VideoTrackTranscoder";
-    private static final int DRAIN_STATE_NONE = 0;
-    private static final int DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY = 1;
-    private static final int DRAIN_STATE_CONSUMED = 2;
 
-    private final MediaExtractor mExtractor;
+    private final SampleSource mExtractor;
     private final int mTrackIndex;
     private final MediaFormat mOutputFormat;
-    private final QueuedMuxer mMuxer;
+    private final SampleWriter mMuxer;
+    private final PipelineScheduler mScheduler;
     private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
     private MediaCodec mDecoder;
     private MediaCodec mEncoder;
-    private ByteBuffer[] mDecoderInputBuffers;
-    private ByteBuffer[] mEncoderOutputBuffers;
+    private TranscodeResourcePool mResourcePool;
+    private GlContext mGlContext;
+    private CodecEventBridge mDecoderEvents;
+    private CodecEventBridge mEncoderEvents;
     private MediaFormat mActualOutputFormat;
     private OutputSurface mDecoderOutputSurfaceWrapper;
     private InputSurface mEncoderInputSurfaceWrapper;
-    private boolean mIsExtractorEOS;
-    private boolean mIsDecoderEOS;
-    private boolean mIsEncoderEOS;
+    private VideoPipeline mPipeline;
+    private boolean mStaged;
+    private StagedVideoPipeline mStagedPipeline;
+    private boolean mStagedStarted;
+    private boolean mDecoderFinishLogged;
     private boolean mDecoderStarted;
     private boolean mEncoderStarted;
-    private long mWrittenPresentationTimeUs;
+    private long mEndSyncTimeUs = Long.MAX_VALUE;
+    private long mRenderStartTimeUs = Long.MIN_VALUE;
+    private long mRenderEndTimeUs = Long.MAX_VALUE;
+    private FrameRateDecimator mDecimator;
+    private PipelineMetrics mMetrics = new PipelineMetrics();
+    private BitrateController mBitrateController;
+    private int mEncoderBitrate;
 
-    public VideoTrackTranscoder(MediaExtractor extractor, int trackIndex,
-                                MediaFormat outputFormat, QueuedMuxer muxer) {
+    public VideoTrackTranscoder(SampleSource extractor, int trackIndex,
+                                MediaFormat outputFormat, SampleWriter muxer, PipelineScheduler scheduler) {
         mExtractor = extractor;
         mTrackIndex = trackIndex;
         mOutputFormat = outputFormat;
         mMuxer = muxer;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Stop feeding the decoder at the first sync sample at or after the given time, so that only
+     * the GOPs before it are transcoded. Used to transcode one segment of a segmented job.
+     */
+    public void setEndSyncTimeUs(long endSyncTimeUs) {
+        mEndSyncTimeUs = endSyncTimeUs;
+    }
+
+    /**
+     * Encode only the frames presented from {@code startUs} until {@code endUs}; the others are decoded as
+     * references and dropped. Used to re-encode the partial GOPs of a smart cut.
+     */
+    public void setRenderRange(long startUs, long endUs) {
+        mRenderStartTimeUs = startUs;
+        mRenderEndTimeUs = endUs;
+    }
+
+    /**
+     * Drop decoded frames without drawing them, so that at most {@code maxFrameRate} frames per second are
+     * encoded, see {@link FrameRateDecimator}. 0 keeps all frames (default).
+     */
+    public void setMaxFrameRate(double maxFrameRate) {
+        mDecimator = maxFrameRate > 0 ? new FrameRateDecimator(maxFrameRate) : null;
+    }
+
+    /**
+     * Move the encoder to the bitrate {@code bitrateController} asks for whenever it changes, which the muxer
+     * the encoded samples are written to has to report to it. Needs Android 4.4; before, the encoder keeps the
+     * bitrate of the output format.
+     */
+    void setBitrateController(BitrateController bitrateController) {
+        mBitrateController = bitrateController;
+    }
+
+    /**
+     * Feed the decoder, draw and drain the encoder on threads of their own, see {@link StagedVideoPipeline};
+     * {@link #stepPipeline()} then only writes the encoded samples. The extractor must not be shared with another
+     * track then, as the feeder thread reads it. Off by default.
+     */
+    public void setStaged(boolean staged) {
+        mStaged = staged;
+    }
+
+    /**
+     * Record the stage timings and codec queue depths into {@code metrics}.
+     */
+    void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Take the codecs and the EGL context from the pool, and give them back on {@link #release()},
+     * instead of creating and destroying them.
+     */
+    public void setResourcePool(TranscodeResourcePool resourcePool) {
+        mResourcePool = resourcePool;
     }
 
     @Override
     public void setup() {
         mExtractor.selectTrack(mTrackIndex);
         try {
-            mEncoder = MediaCodec.createEncoderByType(mOutputFormat.getString(MediaFormat.KEY_MIME));
-        } catch (IOException e) {
+            mEncoder = mResourcePool != null ? mResourcePool.acquireEncoder(getEncoderMime())
+                    : DeviceCodecRegistry.createEncoder(getEncoderMime());
+        } catch (Exception e) {
             throw new IllegalStateException(e);
         }
+        // The stage threads of a staged pipeline wait for their codec each.
+        PipelineScheduler decoderScheduler = mStaged ? new EventPipelineScheduler() : mScheduler;
+        PipelineScheduler encoderScheduler = mStaged ? new EventPipelineScheduler() : mScheduler;
+        mEncoderEvents = new CodecEventBridge(mEncoder, encoderScheduler, false);
         mEncoder.configure(mOutputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        mEncoderInputSurfaceWrapper = new InputSurface(mEncoder.createInputSurface());
+        if (mResourcePool != null) {
+            try {
+                mGlContext = mResourcePool.acquireGlContext();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            mEncoderInputSurfaceWrapper = new InputSurface(mEncoder.createInputSurface(), mGlContext);
+        } else {
+            mEncoderInputSurfaceWrapper = new InputSurface(mEncoder.createInputSurface());
+        }
         mEncoderInputSurfaceWrapper.makeCurrent();
         mEncoder.start();
         mEncoderStarted = true;
-        mEncoderOutputBuffers = mEncoder.getOutputBuffers();
+        mEncoderBitrate = mOutputFormat.getInteger(MediaFormat.KEY_BIT_RATE);
+        mEncoderEvents.start();
 
         MediaFormat inputFormat = mExtractor.getTrackFormat(mTrackIndex);
         if (inputFormat.containsKey(MediaConstants.KEY_ROTATION_DEGREES)) {
@@ -79,17 +162,65 @@ public class VideoTrackTranscoder implements TrackTranscoder {
             // refer: https://android.googlesource.com/platform/frameworks/av/+blame/lollipop-release/media/libstagefright/Utils.cpp
             inputFormat.setInteger(MediaConstants.KEY_ROTATION_DEGREES, 0);
         }
-        mDecoderOutputSurfaceWrapper = new OutputSurface();
+        mDecoderOutputSurfaceWrapper = mGlContext != null
+                ? new OutputSurface(mGlContext.getTextureRender()) : new OutputSurface();
         try {
-            mDecoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
-        } catch (IOException e) {
+            mDecoder = mResourcePool != null ? mResourcePool.acquireDecoder(getDecoderMime())
+                    : DeviceCodecRegistry.createDecoder(getDecoderMime());
+        } catch (Exception e) {
             throw new IllegalStateException(e);
         }
         Log.w(TAG, "decoder name: " + mDecoder.getName());
+        mDecoderEvents = new CodecEventBridge(mDecoder, decoderScheduler, true);
         mDecoder.configure(inputFormat, mDecoderOutputSurfaceWrapper.getSurface(), null, 0);
         mDecoder.start();
         mDecoderStarted = true;
-        mDecoderInputBuffers = mDecoder.getInputBuffers();
+        mDecoderEvents.start();
+
+        EncodedSampleSink sink = new EncodedSampleSink() {
+            @Override
+            public void onOutputFormatChanged() {
+                mActualOutputFormat = mEncoder.getOutputFormat();
+                Log.d(TAG, "encoder output format changed: " + mActualOutputFormat);
+                mMuxer.setOutputFormat(QueuedMuxer.SampleType.VIDEO, mActualOutputFormat);
+            }
+
+            @Override
+            public void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags) {
+                mBufferInfo.set(offset, size, presentationTimeUs, flags);
+                mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, buffer, mBufferInfo);
+                updateEncoderBitrate();
+            }
+        };
+        if (mStaged) {
+            PipelineMetrics glMetrics = new PipelineMetrics();
+            mStagedPipeline = new StagedVideoPipeline(mExtractor, mTrackIndex, mDecoderEvents, decoderScheduler,
+                    new SurfaceFrameBridge(mDecoderOutputSurfaceWrapper, mEncoderInputSurfaceWrapper, glMetrics),
+                    mEncoderEvents, encoderScheduler, sink, mScheduler);
+            mStagedPipeline.setEndSyncTimeUs(mEndSyncTimeUs);
+            mStagedPipeline.setRenderRange(mRenderStartTimeUs, mRenderEndTimeUs);
+            mStagedPipeline.setDecimator(mDecimator);
+            mStagedPipeline.setMetrics(mMetrics, glMetrics);
+            mStagedPipeline.setGlThreadHooks(new StagedVideoPipeline.GlThreadHooks() {
+                @Override
+                public void onGlThreadStart() {
+                    mEncoderInputSurfaceWrapper.makeCurrent();
+                }
+
+                @Override
+                public void onGlThreadStop() {
+                    mEncoderInputSurfaceWrapper.makeUnCurrent();
+                }
+            });
+            return;
+        }
+        mPipeline = new VideoPipeline(mExtractor, mTrackIndex, mDecoderEvents,
+                new SurfaceFrameBridge(mDecoderOutputSurfaceWrapper, mEncoderInputSurfaceWrapper, mMetrics),
+                mEncoderEvents, sink);
+        mPipeline.setEndSyncTimeUs(mEndSyncTimeUs);
+        mPipeline.setRenderRange(mRenderStartTimeUs, mRenderEndTimeUs);
+        mPipeline.setDecimator(mDecimator);
+        mPipeline.setMetrics(mMetrics);
     }
 
     @Override
@@ -99,34 +230,55 @@ public class VideoTrackTranscoder implements TrackTranscoder {
 
     @Override
     public boolean stepPipeline() {
-        boolean busy = false;
-
-        int status;
-        while (drainExtractor(0) != DRAIN_STATE_NONE) busy = true;
-        do {
-            status = drainDecoder(0);
-            if (status != DRAIN_STATE_NONE) busy = true;
-            // NOTE: not repeating to keep from deadlock when encoder is full.
-        } while (status == DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY);
-
-        while (drainEncoder(0) != DRAIN_STATE_NONE) busy = true;
-
+        boolean busy;
+        boolean decoderFinished;
+        if (mStagedPipeline != null) {
+            if (!mStagedStarted) {
+                // The GL thread takes the EGL context over.
+                mEncoderInputSurfaceWrapper.makeUnCurrent();
+                mStagedStarted = true;
+                mStagedPipeline.start();
+            }
+            busy = mStagedPipeline.drainSamples();
+            decoderFinished = mStagedPipeline.isDecoderFinished();
+        } else {
+            busy = mPipeline.stepPipeline();
+            decoderFinished = mPipeline.isDecoderFinished();
+        }
+        if (mDecimator != null && decoderFinished && !mDecoderFinishLogged) {
+            mDecoderFinishLogged = true;
+            Log.d(TAG, "dropped " + mDecimator.getDroppedCount() + " frames over the frame rate.");
+        }
         return busy;
     }
 
     @Override
     public long getWrittenPresentationTimeUs() {
-        return mWrittenPresentationTimeUs;
+        return mStagedPipeline != null ? mStagedPipeline.getWrittenPresentationTimeUs()
+                : mPipeline.getWrittenPresentationTimeUs();
     }
 
     @Override
     public boolean isFinished() {
-        return mIsEncoderEOS;
+        return mStagedPipeline != null ? mStagedPipeline.isFinished() : mPipeline.isFinished();
     }
 
     // TODO: CloseGuard
     @Override
     public void release() {
+        if (mStagedPipeline != null) {
+            // The stage threads use the codecs and surfaces, so they go first.
+            if (!mStagedPipeline.stop()) {
+                // Freeing or pooling them under a running thread would crash, so they are leaked instead.
+                throw new IllegalStateException("Staged pipeline threads did not stop, codecs and surfaces are "
+                        + "not released.");
+            }
+            Log.d(TAG, "staged pipeline hand-offs: " + mStagedPipeline);
+            if (mStagedStarted && mEncoderInputSurfaceWrapper != null) {
+                mEncoderInputSurfaceWrapper.makeCurrent();
+            }
+            mStagedPipeline = null;
+        }
         if (mDecoderOutputSurfaceWrapper != null) {
             mDecoderOutputSurfaceWrapper.release();
             mDecoderOutputSurfaceWrapper = null;
@@ -135,110 +287,65 @@ public class VideoTrackTranscoder implements TrackTranscoder {
             mEncoderInputSurfaceWrapper.release();
             mEncoderInputSurfaceWrapper = null;
         }
+        if (mGlContext != null) {
+            mResourcePool.releaseGlContext(mGlContext);
+            mGlContext = null;
+        }
+        if (mDecoderEvents != null) {
+            mDecoderEvents.stop();
+        }
+        if (mEncoderEvents != null) {
+            mEncoderEvents.stop();
+        }
         if (mDecoder != null) {
             if (mDecoderStarted) mDecoder.stop();
-            mDecoder.release();
+            if (mResourcePool != null) {
+                mResourcePool.releaseDecoder(getDecoderMime(), mDecoder);
+            } else {
+                mDecoder.release();
+            }
             mDecoder = null;
         }
         if (mEncoder != null) {
             if (mEncoderStarted) mEncoder.stop();
-            mEncoder.release();
+            if (mResourcePool != null) {
+                mResourcePool.releaseEncoder(getEncoderMime(), mEncoder);
+            } else {
+                mEncoder.release();
+            }
             mEncoder = null;
         }
+        if (mDecoderEvents != null) {
+            mDecoderEvents.release();
+            mDecoderEvents = null;
+        }
+        if (mEncoderEvents != null) {
+            mEncoderEvents.release();
+            mEncoderEvents = null;
+        }
     }
 
-    private int drainExtractor(long timeoutUs) {
-        if (mIsExtractorEOS) return DRAIN_STATE_NONE;
-        int trackIndex = mExtractor.getSampleTrackIndex();
-        if (trackIndex >= 0 && trackIndex != mTrackIndex) {
-            return DRAIN_STATE_NONE;
-        }
-        int inputBufIndex = mDecoder.dequeueInputBuffer(timeoutUs);
-        if (inputBufIndex < 0) return DRAIN_STATE_NONE;
-        if (trackIndex < 0) {
-            mIsExtractorEOS = true;
-            mDecoder.queueInputBuffer(inputBufIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-            return DRAIN_STATE_NONE;
-        }
-        int sampleSize = mExtractor.readSampleData(mDecoderInputBuffers[inputBufIndex], 0);
-        boolean isKeyFrame = (mExtractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0;
-        mDecoder.queueInputBuffer(inputBufIndex, 0, sampleSize, mExtractor.getSampleTime(),
-                isKeyFrame ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
-        mExtractor.advance();
-        return DRAIN_STATE_CONSUMED;
-    }
-
-    private int drainDecoder(long timeoutUs) {
-        if (mIsDecoderEOS) return DRAIN_STATE_NONE;
-        int decoderStatus = mDecoder.dequeueOutputBuffer(mBufferInfo, timeoutUs); // get the processed Buffer Output
-        switch (decoderStatus) {
-            case MediaCodec.INFO_TRY_AGAIN_LATER:
-//                Log.d(TAG, "no output from decoder available");
-                return DRAIN_STATE_NONE;
-            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
-                // this happens before the first frame is returned
-                MediaFormat decoderOutputFormat = mDecoder.getOutputFormat();
-                Log.d(TAG, "decoder output format changed: " + decoderOutputFormat);
-            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
-                Log.d(TAG, "decoder output buffers changed (but we don't care)");
-                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-        }
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-            mEncoder.signalEndOfInputStream();
-            mIsDecoderEOS = true;
-            mBufferInfo.size = 0;
-        }
-        boolean doRender = (mBufferInfo.size > 0);
-        // NOTE: doRender will block if buffer (of encoder) is full.
-        // Refer: http://bigflake.com/mediacodec/CameraToMpegTest.java.txt
-        mDecoder.releaseOutputBuffer(decoderStatus, doRender);  // Whether second argument to draw texture on Surface
-        if (doRender) {
-            mDecoderOutputSurfaceWrapper.awaitNewImage(); // rendered texture of arrival waiting
-            mDecoderOutputSurfaceWrapper.drawImage(); // drawing the texture in OpenGL
-            mEncoderInputSurfaceWrapper.setPresentationTime(mBufferInfo.presentationTimeUs * 1000);
-            mEncoderInputSurfaceWrapper.swapBuffers();  // Send the currently drawn content to Encoder
-        }
-        return DRAIN_STATE_CONSUMED;
-    }
-
-    private int drainEncoder(long timeoutUs) {
-        if (mIsEncoderEOS) return DRAIN_STATE_NONE;
-        int encoderStatus = mEncoder.dequeueOutputBuffer(mBufferInfo, timeoutUs);
-        switch (encoderStatus) {
-            case MediaCodec.INFO_TRY_AGAIN_LATER:
-                // no output available yet
-                return DRAIN_STATE_NONE;
-            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
-                // should happen before receiving buffers, and should only happen once
-                if (mActualOutputFormat != null) {
-                    throw new RuntimeException("Video output format changed twice.");
-                }
-                mActualOutputFormat = mEncoder.getOutputFormat();
-                Log.d(TAG, "encoder output format changed: " + mActualOutputFormat);
-                mMuxer.setOutputFormat(QueuedMuxer.SampleType.VIDEO, mActualOutputFormat);
-                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
-                // not expected for an encoder
-                Log.d(TAG, "encoder output buffers changed");
-                mEncoderOutputBuffers = mEncoder.getOutputBuffers();
-                return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-        }
-        if (mActualOutputFormat == null) {
-            throw new RuntimeException("Could not determine actual output format.");
-        }
-
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-            mIsEncoderEOS = true;
-            mBufferInfo.set(0, 0, 0, mBufferInfo.flags);
-        }
-        if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-            // SPS or PPS, which should be passed by MediaFormat.
-            mEncoder.releaseOutputBuffer(encoderStatus, false);
-            return DRAIN_STATE_SHOULD_RETRY_IMMEDIATELY;
-        }
-        mMuxer.writeSampleData(QueuedMuxer.SampleType.VIDEO, mEncoderOutputBuffers[encoderStatus], mBufferInfo);
-        mWrittenPresentationTimeUs = mBufferInfo.presentationTimeUs;
-        mEncoder.releaseOutputBuffer(encoderStatus, false);
-        return DRAIN_STATE_CONSUMED;
+    private String getEncoderMime() {
+        return mOutputFormat.getString(MediaFormat.KEY_MIME);
+    }
+
+    private String getDecoderMime() {
+        return mExtractor.getTrackFormat(mTrackIndex).getString(MediaFormat.KEY_MIME);
+    }
+
+    private void updateEncoderBitrate() {
+        if (mBitrateController == null || mBitrateController.getBitrate() == mEncoderBitrate) return;
+        mEncoderBitrate = mBitrateController.getBitrate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            setEncoderBitrate(mEncoderBitrate);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void setEncoderBitrate(int bitrate) {
+        Log.d(TAG, "encoder bitrate " + bitrate);
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+        mEncoder.setParameters(parameters);
     }
 }
@@ -6,7 +6,6 @@ import android.content.Intent;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
@@ -20,7 +19,11 @@ import android.view.View;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
+import com.quanshi.mediacodecbase18.CompressUtil.DeviceCodecRegistry;
 import com.quanshi.mediacodecbase18.CompressUtil.MediaCompressManager;
+import com.quanshi.mediacodecbase18.CompressUtil.MediaTranscodeEngine;
+import com.quanshi.mediacodecbase18.CompressUtil.TranscodeJobScheduler;
+import com.quanshi.mediacodecbase18.CompressUtil.TranscodeStats;
 
 import java.io.File;
 import java.io.FileDescriptor;
@@ -34,7 +37,7 @@ public class MainActivity extends AppCompatActivity {
     private Context mContext;
     private final int REQUEST_CODE_PICK = 1;
 
-    private AsyncTask compressTask;
+    private TranscodeJobScheduler.Job compressTask;
     private File outputFile;
     private ProgressBar progressBar;
     private long startTime, endTime;
@@ -44,6 +47,7 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         progressBar = (ProgressBar) findViewById(R.id.progressBar);
+        DeviceCodecRegistry.setCacheDirectory(getCacheDir());
 
         listAllCodecs();
     }
@@ -56,7 +60,9 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public void cancelCompress(View view) {
-        compressTask.cancel(true);
+        if (compressTask != null) {
+            compressTask.cancel();
+        }
     }
 
     @Override
@@ -96,9 +102,21 @@ public class MainActivity extends AppCompatActivity {
                             outputFile.getAbsolutePath(),
                             new MediaCompressManager.CompressListener() {
                                 @Override
-                                public void onTranscodeCompleted() {
+                                public void onTranscodeModeChosen(MediaTranscodeEngine.TranscodeMode mode,
+                                                                  String reason) {
+                                    Log.i(TAG, "compress mode " + mode + ": " + reason);
+                                }
+
+                                @Override
+                                public void onTranscodeProgress(TranscodeStats stats) {
+                                    Log.v(TAG, "compress progress " + stats.getProgress() + ", "
+                                            + stats.getFps() + " fps");
+                                }
+
+                                @Override
+                                public void onTranscodeCompleted(TranscodeStats stats) {
                                     endTime = SystemClock.uptimeMillis();
-                                    Log.d(TAG, "compress took " + (endTime - startTime) + "ms");
+                                    Log.d(TAG, "compress took " + (endTime - startTime) + "ms: " + stats);
                                     onCompressFinished(true, "compressed file placed on " + outputFile, parcelFileDescriptor);
                                     startActivity(new Intent(Intent.ACTION_VIEW).setDataAndType(Uri.fromFile(outputFile), "video/mp4"));
                                 }
@@ -0,0 +1,310 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncSampleWriterTest {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int FLAG_END_OF_STREAM = 4;
+
+    private static class Written {
+        final int mTrack;
+        final byte[] mData;
+        final long mPresentationTimeUs;
+        final int mFlags;
+
+        Written(int track, byte[] data, long presentationTimeUs, int flags) {
+            mTrack = track;
+            mData = data;
+            mPresentationTimeUs = presentationTimeUs;
+            mFlags = flags;
+        }
+    }
+
+    /**
+     * Records the samples, waiting for the gate before each one.
+     */
+    private static class RecordingConsumer implements SampleQueue.Consumer {
+        final List<Written> mWritten = new ArrayList<>();
+        final List<String> mThreadNames = new ArrayList<>();
+        final CountDownLatch mEntered = new CountDownLatch(1);
+        volatile CountDownLatch mGate = new CountDownLatch(0);
+        volatile RuntimeException mFailure;
+        volatile int mFailAt = -1;
+
+        @Override
+        public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                             int flags) {
+            mEntered.countDown();
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (mWritten.size() == mFailAt) throw mFailure;
+            assertEquals(offset, block.position());
+            assertEquals(offset + size, block.limit());
+            byte[] data = new byte[size];
+            block.get(data);
+            synchronized (this) {
+                mWritten.add(new Written(track, data, presentationTimeUs, flags));
+                String name = Thread.currentThread().getName();
+                if (!mThreadNames.contains(name)) mThreadNames.add(name);
+            }
+        }
+
+        synchronized int getWrittenCount() {
+            return mWritten.size();
+        }
+    }
+
+    private final DirectBlockPool mPool = new DirectBlockPool(BLOCK_SIZE, 4);
+    private final RecordingConsumer mConsumer = new RecordingConsumer();
+    private final List<AsyncSampleWriter> mWriters = new ArrayList<>();
+
+    private AsyncSampleWriter createWriter(long maxBytes) {
+        AsyncSampleWriter writer = new AsyncSampleWriter(mPool, maxBytes, mConsumer);
+        mWriters.add(writer);
+        writer.start();
+        return writer;
+    }
+
+    @After
+    public void tearDown() {
+        mConsumer.mGate = new CountDownLatch(0);
+        for (AsyncSampleWriter writer : mWriters) {
+            writer.release();
+        }
+    }
+
+    private static byte[] sample(int index, int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (index * 31 + i);
+        }
+        return data;
+    }
+
+    private static void write(AsyncSampleWriter writer, int index, int size) {
+        writer.write(index % 2, ByteBuffer.wrap(sample(index, size)), index * 1000L, 0);
+    }
+
+    private static void awaitTrue(String what, long timeoutMs, Condition condition) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!condition.isTrue()) {
+            if (System.nanoTime() > deadlineNs) fail("Timed out waiting for " + what);
+            Thread.sleep(1);
+        }
+    }
+
+    private interface Condition {
+        boolean isTrue();
+    }
+
+    @Test
+    public void writesSamplesInOrderOnWriterThread() {
+        AsyncSampleWriter writer = createWriter(4 * BLOCK_SIZE);
+        long bytes = 0;
+        for (int i = 0; i < 500; i++) {
+            int size = (i * 37) % 700 + 1;
+            ByteBuffer data = ByteBuffer.wrap(sample(i, size));
+            writer.write(i % 2, data, i * 1000L, i % 30 == 0 ? 1 : 0);
+            assertEquals(data.limit(), data.position());
+            bytes += size;
+        }
+        writer.finish();
+        assertEquals(500, mConsumer.mWritten.size());
+        for (int i = 0; i < 500; i++) {
+            Written written = mConsumer.mWritten.get(i);
+            assertEquals(i % 2, written.mTrack);
+            assertEquals(i * 1000L, written.mPresentationTimeUs);
+            assertEquals(i % 30 == 0 ? 1 : 0, written.mFlags);
+            assertArrayEquals(sample(i, (i * 37) % 700 + 1), written.mData);
+        }
+        assertEquals(1, mConsumer.mThreadNames.size());
+        assertEquals("MuxerWriter", mConsumer.mThreadNames.get(0));
+        assertEquals(bytes, writer.getWrittenBytes());
+        assertEquals(500, writer.getWrittenSampleCount());
+        assertEquals(0, writer.getAllocatedBytes());
+        assertTrue(writer.getMaxAllocatedBytes() <= 4 * BLOCK_SIZE);
+    }
+
+    @Test
+    public void finishWaitsForEndOfStream() {
+        AsyncSampleWriter writer = createWriter(4 * BLOCK_SIZE);
+        mConsumer.mGate = new CountDownLatch(1);
+        for (int i = 0; i < 20; i++) {
+            write(writer, i, 100);
+        }
+        writer.write(0, ByteBuffer.allocate(0), 20 * 1000L, FLAG_END_OF_STREAM);
+        assertEquals(0, mConsumer.getWrittenCount());
+        mConsumer.mGate.countDown();
+        writer.finish();
+        assertEquals(21, mConsumer.mWritten.size());
+        Written last = mConsumer.mWritten.get(20);
+        assertEquals(FLAG_END_OF_STREAM, last.mFlags);
+        assertEquals(0, last.mData.length);
+        try {
+            write(writer, 21, 100);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void writesQueuedSamplesInBatches() throws InterruptedException {
+        AsyncSampleWriter writer = createWriter(16 * BLOCK_SIZE);
+        mConsumer.mGate = new CountDownLatch(1);
+        write(writer, 0, 100);
+        assertTrue(mConsumer.mEntered.await(1, TimeUnit.SECONDS));
+        for (int i = 1; i < 50; i++) {
+            write(writer, i, 100);
+        }
+        mConsumer.mGate.countDown();
+        writer.finish();
+        assertEquals(50, writer.getWrittenSampleCount());
+        assertEquals(2, writer.getBatchCount());
+        assertEquals(49, writer.getMaxBatchSize());
+        assertTrue(writer.getAverageBatchSize() > 1);
+    }
+
+    @Test
+    public void blocksProducerWhileMemoryIsFull() throws InterruptedException {
+        final AsyncSampleWriter writer = createWriter(2 * BLOCK_SIZE);
+        mConsumer.mGate = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    write(writer, i, 600);
+                }
+            }
+        });
+        producer.start();
+        awaitTrue("the producer to block", 1000, new Condition() {
+            @Override
+            public boolean isTrue() {
+                return writer.getBlockedCount() > 0;
+            }
+        });
+        Thread.sleep(20);
+        assertTrue(producer.isAlive());
+        assertEquals(2 * BLOCK_SIZE, writer.getAllocatedBytes());
+        mConsumer.mGate.countDown();
+        producer.join(5000);
+        writer.finish();
+        assertEquals(10, mConsumer.mWritten.size());
+        assertEquals(2 * BLOCK_SIZE, writer.getMaxAllocatedBytes());
+        assertTrue(writer.getBlockedNs() >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void blocksProducerWhileSampleSlotsAreFull() throws InterruptedException {
+        final AsyncSampleWriter writer = createWriter(4 * BLOCK_SIZE);
+        mConsumer.mGate = new CountDownLatch(1);
+        final int count = AsyncSampleWriter.MAX_SAMPLES + 10;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    write(writer, i, 1);
+                }
+            }
+        });
+        producer.start();
+        awaitTrue("the producer to block", 1000, new Condition() {
+            @Override
+            public boolean isTrue() {
+                return writer.getBlockedCount() > 0;
+            }
+        });
+        mConsumer.mGate.countDown();
+        producer.join(5000);
+        writer.finish();
+        assertEquals(count, mConsumer.mWritten.size());
+    }
+
+    @Test
+    public void takesSampleLargerThanCapAlone() {
+        AsyncSampleWriter writer = createWriter(2 * BLOCK_SIZE);
+        write(writer, 0, 100);
+        write(writer, 1, 5 * BLOCK_SIZE);
+        write(writer, 2, 100);
+        writer.finish();
+        assertEquals(3, mConsumer.mWritten.size());
+        assertArrayEquals(sample(1, 5 * BLOCK_SIZE), mConsumer.mWritten.get(1).mData);
+        assertEquals(0, writer.getAllocatedBytes());
+    }
+
+    @Test
+    public void throwsConsumerFailureFromWriteAndFinish() throws InterruptedException {
+        final AsyncSampleWriter writer = createWriter(2 * BLOCK_SIZE);
+        RuntimeException failure = new RuntimeException("Disk full");
+        mConsumer.mFailure = failure;
+        mConsumer.mFailAt = 3;
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        try {
+            // Blocks once memory is full, until the failure wakes it up.
+            for (int i = 0; ; i++) {
+                if (System.nanoTime() > deadlineNs) fail("The failure was not thrown.");
+                write(writer, i, 600);
+            }
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+        try {
+            writer.finish();
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(3, mConsumer.mWritten.size());
+        assertTrue(writer.release());
+        assertEquals(0, writer.getAllocatedBytes());
+        assertTrue(mPool.getIdleBlockCount() > 0);
+    }
+
+    @Test
+    public void releaseDropsQueuedSamples() throws InterruptedException {
+        final AsyncSampleWriter writer = createWriter(4 * BLOCK_SIZE);
+        mConsumer.mGate = new CountDownLatch(1);
+        write(writer, 0, 100);
+        assertTrue(mConsumer.mEntered.await(1, TimeUnit.SECONDS));
+        for (int i = 1; i < 10; i++) {
+            write(writer, i, 100);
+        }
+        final boolean[] released = new boolean[1];
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                released[0] = writer.release();
+            }
+        });
+        releaser.start();
+        Thread.sleep(20);
+        mConsumer.mGate.countDown();
+        releaser.join(5000);
+        assertTrue(released[0]);
+        assertTrue(writer.release());
+        // Only the sample being written when released.
+        assertEquals(1, mConsumer.getWrittenCount());
+        assertEquals(0, writer.getAllocatedBytes());
+        try {
+            write(writer, 10, 100);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
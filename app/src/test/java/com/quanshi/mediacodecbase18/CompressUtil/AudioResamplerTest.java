@@ -0,0 +1,162 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AudioResamplerTest {
+    private static final double AMPLITUDE = 10000;
+
+    @Test
+    public void downmixesStereoToMono() {
+        AudioResampler resampler = new AudioResampler(44100, 2, 44100, 1);
+        short[] stereo = {100, 300, -200, -400, 32767, 32767, -32768, -32768, 1, 2};
+        short[] mono = convert(resampler, stereo, 64, 64);
+        assertArrayEquals(new short[]{200, -300, 32767, -32768, 2}, mono);
+    }
+
+    @Test
+    public void copiesWhenNothingChanges() {
+        AudioResampler resampler = new AudioResampler(48000, 2, 48000, 2);
+        short[] input = sine(48000, 2, 1000, 500);
+        assertArrayEquals(input, convert(resampler, input, 100, 100));
+    }
+
+    @Test
+    public void resamplesToTheExpectedLengthAndPitch() {
+        int[][] rates = {{48000, 44100}, {44100, 48000}, {44100, 22050}, {16000, 48000}, {22050, 44100},
+                {48000, 16000}, {8000, 44100}};
+        for (int[] rate : rates) {
+            String message = rate[0] + " -> " + rate[1];
+            int inputFrames = rate[0] / 2;
+            short[] output = convert(new AudioResampler(rate[0], 1, rate[1], 1), sine(rate[0], 1, 440, inputFrames),
+                    4096, 4096);
+            long expectedFrames = (long) inputFrames * rate[1] / rate[0];
+            assertTrue(message + ": " + output.length, Math.abs(output.length - expectedFrames) <= 2);
+            // Away from the edges the output is the same tone at the new rate, half a step of the upsampled
+            // rate early.
+            int up = rate[1] / gcd(rate[0], rate[1]);
+            double delaySeconds = 0.5 / up / rate[0];
+            double error = 0;
+            int count = 0;
+            for (int n = output.length / 4; n < output.length * 3 / 4; n++) {
+                double expected = AMPLITUDE * Math.sin(2 * Math.PI * 440 * ((double) n / rate[1] + delaySeconds));
+                error += (output[n] - expected) * (output[n] - expected);
+                count++;
+            }
+            double rmsError = Math.sqrt(error / count);
+            assertTrue(message + ": rms error " + rmsError, rmsError < AMPLITUDE * 0.02);
+        }
+    }
+
+    @Test
+    public void filtersOutFrequenciesAboveTheNewNyquistRate() {
+        // 10 kHz cannot be represented at 16 kHz and must not fold back as a 6 kHz alias.
+        short[] output = convert(new AudioResampler(48000, 1, 16000, 1), sine(48000, 1, 10000, 48000), 4096, 4096);
+        double rms = rms(Arrays.copyOfRange(output, 1000, output.length - 1000));
+        assertTrue("rms " + rms, rms < AMPLITUDE * 0.05);
+    }
+
+    @Test
+    public void resamplesAndDownmixesInOnePass() {
+        short[] stereo = sine(48000, 2, 440, 24000);
+        short[] mono = new short[stereo.length / 2];
+        for (int i = 0; i < mono.length; i++) {
+            mono[i] = (short) ((stereo[2 * i] + stereo[2 * i + 1]) / 2);
+        }
+        short[] expected = convert(new AudioResampler(48000, 1, 44100, 1), mono, 4096, 4096);
+        short[] actual = convert(new AudioResampler(48000, 2, 44100, 1), stereo, 4096, 4096);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue("sample " + i, Math.abs(expected[i] - actual[i]) <= 1);
+        }
+    }
+
+    @Test
+    public void streamsInAnyChunkSize() {
+        short[] input = sine(44100, 2, 1000, 10000);
+        short[] whole = convert(new AudioResampler(44100, 2, 48000, 2), input, input.length, 1 << 16);
+        short[] chunked = convert(new AudioResampler(44100, 2, 48000, 2), input, 38, 22);
+        assertArrayEquals(whole, chunked);
+    }
+
+    @Test
+    public void onlyConsumesWholeFrames() {
+        AudioResampler resampler = new AudioResampler(48000, 2, 44100, 2);
+        ShortBuffer in = ShortBuffer.wrap(new short[3]);
+        ShortBuffer out = ShortBuffer.allocate(1);
+        resampler.process(in, out);
+        // Output has no room for a frame, so nothing happens.
+        assertEquals(0, in.position());
+        assertEquals(0, out.position());
+    }
+
+    @Test
+    public void rejectsUnsupportedConversions() {
+        int[][] invalid = {{0, 2, 44100, 2}, {44100, 2, 44100, 3}, {44100, 6, 48000, 2}, {44100, 1, 44099, 1}};
+        for (int[] args : invalid) {
+            try {
+                new AudioResampler(args[0], args[1], args[2], args[3]);
+                fail(Arrays.toString(args));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    static short[] convert(AudioResampler resampler, short[] input, int inputChunk, int outputChunk) {
+        ShortBuffer result = ShortBuffer.allocate(input.length * 8 + 1024);
+        ShortBuffer out = ShortBuffer.allocate(outputChunk);
+        for (int offset = 0; offset < input.length; offset += inputChunk) {
+            ShortBuffer in = ShortBuffer.wrap(input, offset, Math.min(inputChunk, input.length - offset));
+            while (in.remaining() >= resampler.getInputChannels()) {
+                resampler.process(in, out);
+                out.flip();
+                result.put(out);
+                out.clear();
+            }
+            assertEquals(0, in.remaining());
+        }
+        resampler.endOfInput();
+        ShortBuffer empty = ShortBuffer.allocate(0);
+        while (!resampler.isDrained()) {
+            resampler.process(empty, out);
+            out.flip();
+            result.put(out);
+            out.clear();
+        }
+        result.flip();
+        short[] output = new short[result.remaining()];
+        result.get(output);
+        return output;
+    }
+
+    static short[] sine(int sampleRate, int channels, double frequency, int frames) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = value;
+            }
+        }
+        return samples;
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    private static double rms(short[] samples) {
+        double sum = 0;
+        for (short sample : samples) {
+            sum += (double) sample * sample;
+        }
+        return Math.sqrt(sum / samples.length);
+    }
+}
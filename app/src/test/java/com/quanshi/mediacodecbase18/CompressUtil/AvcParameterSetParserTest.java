@@ -0,0 +1,253 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parameter sets written by x264 and OpenH264, the expected values as decoded by FFmpeg's trace_headers.
+ */
+public class AvcParameterSetParserTest {
+    // x264, High 4.0, 1920x1080 (1088 cropped), 30 fps, 3 B-frames.
+    private static final String HIGH_1080P_SPS = "67640028acd940780227e5c044000003000400000300f03c60c658";
+    private static final String HIGH_1080P_PPS = "68ebe3cb22c0";
+    // x264, Constrained Baseline 3.0, 640x360 (368 cropped), 25 fps, pic_order_cnt_type 2.
+    private static final String BASELINE_360P_SPS = "6742c01ed900a02ff97011000003000100000300320f162e48";
+    private static final String BASELINE_360P_PPS = "68cb83cb20";
+    // x264, Main 3.0, 720x576 interlaced (MBAFF), 25 fps.
+    private static final String MAIN_576I_SPS = "674d401eeca05a126c0440000003004000000c87c50a6580";
+    private static final String MAIN_576I_PPS = "68fba3cb20";
+    // x264, High 4:4:4 Predictive 2.1, 352x290 (304 cropped in luma rows), 24000/1001 fps.
+    private static final String HIGH444_SPS = "67f40015919b282c13fc7e022000007d2000177001e2c5b2c0";
+    // x264, High 3.2, 1280x720, 50 fps, NAL HRD parameters, JVT scaling matrices in the PPS.
+    private static final String HIGH_HRD_SPS = "67640020acd9405005bb0110000003001000000646040001312d00009896a4d38078c18cb0";
+    private static final String HIGH_CQM_PPS = "68ebe3cb3002c0";
+    // OpenH264, Constrained Baseline 2.0, 320x240, video signal type, no timing.
+    private static final String OPENH264_SPS = "6742c0148c8d40a0f980b407844235";
+    private static final String OPENH264_PPS = "68ce3c80";
+
+    private final AvcParameterSetParser mParser = new AvcParameterSetParser();
+    private final AvcParameterSetParser.Sps mSps = new AvcParameterSetParser.Sps();
+    private final AvcParameterSetParser.Pps mPps = new AvcParameterSetParser.Pps();
+
+    @Test
+    public void parsesHighProfileWithCroppingAndReordering() {
+        mParser.parseSps(wrap(HIGH_1080P_SPS), mSps);
+        assertEquals(100, mSps.mProfileIdc);
+        assertEquals(0, mSps.mConstraintFlags);
+        assertEquals(40, mSps.mLevelIdc);
+        assertEquals(1, mSps.mChromaFormatIdc);
+        assertEquals(8, mSps.mBitDepthLuma);
+        assertEquals(8, mSps.mBitDepthChroma);
+        assertEquals(4, mSps.mLog2MaxFrameNum);
+        assertEquals(0, mSps.mPicOrderCntType);
+        assertEquals(4, mSps.mMaxNumRefFrames);
+        assertTrue(mSps.mFrameMbsOnly);
+        assertEquals(1920, mSps.mCodedWidth);
+        assertEquals(1088, mSps.mCodedHeight);
+        assertEquals(1920, mSps.mWidth);
+        assertEquals(1080, mSps.mHeight);
+        assertEquals(1, mSps.mSarWidth);
+        assertEquals(1, mSps.mSarHeight);
+        assertEquals(1, mSps.mNumUnitsInTick);
+        assertEquals(60, mSps.mTimeScale);
+        assertEquals(30.0, mSps.getFrameRate(), 0);
+        assertEquals(2, mSps.mMaxNumReorderFrames);
+        assertEquals(4, mSps.mMaxDecFrameBuffering);
+
+        mParser.parsePps(wrap(HIGH_1080P_PPS), mSps, mPps);
+        assertEquals(0, mPps.mPpsId);
+        assertEquals(0, mPps.mSpsId);
+        assertTrue(mPps.mEntropyCodingMode);
+        assertEquals(1, mPps.mNumSliceGroups);
+        assertEquals(3, mPps.mNumRefIdxL0DefaultActive);
+        assertEquals(1, mPps.mNumRefIdxL1DefaultActive);
+        assertTrue(mPps.mWeightedPred);
+        assertEquals(2, mPps.mWeightedBipredIdc);
+        assertEquals(23, mPps.mPicInitQp);
+        assertEquals(-2, mPps.mChromaQpIndexOffset);
+        assertTrue(mPps.mDeblockingFilterControlPresent);
+        assertTrue(mPps.mTransform8x8Mode);
+        assertFalse(mPps.mPicScalingMatrixPresent);
+        assertEquals(-2, mPps.mSecondChromaQpIndexOffset);
+    }
+
+    @Test
+    public void parsesConstrainedBaseline() {
+        mParser.parseSps(wrap(BASELINE_360P_SPS), mSps);
+        assertEquals(66, mSps.mProfileIdc);
+        assertTrue(mSps.getConstraintSetFlag(0));
+        assertTrue(mSps.getConstraintSetFlag(1));
+        assertFalse(mSps.getConstraintSetFlag(2));
+        assertEquals(30, mSps.mLevelIdc);
+        assertEquals(2, mSps.mPicOrderCntType);
+        assertEquals(3, mSps.mMaxNumRefFrames);
+        assertEquals(640, mSps.mWidth);
+        assertEquals(360, mSps.mHeight);
+        assertEquals(25.0, mSps.getFrameRate(), 0);
+        assertEquals(0, mSps.mMaxNumReorderFrames);
+
+        mParser.parsePps(wrap(BASELINE_360P_PPS), mSps, mPps);
+        assertFalse(mPps.mEntropyCodingMode);
+        assertEquals(3, mPps.mNumRefIdxL0DefaultActive);
+        assertFalse(mPps.mTransform8x8Mode);
+        assertEquals(-2, mPps.mSecondChromaQpIndexOffset);
+    }
+
+    @Test
+    public void parsesInterlacedSizeInFieldPairs() {
+        mParser.parseSps(wrap(MAIN_576I_SPS), mSps);
+        assertEquals(77, mSps.mProfileIdc);
+        assertFalse(mSps.mFrameMbsOnly);
+        assertTrue(mSps.mMbAdaptiveFrameField);
+        assertEquals(720, mSps.mWidth);
+        assertEquals(576, mSps.mHeight);
+        assertEquals(25.0, mSps.getFrameRate(), 0);
+        assertEquals(2, mSps.mMaxNumReorderFrames);
+
+        mParser.parsePps(wrap(MAIN_576I_PPS), mSps, mPps);
+        assertTrue(mPps.mBottomFieldPicOrderInFramePresent);
+        assertFalse(mPps.mWeightedPred);
+    }
+
+    @Test
+    public void cropsFullChromaInLumaSamples() {
+        mParser.parseSps(wrap(HIGH444_SPS), mSps);
+        assertEquals(244, mSps.mProfileIdc);
+        assertEquals(3, mSps.mChromaFormatIdc);
+        assertFalse(mSps.mSeparateColourPlane);
+        assertEquals(352, mSps.mWidth);
+        assertEquals(290, mSps.mHeight);
+        assertEquals(1001, mSps.mNumUnitsInTick);
+        assertEquals(48000, mSps.mTimeScale);
+        assertEquals(23.976, mSps.getFrameRate(), 0.001);
+    }
+
+    @Test
+    public void skipsHrdParametersAndScalingLists() {
+        mParser.parseSps(wrap(HIGH_HRD_SPS), mSps);
+        assertEquals(32, mSps.mLevelIdc);
+        assertEquals(1280, mSps.mWidth);
+        assertEquals(720, mSps.mHeight);
+        assertEquals(50.0, mSps.getFrameRate(), 0);
+        // Both come after the HRD parameters.
+        assertEquals(2, mSps.mMaxNumReorderFrames);
+        assertEquals(4, mSps.mMaxDecFrameBuffering);
+
+        mParser.parsePps(wrap(HIGH_CQM_PPS), mSps, mPps);
+        assertTrue(mPps.mTransform8x8Mode);
+        assertTrue(mPps.mPicScalingMatrixPresent);
+        assertEquals(-2, mPps.mSecondChromaQpIndexOffset);
+    }
+
+    @Test
+    public void parsesVideoSignalTypeWithoutTiming() {
+        mParser.parseSps(wrap(OPENH264_SPS), mSps);
+        assertEquals(20, mSps.mLevelIdc);
+        assertEquals(15, mSps.mLog2MaxFrameNum);
+        assertEquals(320, mSps.mWidth);
+        assertEquals(240, mSps.mHeight);
+        assertFalse(mSps.mVideoFullRange);
+        assertEquals(AvcParameterSetParser.UNKNOWN, mSps.mColourPrimaries);
+        assertEquals(0.0, mSps.getFrameRate(), 0);
+        assertEquals(0, mSps.mMaxNumReorderFrames);
+        assertEquals(1, mSps.mMaxDecFrameBuffering);
+
+        mParser.parsePps(wrap(OPENH264_PPS), mSps, mPps);
+        assertFalse(mPps.mEntropyCodingMode);
+        assertEquals(1, mPps.mNumRefIdxL0DefaultActive);
+        assertEquals(26, mPps.mPicInitQp);
+        assertFalse(mPps.mTransform8x8Mode);
+    }
+
+    @Test
+    public void readsCsdWithStartCodeFromDirectBuffers() {
+        byte[] nal = hex(HIGH_1080P_SPS);
+        byte[] csd = new byte[nal.length + 6];
+        System.arraycopy(nal, 0, csd, 6, nal.length);
+        csd[5] = 1;  // two bytes of junk, then 00 00 00 01
+        ByteBuffer buffer = ByteBuffer.allocateDirect(csd.length);
+        buffer.put(csd).flip();
+        buffer.position(2);
+        mParser.parseSps(buffer, mSps);
+        assertEquals(1080, mSps.mHeight);
+        assertEquals(2, buffer.position());
+        assertEquals(csd.length, buffer.limit());
+    }
+
+    @Test
+    public void reusesHoldersWithoutLeftovers() {
+        mParser.parseSps(wrap(HIGH_1080P_SPS), mSps);
+        mParser.parseSps(wrap(OPENH264_SPS), mSps);
+        assertEquals(1, mSps.mChromaFormatIdc);
+        assertEquals(0.0, mSps.getFrameRate(), 0);
+        mParser.parsePps(wrap(HIGH_1080P_PPS), mSps, mPps);
+        mParser.parsePps(wrap(OPENH264_PPS), mSps, mPps);
+        assertFalse(mPps.mTransform8x8Mode);
+        assertEquals(0, mPps.mSecondChromaQpIndexOffset);
+    }
+
+    @Test
+    public void rejectsOtherAndTruncatedNalUnits() {
+        try {
+            mParser.parseSps(wrap(HIGH_1080P_PPS), mSps);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        byte[] sps = hex(HIGH_1080P_SPS);
+        try {
+            mParser.parseSps(ByteBuffer.wrap(Arrays.copyOf(sps, 12)), mSps);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void readsExpGolombAcrossEmulationPrevention() {
+        NalBitReader reader = new NalBitReader();
+        // 1 010 011 00100 00101 then 00 00 03 01: ue 0, 1, 2, 3, 4, then the escaped bytes 00 00 01.
+        byte[] data = {(byte) 0xa6, 0x42, (byte) 0x80, 0x00, 0x00, 0x03, 0x01, (byte) 0x80};
+        reader.reset(ByteBuffer.wrap(data), 0, data.length);
+        for (int i = 0; i <= 4; i++) {
+            assertEquals(i, reader.readUnsignedExpGolomb());
+        }
+        assertEquals(0, reader.readBits(7));
+        assertEquals(0x000001, reader.readBits(24));
+        assertFalse(reader.hasMoreRbspData());
+        assertEquals(1, reader.readBits(1));
+
+        // se(v): 1 -> 0, 010 -> 1, 011 -> -1, 00100 -> 2, 00101 -> -2
+        reader.reset(ByteBuffer.wrap(data), 0, 3);
+        int[] expected = {0, 1, -1, 2, -2};
+        for (int value : expected) {
+            assertEquals(value, reader.readSignedExpGolomb());
+        }
+        assertEquals(0xffffffffL, readUnsignedInt(new byte[]{-1, -1, -1, -1}));
+    }
+
+    private static long readUnsignedInt(byte[] data) {
+        NalBitReader reader = new NalBitReader();
+        reader.reset(ByteBuffer.wrap(data), 0, data.length);
+        return reader.readUnsignedInt();
+    }
+
+    private static ByteBuffer wrap(String hex) {
+        return ByteBuffer.wrap(hex(hex));
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
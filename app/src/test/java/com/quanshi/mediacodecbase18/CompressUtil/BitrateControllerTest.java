@@ -0,0 +1,220 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BitrateControllerTest {
+    private static final long MB = 1024 * 1024;
+    private static final int FRAME_RATE = 30;
+    private static final int GOP_FRAMES = 30;
+    // Sync frames take as much as this many other frames.
+    private static final int SYNC_FRAME_WEIGHT = 4;
+    // AAC frames of 1024 samples at 44.1 kHz and 128 kbps.
+    private static final long AUDIO_FRAME_US = 1024L * 1000000 / 44100;
+    private static final int AUDIO_FRAME_BYTES = (int) (128000 / 8 * AUDIO_FRAME_US / 1000000);
+    private static final int MIN_BITRATE = 100 * 1000;
+    private static final int MAX_BITRATE = 20 * 1000 * 1000;
+
+    /**
+     * How many bytes per second an encoder produces when asked for a bitrate.
+     */
+    private interface EncoderModel {
+        double getBytesPerSecond(int bitrate, double timeSec);
+    }
+
+    private static class Simulation {
+        final long mDurationUs;
+        final BitrateController mController;
+        int mLagFrames;
+        int mLargestStepPercent;
+        long mVideoSamples;
+        long mAudioSamples;
+
+        Simulation(long maxOutputBytes, int durationSec) {
+            mDurationUs = durationSec * 1000000L;
+            long audioBytes = mDurationUs / AUDIO_FRAME_US * AUDIO_FRAME_BYTES;
+            long sampleCount = (long) durationSec * FRAME_RATE + mDurationUs / AUDIO_FRAME_US;
+            mController = new BitrateController(maxOutputBytes, mDurationUs, audioBytes, sampleCount, MIN_BITRATE,
+                    MAX_BITRATE);
+        }
+
+        /**
+         * Runs the encoder and the audio pass-through, interleaved like the muxer sees them.
+         *
+         * @return the size of the output file, with sample tables a little smaller than planned for.
+         */
+        long run(EncoderModel encoder) {
+            int frames = (int) (mDurationUs * FRAME_RATE / 1000000);
+            int encoderBitrate = mController.getBitrate();
+            int pendingBitrate = encoderBitrate;
+            int framesToApply = -1;
+            long audioTimeUs = 0;
+            for (int frame = 0; frame < frames; frame++) {
+                long timeUs = frame * 1000000L / FRAME_RATE;
+                while (audioTimeUs <= timeUs) {
+                    mController.onAudioSample(audioTimeUs, AUDIO_FRAME_BYTES);
+                    mAudioSamples++;
+                    audioTimeUs += AUDIO_FRAME_US;
+                }
+                if (framesToApply == 0) {
+                    encoderBitrate = pendingBitrate;
+                }
+                framesToApply--;
+                boolean sync = frame % GOP_FRAMES == 0;
+                double gopBytes = encoder.getBytesPerSecond(encoderBitrate, timeUs / 1e6) * GOP_FRAMES / FRAME_RATE;
+                double otherBytes = gopBytes / (GOP_FRAMES - 1 + SYNC_FRAME_WEIGHT);
+                int size = (int) Math.round(sync ? otherBytes * SYNC_FRAME_WEIGHT : otherBytes);
+                int before = mController.getBitrate();
+                if (mController.onVideoSample(timeUs, size, sync)) {
+                    int after = mController.getBitrate();
+                    mLargestStepPercent = Math.max(mLargestStepPercent,
+                            (int) (100.0 * Math.max(after, before) / Math.min(after, before)) - 100);
+                    pendingBitrate = after;
+                    framesToApply = mLagFrames;
+                    if (mLagFrames == 0) encoderBitrate = after;
+                }
+                mVideoSamples++;
+            }
+            while (audioTimeUs < mDurationUs) {
+                mController.onAudioSample(audioTimeUs, AUDIO_FRAME_BYTES);
+                mAudioSamples++;
+                audioTimeUs += AUDIO_FRAME_US;
+            }
+            return mController.getWrittenBytes() + 8 * 1024 + (mVideoSamples + mAudioSamples) * 10;
+        }
+    }
+
+    private static void assertLandsUnderCap(long maxOutputBytes, long outputBytes) {
+        String message = outputBytes + " bytes for a cap of " + maxOutputBytes;
+        assertTrue(message, outputBytes <= maxOutputBytes);
+        assertTrue(message, outputBytes >= maxOutputBytes * 0.95);
+    }
+
+    @Test
+    public void plansVideoFromWhatAudioAndContainerLeave() {
+        Simulation simulation = new Simulation(25 * MB, 120);
+        BitrateController controller = simulation.mController;
+        long audioBytes = 120 * 1000000L / AUDIO_FRAME_US * AUDIO_FRAME_BYTES;
+        long sampleCount = 120 * FRAME_RATE + 120 * 1000000L / AUDIO_FRAME_US;
+        long videoBytes = (long) (25 * MB * BitrateController.TARGET_FILL) - audioBytes
+                - BitrateController.CONTAINER_HEADER_BYTES - sampleCount * BitrateController.CONTAINER_BYTES_PER_SAMPLE;
+        assertEquals(videoBytes, controller.getPlannedVideoBytes());
+        assertEquals(videoBytes * 8 / 120, controller.getBitrate(), 1);
+    }
+
+    @Test
+    public void landsUnderCapWithExactEncoder() {
+        Simulation simulation = new Simulation(25 * MB, 120);
+        long outputBytes = simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return bitrate / 8.0;
+            }
+        });
+        assertLandsUnderCap(25 * MB, outputBytes);
+        assertEquals(0, simulation.mController.getAdjustmentCount());
+    }
+
+    @Test
+    public void correctsOvershootingEncoder() {
+        Simulation simulation = new Simulation(25 * MB, 120);
+        long outputBytes = simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return 1.3 * bitrate / 8;
+            }
+        });
+        assertLandsUnderCap(25 * MB, outputBytes);
+        assertEquals(1.3, simulation.mController.getEncoderResponse(), 0.01);
+    }
+
+    @Test
+    public void correctsUndershootingEncoder() {
+        Simulation simulation = new Simulation(25 * MB, 120);
+        long outputBytes = simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return 0.7 * bitrate / 8;
+            }
+        });
+        assertLandsUnderCap(25 * MB, outputBytes);
+    }
+
+    @Test
+    public void followsNonlinearResponse() {
+        // Rate control that gives less than asked at high bitrates and more at low ones.
+        Simulation simulation = new Simulation(40 * MB, 180);
+        long outputBytes = simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return 60 * Math.pow(bitrate, 0.8) / 8;
+            }
+        });
+        assertLandsUnderCap(40 * MB, outputBytes);
+    }
+
+    @Test
+    public void followsContentGettingHarder() {
+        // A calm start, then motion for the last third that the encoder overshoots on.
+        Simulation simulation = new Simulation(25 * MB, 120);
+        long outputBytes = simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return (timeSec < 80 ? 0.8 : 1.6) * bitrate / 8;
+            }
+        });
+        assertLandsUnderCap(25 * MB, outputBytes);
+    }
+
+    @Test
+    public void copesWithEncoderApplyingLate() {
+        Simulation simulation = new Simulation(25 * MB, 120);
+        simulation.mLagFrames = 10;
+        long outputBytes = simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return (1.2 + 0.3 * Math.sin(timeSec / 7)) * bitrate / 8;
+            }
+        });
+        assertLandsUnderCap(25 * MB, outputBytes);
+    }
+
+    @Test
+    public void changesBitrateInBoundedSteps() {
+        Simulation simulation = new Simulation(25 * MB, 120);
+        simulation.run(new EncoderModel() {
+            @Override
+            public double getBytesPerSecond(int bitrate, double timeSec) {
+                return (timeSec < 10 ? 0.3 : 3) * bitrate / 8;
+            }
+        });
+        assertTrue(simulation.mController.getAdjustmentCount() > 0);
+        assertTrue("step " + simulation.mLargestStepPercent + "%",
+                simulation.mLargestStepPercent <= (BitrateController.MAX_STEP - 1) * 100 + 1);
+    }
+
+    @Test
+    public void fallsToMinimumWhenAudioDoesNotFit() {
+        // 128 kbps of audio for ten minutes is about 9.4 MB.
+        Simulation simulation = new Simulation(8 * MB, 600);
+        assertTrue(simulation.mController.getPlannedVideoBytes() < 0);
+        assertEquals(MIN_BITRATE, simulation.mController.getBitrate());
+    }
+
+    @Test
+    public void rejectsInvalidPlans() {
+        try {
+            new BitrateController(0, 1000000, 0, 0, MIN_BITRATE, MAX_BITRATE);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new BitrateController(MB, -1, 0, 0, MIN_BITRATE, MAX_BITRATE);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
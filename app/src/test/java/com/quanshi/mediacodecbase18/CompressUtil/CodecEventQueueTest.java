@@ -0,0 +1,186 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodecEventQueueTest {
+
+    /**
+     * In-memory codec: turns each queued input into an output after a fixed latency, on a thread of its own,
+     * like a hardware codec calling back from its looper.
+     */
+    private static class FakeCodec extends Thread {
+        private final CodecEventQueue mEvents;
+        private final int mBufferCount;
+        private final int mFrameCount;
+        private final long mLatencyUs;
+        private final BlockingQueue<Long> mQueuedInputs = new LinkedBlockingQueue<>();
+        private final long[] mOutputTimesNs;
+
+        private FakeCodec(CodecEventQueue events, int bufferCount, int frameCount, long latencyUs) {
+            mEvents = events;
+            mBufferCount = bufferCount;
+            mFrameCount = frameCount;
+            mLatencyUs = latencyUs;
+            mOutputTimesNs = new long[frameCount];
+        }
+
+        void queueInputBuffer(long presentationTimeUs) {
+            mQueuedInputs.add(presentationTimeUs);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < mBufferCount; i++) {
+                    mEvents.onInputBufferAvailable(i);
+                }
+                mEvents.onOutputFormatChanged();
+                for (int frame = 0; frame < mFrameCount; frame++) {
+                    long presentationTimeUs = mQueuedInputs.take();
+                    spin(mLatencyUs);
+                    mOutputTimesNs[frame] = System.nanoTime();
+                    mEvents.onOutputBufferAvailable(frame % mBufferCount, 0, 100, presentationTimeUs,
+                            frame == mFrameCount - 1 ? 4 : 0);
+                    mEvents.onInputBufferAvailable(frame % mBufferCount);
+                }
+            } catch (InterruptedException e) {
+                // test is over
+            }
+        }
+
+        private static void spin(long us) {
+            long end = System.nanoTime() + us * 1000;
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Test
+    public void signalBeforeWaitIsNotLost() throws Exception {
+        EventPipelineScheduler scheduler = new EventPipelineScheduler();
+        scheduler.onWorkAvailable();
+        long start = System.nanoTime();
+        assertTrue(scheduler.awaitWork(10000));
+        assertTrue(System.nanoTime() - start < 1000L * 1000 * 1000);
+        assertFalse(scheduler.awaitWork(20));
+        assertEquals(1, scheduler.getWakeUpCount());
+        assertEquals(1, scheduler.getTimeoutCount());
+    }
+
+    @Test
+    public void keepsEventOrderAcrossRingGrowth() {
+        CodecEventQueue queue = new CodecEventQueue(new EventPipelineScheduler());
+        // Wrap the ring around before it has to grow.
+        for (int i = 0; i < 10; i++) {
+            queue.onOutputBufferAvailable(i, 0, i, i, 0);
+            queue.onInputBufferAvailable(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, queue.dequeueOutputBuffer());
+            assertEquals(i, queue.dequeueInputBuffer());
+        }
+        queue.onOutputFormatChanged();
+        for (int i = 0; i < 40; i++) {
+            queue.onOutputBufferAvailable(i, 1, 100 + i, 1000L * i, i == 39 ? 4 : 0);
+            queue.onInputBufferAvailable(i);
+        }
+        queue.onOutputBuffersChanged();
+
+        assertEquals(CodecEventQueue.INFO_OUTPUT_FORMAT_CHANGED, queue.dequeueOutputBuffer());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, queue.dequeueOutputBuffer());
+            assertEquals(1, queue.getOffset());
+            assertEquals(100 + i, queue.getSize());
+            assertEquals(1000L * i, queue.getPresentationTimeUs());
+            assertEquals(i == 39 ? 4 : 0, queue.getFlags());
+            assertEquals(i, queue.dequeueInputBuffer());
+        }
+        assertEquals(CodecEventQueue.INFO_OUTPUT_BUFFERS_CHANGED, queue.dequeueOutputBuffer());
+        assertEquals(CodecEventQueue.INFO_TRY_AGAIN_LATER, queue.dequeueOutputBuffer());
+        assertEquals(CodecEventQueue.INFO_TRY_AGAIN_LATER, queue.dequeueInputBuffer());
+    }
+
+    @Test
+    public void clearDropsPendingEvents() {
+        CodecEventQueue queue = new CodecEventQueue(new EventPipelineScheduler());
+        queue.onInputBufferAvailable(3);
+        queue.onOutputBufferAvailable(1, 0, 0, 0, 0);
+        queue.clear();
+        assertEquals(CodecEventQueue.INFO_TRY_AGAIN_LATER, queue.dequeueInputBuffer());
+        assertEquals(CodecEventQueue.INFO_TRY_AGAIN_LATER, queue.dequeueOutputBuffer());
+    }
+
+    @Test
+    public void errorIsThrownToConsumerAndWakesIt() throws Exception {
+        EventPipelineScheduler scheduler = new EventPipelineScheduler();
+        CodecEventQueue queue = new CodecEventQueue(scheduler);
+        IllegalStateException error = new IllegalStateException("codec died");
+        queue.onError(error);
+        assertTrue(scheduler.awaitWork(0));
+        try {
+            queue.dequeueOutputBuffer();
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(error, e);
+        }
+    }
+
+    @Test
+    public void fakeCodecDrivesPipelineWithoutPolling() throws Exception {
+        final int frameCount = 300;
+        EventPipelineScheduler scheduler = new EventPipelineScheduler();
+        CodecEventQueue queue = new CodecEventQueue(scheduler);
+        FakeCodec codec = new FakeCodec(queue, 4, frameCount, 500);
+        codec.start();
+
+        long maxWakeLatencyNs = 0;
+        int received = 0;
+        int queued = 0;
+        boolean formatChanged = false;
+        boolean eos = false;
+        try {
+            while (!eos) {
+                boolean stepped = false;
+                while (queued < frameCount && queue.dequeueInputBuffer() >= 0) {
+                    codec.queueInputBuffer(queued * 33333L);
+                    queued++;
+                    stepped = true;
+                }
+                int outputIndex;
+                while ((outputIndex = queue.dequeueOutputBuffer()) != CodecEventQueue.INFO_TRY_AGAIN_LATER) {
+                    stepped = true;
+                    if (outputIndex == CodecEventQueue.INFO_OUTPUT_FORMAT_CHANGED) {
+                        formatChanged = true;
+                        continue;
+                    }
+                    assertTrue(formatChanged);
+                    assertEquals(received * 33333L, queue.getPresentationTimeUs());
+                    maxWakeLatencyNs = Math.max(maxWakeLatencyNs,
+                            System.nanoTime() - codec.mOutputTimesNs[received]);
+                    eos = (queue.getFlags() & 4) != 0;
+                    received++;
+                }
+                if (!stepped) {
+                    assertTrue("pipeline was not woken up", scheduler.awaitWork(5000));
+                }
+            }
+        } finally {
+            codec.interrupt();
+            codec.join();
+        }
+        assertEquals(frameCount, received);
+        assertEquals(0, scheduler.getTimeoutCount());
+        // Far below the 10 ms a sleeping poller would add; generous to stay stable on loaded machines.
+        assertTrue("wake-up latency " + maxWakeLatencyNs + " ns", maxWakeLatencyNs < 200L * 1000 * 1000);
+    }
+}
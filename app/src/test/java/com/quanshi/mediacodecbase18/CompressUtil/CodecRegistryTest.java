@@ -0,0 +1,182 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodecRegistryTest {
+    private static final String AVC = "video/avc";
+    private static final String HEVC = "video/hevc";
+    private static final String AAC = "audio/mp4a-latm";
+    private static final String FINGERPRINT = "vendor/device/device:9/PQ1A/1:user/release-keys";
+    private static final int BASELINE = 1;
+    private static final int MAIN = 2;
+    private static final int HIGH = 8;
+    private static final int CONSTRAINED_BASELINE = 0x10000;
+    private static final int CONSTRAINED_HIGH = 0x80000;
+    private static final int HEVC_MAIN = 1;
+    private static final int HEVC_MAIN_10 = 2;
+    private static final int HEVC_MAIN_10_HDR10 = 0x1000;
+    private static final int LEVEL_31 = 0x200;
+    private static final int LEVEL_4 = 0x800;
+    private static final int LEVEL_51 = 0x4000;
+
+    @Test
+    public void ranksHardwareFirst() {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(
+                encoder("OMX.google.h264.encoder", false, HIGH, LEVEL_51, 32, 2),
+                encoder("OMX.qcom.video.encoder.avc", true, BASELINE, LEVEL_31, 1, 16)));
+        assertEquals("OMX.qcom.video.encoder.avc", registry.getBestEncoder(AVC).getName());
+    }
+
+    @Test
+    public void ranksByProfileThenLevel() {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(
+                encoder("baseline", true, BASELINE, LEVEL_51, 16, 2),
+                encoder("high-4", true, HIGH, LEVEL_4, 16, 2),
+                encoder("main", true, MAIN, LEVEL_51, 16, 2),
+                encoder("high-51", true, HIGH, LEVEL_51, 16, 2)));
+        assertEquals(Arrays.asList("high-51", "high-4", "main", "baseline"), names(registry.getEncoders(AVC)));
+    }
+
+    @Test
+    public void ranksConstrainedProfilesBelowTheirFullOnes() {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(
+                encoder("constrained-high", true, CONSTRAINED_HIGH, LEVEL_51, 16, 2),
+                new CodecInfo("constrained-baseline", AVC, true, true, new int[]{CONSTRAINED_BASELINE},
+                        new int[]{LEVEL_51}, 16, 2, 2),
+                encoder("high", true, HIGH, LEVEL_4, 16, 2),
+                encoder("main", true, MAIN, LEVEL_51, 16, 2)));
+        assertEquals(Arrays.asList("high", "constrained-high", "main", "constrained-baseline"),
+                names(registry.getEncoders(AVC)));
+    }
+
+    @Test
+    public void ranksHevcHdrProfilesWithMain10() {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(
+                new CodecInfo("main-10-hdr10", HEVC, true, true, new int[]{HEVC_MAIN, HEVC_MAIN_10_HDR10},
+                        new int[]{LEVEL_51, LEVEL_31}, 16, 2, 2),
+                new CodecInfo("main-10", HEVC, true, true, new int[]{HEVC_MAIN, HEVC_MAIN_10},
+                        new int[]{LEVEL_51, LEVEL_4}, 16, 2, 2),
+                new CodecInfo("main", HEVC, true, true, new int[]{HEVC_MAIN}, new int[]{LEVEL_51}, 16, 2, 2)));
+        // Same rank, so the level decides.
+        assertEquals(Arrays.asList("main-10", "main-10-hdr10", "main"), names(registry.getEncoders(HEVC)));
+    }
+
+    @Test
+    public void ranksProfilesOfUnknownTypesTheSame() {
+        assertEquals(0, CodecInfo.getProfileRank(AAC, 2));
+        assertEquals(0, CodecInfo.getProfileRank(AVC, 0x7));
+        assertTrue(CodecInfo.getProfileRank(AVC, CONSTRAINED_HIGH) < CodecInfo.getProfileRank(AVC, HIGH));
+        assertTrue(CodecInfo.getProfileRank(AVC, CONSTRAINED_BASELINE) < CodecInfo.getProfileRank(AVC, BASELINE));
+    }
+
+    @Test
+    public void ranksByInstancesThenAlignment() {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(
+                encoder("few", true, HIGH, LEVEL_4, 2, 2),
+                encoder("many-aligned-16", true, HIGH, LEVEL_4, 16, 16),
+                encoder("many-aligned-2", true, HIGH, LEVEL_4, 16, 2),
+                encoder("many-aligned-2-later", true, HIGH, LEVEL_4, 16, 2)));
+        // Equal codecs keep the platform order.
+        assertEquals(Arrays.asList("many-aligned-2", "many-aligned-2-later", "many-aligned-16", "few"),
+                names(registry.getEncoders(AVC)));
+    }
+
+    @Test
+    public void looksUpByMimeAndDirection() {
+        CodecInfo decoder = new CodecInfo("OMX.qcom.video.decoder.avc", AVC, false, true, new int[]{HIGH},
+                new int[]{LEVEL_51}, 16, 2, 2);
+        CodecInfo aac = new CodecInfo("OMX.google.aac.encoder", AAC, true, false, new int[0], new int[0], 32, 1, 1);
+        CodecInfo avc = encoder("OMX.qcom.video.encoder.avc", true, HIGH, LEVEL_4, 16, 16);
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(decoder, aac, avc));
+
+        assertEquals(avc, registry.getBestEncoder("VIDEO/AVC"));
+        assertEquals(decoder, registry.getBestDecoder(AVC));
+        assertEquals(aac, registry.getBestEncoder(AAC));
+        assertNull(registry.getBestDecoder(AAC));
+        assertNull(registry.getBestEncoder("video/hevc"));
+        // Answered from the same ranked list every time.
+        assertTrue(registry.getEncoders(AVC) == registry.getEncoders(AVC));
+    }
+
+    @Test
+    public void guessesSoftwareCodecsByName() {
+        assertTrue(CodecRegistry.isSoftwareCodecName("OMX.google.h264.encoder"));
+        assertTrue(CodecRegistry.isSoftwareCodecName("c2.android.avc.encoder"));
+        assertTrue(CodecRegistry.isSoftwareCodecName("OMX.MTK.VIDEO.ENCODER.AVC.sw"));
+        assertFalse(CodecRegistry.isSoftwareCodecName("OMX.qcom.video.encoder.avc"));
+        assertFalse(CodecRegistry.isSoftwareCodecName("c2.exynos.h264.encoder"));
+    }
+
+    @Test
+    public void roundTripsThroughTheCache() throws IOException {
+        List<CodecInfo> codecs = new ArrayList<>();
+        codecs.add(encoder("OMX.qcom.video.encoder.avc", true, HIGH, LEVEL_4, 16, 16));
+        codecs.add(new CodecInfo("OMX.qcom.video.decoder.avc", AVC, false, true, new int[]{BASELINE, MAIN, HIGH},
+                new int[]{LEVEL_51, LEVEL_51, LEVEL_4}, 16, 2, 2));
+        codecs.add(new CodecInfo("OMX.google.aac.encoder", AAC, true, false, new int[0], new int[0], 1, 1, 1));
+        CodecRegistry registry = new CodecRegistry(codecs);
+
+        CodecRegistry read = CodecRegistry.read(new ByteArrayInputStream(write(registry, FINGERPRINT)), FINGERPRINT);
+        assertEquals(codecs, read.getCodecs());
+        assertEquals(registry.getBestEncoder(AVC), read.getBestEncoder(AVC));
+    }
+
+    @Test
+    public void ignoresTheCacheOfAnotherBuild() throws IOException {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(encoder("avc", true, HIGH, LEVEL_4, 16, 16)));
+        byte[] cache = write(registry, FINGERPRINT);
+        assertNull(CodecRegistry.read(new ByteArrayInputStream(cache), FINGERPRINT + ".1"));
+    }
+
+    @Test
+    public void rejectsCorruptCaches() throws IOException {
+        CodecRegistry registry = new CodecRegistry(Arrays.asList(encoder("avc", true, HIGH, LEVEL_4, 16, 16)));
+        byte[] cache = write(registry, FINGERPRINT);
+        try {
+            CodecRegistry.read(new ByteArrayInputStream(Arrays.copyOf(cache, cache.length - 3)), FINGERPRINT);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        cache[0] ^= 1;
+        try {
+            CodecRegistry.read(new ByteArrayInputStream(cache), FINGERPRINT);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static CodecInfo encoder(String name, boolean hardware, int profile, int level, int maxInstances,
+                                     int alignment) {
+        return new CodecInfo(name, AVC, true, hardware, new int[]{BASELINE, profile}, new int[]{LEVEL_31, level},
+                maxInstances, alignment, alignment);
+    }
+
+    private static byte[] write(CodecRegistry registry, String fingerprint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        registry.write(out, fingerprint);
+        return out.toByteArray();
+    }
+
+    private static List<String> names(List<CodecInfo> codecs) {
+        List<String> names = new ArrayList<>();
+        for (CodecInfo codec : codecs) {
+            names.add(codec.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,117 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComplexityAnalyzerTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int GOP_FRAMES = 30;
+
+    /**
+     * Adds {@code gops} GOPs whose sync frame has {@code syncSize} bytes and whose other frames have
+     * {@code otherSize} bytes, give or take {@code jitter}.
+     */
+    private static void addGops(ComplexityAnalyzer analyzer, Random random, int gops, int syncSize, int otherSize,
+                                int jitter) {
+        for (int gop = 0; gop < gops; gop++) {
+            analyzer.addSample(syncSize, true);
+            for (int i = 1; i < GOP_FRAMES; i++) {
+                analyzer.addSample(otherSize + (jitter > 0 ? random.nextInt(2 * jitter + 1) - jitter : 0), false);
+            }
+        }
+    }
+
+    @Test
+    public void scoresStaticContentLow() {
+        // Slides: a big sync frame, then next to nothing.
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(WIDTH, HEIGHT);
+        addGops(analyzer, new Random(1), 20, 100000, 500, 100);
+        ComplexityAnalyzer.Result result = analyzer.finish();
+        assertEquals(20, result.getGopCount());
+        assertTrue(result.toString(), result.getScore() < 0.1f);
+    }
+
+    @Test
+    public void scoresMotionHigh() {
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(WIDTH, HEIGHT);
+        addGops(analyzer, new Random(2), 20, 60000, 40000, 15000);
+        ComplexityAnalyzer.Result result = analyzer.finish();
+        assertTrue(result.toString(), result.getScore() > 0.8f);
+    }
+
+    @Test
+    public void busyPartIsNotOutweighedByCalmRest() {
+        // Action for 30% of a talking head, more than the quarter above the percentile.
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(WIDTH, HEIGHT);
+        Random random = new Random(3);
+        addGops(analyzer, random, 35, 80000, 2000, 200);
+        addGops(analyzer, random, 30, 60000, 40000, 15000);
+        addGops(analyzer, random, 35, 80000, 2000, 200);
+        float mixed = analyzer.finish().getScore();
+        assertTrue("mixed " + mixed, mixed > 0.5f);
+
+        analyzer = new ComplexityAnalyzer(WIDTH, HEIGHT);
+        addGops(analyzer, random, 95, 80000, 2000, 200);
+        addGops(analyzer, random, 5, 60000, 40000, 15000);
+        float mostlyCalm = analyzer.finish().getScore();
+        assertTrue("mostly calm " + mostlyCalm, mostlyCalm < 0.2f);
+    }
+
+    @Test
+    public void variationRaisesTheScore() {
+        double steady = ComplexityAnalyzer.getScore(0.2, 0);
+        double bursty = ComplexityAnalyzer.getScore(0.2, 1);
+        assertTrue(bursty > steady);
+        assertEquals(0, ComplexityAnalyzer.getScore(ComplexityAnalyzer.STATIC_RATIO, 0), 1e-9);
+        assertEquals(1, ComplexityAnalyzer.getScore(2, 3), 1e-9);
+    }
+
+    @Test
+    public void isNeutralWithoutFramesToJudge() {
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(WIDTH, HEIGHT);
+        assertEquals(ComplexityAnalyzer.NEUTRAL_SCORE, analyzer.finish().getScore(), 0);
+
+        // All intra, and leading samples without a sync frame before them.
+        analyzer.addSample(3000, false);
+        for (int i = 0; i < 100; i++) {
+            analyzer.addSample(50000, true);
+        }
+        ComplexityAnalyzer.Result result = analyzer.finish();
+        assertEquals(ComplexityAnalyzer.NEUTRAL_SCORE, result.getScore(), 0);
+        assertEquals(100, result.getGopCount());
+    }
+
+    @Test
+    public void measuresBitsPerPixelOfTheGops() {
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(WIDTH, HEIGHT);
+        // 0.1 and 0.3 bits per pixel per frame.
+        int low = (int) (0.1 * WIDTH * HEIGHT / 8);
+        int high = (int) (0.3 * WIDTH * HEIGHT / 8);
+        addGops(analyzer, null, 3, low, low, 0);
+        addGops(analyzer, null, 1, high, high, 0);
+        ComplexityAnalyzer.Result result = analyzer.finish();
+        assertEquals(0.15, result.getMeanBitsPerPixel(), 1e-3);
+        // Three GOPs 0.05 below, one 0.15 above.
+        assertEquals((3 * 0.05 * 0.05 + 0.15 * 0.15) / 4, result.getBitsPerPixelVariance(), 1e-5);
+    }
+
+    @Test
+    public void mapsComplexityToBitsPerPixel() {
+        assertEquals(BitsPerPixelModel.STATIC_CONTENT, BitsPerPixelModel.forComplexity(0).getBitsPerPixel(), 1e-6);
+        assertEquals(BitsPerPixelModel.MEDIUM_MOTION,
+                BitsPerPixelModel.forComplexity(ComplexityAnalyzer.NEUTRAL_SCORE).getBitsPerPixel(), 1e-6);
+        assertEquals(BitsPerPixelModel.HIGH_MOTION, BitsPerPixelModel.forComplexity(1).getBitsPerPixel(), 1e-6);
+        assertEquals(BitsPerPixelModel.HIGH_MOTION, BitsPerPixelModel.forComplexity(7).getBitsPerPixel(), 1e-6);
+        float previous = 0;
+        for (int i = 0; i <= 10; i++) {
+            float bitsPerPixel = BitsPerPixelModel.forComplexity(i / 10f).getBitsPerPixel();
+            assertTrue(bitsPerPixel > previous);
+            previous = bitsPerPixel;
+        }
+    }
+}
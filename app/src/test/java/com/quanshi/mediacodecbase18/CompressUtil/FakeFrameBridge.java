@@ -0,0 +1,47 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.ArrayDeque;
+
+/**
+ * Passes the frames a fake decoder renders on to a fake encoder. Like swapping buffers onto an encoder's input
+ * surface, a transfer blocks until the encoder has a free input buffer; if the encoder can never free one because
+ * nobody drains its output, the real pipeline would hang, and this throws instead.
+ */
+class FakeFrameBridge implements FrameBridge {
+    private final FakePipelineScheduler mScheduler;
+    private final FakePipelineCodec mEncoder;
+    private final ArrayDeque<Long> mRendered = new ArrayDeque<>();
+    private int mTransferCount;
+
+    FakeFrameBridge(FakePipelineScheduler scheduler, FakePipelineCodec decoder, FakePipelineCodec encoder) {
+        mScheduler = scheduler;
+        mEncoder = encoder;
+        decoder.setOutputSurface(this);
+    }
+
+    void onFrameRendered(long presentationTimeUs) {
+        mRendered.add(presentationTimeUs);
+    }
+
+    @Override
+    public void transferFrame(long presentationTimeUs) {
+        Long rendered = mRendered.poll();
+        if (rendered == null || rendered != presentationTimeUs) {
+            throw new IllegalStateException("Frame " + presentationTimeUs + " was not rendered, got " + rendered);
+        }
+        while (!mEncoder.hasFreeInput()) {
+            long nextUs = mEncoder.getNextInputFreeTimeUs();
+            if (nextUs == Long.MAX_VALUE) {
+                throw new IllegalStateException("Deadlock: encoder input full at " + mScheduler.getTimeUs()
+                        + "us and its output is not drained.");
+            }
+            mScheduler.advanceTo(nextUs);
+        }
+        mEncoder.queueSurfaceFrame(presentationTimeUs);
+        mTransferCount++;
+    }
+
+    int getTransferCount() {
+        return mTransferCount;
+    }
+}
@@ -0,0 +1,247 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Deterministic stand-in for a decoder or encoder, in the virtual time of a {@link FakePipelineScheduler}.
+ * <p>
+ * Frames are processed one after the other, each taking the latency, and hold their input buffer until done.
+ * A done frame needs a free output buffer, which it holds until released; with none free the codec stalls like a
+ * real one. The first output is preceded by a format change. Frames come either through input buffers or, for an
+ * encoder, from a {@link FakeFrameBridge}; a decoder renders to the bridge it is given.
+ */
+class FakePipelineCodec implements PipelineCodec, FakePipelineScheduler.Timed {
+    private static class Frame {
+        final int mInputIndex;
+        final long mPresentationTimeUs;
+        final int mFlags;
+        final long mDoneTimeUs;
+
+        Frame(int inputIndex, long presentationTimeUs, int flags, long doneTimeUs) {
+            mInputIndex = inputIndex;
+            mPresentationTimeUs = presentationTimeUs;
+            mFlags = flags;
+            mDoneTimeUs = doneTimeUs;
+        }
+    }
+
+    private final FakePipelineScheduler mScheduler;
+    private final long mLatencyUs;
+    private final ByteBuffer[] mInputBuffers;
+    private final ArrayDeque<Integer> mFreeInputs = new ArrayDeque<>();
+    private final ArrayDeque<Frame> mProcessing = new ArrayDeque<>();
+    private final ArrayDeque<Frame> mDone = new ArrayDeque<>();
+    private final Frame[] mOutputs;
+    private final ByteBuffer[] mOutputBuffers;
+    private int mOutputsInUse;
+    private long mLastDoneTimeUs;
+    private long mStallStartUs = Long.MAX_VALUE;
+    private long mStallEndUs = Long.MAX_VALUE;
+    private int mOutputSampleSize;
+    private int mSyncInterval = 1;
+    private FakeFrameBridge mOutputSurface;
+    private boolean mFormatChanged;
+    private boolean mInputEnded;
+    private Frame mDequeued;
+    private int mOutputCount;
+
+    /**
+     * @param outputSampleSize bytes of each output buffer, e.g. 0 for a decoder rendering to a surface.
+     */
+    FakePipelineCodec(FakePipelineScheduler scheduler, int inputBufferCount, int outputBufferCount,
+                      long latencyUs, int outputSampleSize) {
+        mScheduler = scheduler;
+        mLatencyUs = latencyUs;
+        mInputBuffers = new ByteBuffer[inputBufferCount];
+        for (int i = 0; i < inputBufferCount; i++) {
+            mInputBuffers[i] = ByteBuffer.allocate(64 * 1024);
+            mFreeInputs.add(i);
+        }
+        mOutputs = new Frame[outputBufferCount];
+        mOutputBuffers = new ByteBuffer[outputBufferCount];
+        for (int i = 0; i < outputBufferCount; i++) {
+            mOutputBuffers[i] = ByteBuffer.allocate(outputSampleSize);
+        }
+        mOutputSampleSize = outputSampleSize;
+        scheduler.register(this);
+    }
+
+    /**
+     * Processes nothing from {@code startUs} for {@code durationUs}, like a codec held up by the system.
+     */
+    void setStall(long startUs, long durationUs) {
+        mStallStartUs = startUs;
+        mStallEndUs = startUs + durationUs;
+    }
+
+    /**
+     * Marks every {@code syncInterval}th output frame a sync frame, as an encoder does.
+     */
+    void setSyncInterval(int syncInterval) {
+        mSyncInterval = syncInterval;
+    }
+
+    void setOutputSurface(FakeFrameBridge outputSurface) {
+        mOutputSurface = outputSurface;
+    }
+
+    boolean hasFreeInput() {
+        update();
+        return !mFreeInputs.isEmpty();
+    }
+
+    /**
+     * Takes a frame drawn onto the input surface.
+     */
+    void queueSurfaceFrame(long presentationTimeUs) {
+        if (mFreeInputs.isEmpty()) {
+            throw new IllegalStateException("No free input buffer.");
+        }
+        process(mFreeInputs.poll(), presentationTimeUs, 0);
+    }
+
+    private void process(int inputIndex, long presentationTimeUs, int flags) {
+        if (mInputEnded) {
+            throw new IllegalStateException("Input after the end of stream.");
+        }
+        mInputEnded = (flags & BUFFER_FLAG_END_OF_STREAM) != 0;
+        long startUs = Math.max(mScheduler.getTimeUs(), mLastDoneTimeUs);
+        if (startUs >= mStallStartUs && startUs < mStallEndUs) {
+            startUs = mStallEndUs;
+        }
+        long doneUs = startUs + mLatencyUs;
+        if (startUs < mStallStartUs && doneUs > mStallStartUs) {
+            doneUs += mStallEndUs - mStallStartUs;
+        }
+        mLastDoneTimeUs = doneUs;
+        mProcessing.add(new Frame(inputIndex, presentationTimeUs, flags, doneUs));
+    }
+
+    /**
+     * Moves the frames done by now to the outputs, as far as there are free output buffers.
+     */
+    void update() {
+        while (!mProcessing.isEmpty() && mProcessing.peek().mDoneTimeUs <= mScheduler.getTimeUs()
+                && mOutputsInUse < mOutputs.length) {
+            Frame frame = mProcessing.poll();
+            if (frame.mInputIndex >= 0) mFreeInputs.add(frame.mInputIndex);
+            mDone.add(frame);
+            mOutputsInUse++;
+        }
+    }
+
+    /**
+     * @return when the next input buffer is freed, {@link Long#MAX_VALUE} if that waits for an output buffer.
+     */
+    long getNextInputFreeTimeUs() {
+        update();
+        if (mProcessing.isEmpty() || mOutputsInUse == mOutputs.length) return Long.MAX_VALUE;
+        return mProcessing.peek().mDoneTimeUs;
+    }
+
+    @Override
+    public long getNextEventTimeUs() {
+        update();
+        if (!mDone.isEmpty()) return mScheduler.getTimeUs();
+        if (mProcessing.isEmpty() || mOutputsInUse == mOutputs.length) return Long.MAX_VALUE;
+        return mProcessing.peek().mDoneTimeUs;
+    }
+
+    @Override
+    public int dequeueInputBuffer() {
+        update();
+        Integer index = mFreeInputs.poll();
+        return index != null ? index : INFO_TRY_AGAIN_LATER;
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mInputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        process(index, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        process(-1, 0, BUFFER_FLAG_END_OF_STREAM);
+    }
+
+    @Override
+    public int dequeueOutputBuffer() {
+        update();
+        if (mDone.isEmpty()) return INFO_TRY_AGAIN_LATER;
+        if (!mFormatChanged) {
+            mFormatChanged = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        int index = 0;
+        while (mOutputs[index] != null) index++;
+        mDequeued = mDone.poll();
+        mOutputs[index] = mDequeued;
+        return index;
+    }
+
+    @Override
+    public int getOutputOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getOutputSize() {
+        return (mDequeued.mFlags & BUFFER_FLAG_END_OF_STREAM) != 0 ? 0 : mOutputSampleSize;
+    }
+
+    @Override
+    public long getOutputPresentationTimeUs() {
+        return mDequeued.mPresentationTimeUs;
+    }
+
+    @Override
+    public int getOutputFlags() {
+        int flags = mDequeued.mFlags;
+        if ((flags & BUFFER_FLAG_END_OF_STREAM) == 0 && mOutputCount % mSyncInterval == 0) {
+            flags |= BUFFER_FLAG_SYNC_FRAME;
+        }
+        return flags;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        ByteBuffer buffer = mOutputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        Frame frame = mOutputs[index];
+        if (frame == null) {
+            throw new IllegalStateException("Output buffer " + index + " is not in use.");
+        }
+        mOutputs[index] = null;
+        mOutputsInUse--;
+        if ((frame.mFlags & BUFFER_FLAG_END_OF_STREAM) == 0) mOutputCount++;
+        if (render) {
+            if (mOutputSurface == null) {
+                throw new IllegalStateException("Rendered without an output surface.");
+            }
+            mOutputSurface.onFrameRendered(frame.mPresentationTimeUs);
+        }
+    }
+
+    @Override
+    public int getPendingOutputCount() {
+        return mDone.size();
+    }
+
+    /**
+     * @return output frames released so far, without the end of stream.
+     */
+    int getOutputCount() {
+        return mOutputCount;
+    }
+}
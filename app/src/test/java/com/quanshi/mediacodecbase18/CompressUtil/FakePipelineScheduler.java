@@ -0,0 +1,82 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a pipeline over fake codecs in virtual time, so runs are deterministic and take no wall time: waiting for
+ * work moves the time on to the next moment a fake has something to deliver.
+ */
+class FakePipelineScheduler implements PipelineScheduler {
+    /**
+     * A fake whose state changes at points in virtual time.
+     */
+    interface Timed {
+        /**
+         * @return when the fake next has something for the pipeline, {@link Long#MAX_VALUE} if it waits for the
+         * pipeline.
+         */
+        long getNextEventTimeUs();
+    }
+
+    private final List<Timed> mTimed = new ArrayList<>();
+    private long mTimeUs;
+    private int mWakeUpCount;
+    private int mTimeoutCount;
+
+    void register(Timed timed) {
+        mTimed.add(timed);
+    }
+
+    long getTimeUs() {
+        return mTimeUs;
+    }
+
+    void advanceTo(long timeUs) {
+        if (timeUs < mTimeUs) {
+            throw new IllegalArgumentException("Time goes back: " + timeUs + " < " + mTimeUs);
+        }
+        mTimeUs = timeUs;
+    }
+
+    /**
+     * @return the earliest next event of the fakes, or {@link Long#MAX_VALUE} if they all wait.
+     */
+    long getNextEventTimeUs() {
+        long nextUs = Long.MAX_VALUE;
+        for (Timed timed : mTimed) {
+            nextUs = Math.min(nextUs, timed.getNextEventTimeUs());
+        }
+        return nextUs;
+    }
+
+    @Override
+    public void onWorkAvailable() {
+        // Work is found by looking at the fakes.
+    }
+
+    /**
+     * Moves the time to the next event, or by the whole timeout if no fake has anything coming.
+     */
+    @Override
+    public boolean awaitWork(long timeoutMs) {
+        long nextUs = getNextEventTimeUs();
+        long timeoutUs = mTimeUs + timeoutMs * 1000;
+        if (nextUs > timeoutUs) {
+            mTimeUs = timeoutUs;
+            mTimeoutCount++;
+            return false;
+        }
+        mTimeUs = Math.max(mTimeUs, nextUs);
+        mWakeUpCount++;
+        return true;
+    }
+
+    int getWakeUpCount() {
+        return mWakeUpCount;
+    }
+
+    int getTimeoutCount() {
+        return mTimeoutCount;
+    }
+}
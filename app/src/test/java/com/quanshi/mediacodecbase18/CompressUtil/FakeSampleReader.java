@@ -0,0 +1,53 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single video track of evenly spaced samples of one size, with a sync sample every few.
+ */
+class FakeSampleReader implements SampleReader {
+    private final int mFrameCount;
+    private final long mFrameIntervalUs;
+    private final int mSyncInterval;
+    private final int mSampleSize;
+    private int mFrame;
+
+    FakeSampleReader(int frameCount, long frameIntervalUs, int syncInterval, int sampleSize) {
+        mFrameCount = frameCount;
+        mFrameIntervalUs = frameIntervalUs;
+        mSyncInterval = syncInterval;
+        mSampleSize = sampleSize;
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return mFrame < mFrameCount ? 0 : -1;
+    }
+
+    @Override
+    public long getSampleTime() {
+        return mFrame < mFrameCount ? mFrame * mFrameIntervalUs : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mFrame < mFrameCount && mFrame % mSyncInterval == 0 ? SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public int readSampleData(ByteBuffer buffer, int offset) {
+        if (mFrame >= mFrameCount) return -1;
+        buffer.clear();
+        buffer.position(offset);
+        buffer.put(new byte[mSampleSize]);
+        buffer.flip();
+        return mSampleSize;
+    }
+
+    @Override
+    public boolean advance() {
+        if (mFrame >= mFrameCount) return false;
+        mFrame++;
+        return mFrame < mFrameCount;
+    }
+}
@@ -0,0 +1,376 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FragmentedMp4WriterTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, (byte) 0xda, 0x01};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+    private static final long FRAME_DURATION_US = 40000;
+    private static final int GOP_SIZE = 10;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private final List<String> mUploadedNames = Collections.synchronizedList(new ArrayList<String>());
+    private final List<byte[]> mUploads = Collections.synchronizedList(new ArrayList<byte[]>());
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/upload/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = readAll(exchange.getRequestBody());
+                mUploadedNames.add(exchange.getRequestURI().getPath().substring("/upload/".length()));
+                mUploads.add(body);
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void uploadsOneFragmentPerGop() throws IOException {
+        File directory = mFolder.newFolder();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(directory, "clip", 0, 2, new UploadingSink());
+        List<byte[]> frames = writeClip(writer, 3 * GOP_SIZE, 40);
+
+        assertEquals(Arrays.asList("clip-init.mp4", "clip-00001.m4s", "clip-00002.m4s", "clip-00003.m4s"),
+                mUploadedNames);
+        // Everything was consumed and deleted, temporary files included.
+        assertEquals(0, directory.list().length);
+
+        ByteBuffer stream = ByteBuffer.wrap(concat(mUploads));
+        List<String> types = new ArrayList<>();
+        List<ByteBuffer> boxes = new ArrayList<>();
+        readBoxes(stream, types, boxes);
+        assertEquals(Arrays.asList("ftyp", "moov", "moof", "mdat", "moof", "mdat", "moof", "mdat"), types);
+        assertEquals(2, findBoxes(findBoxes(boxes.get(1), "mvex").get(0), "trex").size());
+
+        for (int f = 0; f < 3; f++) {
+            ByteBuffer moof = boxes.get(2 + 2 * f);
+            assertEquals(f + 1, fullBoxPayload(findBoxes(moof, "mfhd").get(0)).getInt());
+            ByteBuffer videoTraf = findTraf(moof, 1);
+            ByteBuffer tfdt = fullBoxPayload(findBoxes(videoTraf, "tfdt").get(0));
+            assertEquals(f * GOP_SIZE * FRAME_DURATION_US * 90000 / 1000000, tfdt.getLong());
+
+            ByteBuffer trun = fullBoxPayload(findBoxes(videoTraf, "trun").get(0));
+            assertEquals(GOP_SIZE, trun.getInt());
+            int dataOffset = trun.getInt();
+            // The data offset counts from the start of moof, which mdat follows.
+            ByteBuffer data = concatBoxes(moof, boxes.get(3 + 2 * f));
+            for (int s = 0; s < GOP_SIZE; s++) {
+                int duration = trun.getInt();
+                int size = trun.getInt();
+                int flags = trun.getInt();
+                trun.getInt();
+                assertEquals(3600, duration);
+                assertEquals(s == 0, flags == SAMPLE_FLAGS_SYNC);
+                byte[] expected = lengthPrefixed(frames.get(f * GOP_SIZE + s));
+                assertEquals(expected.length, size);
+                byte[] actual = new byte[size];
+                data.position(dataOffset);
+                data.get(actual);
+                assertArrayEquals(expected, actual);
+                dataOffset += size;
+            }
+        }
+    }
+
+    @Test
+    public void cutsFragmentsAfterTheRequestedDuration() throws IOException {
+        final List<FragmentedMp4Writer.Fragment> fragments = new ArrayList<>();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(mFolder.newFolder(), "clip", 1000 * 1000, 2,
+                new FragmentedMp4Writer.FragmentSink() {
+                    @Override
+                    public void onFragment(FragmentedMp4Writer.Fragment fragment) {
+                        fragments.add(fragment);
+                        assertEquals(fragment.getSize(), fragment.getFile().length());
+                    }
+                });
+        writeClip(writer, 6 * GOP_SIZE, 0);
+
+        assertEquals(3, fragments.size());
+        assertTrue(fragments.get(0).isInitSegment());
+        // The first sync frame at least one second in is frame 30.
+        assertEquals(0, fragments.get(1).getStartTimeUs());
+        assertEquals(30 * FRAME_DURATION_US, fragments.get(1).getDurationUs());
+        assertEquals(30 * FRAME_DURATION_US, fragments.get(2).getStartTimeUs());
+        assertEquals(30 * FRAME_DURATION_US, fragments.get(2).getDurationUs());
+    }
+
+    @Test
+    public void keepsPendingFragmentsBounded() throws IOException {
+        final File directory = mFolder.newFolder();
+        final AtomicInteger maxFiles = new AtomicInteger();
+        final UploadingSink upload = new UploadingSink();
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(directory, "clip", 0, 2,
+                new FragmentedMp4Writer.FragmentSink() {
+                    @Override
+                    public void onFragment(FragmentedMp4Writer.Fragment fragment) throws IOException {
+                        int files = 0;
+                        for (String name : directory.list()) {
+                            if (name.endsWith(FragmentedMp4Writer.FRAGMENT_SUFFIX)
+                                    || name.endsWith(FragmentedMp4Writer.INIT_SEGMENT_SUFFIX)) {
+                                files++;
+                            }
+                        }
+                        maxFiles.set(Math.max(maxFiles.get(), files));
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        upload.onFragment(fragment);
+                    }
+                });
+        writeClip(writer, 20 * GOP_SIZE, 0);
+
+        assertEquals(21, mUploads.size());
+        assertTrue("files on disk: " + maxFiles.get(), maxFiles.get() <= 2);
+    }
+
+    @Test
+    public void failsWhenTheSinkFails() throws IOException {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(mFolder.newFolder(), "clip", 0, 2,
+                new FragmentedMp4Writer.FragmentSink() {
+                    @Override
+                    public void onFragment(FragmentedMp4Writer.Fragment fragment) throws IOException {
+                        if (!fragment.isInitSegment()) {
+                            throw new IOException("server gone");
+                        }
+                    }
+                });
+        try {
+            writeClip(writer, 4 * GOP_SIZE, 0);
+            fail();
+        } catch (IOException e) {
+            assertTrue(writer.getSinkError() != null);
+            assertEquals("server gone", writer.getSinkError().getMessage());
+        } finally {
+            writer.release();
+        }
+    }
+
+    /**
+     * Uploads each file to the test server and deletes it.
+     */
+    private class UploadingSink implements FragmentedMp4Writer.FragmentSink {
+        @Override
+        public void onFragment(FragmentedMp4Writer.Fragment fragment) throws IOException {
+            URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/upload/"
+                    + fragment.getFile().getName());
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.setDoOutput(true);
+                connection.setRequestMethod("POST");
+                connection.setFixedLengthStreamingMode(fragment.getSize());
+                OutputStream output = connection.getOutputStream();
+                InputStream input = new FileInputStream(fragment.getFile());
+                try {
+                    byte[] buffer = new byte[8192];
+                    int count;
+                    while ((count = input.read(buffer)) > 0) {
+                        output.write(buffer, 0, count);
+                    }
+                } finally {
+                    input.close();
+                    output.close();
+                }
+                if (connection.getResponseCode() != 200) {
+                    throw new IOException("Upload failed: " + connection.getResponseCode());
+                }
+            } finally {
+                connection.disconnect();
+            }
+            if (!fragment.getFile().delete()) {
+                throw new IOException("Could not delete " + fragment.getFile());
+            }
+        }
+    }
+
+    /**
+     * Writes video with a sync frame every {@link #GOP_SIZE} frames and interleaved audio, then stops the writer.
+     *
+     * @return the video frames as written.
+     */
+    private static List<byte[]> writeClip(FragmentedMp4Writer writer, int videoFrames, int audioFrames)
+            throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        int videoTrack = writer.addVideoTrack("video/avc", 640, 360, SPS, PPS);
+        int audioTrack = audioFrames > 0
+                ? writer.addAudioTrack("audio/mp4a-latm", 44100, 2, AUDIO_SPECIFIC_CONFIG) : -1;
+        writer.start();
+        long audioFrameDurationUs = 1024L * 1000000 / 44100;
+        int audio = 0;
+        for (int video = 0; video < videoFrames; video++) {
+            boolean keyFrame = video % GOP_SIZE == 0;
+            byte[] frame = frame(video, keyFrame);
+            frames.add(frame);
+            writer.writeSampleData(videoTrack, ByteBuffer.wrap(frame), video * FRAME_DURATION_US,
+                    keyFrame ? ContainerWriter.FLAG_SYNC_FRAME : 0);
+            while (audio < audioFrames && audio * audioFrameDurationUs <= video * FRAME_DURATION_US) {
+                writer.writeSampleData(audioTrack, ByteBuffer.wrap(new byte[20 + audio % 7]),
+                        audio * 1024L * 1000000 / 44100, 0);
+                audio++;
+            }
+        }
+        writer.stop();
+        writer.release();
+        return frames;
+    }
+
+    private static byte[] frame(int index, boolean keyFrame) {
+        byte[] slice = new byte[30 + index % 5];
+        Arrays.fill(slice, (byte) 0x5a);
+        slice[0] = (byte) (keyFrame ? 0x65 : 0x41);
+        slice[1] = (byte) index;
+        ByteBuffer frame = ByteBuffer.allocate(64);
+        if (keyFrame) {
+            frame.put(new byte[]{0, 0, 1, 0x06, 0x05, 0x01, (byte) 0x80});
+        }
+        frame.put(new byte[]{0, 0, 0, 1}).put(slice);
+        return Arrays.copyOf(frame.array(), frame.position());
+    }
+
+    /**
+     * @return the NAL units of {@link #frame} with 4-byte lengths instead of start codes.
+     */
+    private static byte[] lengthPrefixed(byte[] frame) {
+        ByteBuffer result = ByteBuffer.allocate(frame.length + 8);
+        int i = 0;
+        int nalStart = -1;
+        while (i <= frame.length) {
+            boolean startCode = i + 2 < frame.length && frame[i] == 0 && frame[i + 1] == 0
+                    && (frame[i + 2] == 1 || (i + 3 < frame.length && frame[i + 2] == 0 && frame[i + 3] == 1));
+            if (startCode || i == frame.length) {
+                if (nalStart >= 0) {
+                    result.putInt(i - nalStart).put(frame, nalStart, i - nalStart);
+                }
+                if (i == frame.length) break;
+                i += frame[i + 2] == 1 ? 3 : 4;
+                nalStart = i;
+            } else {
+                i++;
+            }
+        }
+        return Arrays.copyOf(result.array(), result.position());
+    }
+
+    private static void readBoxes(ByteBuffer stream, List<String> types, List<ByteBuffer> boxes) {
+        ByteBuffer buffer = stream.duplicate();
+        while (buffer.hasRemaining()) {
+            int size = buffer.getInt(buffer.position());
+            assertTrue("bad box size " + size, size >= 8 && size <= buffer.remaining());
+            byte[] type = new byte[4];
+            buffer.position(buffer.position() + 4);
+            buffer.get(type);
+            types.add(new String(type));
+            ByteBuffer box = buffer.duplicate();
+            box.position(buffer.position() - 8);
+            box.limit(box.position() + size);
+            boxes.add(box.slice());
+            buffer.position(buffer.position() - 8 + size);
+        }
+    }
+
+    /**
+     * @return the children of {@code box} with the given type, as whole boxes.
+     */
+    private static List<ByteBuffer> findBoxes(ByteBuffer box, String type) {
+        ByteBuffer payload = box.duplicate();
+        payload.position(8);
+        List<String> types = new ArrayList<>();
+        List<ByteBuffer> children = new ArrayList<>();
+        readBoxes(payload.slice(), types, children);
+        List<ByteBuffer> result = new ArrayList<>();
+        for (int i = 0; i < types.size(); i++) {
+            if (types.get(i).equals(type)) result.add(children.get(i));
+        }
+        return result;
+    }
+
+    private static ByteBuffer findTraf(ByteBuffer moof, int trackId) {
+        for (ByteBuffer traf : findBoxes(moof, "traf")) {
+            ByteBuffer tfhd = fullBoxPayload(findBoxes(traf, "tfhd").get(0));
+            if (tfhd.getInt() == trackId) return traf;
+        }
+        throw new AssertionError("no traf for track " + trackId);
+    }
+
+    private static ByteBuffer fullBoxPayload(ByteBuffer box) {
+        ByteBuffer payload = box.duplicate();
+        payload.position(12);
+        return payload.slice();
+    }
+
+    private static ByteBuffer concatBoxes(ByteBuffer first, ByteBuffer second) {
+        return ByteBuffer.wrap(concat(Arrays.asList(toArray(first), toArray(second))));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        source.rewind();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(List<byte[]> parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        synchronized (parts) {
+            for (byte[] part : parts) {
+                output.write(part, 0, part.length);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+}
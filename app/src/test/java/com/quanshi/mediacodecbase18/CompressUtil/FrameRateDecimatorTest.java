@@ -0,0 +1,147 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FrameRateDecimatorTest {
+    private static final long SECOND_US = 1000 * 1000;
+
+    /**
+     * @return presentation times of {@code count} frames at {@code frameRate}, starting at {@code startUs}.
+     */
+    private static long[] frames(long startUs, double frameRate, int count) {
+        long[] timesUs = new long[count];
+        for (int i = 0; i < count; i++) {
+            timesUs[i] = startUs + Math.round(i * SECOND_US / frameRate);
+        }
+        return timesUs;
+    }
+
+    private static long[] concat(long[]... parts) {
+        int length = 0;
+        for (long[] part : parts) length += part.length;
+        long[] timesUs = new long[length];
+        int offset = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, timesUs, offset, part.length);
+            offset += part.length;
+        }
+        return timesUs;
+    }
+
+    private static List<Long> keep(FrameRateDecimator decimator, long[] timesUs) {
+        List<Long> kept = new ArrayList<>();
+        for (long timeUs : timesUs) {
+            if (decimator.shouldKeep(timeUs)) kept.add(timeUs);
+        }
+        return kept;
+    }
+
+    private static void assertGaps(List<Long> kept, long minGapUs, long maxGapUs) {
+        for (int i = 1; i < kept.size(); i++) {
+            long gapUs = kept.get(i) - kept.get(i - 1);
+            assertTrue("gap " + gapUs + " at " + kept.get(i), gapUs >= minGapUs && gapUs <= maxGapUs);
+        }
+    }
+
+    @Test
+    public void keepsEveryFrameAtOrBelowTheCap() {
+        long[] timesUs = frames(0, 30, 300);
+        assertEquals(300, keep(new FrameRateDecimator(30), timesUs).size());
+        assertEquals(240, keep(new FrameRateDecimator(30), frames(0, 24, 240)).size());
+        // NTSC rates are a little below the nominal one.
+        assertEquals(300, keep(new FrameRateDecimator(30), frames(0, 30000 / 1001.0, 300)).size());
+    }
+
+    @Test
+    public void dropsEveryOtherFrameOf60Fps() {
+        long[] timesUs = frames(5000, 60, 600);
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        for (int i = 0; i < timesUs.length; i++) {
+            assertEquals("frame " + i, i % 2 == 0, decimator.shouldKeep(timesUs[i]));
+        }
+        assertEquals(300, decimator.getDroppedCount());
+
+        List<Long> kept = keep(new FrameRateDecimator(30), frames(0, 120, 1200));
+        assertEquals(300, kept.size());
+        assertGaps(kept, 33333, 33334);
+    }
+
+    @Test
+    public void keepsCadenceEvenUnderJitter() {
+        Random random = new Random(42);
+        long[] timesUs = frames(0, 60, 600);
+        for (int i = 1; i < timesUs.length; i++) {
+            timesUs[i] += random.nextInt(5001) - 2500;
+        }
+        List<Long> kept = keep(new FrameRateDecimator(30), timesUs);
+        assertEquals(300, kept.size(), 1);
+        // Only the jitter of two frames, never a whole 60 fps frame more or less.
+        assertGaps(kept, 33333 - 5000, 33333 + 5000);
+    }
+
+    @Test
+    public void keepsTheRateOfUnevenRatios() {
+        List<Long> kept = keep(new FrameRateDecimator(30), frames(0, 50, 500));
+        // 10 seconds, both ends included.
+        assertEquals(301, kept.size(), 1);
+        assertGaps(kept, 20000, 40000);
+
+        kept = keep(new FrameRateDecimator(24), frames(0, 30, 300));
+        assertEquals(241, kept.size(), 1);
+        assertGaps(kept, 33333, 66667);
+    }
+
+    @Test
+    public void followsVariableFrameRate() {
+        // A phone recording that switches from 30 to 120 fps for slow motion, pauses, and goes on at 60 fps.
+        long[] timesUs = concat(frames(0, 30, 60), frames(2 * SECOND_US, 120, 240),
+                frames(4 * SECOND_US + 700 * 1000, 60, 120));
+        List<Long> kept = keep(new FrameRateDecimator(30), timesUs);
+        int perSecond = 0;
+        int second = 0;
+        for (long timeUs : kept) {
+            if (timeUs / SECOND_US != second) {
+                assertTrue("second " + second + ": " + perSecond, perSecond <= 31);
+                second = (int) (timeUs / SECOND_US);
+                perSecond = 0;
+            }
+            perSecond++;
+        }
+        // All of the 30 fps part, and 30 fps of the others.
+        assertEquals(60 + 60 + 60, kept.size(), 1);
+        // The first frame after the pause is kept at once, the grid does not catch up.
+        assertTrue(kept.contains(4 * SECOND_US + 700 * 1000));
+        // Over the pause at most the last kept 120 fps frame and those dropped after it.
+        assertGaps(kept, 33333, 700 * 1000 + 8334 + 33334);
+    }
+
+    @Test
+    public void dropsFramesGoingBack() {
+        FrameRateDecimator decimator = new FrameRateDecimator(30);
+        assertTrue(decimator.shouldKeep(100000));
+        assertEquals(false, decimator.shouldKeep(90000));
+        assertTrue(decimator.shouldKeep(133333));
+    }
+
+    @Test
+    public void rejectsInvalidFrameRates() {
+        try {
+            new FrameRateDecimator(0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new FrameRateDecimator(Double.NaN);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Parameter sets written by x265, plus a hand-made set using most optional syntax, the expected values as decoded
+ * by FFmpeg's trace_headers.
+ */
+public class HevcParameterSetParserTest {
+    // x265, Main 4.0, 1920x1080 (1088 cropped), 30 fps.
+    private static final String MAIN_1080P_VPS = "40010c01ffff016000000300900000030000030078959409";
+    private static final String MAIN_1080P_SPS = "420101016000000300900000030000030078a003c0801107cb965654a4c2f016"
+            + "8080000003008000000f04";
+    private static final String MAIN_1080P_PPS = "4401c073c189";
+    // x265, Main 10 3.1, 1280x720, full range BT.709, 24000/1001 fps, NAL HRD parameters.
+    private static final String MAIN10_HRD_SPS = "42010102200000030090000003000003005da00280802d136595952930bc05b808"
+            + "08082000007d20000bb80c1392cbc001e848003d0910";
+    // x265, Main 4:4:4 2.0, 352x290 (296 cropped), scaling lists on, weighted prediction.
+    private static final String REXT_444_SPS = "4201010408000003009e0800000300003c9001610094f9f2cacb249caf0e68080000"
+            + "03000800000300c840";
+    private static final String REXT_444_PPS = "4401c172860c4624";
+    // High tier 5.0 with a sub-layer, 1928x1088 cropped to 1920x1080, explicit scaling lists, PCM, predicted
+    // short-term reference picture sets, long-term pictures, sub-picture HRD for two sub-layers and tiles.
+    private static final String CRAFTED_VPS = "40010c03ffff216000000300900000030000030096c00001600000030090000003000"
+            + "0030078bcacc048";
+    private static final String CRAFTED_SPS = "420103216000000300900000030000030096c000016000000300900000030000030"
+            + "078a003c48011072cb96f2b349225d7fff5555558417fffffffffffffff555eef5235ad6e57b0484bffc0010000edc24402"
+            + "788913c00000fa40003a983d0a3ce4677bdda007d2007d100fa80385003e9003e8807d401c2aa00fa400fa201f50070bb"
+            + "0192d040208";
+    private static final String CRAFTED_PPS = "4401c1b425a29b2485279324";
+
+    private final HevcParameterSetParser mParser = new HevcParameterSetParser();
+    private final HevcParameterSetParser.Vps mVps = new HevcParameterSetParser.Vps();
+    private final HevcParameterSetParser.Sps mSps = new HevcParameterSetParser.Sps();
+    private final HevcParameterSetParser.Pps mPps = new HevcParameterSetParser.Pps();
+
+    @Test
+    public void parsesMainProfileCsd() {
+        mParser.parseCsd(ByteBuffer.wrap(csd(MAIN_1080P_VPS, MAIN_1080P_SPS, MAIN_1080P_PPS)), mVps, mSps, mPps);
+        assertEquals(0, mVps.mVpsId);
+        assertEquals(1, mVps.mMaxSubLayers);
+        assertTrue(mVps.mTemporalIdNesting);
+        assertEquals(120, mVps.mProfileTierLevel.mLevelIdc);
+
+        HevcParameterSetParser.ProfileTierLevel ptl = mSps.mProfileTierLevel;
+        assertEquals(0, ptl.mProfileSpace);
+        assertFalse(ptl.mTierFlag);
+        assertEquals(HevcParameterSetParser.PROFILE_IDC_MAIN, ptl.mProfileIdc);
+        assertEquals(0x60000000, ptl.mProfileCompatibilityFlags);
+        // progressive_source_flag and frame_only_constraint_flag
+        assertEquals(0x900000000000L, ptl.mConstraintIndicatorFlags);
+        assertEquals(120, ptl.mLevelIdc);
+        assertEquals(1, mSps.mMaxSubLayers);
+        assertEquals(1, mSps.mChromaFormatIdc);
+        assertEquals(1920, mSps.mCodedWidth);
+        assertEquals(1088, mSps.mCodedHeight);
+        assertEquals(1920, mSps.mWidth);
+        assertEquals(1080, mSps.mHeight);
+        assertEquals(8, mSps.mBitDepthLuma);
+        assertEquals(8, mSps.mBitDepthChroma);
+        assertEquals(8, mSps.mLog2MaxPicOrderCntLsb);
+        assertEquals(5, mSps.mMaxDecPicBuffering);
+        assertEquals(2, mSps.mMaxNumReorderPics);
+        assertEquals(0, mSps.mNumShortTermRefPicSets);
+        assertEquals(1, mSps.mSarWidth);
+        assertEquals(1, mSps.mSarHeight);
+        assertEquals(30.0, mSps.getFrameRate(), 0);
+
+        assertEquals(0, mPps.mPpsId);
+        assertEquals(0, mPps.mSpsId);
+        assertTrue(mPps.mCuQpDeltaEnabled);
+        assertTrue(mPps.mEntropyCodingSyncEnabled);
+        assertFalse(mPps.mTilesEnabled);
+        assertEquals(1, mPps.mNumTileColumns);
+    }
+
+    @Test
+    public void parsesMain10WithHrd() {
+        mParser.parseSps(wrap(MAIN10_HRD_SPS), mSps);
+        assertEquals(HevcParameterSetParser.PROFILE_IDC_MAIN_10, mSps.mProfileTierLevel.mProfileIdc);
+        assertEquals(0x20000000, mSps.mProfileTierLevel.mProfileCompatibilityFlags);
+        assertEquals(93, mSps.mProfileTierLevel.mLevelIdc);
+        assertEquals(1280, mSps.mWidth);
+        assertEquals(720, mSps.mHeight);
+        assertEquals(10, mSps.mBitDepthLuma);
+        assertEquals(10, mSps.mBitDepthChroma);
+        assertTrue(mSps.mVideoFullRange);
+        assertEquals(1, mSps.mColourPrimaries);
+        assertEquals(1, mSps.mTransferCharacteristics);
+        assertEquals(1, mSps.mMatrixCoefficients);
+        assertEquals(1001, mSps.mNumUnitsInTick);
+        assertEquals(24000, mSps.mTimeScale);
+        assertEquals(23.976, mSps.getFrameRate(), 0.001);
+    }
+
+    @Test
+    public void cropsFourFourFourInLumaSamples() {
+        mParser.parseSps(wrap(REXT_444_SPS), mSps);
+        assertEquals(4, mSps.mProfileTierLevel.mProfileIdc);
+        assertEquals(60, mSps.mProfileTierLevel.mLevelIdc);
+        assertEquals(3, mSps.mChromaFormatIdc);
+        assertFalse(mSps.mSeparateColourPlane);
+        assertEquals(352, mSps.mCodedWidth);
+        assertEquals(296, mSps.mCodedHeight);
+        assertEquals(352, mSps.mWidth);
+        assertEquals(290, mSps.mHeight);
+        assertTrue(mSps.mScalingListEnabled);
+        assertTrue(mSps.mSampleAdaptiveOffsetEnabled);
+        assertEquals(4, mSps.mSarWidth);
+        assertEquals(3, mSps.mSarHeight);
+        assertEquals(25.0, mSps.getFrameRate(), 0);
+
+        mParser.parsePps(wrap(REXT_444_PPS), mPps);
+        assertTrue(mPps.mSignDataHidingEnabled);
+        assertEquals(1, mPps.mDiffCuQpDeltaDepth);
+        assertEquals(6, mPps.mCbQpOffset);
+        assertEquals(6, mPps.mCrQpOffset);
+        assertTrue(mPps.mWeightedPred);
+        assertTrue(mPps.mEntropyCodingSyncEnabled);
+    }
+
+    @Test
+    public void parsesOptionalSyntax() {
+        mParser.parseCsd(ByteBuffer.wrap(csd(CRAFTED_VPS, CRAFTED_SPS, CRAFTED_PPS)), mVps, mSps, mPps);
+        assertEquals(2, mVps.mMaxSubLayers);
+        assertEquals(150, mVps.mProfileTierLevel.mLevelIdc);
+
+        HevcParameterSetParser.ProfileTierLevel ptl = mSps.mProfileTierLevel;
+        assertTrue(ptl.mTierFlag);
+        assertEquals(HevcParameterSetParser.PROFILE_IDC_MAIN, ptl.mProfileIdc);
+        assertEquals(150, ptl.mLevelIdc);
+        assertEquals(2, mSps.mMaxSubLayers);
+        assertTrue(mSps.mTemporalIdNesting);
+        assertEquals(1928, mSps.mCodedWidth);
+        assertEquals(1920, mSps.mWidth);
+        assertEquals(1080, mSps.mHeight);
+        // Of the highest sub-layer.
+        assertEquals(5, mSps.mMaxDecPicBuffering);
+        assertEquals(2, mSps.mMaxNumReorderPics);
+        assertEquals(3, mSps.mLog2MinCbSize);
+        assertEquals(6, mSps.mLog2CtbSize);
+        assertTrue(mSps.mAmpEnabled);
+        assertTrue(mSps.mPcmEnabled);
+        assertEquals(3, mSps.mNumShortTermRefPicSets);
+        assertTrue(mSps.mLongTermRefPicsPresent);
+        // Everything after the reference picture sets and the HRD is only found if they were skipped right.
+        assertTrue(mSps.mTemporalMvpEnabled);
+        assertTrue(mSps.mStrongIntraSmoothingEnabled);
+        assertEquals(4, mSps.mSarWidth);
+        assertEquals(3, mSps.mSarHeight);
+        assertTrue(mSps.mVideoFullRange);
+        assertEquals(9, mSps.mColourPrimaries);
+        assertEquals(16, mSps.mTransferCharacteristics);
+        assertEquals(9, mSps.mMatrixCoefficients);
+        assertEquals(59.94, mSps.getFrameRate(), 0.01);
+        assertEquals(200, mSps.mMinSpatialSegmentationIdc);
+
+        assertTrue(mPps.mCabacInitPresent);
+        assertEquals(3, mPps.mNumRefIdxL0DefaultActive);
+        assertEquals(2, mPps.mNumRefIdxL1DefaultActive);
+        assertEquals(22, mPps.mInitQp);
+        assertTrue(mPps.mTransformSkipEnabled);
+        assertEquals(-2, mPps.mCbQpOffset);
+        assertEquals(3, mPps.mCrQpOffset);
+        assertTrue(mPps.mSliceChromaQpOffsetsPresent);
+        assertTrue(mPps.mTilesEnabled);
+        assertFalse(mPps.mEntropyCodingSyncEnabled);
+        assertEquals(2, mPps.mNumTileColumns);
+        assertEquals(2, mPps.mNumTileRows);
+        assertEquals(2, HevcParameterSetParser.getParallelismType(mSps, mPps));
+    }
+
+    @Test
+    public void writesHvcCFromTheParameterSets() {
+        Mp4TrackFormat format = Mp4TrackFormat.createVideo(Mp4TrackFormat.MIME_VIDEO_HEVC, 1920, 1080,
+                csd(CRAFTED_VPS, CRAFTED_SPS, CRAFTED_PPS), null);
+        Mp4BoxBuilder b = new Mp4BoxBuilder();
+        format.writeStsd(b, 0);
+        byte[] stsd = b.toByteArray();
+        int hvcC = indexOf(stsd, "hvcC".getBytes()) + 4;
+        assertEquals("hvc1", new String(stsd, hvcC - 4 - 86, 4));
+        assertArrayEquals(hex("01216000000090000000000096f0c8fefdf8f800001703"), Arrays.copyOfRange(stsd, hvcC,
+                hvcC + 23));
+        int position = hvcC + 23;
+        for (String nal : new String[]{CRAFTED_VPS, CRAFTED_SPS, CRAFTED_PPS}) {
+            byte[] expected = hex(nal);
+            assertEquals(0x80 | HevcParameterSetParser.getNalUnitType(ByteBuffer.wrap(expected), 0),
+                    stsd[position] & 0xff);
+            assertEquals(1, ((stsd[position + 1] & 0xff) << 8) | (stsd[position + 2] & 0xff));
+            assertEquals(expected.length, ((stsd[position + 3] & 0xff) << 8) | (stsd[position + 4] & 0xff));
+            assertArrayEquals(expected, Arrays.copyOfRange(stsd, position + 5, position + 5 + expected.length));
+            position += 5 + expected.length;
+        }
+        assertEquals(stsd.length, position);
+    }
+
+    @Test
+    public void rejectsIncompleteOrWrongParameterSets() {
+        try {
+            mParser.parseCsd(ByteBuffer.wrap(csd(MAIN_1080P_VPS, MAIN_1080P_SPS)), mVps, mSps, mPps);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            mParser.parseSps(wrap(MAIN_1080P_PPS), mSps);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        byte[] sps = hex(MAIN_1080P_SPS);
+        try {
+            mParser.parseSps(ByteBuffer.wrap(Arrays.copyOf(sps, 20)), mSps);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            Mp4TrackFormat.createVideo(Mp4TrackFormat.MIME_VIDEO_HEVC, 1920, 1080,
+                    csd(MAIN_1080P_SPS, MAIN_1080P_PPS), null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void skipsAStartCodeInFrontOfASingleNalUnit() {
+        byte[] sps = hex(MAIN_1080P_SPS);
+        ByteBuffer buffer = ByteBuffer.allocate(sps.length + 4);
+        buffer.put(new byte[]{0, 0, 0, 1}).put(sps).flip();
+        mParser.parseSps(buffer, mSps);
+        assertEquals(1080, mSps.mHeight);
+        assertEquals(0, buffer.position());
+    }
+
+    private static byte[] csd(String... nalUnits) {
+        ByteBuffer csd = ByteBuffer.allocate(1024);
+        for (String nal : nalUnits) {
+            csd.putInt(1).put(hex(nal));
+        }
+        return Arrays.copyOf(csd.array(), csd.position());
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(data, i, i + pattern.length))) return i;
+        }
+        return -1;
+    }
+
+    private static ByteBuffer wrap(String hex) {
+        return ByteBuffer.wrap(hex(hex));
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
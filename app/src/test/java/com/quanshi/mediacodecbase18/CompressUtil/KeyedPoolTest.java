@@ -0,0 +1,138 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedPoolTest {
+    private static final long IDLE_TIMEOUT_MS = 1000;
+
+    private final AtomicLong mNow = new AtomicLong();
+    private final Clock mClock = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return mNow.get();
+        }
+    };
+    private final List<String> mCreated = new ArrayList<>();
+    private final List<String> mDestroyed = new ArrayList<>();
+    private boolean mRecyclable = true;
+    private int mNextId;
+
+    private final KeyedPool.Lifecycle<String, String> mLifecycle = new KeyedPool.Lifecycle<String, String>() {
+        @Override
+        public String create(String key) {
+            String value = key + "#" + mNextId++;
+            mCreated.add(value);
+            return value;
+        }
+
+        @Override
+        public boolean recycle(String key, String value) {
+            return mRecyclable;
+        }
+
+        @Override
+        public void destroy(String key, String value) {
+            mDestroyed.add(value);
+        }
+    };
+
+    @Test
+    public void reusesReleasedObjectsOfTheSameKey() throws Exception {
+        KeyedPool<String, String> pool = new KeyedPool<>(mLifecycle, 2, IDLE_TIMEOUT_MS, mClock);
+        String avc = pool.acquire("avc");
+        pool.release("avc", avc);
+        assertSame(avc, pool.acquire("avc"));
+        String hevc = pool.acquire("hevc");
+        assertNotSame(avc, hevc);
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(Arrays.asList("avc#0", "hevc#1"), mCreated);
+    }
+
+    @Test
+    public void reusesTheMostRecentlyReleasedFirst() throws Exception {
+        KeyedPool<String, String> pool = new KeyedPool<>(mLifecycle, 2, IDLE_TIMEOUT_MS, mClock);
+        String first = pool.acquire("avc");
+        String second = pool.acquire("avc");
+        pool.release("avc", first);
+        pool.release("avc", second);
+        assertSame(second, pool.acquire("avc"));
+        assertSame(first, pool.acquire("avc"));
+    }
+
+    @Test
+    public void keepsAtMostMaxIdlePerKey() throws Exception {
+        KeyedPool<String, String> pool = new KeyedPool<>(mLifecycle, 2, IDLE_TIMEOUT_MS, mClock);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            values.add(pool.acquire("avc"));
+        }
+        for (String value : values) {
+            pool.release("avc", value);
+        }
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(Arrays.asList("avc#2"), mDestroyed);
+    }
+
+    @Test
+    public void evictsIdleObjectsAfterTheTimeout() throws Exception {
+        KeyedPool<String, String> pool = new KeyedPool<>(mLifecycle, 2, IDLE_TIMEOUT_MS, mClock);
+        String old = pool.acquire("avc");
+        String recent = pool.acquire("avc");
+        pool.release("avc", old);
+        mNow.set(600);
+        pool.release("avc", recent);
+
+        mNow.set(IDLE_TIMEOUT_MS);
+        assertEquals(1, pool.evictExpired());
+        assertEquals(Arrays.asList(old), mDestroyed);
+        assertEquals(1, pool.getIdleCount());
+
+        mNow.set(600 + IDLE_TIMEOUT_MS);
+        // Acquiring evicts first, so an expired object is not handed out.
+        String fresh = pool.acquire("avc");
+        assertNotEquals(recent, fresh);
+        assertEquals(Arrays.asList(old, recent), mDestroyed);
+        assertEquals(2, pool.getEvictionCount());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void destroysObjectsThatCannotBeRecycled() throws Exception {
+        KeyedPool<String, String> pool = new KeyedPool<>(mLifecycle, 2, IDLE_TIMEOUT_MS, mClock);
+        String value = pool.acquire("avc");
+        mRecyclable = false;
+        pool.release("avc", value);
+        assertEquals(Arrays.asList(value), mDestroyed);
+        assertEquals(0, pool.getIdleCount());
+
+        String discarded = pool.acquire("avc");
+        pool.discard("avc", discarded);
+        assertEquals(Arrays.asList(value, discarded), mDestroyed);
+    }
+
+    @Test
+    public void clearDestroysAllIdleObjects() throws Exception {
+        KeyedPool<String, String> pool = new KeyedPool<>(mLifecycle, 2, IDLE_TIMEOUT_MS, mClock);
+        String avc = pool.acquire("avc");
+        String aac = pool.acquire("aac");
+        pool.release("avc", avc);
+        pool.release("aac", aac);
+        pool.clear();
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(2, mDestroyed.size());
+        assertTrue(mDestroyed.containsAll(Arrays.asList(avc, aac)));
+    }
+}
@@ -0,0 +1,418 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Mp4DemuxerTest {
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xc0, 0x1e};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+    private static final int VIDEO_TIMESCALE = 30000;
+    private static final int AUDIO_TIMESCALE = 44100;
+    // I B B P I P in decode order; the edit list removes the 1000 tick composition delay.
+    private static final int[] VIDEO_CTTS = {1000, 3000, 0, 0, 1000, 1000};
+    private static final long[] VIDEO_PTS_US = {0, 100000, 33333, 66666, 133333, 166666};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void parsesTrackFormats() throws IOException {
+        Mp4Demuxer demuxer = open(new TestFile(4));
+        assertEquals(2, demuxer.getTrackCount());
+
+        Mp4Demuxer.Track video = demuxer.getTrack(0);
+        assertEquals(Mp4Demuxer.TRACK_TYPE_VIDEO, video.getHandlerType());
+        assertEquals("avc1", video.getSampleEntryType());
+        assertEquals("video/avc", video.getMime());
+        assertEquals(1280, video.getWidth());
+        assertEquals(720, video.getHeight());
+        assertEquals(90, video.getRotationDegrees());
+        assertEquals(4, video.getNalLengthSize());
+        assertArrayEquals(withStartCode(SPS), video.getCsd0());
+        assertArrayEquals(withStartCode(PPS), video.getCsd1());
+        assertEquals(200000, video.getDurationUs());
+
+        Mp4Demuxer.Track audio = demuxer.getTrack(1);
+        assertEquals(Mp4Demuxer.TRACK_TYPE_AUDIO, audio.getHandlerType());
+        assertEquals("audio/mp4a-latm", audio.getMime());
+        assertEquals(44100, audio.getSampleRate());
+        assertEquals(2, audio.getChannelCount());
+        assertArrayEquals(AUDIO_SPECIFIC_CONFIG, audio.getCsd0());
+        assertEquals(0, audio.getNalLengthSize());
+        assertEquals(1000000, demuxer.getDurationUs());
+    }
+
+    @Test
+    public void buildsSampleTables() throws IOException {
+        TestFile file = new TestFile(4);
+        Mp4Demuxer demuxer = open(file);
+
+        Mp4Demuxer.Track video = demuxer.getTrack(0);
+        assertEquals(file.mVideoSamples.size(), video.getSampleCount());
+        for (int i = 0; i < video.getSampleCount(); i++) {
+            assertEquals(file.mVideoOffsets[i], video.getSampleOffset(i));
+            assertEquals(file.mVideoSamples.get(i).length, video.getSampleSize(i));
+            assertEquals(VIDEO_PTS_US[i], video.getSamplePresentationTimeUs(i));
+            assertEquals(i == 0 || i == 4, video.isSyncSample(i));
+        }
+        assertEquals(2, video.getSyncSampleCount());
+        assertEquals(4, video.getSyncSample(1));
+
+        Mp4Demuxer.Track audio = demuxer.getTrack(1);
+        assertEquals(file.mAudioSamples.size(), audio.getSampleCount());
+        for (int i = 0; i < audio.getSampleCount(); i++) {
+            assertEquals(file.mAudioOffsets[i], audio.getSampleOffset(i));
+            assertEquals(i * 1024L * 1000000 / AUDIO_TIMESCALE, audio.getSamplePresentationTimeUs(i));
+            assertTrue(audio.isSyncSample(i));
+        }
+    }
+
+    @Test
+    public void readsSelectedTracksInDecodeOrder() throws IOException {
+        TestFile file = new TestFile(4);
+        Mp4Demuxer demuxer = open(file);
+        demuxer.selectTrack(0);
+        demuxer.selectTrack(1);
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(demuxer.getTrack(0).getMaxReadSize(),
+                demuxer.getTrack(1).getMaxReadSize()) + 16);
+        int videoIndex = 0;
+        int audioIndex = 0;
+        long lastDecodeTimeUs = Long.MIN_VALUE;
+        do {
+            int track = demuxer.getSampleTrackIndex();
+            Mp4Demuxer.Track current = demuxer.getTrack(track);
+            int sample = track == 0 ? videoIndex++ : audioIndex++;
+            long decodeTimeUs = current.getSampleDecodeTimeUs(sample);
+            assertTrue(decodeTimeUs >= lastDecodeTimeUs);
+            lastDecodeTimeUs = decodeTimeUs;
+            assertEquals(current.getSamplePresentationTimeUs(sample), demuxer.getSampleTime());
+
+            int size = demuxer.readSampleData(buffer, 16);
+            assertEquals(16, buffer.position());
+            assertEquals(16 + size, buffer.limit());
+            byte[] read = new byte[size];
+            buffer.get(read);
+            if (track == 0) {
+                assertArrayEquals(toAnnexB(file.mVideoSamples.get(sample), 4), read);
+                assertEquals(sample == 0 || sample == 4 ? Mp4Demuxer.SAMPLE_FLAG_SYNC : 0,
+                        demuxer.getSampleFlags());
+            } else {
+                assertArrayEquals(file.mAudioSamples.get(sample), read);
+            }
+        } while (demuxer.advance());
+
+        assertEquals(file.mVideoSamples.size(), videoIndex);
+        assertEquals(file.mAudioSamples.size(), audioIndex);
+        assertEquals(-1, demuxer.getSampleTrackIndex());
+        assertEquals(-1, demuxer.getSampleTime());
+        assertEquals(-1, demuxer.readSampleData(buffer, 0));
+        assertNull(demuxer.getSampleBuffer());
+    }
+
+    @Test
+    public void handsOutSamplesWithoutCopy() throws IOException {
+        TestFile file = new TestFile(4);
+        Mp4Demuxer demuxer = open(file);
+        demuxer.selectTrack(0);
+        for (int i = 0; i < file.mVideoSamples.size(); i++) {
+            ByteBuffer sample = demuxer.getSampleBuffer();
+            assertTrue(sample.isDirect());
+            assertTrue(sample.isReadOnly());
+            byte[] bytes = new byte[sample.remaining()];
+            sample.get(bytes);
+            // As stored, still length-prefixed.
+            assertArrayEquals(file.mVideoSamples.get(i), bytes);
+            demuxer.advance();
+        }
+    }
+
+    @Test
+    public void convertsShortNalLengths() throws IOException {
+        TestFile file = new TestFile(2);
+        Mp4Demuxer demuxer = open(file);
+        Mp4Demuxer.Track video = demuxer.getTrack(0);
+        assertEquals(2, video.getNalLengthSize());
+        assertTrue(video.getMaxReadSize() > video.getMaxSampleSize());
+
+        demuxer.selectTrack(0);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(video.getMaxReadSize());
+        for (int i = 0; i < file.mVideoSamples.size(); i++) {
+            int size = demuxer.readSampleData(buffer, 0);
+            byte[] read = new byte[size];
+            buffer.get(read);
+            assertArrayEquals(toAnnexB(file.mVideoSamples.get(i), 2), read);
+            demuxer.advance();
+        }
+    }
+
+    @Test
+    public void seeksToSyncSamples() throws IOException {
+        Mp4Demuxer demuxer = open(new TestFile(4));
+        demuxer.selectTrack(0);
+
+        demuxer.seekTo(100000, Mp4Demuxer.SEEK_TO_PREVIOUS_SYNC);
+        assertEquals(0, demuxer.getSampleTime());
+        demuxer.seekTo(100000, Mp4Demuxer.SEEK_TO_NEXT_SYNC);
+        assertEquals(133333, demuxer.getSampleTime());
+        demuxer.seekTo(50000, Mp4Demuxer.SEEK_TO_CLOSEST_SYNC);
+        assertEquals(0, demuxer.getSampleTime());
+        demuxer.seekTo(120000, Mp4Demuxer.SEEK_TO_CLOSEST_SYNC);
+        assertEquals(133333, demuxer.getSampleTime());
+        demuxer.seekTo(133333, Mp4Demuxer.SEEK_TO_NEXT_SYNC);
+        assertEquals(133333, demuxer.getSampleTime());
+        demuxer.seekTo(150000, Mp4Demuxer.SEEK_TO_NEXT_SYNC);
+        assertEquals(-1, demuxer.getSampleTrackIndex());
+        assertFalse(demuxer.advance());
+    }
+
+    @Test
+    public void rejectsFilesWithoutMovieBox() throws IOException {
+        File file = mFolder.newFile("not.mp4");
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(box("ftyp", ascii("isom"), ints(0)));
+            output.write(box("mdat", new byte[32]));
+        } finally {
+            output.close();
+        }
+        try {
+            open(file);
+            fail();
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    private Mp4Demuxer open(TestFile testFile) throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(testFile.mBytes);
+        } finally {
+            output.close();
+        }
+        return open(file);
+    }
+
+    private static Mp4Demuxer open(File file) throws IOException {
+        // Demuxer does not own the channel; the folder rule deletes the file, the mapping stays valid.
+        return new Mp4Demuxer(new RandomAccessFile(file, "r").getChannel());
+    }
+
+    private static byte[] withStartCode(byte[] nal) {
+        return concat(new byte[]{0, 0, 0, 1}, nal);
+    }
+
+    private static byte[] toAnnexB(byte[] sample, int nalLengthSize) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int position = 0;
+        while (position < sample.length) {
+            int size = 0;
+            for (int i = 0; i < nalLengthSize; i++) {
+                size = (size << 8) | (sample[position++] & 0xff);
+            }
+            output.write(0);
+            output.write(0);
+            output.write(0);
+            output.write(1);
+            output.write(sample, position, size);
+            position += size;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * A small MP4: an H.264 track with B-frames and an edit list, and an AAC track, stored in interleaved chunks.
+     */
+    private static class TestFile {
+        private final List<byte[]> mVideoSamples = new ArrayList<>();
+        private final List<byte[]> mAudioSamples = new ArrayList<>();
+        private final long[] mVideoOffsets;
+        private final long[] mAudioOffsets;
+        private final byte[] mBytes;
+
+        private TestFile(int nalLengthSize) {
+            for (int i = 0; i < VIDEO_CTTS.length; i++) {
+                byte nalType = (byte) (i == 0 || i == 4 ? 0x65 : 0x41);
+                mVideoSamples.add(concat(nal(nalLengthSize, new byte[]{nalType, (byte) i, 1}),
+                        nal(nalLengthSize, new byte[]{nalType, (byte) i, 2, 3, 4, 5})));
+            }
+            for (int i = 0; i < 8; i++) {
+                byte[] sample = new byte[10 + i];
+                Arrays.fill(sample, (byte) (0x80 + i));
+                mAudioSamples.add(sample);
+            }
+            mVideoOffsets = new long[mVideoSamples.size()];
+            mAudioOffsets = new long[mAudioSamples.size()];
+
+            // Chunks: video 2 samples each, audio 3, 3, 2; interleaved.
+            byte[] ftyp = box("ftyp", ascii("isom"), ints(0x200), ascii("isomavc1"));
+            long position = ftyp.length + 8;
+            ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+            int[] audioChunkSizes = {3, 3, 2};
+            long[] videoChunks = new long[3];
+            long[] audioChunks = new long[3];
+            int video = 0;
+            int audio = 0;
+            for (int chunk = 0; chunk < 3; chunk++) {
+                videoChunks[chunk] = position;
+                for (int i = 0; i < 2; i++, video++) {
+                    mVideoOffsets[video] = position;
+                    position += write(mdat, mVideoSamples.get(video));
+                }
+                audioChunks[chunk] = position;
+                for (int i = 0; i < audioChunkSizes[chunk]; i++, audio++) {
+                    mAudioOffsets[audio] = position;
+                    position += write(mdat, mAudioSamples.get(audio));
+                }
+            }
+            byte[] moov = box("moov",
+                    fullBox("mvhd", 0, ints(0, 0, 1000, 1000, 0x10000), new byte[76], ints(3)),
+                    videoTrak(nalLengthSize, videoChunks),
+                    audioTrak(audioChunks));
+            mBytes = concat(ftyp, box("mdat", mdat.toByteArray()), moov);
+        }
+
+        private byte[] videoTrak(int nalLengthSize, long[] chunks) {
+            byte[] tkhd = fullBox("tkhd", 0, ints(0, 0, 1, 0, 200), new byte[16],
+                    ints(0, 0x10000, 0, -0x10000, 0, 0, 0, 0, 0x40000000), ints(1280 << 16, 720 << 16));
+            byte[] elst = fullBox("elst", 0, ints(1, 200, 1000, 0x10000));
+            byte[] avcC = box("avcC", new byte[]{1, 0x42, (byte) 0xc0, 0x1e,
+                    (byte) (0xfc | (nalLengthSize - 1)), (byte) 0xe1}, shortLength(SPS), new byte[]{1},
+                    shortLength(PPS));
+            byte[] avc1 = box("avc1", new byte[24], shorts(1280, 720), ints(0x480000, 0x480000, 0),
+                    shorts(1), new byte[32], shorts(0x18, -1), avcC);
+            int[] sizes = new int[mVideoSamples.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = mVideoSamples.get(i).length;
+            }
+            int[] ctts = new int[VIDEO_CTTS.length * 2];
+            for (int i = 0; i < VIDEO_CTTS.length; i++) {
+                ctts[i * 2] = 1;
+                ctts[i * 2 + 1] = VIDEO_CTTS[i];
+            }
+            byte[] stbl = box("stbl",
+                    fullBox("stsd", 0, ints(1), avc1),
+                    fullBox("stts", 0, ints(1, sizes.length, 1000)),
+                    fullBox("ctts", 0, ints(VIDEO_CTTS.length), ints(ctts)),
+                    fullBox("stss", 0, ints(2, 1, 5)),
+                    fullBox("stsz", 0, ints(0, sizes.length), ints(sizes)),
+                    fullBox("stsc", 0, ints(1, 1, 2, 1)),
+                    fullBox("stco", 0, ints(chunks.length), ints((int) chunks[0], (int) chunks[1], (int) chunks[2])));
+            return box("trak", tkhd, box("edts", elst), box("mdia",
+                    fullBox("mdhd", 0, ints(0, 0, VIDEO_TIMESCALE, 6000), shorts(0x55c4, 0)),
+                    fullBox("hdlr", 0, ints(0), ascii("vide"), new byte[13]),
+                    box("minf", stbl)));
+        }
+
+        private byte[] audioTrak(long[] chunks) {
+            byte[] tkhd = fullBox("tkhd", 0, ints(0, 0, 2, 0, 1000), new byte[16],
+                    ints(0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000), ints(0, 0));
+            byte[] esds = fullBox("esds", 0,
+                    new byte[]{0x03, 0x19, 0, 2, 0},
+                    new byte[]{0x04, 0x11, 0x40, 0x15, 0, 0, 0}, ints(128000, 128000),
+                    new byte[]{0x05, 0x02}, AUDIO_SPECIFIC_CONFIG,
+                    new byte[]{0x06, 0x01, 0x02});
+            byte[] mp4a = box("mp4a", new byte[6], shorts(1), new byte[8], shorts(2, 16, 0, 0),
+                    ints(AUDIO_TIMESCALE << 16), esds);
+            int[] sizes = new int[mAudioSamples.size()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = mAudioSamples.get(i).length;
+            }
+            ByteBuffer co64 = ByteBuffer.allocate(4 + chunks.length * 8);
+            co64.putInt(chunks.length);
+            for (long chunk : chunks) {
+                co64.putLong(chunk);
+            }
+            byte[] stbl = box("stbl",
+                    fullBox("stsd", 0, ints(1), mp4a),
+                    fullBox("stts", 0, ints(1, sizes.length, 1024)),
+                    fullBox("stsz", 0, ints(0, sizes.length), ints(sizes)),
+                    fullBox("stsc", 0, ints(2, 1, 3, 1, 3, 2, 1)),
+                    fullBox("co64", 0, co64.array()));
+            return box("trak", tkhd, box("mdia",
+                    fullBox("mdhd", 0, ints(0, 0, AUDIO_TIMESCALE, AUDIO_TIMESCALE), shorts(0x55c4, 0)),
+                    fullBox("hdlr", 0, ints(0), ascii("soun"), new byte[13]),
+                    box("minf", stbl)));
+        }
+
+        private static int write(ByteArrayOutputStream output, byte[] bytes) {
+            output.write(bytes, 0, bytes.length);
+            return bytes.length;
+        }
+    }
+
+    private static byte[] nal(int lengthSize, byte[] payload) {
+        byte[] result = new byte[lengthSize + payload.length];
+        for (int i = 0; i < lengthSize; i++) {
+            result[i] = (byte) (payload.length >>> (8 * (lengthSize - 1 - i)));
+        }
+        System.arraycopy(payload, 0, result, lengthSize, payload.length);
+        return result;
+    }
+
+    private static byte[] shortLength(byte[] nal) {
+        return nal(2, nal);
+    }
+
+    static byte[] box(String type, byte[]... payload) {
+        byte[] content = concat(payload);
+        return concat(ints(8 + content.length), ascii(type), content);
+    }
+
+    static byte[] fullBox(String type, int version, byte[]... payload) {
+        return box(type, concat(ints(version << 24), concat(payload)));
+    }
+
+    static byte[] ints(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    static byte[] shorts(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        for (int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+    static byte[] ascii(String text) {
+        byte[] bytes = new byte[text.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        return bytes;
+    }
+
+    static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            output.write(array, 0, array.length);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,361 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Mp4WriterTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1f, (byte) 0xda, 0x01};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+    // x265, Main 4.0, 1920x1080: VPS, SPS and PPS in csd-0 as MediaCodec gives them.
+    private static final String HEVC_CSD = "0000000140010c01ffff016000000300900000030000030078959409"
+            + "00000001420101016000000300900000030000030078a003c0801107cb965654a4c2f0168080000003008000000f04"
+            + "000000014401c073c189";
+    private static final long FRAME_DURATION_US = 40000;
+    private static final long AAC_FRAME_DURATION_US = 1024L * 1000000 / 44100;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void faststartPutsMoovBeforeMdat() throws IOException {
+        File file = new File(mFolder.getRoot(), "out.mp4");
+        writeClip(new Mp4Writer(file, true), 10, 20);
+
+        List<String> boxes = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        readTopLevelBoxes(file, boxes, sizes);
+        assertEquals(Arrays.asList("ftyp", "moov", "mdat"), boxes);
+        long total = 0;
+        for (long size : sizes) {
+            total += size;
+        }
+        assertEquals(file.length(), total);
+        // The side file holding mdat is gone.
+        assertArrayEquals(new String[]{"out.mp4"}, mFolder.getRoot().list());
+    }
+
+    @Test
+    public void plainLayoutPutsMoovAtTheEnd() throws IOException {
+        File file = new File(mFolder.getRoot(), "out.mp4");
+        writeClip(new Mp4Writer(file, false), 10, 20);
+
+        List<String> boxes = new ArrayList<>();
+        readTopLevelBoxes(file, boxes, new ArrayList<Long>());
+        assertEquals(Arrays.asList("ftyp", "mdat", "moov"), boxes);
+    }
+
+    @Test
+    public void roundTripsThroughDemuxer() throws IOException {
+        for (boolean faststart : new boolean[]{true, false}) {
+            File file = mFolder.newFile();
+            Clip clip = writeClip(new Mp4Writer(file, faststart), 30, 50);
+            Mp4Demuxer demuxer = open(file);
+            assertEquals(2, demuxer.getTrackCount());
+
+            Mp4Demuxer.Track video = demuxer.getTrack(0);
+            assertEquals("video/avc", video.getMime());
+            assertEquals(640, video.getWidth());
+            assertEquals(360, video.getHeight());
+            assertEquals(90, video.getRotationDegrees());
+            assertArrayEquals(SPS, video.getCsd0());
+            assertArrayEquals(PPS, video.getCsd1());
+            assertEquals(clip.mVideo.size(), video.getSampleCount());
+            for (int i = 0; i < video.getSampleCount(); i++) {
+                assertEquals(i * FRAME_DURATION_US, video.getSamplePresentationTimeUs(i));
+                assertEquals(i % 10 == 0, video.isSyncSample(i));
+            }
+
+            Mp4Demuxer.Track audio = demuxer.getTrack(1);
+            assertEquals("audio/mp4a-latm", audio.getMime());
+            assertEquals(44100, audio.getSampleRate());
+            assertEquals(2, audio.getChannelCount());
+            assertArrayEquals(AUDIO_SPECIFIC_CONFIG, audio.getCsd0());
+            assertEquals(clip.mAudio.size(), audio.getSampleCount());
+            for (int i = 0; i < audio.getSampleCount(); i++) {
+                assertEquals(i * 1024L * 1000000 / 44100, audio.getSamplePresentationTimeUs(i));
+            }
+
+            demuxer.selectTrack(0);
+            demuxer.selectTrack(1);
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            int videoIndex = 0;
+            int audioIndex = 0;
+            do {
+                int track = demuxer.getSampleTrackIndex();
+                int size = demuxer.readSampleData(buffer, 0);
+                byte[] read = new byte[size];
+                buffer.get(read);
+                if (track == 0) {
+                    // Stored length-prefixed, read back with 4-byte start codes.
+                    assertArrayEquals(withLongStartCodes(clip.mVideo.get(videoIndex++)), read);
+                } else {
+                    assertArrayEquals(clip.mAudio.get(audioIndex++), read);
+                }
+            } while (demuxer.advance());
+            assertEquals(clip.mVideo.size(), videoIndex);
+            assertEquals(clip.mAudio.size(), audioIndex);
+        }
+    }
+
+    @Test
+    public void reorderedFramesGetCompositionOffsets() throws IOException {
+        File file = mFolder.newFile();
+        Mp4Writer writer = new Mp4Writer(file, true);
+        int track = writer.addVideoTrack("video/avc", 320, 240, SPS, PPS);
+        writer.start();
+        // I P B B P B B in decode order.
+        long[] presentationOrder = {0, 3, 1, 2, 6, 4, 5};
+        for (int i = 0; i < presentationOrder.length; i++) {
+            writer.writeSampleData(track, ByteBuffer.wrap(frame(i, i == 0)), presentationOrder[i] * FRAME_DURATION_US,
+                    i == 0 ? Mp4Writer.FLAG_SYNC_FRAME : 0);
+        }
+        writer.stop();
+        writer.release();
+
+        Mp4Demuxer.Track video = open(file).getTrack(0);
+        for (int i = 0; i < presentationOrder.length; i++) {
+            assertEquals(presentationOrder[i] * FRAME_DURATION_US, video.getSamplePresentationTimeUs(i));
+            assertTrue(video.getSampleDecodeTimeUs(i) <= video.getSamplePresentationTimeUs(i));
+            if (i > 0) {
+                assertTrue(video.getSampleDecodeTimeUs(i) > video.getSampleDecodeTimeUs(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void keepsLateTrackStart() throws IOException {
+        File file = mFolder.newFile();
+        Mp4Writer writer = new Mp4Writer(file, false);
+        int track = writer.addAudioTrack("audio/mp4a-latm", 44100, 2, AUDIO_SPECIFIC_CONFIG);
+        writer.start();
+        for (int i = 0; i < 5; i++) {
+            writer.writeSampleData(track, ByteBuffer.wrap(new byte[]{(byte) i, 1, 2}),
+                    20000 + i * 1024L * 1000000 / 44100, 0);
+        }
+        writer.stop();
+        writer.release();
+
+        Mp4Demuxer.Track audio = open(file).getTrack(0);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(20000 + i * 1024L * 1000000 / 44100, audio.getSamplePresentationTimeUs(i));
+        }
+    }
+
+    @Test
+    public void writesSamplesLargerThanTheBuffer() throws IOException {
+        File file = mFolder.newFile();
+        Mp4Writer writer = new Mp4Writer(file, true);
+        int track = writer.addAudioTrack("audio/mp4a-latm", 48000, 1, AUDIO_SPECIFIC_CONFIG);
+        writer.start();
+        byte[] small = {1, 2, 3};
+        byte[] large = new byte[3 * 1024 * 1024 + 5];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i * 31);
+        }
+        writer.writeSampleData(track, ByteBuffer.wrap(small), 0, 0);
+        writer.writeSampleData(track, ByteBuffer.wrap(large), 1000, 0);
+        writer.writeSampleData(track, ByteBuffer.wrap(small), 2000, 0);
+        writer.stop();
+        writer.release();
+
+        Mp4Demuxer demuxer = open(file);
+        demuxer.selectTrack(0);
+        ByteBuffer buffer = ByteBuffer.allocate(large.length);
+        byte[][] expected = {small, large, small};
+        for (byte[] sample : expected) {
+            byte[] read = new byte[demuxer.readSampleData(buffer, 0)];
+            buffer.get(read);
+            assertArrayEquals(sample, read);
+            demuxer.advance();
+        }
+    }
+
+    @Test
+    public void writesHevcWithParameterSetsInHvcC() throws IOException {
+        File file = mFolder.newFile();
+        Mp4Writer writer = new Mp4Writer(file, true);
+        byte[] csd = hex(HEVC_CSD);
+        int track = writer.addVideoTrack(Mp4Writer.MIME_VIDEO_HEVC, 1920, 1080, csd, null);
+        writer.start();
+        byte[] sample = {0, 0, 0, 1, 0x26, 0x01, (byte) 0xaf, 0x1d};
+        writer.writeSampleData(track, ByteBuffer.wrap(csd), 0, Mp4Writer.FLAG_CODEC_CONFIG);
+        writer.writeSampleData(track, ByteBuffer.wrap(sample), 0, Mp4Writer.FLAG_SYNC_FRAME);
+        writer.stop();
+        writer.release();
+
+        Mp4Demuxer demuxer = open(file);
+        Mp4Demuxer.Track video = demuxer.getTrack(0);
+        assertEquals("hvc1", video.getSampleEntryType());
+        assertEquals("video/hevc", video.getMime());
+        assertEquals(4, video.getNalLengthSize());
+        assertArrayEquals(csd, video.getCsd0());
+        assertEquals(1, video.getSampleCount());
+        demuxer.selectTrack(0);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        byte[] read = new byte[demuxer.readSampleData(buffer, 0)];
+        buffer.get(read);
+        assertArrayEquals(sample, read);
+    }
+
+    @Test
+    public void skipsCodecConfigAndEmptyBuffers() throws IOException {
+        File file = mFolder.newFile();
+        Mp4Writer writer = new Mp4Writer(file, true);
+        int track = writer.addVideoTrack("video/avc", 320, 240, SPS, PPS);
+        writer.start();
+        ByteBuffer sample = ByteBuffer.wrap(frame(0, true));
+        writer.writeSampleData(track, ByteBuffer.wrap(SPS), 0, Mp4Writer.FLAG_CODEC_CONFIG);
+        writer.writeSampleData(track, sample, 0, Mp4Writer.FLAG_SYNC_FRAME);
+        writer.writeSampleData(track, ByteBuffer.allocate(0), 0, 4);
+        writer.stop();
+        writer.release();
+
+        assertEquals(0, sample.position());
+        assertEquals(1, open(file).getTrack(0).getSampleCount());
+    }
+
+    @Test
+    public void rejectsCallsOutOfOrder() throws IOException {
+        Mp4Writer writer = new Mp4Writer(mFolder.newFile(), true);
+        int track = writer.addAudioTrack("audio/mp4a-latm", 44100, 2, AUDIO_SPECIFIC_CONFIG);
+        try {
+            writer.writeSampleData(track, ByteBuffer.wrap(new byte[1]), 0, 0);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        writer.start();
+        try {
+            writer.addAudioTrack("audio/mp4a-latm", 44100, 2, AUDIO_SPECIFIC_CONFIG);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        writer.release();
+    }
+
+    private static class Clip {
+        private final List<byte[]> mVideo = new ArrayList<>();
+        private final List<byte[]> mAudio = new ArrayList<>();
+    }
+
+    /**
+     * Writes interleaved video and audio the way QueuedMuxer hands them over, then stops the writer.
+     */
+    private static Clip writeClip(Mp4Writer writer, int videoFrames, int audioFrames) throws IOException {
+        Clip clip = new Clip();
+        writer.setOrientationHint(90);
+        int videoTrack = writer.addVideoTrack("video/avc", 640, 360, SPS, PPS);
+        int audioTrack = writer.addAudioTrack("audio/mp4a-latm", 44100, 2, AUDIO_SPECIFIC_CONFIG);
+        writer.start();
+        int video = 0;
+        int audio = 0;
+        while (video < videoFrames || audio < audioFrames) {
+            boolean writeVideo = audio >= audioFrames
+                    || (video < videoFrames && video * FRAME_DURATION_US <= audio * AAC_FRAME_DURATION_US);
+            if (writeVideo) {
+                byte[] frame = frame(video, video % 10 == 0);
+                clip.mVideo.add(frame);
+                writer.writeSampleData(videoTrack, ByteBuffer.wrap(frame), video * FRAME_DURATION_US,
+                        video % 10 == 0 ? Mp4Writer.FLAG_SYNC_FRAME : 0);
+                video++;
+            } else {
+                byte[] frame = new byte[20 + audio % 7];
+                Arrays.fill(frame, (byte) audio);
+                clip.mAudio.add(frame);
+                writer.writeSampleData(audioTrack, ByteBuffer.wrap(frame), audio * 1024L * 1000000 / 44100, 0);
+                audio++;
+            }
+        }
+        writer.stop();
+        writer.release();
+        return clip;
+    }
+
+    /**
+     * An Annex-B access unit: an SEI after a 3-byte start code on key frames, then the slice.
+     */
+    private static byte[] frame(int index, boolean keyFrame) {
+        byte[] slice = new byte[30 + index % 5];
+        Arrays.fill(slice, (byte) 0x5a);
+        slice[0] = (byte) (keyFrame ? 0x65 : 0x41);
+        slice[1] = (byte) index;
+        ByteBuffer frame = ByteBuffer.allocate(64);
+        if (keyFrame) {
+            frame.put(new byte[]{0, 0, 1, 0x06, 0x05, 0x01, (byte) 0x80});
+        }
+        frame.put(new byte[]{0, 0, 0, 1}).put(slice);
+        return Arrays.copyOf(frame.array(), frame.position());
+    }
+
+    private static byte[] withLongStartCodes(byte[] annexB) {
+        ByteBuffer result = ByteBuffer.allocate(annexB.length * 2);
+        int i = 0;
+        while (i < annexB.length) {
+            if (i + 2 < annexB.length && annexB[i] == 0 && annexB[i + 1] == 0 && annexB[i + 2] == 1) {
+                result.put(new byte[]{0, 0, 0, 1});
+                i += 3;
+            } else if (i + 3 < annexB.length && annexB[i] == 0 && annexB[i + 1] == 0 && annexB[i + 2] == 0
+                    && annexB[i + 3] == 1) {
+                result.put(new byte[]{0, 0, 0, 1});
+                i += 4;
+            } else {
+                result.put(annexB[i++]);
+            }
+        }
+        return Arrays.copyOf(result.array(), result.position());
+    }
+
+    private static void readTopLevelBoxes(File file, List<String> types, List<Long> sizes) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long position = 0;
+            while (position < input.length()) {
+                input.seek(position);
+                long size = input.readInt() & 0xffffffffL;
+                byte[] type = new byte[4];
+                input.readFully(type);
+                if (size == 1) {
+                    size = input.readLong();
+                }
+                assertFalse("empty box", size == 0);
+                types.add(new String(type, "US-ASCII"));
+                sizes.add(size);
+                position += size;
+            }
+            assertEquals(input.length(), position);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static Mp4Demuxer open(File file) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        return new Mp4Demuxer(channel);
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,196 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NalUnitScannerTest {
+    private final NalUnitScanner mScanner = new NalUnitScanner();
+
+    @Test
+    public void findsStartCodesLikeAByteLoop() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            byte[] data = new byte[random.nextInt(64)];
+            for (int i = 0; i < data.length; i++) {
+                // Mostly zeros and ones, so start codes land at every offset within a word.
+                int value = random.nextInt(4);
+                data[i] = (byte) (value == 3 ? random.nextInt(256) : value);
+            }
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.wrap(data), direct(data),
+                    direct(data).order(ByteOrder.LITTLE_ENDIAN)}) {
+                for (int from = 0; from <= data.length; from++) {
+                    assertEquals(naiveFindStartCode(data, from), NalUnitScanner.findStartCode(buffer, from,
+                            data.length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scansAnnexBWithMixedStartCodes() {
+        byte[] sample = bytes(0, 0, 0, 1, 0x67, 1, 2, 0, 0, 1, 0x68, 3, 0, 0, 0, 1, 0x65, 4, 5, 6, 0, 0);
+        assertEquals(3, mScanner.scanAnnexB(ByteBuffer.wrap(sample)));
+        assertNal(4, 3, 0);
+        assertNal(10, 2, 1);
+        assertNal(16, 4, 2);
+        assertEquals(NalUnitScanner.LENGTH_SIZE * 3 + 9, mScanner.getLengthPrefixedSize());
+        assertEquals(2, mScanner.findAvcNalUnit(ByteBuffer.wrap(sample), 5));
+        assertEquals(-1, mScanner.findAvcNalUnit(ByteBuffer.wrap(sample), 6));
+    }
+
+    @Test
+    public void scansFromThePositionAndGrowsPastTheInitialCapacity() {
+        ByteBuffer buffer = direct(frame(40, 3, new Random(1)));
+        buffer.position(4);
+        // The first start code is at the position, so its NAL unit is skipped.
+        assertEquals(39, mScanner.scanAnnexB(buffer));
+        assertEquals(4, buffer.position());
+        assertEquals(39, mScanner.scanAnnexB(buffer));
+    }
+
+    @Test
+    public void scansLengthPrefixed() {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes(0, 3, 0x67, 1, 2, 0, 0, 0, 1, 0x68));
+        assertEquals(2, mScanner.scanLengthPrefixed(buffer, 2));
+        assertNal(2, 3, 0);
+        assertNal(9, 1, 1);
+        buffer.put(1, (byte) 9);
+        try {
+            mScanner.scanLengthPrefixed(buffer, 2);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void convertsAnnexBToLengthPrefixedInPlace() {
+        Random random = new Random(3);
+        for (int round = 0; round < 100; round++) {
+            byte[] sample = frame(1 + random.nextInt(6), 1 + random.nextInt(40), random);
+            List<byte[]> expected = SampleDataWriter.splitNalUnits(sample);
+            for (boolean useDirect : new boolean[]{false, true}) {
+                // Leave room for 3-byte start codes to grow.
+                byte[] room = Arrays.copyOf(sample, sample.length + 4 * expected.size());
+                ByteBuffer buffer = useDirect ? direct(room) : ByteBuffer.wrap(room);
+                buffer.limit(sample.length);
+                assertEquals(expected.size(), mScanner.convertToLengthPrefixed(buffer));
+                assertEquals(0, buffer.position());
+                assertEquals(mScanner.getLengthPrefixedSize(), buffer.limit());
+                assertNalUnits(expected, buffer);
+            }
+        }
+    }
+
+    @Test
+    public void refusesToGrowPastTheCapacity() {
+        byte[] sample = bytes(0, 0, 1, 0x67, 1, 0, 0, 1, 0x68, 2);
+        ByteBuffer buffer = ByteBuffer.wrap(sample.clone());
+        try {
+            mScanner.convertToLengthPrefixed(buffer);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertArrayEquals(sample, buffer.array());
+        assertEquals(sample.length, buffer.limit());
+    }
+
+    @Test
+    public void convertsLengthPrefixedToAnnexBInPlace() {
+        byte[] sample = bytes(9, 9, 0, 0, 0, 2, 0x67, 1, 0, 0, 0, 1, 0x68, 9);
+        ByteBuffer buffer = direct(sample);
+        NalUnitScanner.convertToAnnexB(buffer, 2, 13);
+        buffer.clear();
+        byte[] converted = new byte[sample.length];
+        buffer.get(converted);
+        assertArrayEquals(bytes(9, 9, 0, 0, 0, 1, 0x67, 1, 0, 0, 0, 1, 0x68, 9), converted);
+    }
+
+    @Test
+    public void detectsStartCodes() {
+        assertTrue(NalUnitScanner.startsWithStartCode(ByteBuffer.wrap(bytes(0, 0, 1, 0x67))));
+        assertTrue(NalUnitScanner.startsWithStartCode(ByteBuffer.wrap(bytes(0, 0, 0, 1, 0x67))));
+        assertFalse(NalUnitScanner.startsWithStartCode(ByteBuffer.wrap(bytes(0, 0, 0, 9, 0x67))));
+        assertFalse(NalUnitScanner.startsWithStartCode(ByteBuffer.wrap(bytes(0, 0, 1))));
+    }
+
+    private void assertNal(int offset, int size, int index) {
+        assertEquals(offset, mScanner.getOffset(index));
+        assertEquals(size, mScanner.getSize(index));
+    }
+
+    private static void assertNalUnits(List<byte[]> expected, ByteBuffer buffer) {
+        List<byte[]> nalUnits = new ArrayList<>();
+        int position = buffer.position();
+        while (position < buffer.limit()) {
+            byte[] nal = new byte[buffer.getInt(position)];
+            for (int i = 0; i < nal.length; i++) {
+                nal[i] = buffer.get(position + 4 + i);
+            }
+            nalUnits.add(nal);
+            position += 4 + nal.length;
+        }
+        assertEquals(expected.size(), nalUnits.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), nalUnits.get(i));
+        }
+    }
+
+    /**
+     * @return {@code count} NAL units of {@code maxSize} bytes at most, randomly behind 3 or 4-byte start codes and
+     * followed by zeros.
+     */
+    private static byte[] frame(int count, int maxSize, Random random) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        for (int n = 0; n < count; n++) {
+            if (random.nextBoolean()) frame.write(0);
+            frame.write(0);
+            frame.write(0);
+            frame.write(1);
+            frame.write(0x41);
+            int size = random.nextInt(maxSize);
+            for (int i = 0; i < size; i++) {
+                frame.write(1 + random.nextInt(255));
+            }
+            // Trailing zeros are dropped, moving the following NAL units down on conversion.
+            int zeros = random.nextInt(4) == 0 ? random.nextInt(8) : 0;
+            for (int i = 0; i < zeros; i++) {
+                frame.write(0);
+            }
+        }
+        return frame.toByteArray();
+    }
+
+    private static int naiveFindStartCode(byte[] data, int from) {
+        for (int i = from; i + 2 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) return i;
+        }
+        return data.length;
+    }
+
+    private static ByteBuffer direct(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        return buffer;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}
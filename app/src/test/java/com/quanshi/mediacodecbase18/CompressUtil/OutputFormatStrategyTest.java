@@ -0,0 +1,121 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import static com.quanshi.mediacodecbase18.CompressUtil.OutputFormatStrategy.UNKNOWN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class OutputFormatStrategyTest {
+    private static final BitsPerPixelModel MEDIUM = new BitsPerPixelModel(BitsPerPixelModel.MEDIUM_MOTION);
+
+    @Test
+    public void scalesToTheMaxEdgeKeepingTheAspectRatio() {
+        OutputFormatStrategy strategy = new MaxEdgeOutputFormatStrategy(640, MEDIUM);
+        // {input width, height, output width, height}
+        int[][] matrix = {
+                {1920, 1080, 640, 368},  // 16:9, 360 rounded to 16
+                {1080, 1920, 368, 640},  // portrait
+                {1280, 720, 640, 368},
+                {1440, 1080, 640, 480},  // 4:3
+                {2560, 1080, 640, 272},  // 21:9, 270 rounded to 16
+                {1080, 1080, 640, 640},  // square
+                {3840, 2160, 640, 368},
+                {4000, 100, 640, 16},    // never below one macroblock
+        };
+        for (int[] row : matrix) {
+            OutputFormatStrategy.VideoFormat output = strategy.createVideoOutputFormat(
+                    new OutputFormatStrategy.VideoFormat(row[0], row[1], 30, UNKNOWN));
+            String message = row[0] + "x" + row[1];
+            assertEquals(message, row[2], output.getWidth());
+            assertEquals(message, row[3], output.getHeight());
+            assertEquals(message, 0, output.getWidth() % 16);
+            assertEquals(message, 0, output.getHeight() % 16);
+        }
+    }
+
+    @Test
+    public void roundsAnUnalignedMaxEdgeDown() {
+        OutputFormatStrategy strategy = new MaxEdgeOutputFormatStrategy(1000, MEDIUM);
+        OutputFormatStrategy.VideoFormat output = strategy.createVideoOutputFormat(
+                new OutputFormatStrategy.VideoFormat(1920, 1080, 30, UNKNOWN));
+        assertEquals(992, output.getWidth());
+        assertEquals(560, output.getHeight());
+    }
+
+    @Test
+    public void leavesSmallVideoAlone() {
+        OutputFormatStrategy strategy = new MaxEdgeOutputFormatStrategy(640, MEDIUM);
+        assertNull(strategy.createVideoOutputFormat(new OutputFormatStrategy.VideoFormat(640, 360, 30, UNKNOWN)));
+        assertNull(strategy.createVideoOutputFormat(new OutputFormatStrategy.VideoFormat(480, 640, 30, 400000)));
+        // Small but with too high a bitrate: only the bitrate goes down.
+        OutputFormatStrategy.VideoFormat output = strategy.createVideoOutputFormat(
+                new OutputFormatStrategy.VideoFormat(640, 360, 30, 4000000));
+        assertEquals(new OutputFormatStrategy.VideoFormat(640, 360, 30, 552960), output);
+    }
+
+    @Test
+    public void computesBitsPerPixelBitrates() {
+        // {width, height, frame rate, bitrate} at 0.08 bits per pixel
+        int[][] matrix = {
+                {640, 368, 30, 565248},
+                {640, 368, 15, 282624},
+                {1280, 720, 30, 2211840},
+                {1920, 1080, 60, 9953280},
+                {640, 368, UNKNOWN, 565248},  // assumed 30 fps
+                {176, 144, 15, 100000},       // clamped to the minimum
+                {3840, 2160, 60, 20000000},   // clamped to the maximum
+        };
+        for (int[] row : matrix) {
+            assertEquals(row[0] + "x" + row[1] + "@" + row[2], row[3], MEDIUM.getBitrate(row[0], row[1], row[2]));
+        }
+        assertEquals(345600, new BitsPerPixelModel(BitsPerPixelModel.LOW_MOTION).getBitrate(640, 360, 30));
+        assertEquals(829440, new BitsPerPixelModel(BitsPerPixelModel.HIGH_MOTION).getBitrate(640, 360, 30));
+    }
+
+    @Test
+    public void keepsFrameRateAndUsesItForTheBitrate() {
+        OutputFormatStrategy strategy = new MaxEdgeOutputFormatStrategy(640,
+                new BitsPerPixelModel(BitsPerPixelModel.LOW_MOTION));
+        OutputFormatStrategy.VideoFormat output = strategy.createVideoOutputFormat(
+                new OutputFormatStrategy.VideoFormat(1920, 1080, 24, 12000000));
+        assertEquals(new OutputFormatStrategy.VideoFormat(640, 368, 24, 282624), output);
+    }
+
+    @Test
+    public void changesOnlyTheBitrate() {
+        OutputFormatStrategy fixed = new BitrateOnlyOutputFormatStrategy(2000000);
+        assertEquals(new OutputFormatStrategy.VideoFormat(1920, 1080, 30, 2000000), fixed.createVideoOutputFormat(
+                new OutputFormatStrategy.VideoFormat(1920, 1080, 30, 16000000)));
+        assertEquals(new OutputFormatStrategy.VideoFormat(1918, 1078, UNKNOWN, 2000000),
+                fixed.createVideoOutputFormat(new OutputFormatStrategy.VideoFormat(1918, 1078, UNKNOWN, UNKNOWN)));
+        assertNull(fixed.createVideoOutputFormat(new OutputFormatStrategy.VideoFormat(1920, 1080, 30, 1500000)));
+
+        OutputFormatStrategy modeled = new BitrateOnlyOutputFormatStrategy(MEDIUM);
+        assertEquals(new OutputFormatStrategy.VideoFormat(1280, 720, 30, 2211840), modeled.createVideoOutputFormat(
+                new OutputFormatStrategy.VideoFormat(1280, 720, 30, 8000000)));
+    }
+
+    @Test
+    public void rejectsInvalidParameters() {
+        try {
+            new MaxEdgeOutputFormatStrategy(8, MEDIUM);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new BitsPerPixelModel(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new OutputFormatStrategy.VideoFormat(0, 1080, 30, UNKNOWN);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
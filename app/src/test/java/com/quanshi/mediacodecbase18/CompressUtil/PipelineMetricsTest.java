@@ -0,0 +1,105 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PipelineMetricsTest {
+    private static final long US = 1000;
+
+    @Test
+    public void bucketsDurationsByPowersOfTwoMicroseconds() {
+        assertEquals(0, PipelineMetrics.getBucket(0));
+        assertEquals(0, PipelineMetrics.getBucket(999));
+        assertEquals(1, PipelineMetrics.getBucket(US));
+        assertEquals(2, PipelineMetrics.getBucket(3 * US));
+        assertEquals(11, PipelineMetrics.getBucket(1024 * US));
+        assertEquals(PipelineMetrics.BUCKET_COUNT - 1, PipelineMetrics.getBucket(Long.MAX_VALUE));
+        for (int bucket = 0; bucket < PipelineMetrics.BUCKET_COUNT - 1; bucket++) {
+            long limitNs = PipelineMetrics.getBucketLimitNs(bucket);
+            assertEquals(bucket, PipelineMetrics.getBucket(limitNs - 1));
+            assertEquals(bucket + 1, PipelineMetrics.getBucket(limitNs));
+        }
+    }
+
+    @Test
+    public void recordsCountTotalAndMax() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(PipelineMetrics.STAGE_DRAW_IMAGE, 0, 100 * US);
+        metrics.record(PipelineMetrics.STAGE_DRAW_IMAGE, 1000 * US, 1300 * US);
+        metrics.record(PipelineMetrics.STAGE_DRAW_IMAGE, 500, 0);
+        assertEquals(3, metrics.getCount(PipelineMetrics.STAGE_DRAW_IMAGE));
+        assertEquals(400 * US, metrics.getTotalNs(PipelineMetrics.STAGE_DRAW_IMAGE));
+        assertEquals(300 * US, metrics.getMaxNs(PipelineMetrics.STAGE_DRAW_IMAGE));
+        assertEquals(0, metrics.getCount(PipelineMetrics.STAGE_EXTRACT));
+    }
+
+    @Test
+    public void percentilesAreBoundedByTheBucketsAndTheMax() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        for (int i = 0; i < 99; i++) {
+            metrics.record(PipelineMetrics.STAGE_SWAP_BUFFERS, 0, 10 * US);
+        }
+        metrics.record(PipelineMetrics.STAGE_SWAP_BUFFERS, 0, 5000 * US);
+        TranscodeStats stats = new TranscodeStats(metrics, MediaConstants.MEDIA_TRANSCODE_SUCC, 0.5, 1000, 30);
+        assertEquals(16 * US, stats.getStagePercentileNs(TranscodeStats.STAGE_SWAP_BUFFERS, 50));
+        assertEquals(16 * US, stats.getStagePercentileNs(TranscodeStats.STAGE_SWAP_BUFFERS, 99));
+        assertEquals(5000 * US, stats.getStagePercentileNs(TranscodeStats.STAGE_SWAP_BUFFERS, 100));
+        assertEquals(0, stats.getStagePercentileNs(TranscodeStats.STAGE_MUX_WRITE, 50));
+    }
+
+    @Test
+    public void addsOtherMetricsButNotTheirGauges() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(PipelineMetrics.STAGE_EXTRACT, 0, 20 * US);
+        metrics.addBytesIn(100);
+        metrics.setGauge(PipelineMetrics.GAUGE_MUXER_QUEUE, 4);
+        PipelineMetrics segment = new PipelineMetrics();
+        segment.record(PipelineMetrics.STAGE_EXTRACT, 0, 50 * US);
+        segment.record(PipelineMetrics.STAGE_ENCODE_DRAIN, 0, 70 * US);
+        segment.addBytesIn(200);
+        segment.addBytesOut(30);
+        segment.addVideoFrameOut();
+        segment.setGauge(PipelineMetrics.GAUGE_MUXER_QUEUE, 9);
+
+        metrics.add(segment);
+        assertEquals(2, metrics.getCount(PipelineMetrics.STAGE_EXTRACT));
+        assertEquals(70 * US, metrics.getTotalNs(PipelineMetrics.STAGE_EXTRACT));
+        assertEquals(50 * US, metrics.getMaxNs(PipelineMetrics.STAGE_EXTRACT));
+        assertEquals(1, metrics.getCount(PipelineMetrics.STAGE_ENCODE_DRAIN));
+        assertEquals(300, metrics.getBytesIn());
+        assertEquals(30, metrics.getBytesOut());
+        assertEquals(1, metrics.getVideoFramesOut());
+        assertEquals(4, metrics.getGauge(PipelineMetrics.GAUGE_MUXER_QUEUE));
+        long[] buckets = metrics.copyBuckets(PipelineMetrics.STAGE_EXTRACT, new long[PipelineMetrics.BUCKET_COUNT]);
+        assertEquals(1, buckets[PipelineMetrics.getBucket(20 * US)]);
+        assertEquals(1, buckets[PipelineMetrics.getBucket(50 * US)]);
+
+        metrics.clear();
+        assertEquals(0, metrics.getCount(PipelineMetrics.STAGE_EXTRACT));
+        assertEquals(0, metrics.getBytesIn());
+        assertEquals(0, metrics.getGauge(PipelineMetrics.GAUGE_MUXER_QUEUE));
+    }
+
+    @Test
+    public void statsAreASnapshot() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(PipelineMetrics.STAGE_MUX_WRITE, 0, 5 * US);
+        metrics.addBytesOut(1000);
+        metrics.setGauge(PipelineMetrics.GAUGE_DECODER_QUEUE, 2);
+        metrics.setGauge(PipelineMetrics.GAUGE_ENCODER_QUEUE, 1);
+        TranscodeStats stats = new TranscodeStats(metrics, MediaConstants.MEDIA_TRANSCODE_SUCC, 0.25, 2000, 24);
+        metrics.record(PipelineMetrics.STAGE_MUX_WRITE, 0, 5 * US);
+        metrics.addBytesOut(1000);
+        metrics.setGauge(PipelineMetrics.GAUGE_DECODER_QUEUE, 0);
+
+        assertEquals(1, stats.getStageCount(TranscodeStats.STAGE_MUX_WRITE));
+        assertEquals(1000, stats.getBytesOut());
+        assertEquals(2, stats.getDecoderQueueDepth());
+        assertEquals(1, stats.getEncoderQueueDepth());
+        assertEquals(0, stats.getMuxerQueueDepth());
+        assertEquals(0.25, stats.getProgress(), 0);
+        assertEquals(24, stats.getFps(), 0);
+        assertEquals("mux-write", TranscodeStats.getStageName(TranscodeStats.STAGE_MUX_WRITE));
+    }
+}
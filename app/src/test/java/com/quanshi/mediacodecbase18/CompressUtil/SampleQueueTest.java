@@ -0,0 +1,154 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SampleQueueTest {
+    private static final int BLOCK_SIZE = 1024;
+
+    @Test
+    public void growsInBlocks() {
+        SampleQueue queue = new SampleQueue(new DirectBlockPool(BLOCK_SIZE, 4), 64 * BLOCK_SIZE);
+        for (int i = 0; i < 100; i++) {
+            queue.add(i % 2, sample(i, 300), i * 1000L, 0);
+        }
+        // Three samples fit in a block, the rest of it is left unused.
+        assertEquals(34, queue.getBlockCount());
+        assertEquals(100, queue.getSampleCount());
+        assertEquals(100 * 300, queue.getQueuedBytes());
+        assertEquals(34 * BLOCK_SIZE, queue.getAllocatedBytes());
+    }
+
+    @Test
+    public void givesLargeSamplesABlockOfTheirOwn() {
+        SampleQueue queue = new SampleQueue(new DirectBlockPool(BLOCK_SIZE, 4), 64 * BLOCK_SIZE);
+        queue.add(0, sample(0, 100), 0, 0);
+        queue.add(0, sample(1, 5000), 1, 0);
+        queue.add(0, sample(2, 100), 2, 0);
+        assertEquals(3, queue.getBlockCount());
+        assertEquals(5000 + 2 * BLOCK_SIZE, queue.getAllocatedBytes());
+
+        List<byte[]> drained = drain(queue, new ArrayList<Long>());
+        assertArrayEquals(bytes(sample(1, 5000)), drained.get(1));
+    }
+
+    @Test
+    public void rejectsSamplesOverTheCap() {
+        SampleQueue queue = new SampleQueue(new DirectBlockPool(BLOCK_SIZE, 4), 2 * BLOCK_SIZE);
+        queue.add(0, sample(0, 1000), 0, 0);
+        queue.add(1, sample(1, 1000), 1, 0);
+        ByteBuffer third = sample(2, 1000);
+        try {
+            queue.add(0, third, 2, 0);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("full"));
+        }
+        // Nothing was consumed and the queue still holds what fit.
+        assertEquals(1000, third.remaining());
+        assertEquals(2, queue.getSampleCount());
+        assertEquals(2, drain(queue, new ArrayList<Long>()).size());
+    }
+
+    @Test
+    public void drainsInOrderWithoutCopying() {
+        SampleQueue queue = new SampleQueue(new DirectBlockPool(BLOCK_SIZE, 4), 64 * BLOCK_SIZE);
+        for (int i = 0; i < 20; i++) {
+            queue.add(i % 3 == 0 ? 1 : 0, sample(i, 100 + i), i * 1000L, i % 5 == 0 ? 1 : 0);
+        }
+        final List<ByteBuffer> blocks = new ArrayList<>();
+        final List<Integer> tracks = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        final List<byte[]> data = new ArrayList<>();
+        queue.drain(new SampleQueue.Consumer() {
+            @Override
+            public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                                 int sampleFlags) {
+                blocks.add(block);
+                tracks.add(track);
+                flags.add(sampleFlags);
+                times.add(presentationTimeUs);
+                byte[] bytes = new byte[size];
+                ByteBuffer view = block.duplicate();
+                view.limit(offset + size).position(offset);
+                view.get(bytes);
+                data.add(bytes);
+            }
+        });
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 3 == 0 ? 1 : 0, (int) tracks.get(i));
+            assertEquals(i * 1000L, (long) times.get(i));
+            assertEquals(i % 5 == 0 ? 1 : 0, (int) flags.get(i));
+            assertArrayEquals(bytes(sample(i, 100 + i)), data.get(i));
+            assertTrue(blocks.get(i).isDirect());
+        }
+        // The consumer gets the queue's own blocks.
+        assertSame(blocks.get(0), blocks.get(1));
+        assertEquals(0, queue.getSampleCount());
+        assertEquals(0, queue.getAllocatedBytes());
+    }
+
+    @Test
+    public void returnsBlocksToThePool() {
+        DirectBlockPool pool = new DirectBlockPool(BLOCK_SIZE, 2);
+        SampleQueue queue = new SampleQueue(pool, 64 * BLOCK_SIZE);
+        for (int i = 0; i < 10; i++) {
+            queue.add(0, sample(i, 600), i, 0);
+        }
+        queue.add(0, sample(10, 3 * BLOCK_SIZE), 10, 0);
+        drain(queue, new ArrayList<Long>());
+        // Only as many as the pool keeps; the oversized block is not pooled.
+        assertEquals(2, pool.getIdleBlockCount());
+
+        queue.add(0, sample(0, 10), 0, 0);
+        assertEquals(1, pool.getIdleBlockCount());
+        assertEquals(Arrays.asList(0L), drainTimes(queue));
+    }
+
+    private static List<Long> drainTimes(SampleQueue queue) {
+        List<Long> times = new ArrayList<>();
+        drain(queue, times);
+        return times;
+    }
+
+    private static List<byte[]> drain(SampleQueue queue, final List<Long> times) {
+        final List<byte[]> data = new ArrayList<>();
+        queue.drain(new SampleQueue.Consumer() {
+            @Override
+            public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                                 int flags) {
+                byte[] bytes = new byte[size];
+                block.limit(offset + size).position(offset);
+                block.get(bytes);
+                data.add(bytes);
+                times.add(presentationTimeUs);
+            }
+        });
+        return data;
+    }
+
+    private static ByteBuffer sample(int index, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (index * 31 + i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
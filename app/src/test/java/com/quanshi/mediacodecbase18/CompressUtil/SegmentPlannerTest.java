@@ -0,0 +1,92 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentPlannerTest {
+    private static final long SECOND_US = 1000 * 1000;
+
+    private static long[] syncEvery(long intervalUs, long durationUs) {
+        long[] syncTimesUs = new long[(int) ((durationUs + intervalUs - 1) / intervalUs)];
+        for (int i = 0; i < syncTimesUs.length; i++) {
+            syncTimesUs[i] = i * intervalUs;
+        }
+        return syncTimesUs;
+    }
+
+    private static void assertContiguous(List<SegmentPlanner.Segment> segments) {
+        for (int i = 0; i < segments.size(); i++) {
+            assertEquals(i, segments.get(i).getIndex());
+            if (i > 0) {
+                assertEquals(segments.get(i - 1).getEndTimeUs(), segments.get(i).getStartTimeUs());
+            }
+        }
+        assertEquals(SegmentPlanner.Segment.END_OF_STREAM, segments.get(segments.size() - 1).getEndTimeUs());
+    }
+
+    @Test
+    public void splitsEvenlyAtSyncSamples() {
+        long durationUs = 120 * SECOND_US;
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncEvery(3 * SECOND_US, durationUs), 40,
+                durationUs, 4, 10 * SECOND_US);
+        assertEquals(4, segments.size());
+        assertContiguous(segments);
+        assertEquals(0, segments.get(0).getStartTimeUs());
+        assertEquals(30 * SECOND_US, segments.get(1).getStartTimeUs());
+        assertEquals(60 * SECOND_US, segments.get(2).getStartTimeUs());
+        assertEquals(90 * SECOND_US, segments.get(3).getStartTimeUs());
+    }
+
+    @Test
+    public void cutsAtNearestSyncSample() {
+        long[] syncTimesUs = {0, 7 * SECOND_US, 19 * SECOND_US, 33 * SECOND_US, 41 * SECOND_US};
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncTimesUs, syncTimesUs.length,
+                60 * SECOND_US, 2, SECOND_US);
+        assertEquals(2, segments.size());
+        assertContiguous(segments);
+        assertEquals(33 * SECOND_US, segments.get(1).getStartTimeUs());
+    }
+
+    @Test
+    public void neverReusesSyncSampleOfLongGop() {
+        long[] syncTimesUs = {0, 50 * SECOND_US, 51 * SECOND_US, 52 * SECOND_US};
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncTimesUs, syncTimesUs.length,
+                100 * SECOND_US, 4, 0);
+        assertContiguous(segments);
+        for (int i = 1; i < segments.size(); i++) {
+            assertEquals(true, segments.get(i).getStartTimeUs() > segments.get(i - 1).getStartTimeUs());
+        }
+    }
+
+    @Test
+    public void respectsMinimumSegmentDuration() {
+        long durationUs = 25 * SECOND_US;
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncEvery(SECOND_US, durationUs), 25,
+                durationUs, 8, 10 * SECOND_US);
+        assertEquals(2, segments.size());
+        assertContiguous(segments);
+    }
+
+    @Test
+    public void singleSegmentWhenNotSplittable() {
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(new long[]{40000}, 1, 60 * SECOND_US, 4, 0);
+        assertEquals(1, segments.size());
+        assertEquals(40000, segments.get(0).getStartTimeUs());
+        assertContiguous(segments);
+
+        segments = SegmentPlanner.plan(syncEvery(SECOND_US, 60 * SECOND_US), 60, -1, 4, 10 * SECOND_US);
+        assertEquals(1, segments.size());
+    }
+
+    @Test
+    public void usesOnlyValidSyncEntries() {
+        long[] syncTimesUs = {0, 10 * SECOND_US, 20 * SECOND_US, 0, 0, 0};
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncTimesUs, 3, 30 * SECOND_US, 3, 0);
+        assertEquals(3, segments.size());
+        assertContiguous(segments);
+        assertEquals(20 * SECOND_US, segments.get(2).getStartTimeUs());
+    }
+}
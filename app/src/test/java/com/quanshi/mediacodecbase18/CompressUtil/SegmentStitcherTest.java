@@ -0,0 +1,214 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentStitcherTest {
+    private static final long FRAME_US = 1000000 / 30;
+    private static final int FRAMES_PER_GOP = 30;
+    private static final byte[] CSD = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 0, 1, 0x68};
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    /**
+     * Stands in for a decoder/encoder pair: emits one sample per source frame of the segment,
+     * whose payload is the frame number.
+     */
+    private static class FakeSegmentEncoder implements SegmentEncoder {
+        private final int mFrameCount;
+        private final long mLatencyMs;
+        private final AtomicInteger mRunning;
+        private final AtomicInteger mMaxRunning;
+        private boolean mRebaseTimestamps;
+        private byte[] mCodecConfig = CSD;
+        private int mFailingSegment = -1;
+
+        private FakeSegmentEncoder(int frameCount, long latencyMs, AtomicInteger running, AtomicInteger maxRunning) {
+            mFrameCount = frameCount;
+            mLatencyMs = latencyMs;
+            mRunning = running;
+            mMaxRunning = maxRunning;
+        }
+
+        @Override
+        public void encode(SegmentPlanner.Segment segment, SegmentSpool output) throws IOException, InterruptedException {
+            int running = mRunning.incrementAndGet();
+            synchronized (mMaxRunning) {
+                mMaxRunning.set(Math.max(mMaxRunning.get(), running));
+            }
+            try {
+                if (segment.getIndex() == mFailingSegment) {
+                    throw new IOException("codec died");
+                }
+                output.setCodecConfig(segment.getIndex() == 0 ? CSD : mCodecConfig);
+                ByteBuffer sample = ByteBuffer.allocate(4);
+                long firstUs = -1;
+                for (int frame = 0; frame < mFrameCount; frame++) {
+                    long timeUs = frame * FRAME_US;
+                    if (timeUs < segment.getStartTimeUs() || timeUs >= segment.getEndTimeUs()) continue;
+                    if (firstUs < 0) firstUs = timeUs;
+                    Thread.sleep(mLatencyMs);
+                    sample.clear();
+                    sample.putInt(frame).flip();
+                    int flags = timeUs == firstUs ? SegmentStitcher.FLAG_SYNC_FRAME : 0;
+                    output.append(sample, mRebaseTimestamps ? timeUs - firstUs : timeUs, flags);
+                }
+            } finally {
+                mRunning.decrementAndGet();
+            }
+        }
+    }
+
+    private static class SingleEncoderFactory implements SegmentEncoder.Factory {
+        private final SegmentEncoder mEncoder;
+
+        private SingleEncoderFactory(SegmentEncoder encoder) {
+            mEncoder = encoder;
+        }
+
+        @Override
+        public SegmentEncoder create() {
+            return mEncoder;
+        }
+    }
+
+    private static class RecordingSink implements SegmentStitcher.Sink {
+        private final List<byte[]> mSamples = new ArrayList<>();
+        private final List<Long> mPresentationTimesUs = new ArrayList<>();
+        private final List<Integer> mFlags = new ArrayList<>();
+
+        @Override
+        public void writeSample(ByteBuffer sample, long presentationTimeUs, int flags) {
+            byte[] bytes = new byte[sample.remaining()];
+            sample.get(bytes);
+            mSamples.add(bytes);
+            mPresentationTimesUs.add(presentationTimeUs);
+            mFlags.add(flags);
+        }
+
+        private int frameAt(int index) {
+            byte[] bytes = mSamples.get(index);
+            return ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt();
+        }
+    }
+
+    private static long[] syncTimes(int frameCount) {
+        long[] syncTimesUs = new long[(frameCount + FRAMES_PER_GOP - 1) / FRAMES_PER_GOP];
+        for (int i = 0; i < syncTimesUs.length; i++) {
+            syncTimesUs[i] = i * FRAMES_PER_GOP * FRAME_US;
+        }
+        return syncTimesUs;
+    }
+
+    private RecordingSink transcode(FakeSegmentEncoder encoder, int frameCount, int parallelism) throws Exception {
+        long[] syncTimesUs = syncTimes(frameCount);
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncTimesUs, syncTimesUs.length,
+                frameCount * FRAME_US, parallelism, 0);
+        assertEquals(parallelism, segments.size());
+        List<SegmentSpool> spools = new SegmentedTranscodeRunner(new SingleEncoderFactory(encoder), parallelism,
+                mTemporaryFolder.getRoot()).run(segments);
+        RecordingSink sink = new RecordingSink();
+        SegmentStitcher stitcher = new SegmentStitcher(spools, sink);
+        while (stitcher.stepSample()) {
+            assertEquals(sink.mPresentationTimesUs.get(sink.mPresentationTimesUs.size() - 1).longValue(),
+                    stitcher.getWrittenPresentationTimeUs());
+        }
+        assertTrue(stitcher.isFinished());
+        for (SegmentSpool spool : spools) {
+            spool.release();
+        }
+        return sink;
+    }
+
+    @Test
+    public void stitchesParallelSegmentsInOrder() throws Exception {
+        AtomicInteger maxRunning = new AtomicInteger();
+        FakeSegmentEncoder encoder = new FakeSegmentEncoder(300, 1, new AtomicInteger(), maxRunning);
+        RecordingSink sink = transcode(encoder, 300, 4);
+
+        assertEquals(300, sink.mSamples.size());
+        int syncFrames = 0;
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, sink.frameAt(i));
+            assertEquals(i * FRAME_US, sink.mPresentationTimesUs.get(i).longValue());
+            if ((sink.mFlags.get(i) & SegmentStitcher.FLAG_SYNC_FRAME) != 0) {
+                assertEquals(0, i % FRAMES_PER_GOP);
+                syncFrames++;
+            }
+        }
+        assertEquals(4, syncFrames);
+        assertTrue("segments did not overlap in time", maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= 4);
+        assertEquals(0, mTemporaryFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void shiftsOverlappingSegments() throws Exception {
+        FakeSegmentEncoder encoder = new FakeSegmentEncoder(180, 0, new AtomicInteger(), new AtomicInteger());
+        encoder.mRebaseTimestamps = true;
+        RecordingSink sink = transcode(encoder, 180, 3);
+
+        assertEquals(180, sink.mSamples.size());
+        for (int i = 1; i < 180; i++) {
+            assertEquals(i, sink.frameAt(i));
+            assertEquals(FRAME_US, sink.mPresentationTimesUs.get(i) - sink.mPresentationTimesUs.get(i - 1));
+        }
+    }
+
+    @Test
+    public void prependsDifferentParameterSetsInBand() throws Exception {
+        FakeSegmentEncoder encoder = new FakeSegmentEncoder(120, 0, new AtomicInteger(), new AtomicInteger());
+        byte[] otherCsd = {0, 0, 0, 1, 0x67, 0x4d, 0, 0, 0, 1, 0x68};
+        encoder.mCodecConfig = otherCsd;
+        RecordingSink sink = transcode(encoder, 120, 2);
+
+        assertEquals(4, sink.mSamples.get(0).length);
+        byte[] firstOfSecond = sink.mSamples.get(60);
+        assertEquals(otherCsd.length + 4, firstOfSecond.length);
+        assertArrayEquals(otherCsd, Arrays.copyOf(firstOfSecond, otherCsd.length));
+        assertEquals(60, sink.frameAt(60));
+        assertEquals(4, sink.mSamples.get(61).length);
+    }
+
+    @Test
+    public void failingSegmentReleasesAllSpools() throws Exception {
+        FakeSegmentEncoder encoder = new FakeSegmentEncoder(300, 1, new AtomicInteger(), new AtomicInteger());
+        encoder.mFailingSegment = 2;
+        long[] syncTimesUs = syncTimes(300);
+        List<SegmentPlanner.Segment> segments = SegmentPlanner.plan(syncTimesUs, syncTimesUs.length,
+                300 * FRAME_US, 4, 0);
+        try {
+            new SegmentedTranscodeRunner(new SingleEncoderFactory(encoder), 2, mTemporaryFolder.getRoot())
+                    .run(segments);
+            fail();
+        } catch (IOException e) {
+            assertEquals("codec died", e.getMessage());
+        }
+        assertEquals(0, mTemporaryFolder.getRoot().list().length);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsSegmentNotStartingWithSyncFrame() throws Exception {
+        SegmentSpool spool = new SegmentSpool(mTemporaryFolder.getRoot(), 0);
+        try {
+            spool.append(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0, 0);
+            new SegmentStitcher(Arrays.asList(spool), new RecordingSink()).stepSample();
+        } finally {
+            spool.release();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SmartCutPlannerTest {
+    private static final long SECOND_US = 1000 * 1000;
+    private static final long EOS = SmartCutPlanner.Part.END_OF_STREAM;
+    /** A GOP every 2 seconds over 60 seconds. */
+    private static final long[] SYNC_TIMES_US = syncEvery(2 * SECOND_US, 60 * SECOND_US);
+
+    private static long[] syncEvery(long intervalUs, long durationUs) {
+        long[] syncTimesUs = new long[(int) ((durationUs + intervalUs - 1) / intervalUs)];
+        for (int i = 0; i < syncTimesUs.length; i++) {
+            syncTimesUs[i] = i * intervalUs;
+        }
+        return syncTimesUs;
+    }
+
+    private static List<SmartCutPlanner.Part> plan(long startUs, long endUs) {
+        return SmartCutPlanner.plan(SYNC_TIMES_US, SYNC_TIMES_US.length, 60 * SECOND_US, startUs, endUs);
+    }
+
+    private static void assertPart(int type, long startUs, long endUs, long decodeStartUs,
+                                   SmartCutPlanner.Part part) {
+        assertEquals(type, part.getType());
+        assertEquals(startUs, part.getStartTimeUs());
+        assertEquals(endUs, part.getEndTimeUs());
+        assertEquals(decodeStartUs, part.getDecodeStartTimeUs());
+    }
+
+    @Test
+    public void reencodesOnlyTheCutGops() {
+        List<SmartCutPlanner.Part> parts = plan(5 * SECOND_US, 51 * SECOND_US);
+        assertEquals(3, parts.size());
+        assertPart(SmartCutPlanner.Part.ENCODE, 5 * SECOND_US, 6 * SECOND_US, 4 * SECOND_US, parts.get(0));
+        assertPart(SmartCutPlanner.Part.COPY, 6 * SECOND_US, 50 * SECOND_US, 6 * SECOND_US, parts.get(1));
+        assertPart(SmartCutPlanner.Part.ENCODE, 50 * SECOND_US, 51 * SECOND_US, 50 * SECOND_US, parts.get(2));
+    }
+
+    @Test
+    public void copiesWhenCutOnSyncSamples() {
+        List<SmartCutPlanner.Part> parts = plan(10 * SECOND_US, 20 * SECOND_US);
+        assertEquals(1, parts.size());
+        assertPart(SmartCutPlanner.Part.COPY, 10 * SECOND_US, 20 * SECOND_US, 10 * SECOND_US, parts.get(0));
+
+        parts = plan(0, 3 * SECOND_US);
+        assertEquals(2, parts.size());
+        assertPart(SmartCutPlanner.Part.COPY, 0, 2 * SECOND_US, 0, parts.get(0));
+        assertPart(SmartCutPlanner.Part.ENCODE, 2 * SECOND_US, 3 * SECOND_US, 2 * SECOND_US, parts.get(1));
+    }
+
+    @Test
+    public void copiesUntilTheEndOfTheTrack() {
+        List<SmartCutPlanner.Part> parts = plan(SECOND_US, EOS);
+        assertEquals(2, parts.size());
+        assertPart(SmartCutPlanner.Part.ENCODE, SECOND_US, 2 * SECOND_US, 0, parts.get(0));
+        assertPart(SmartCutPlanner.Part.COPY, 2 * SECOND_US, EOS, 2 * SECOND_US, parts.get(1));
+
+        // An end past the duration is the end of the track.
+        parts = plan(58 * SECOND_US, 90 * SECOND_US);
+        assertEquals(1, parts.size());
+        assertPart(SmartCutPlanner.Part.COPY, 58 * SECOND_US, EOS, 58 * SECOND_US, parts.get(0));
+    }
+
+    @Test
+    public void reencodesRangeWithinOneGop() {
+        List<SmartCutPlanner.Part> parts = plan(13 * SECOND_US, 13500 * 1000);
+        assertEquals(1, parts.size());
+        assertPart(SmartCutPlanner.Part.ENCODE, 13 * SECOND_US, 13500 * 1000, 12 * SECOND_US, parts.get(0));
+
+        // Two cut GOPs and nothing between them are re-encoded together.
+        parts = plan(13 * SECOND_US, 15 * SECOND_US);
+        assertEquals(1, parts.size());
+        assertPart(SmartCutPlanner.Part.ENCODE, 13 * SECOND_US, 15 * SECOND_US, 12 * SECOND_US, parts.get(0));
+
+        // The last GOP has no sync sample after it.
+        parts = plan(59 * SECOND_US, EOS);
+        assertEquals(1, parts.size());
+        assertPart(SmartCutPlanner.Part.ENCODE, 59 * SECOND_US, EOS, 58 * SECOND_US, parts.get(0));
+    }
+
+    @Test
+    public void handlesIrregularGops() {
+        long[] syncTimesUs = {40000, 7 * SECOND_US, 19 * SECOND_US, 33 * SECOND_US, 41 * SECOND_US, 0, 0};
+        List<SmartCutPlanner.Part> parts = SmartCutPlanner.plan(syncTimesUs, 5, -1, 0, 34 * SECOND_US);
+        // Nothing can be decoded before the first sync sample.
+        assertEquals(2, parts.size());
+        assertPart(SmartCutPlanner.Part.COPY, 40000, 33 * SECOND_US, 40000, parts.get(0));
+        assertPart(SmartCutPlanner.Part.ENCODE, 33 * SECOND_US, 34 * SECOND_US, 33 * SECOND_US, parts.get(1));
+
+        // Unknown duration, so the end is taken as it is and the last GOP is re-encoded until the track ends.
+        parts = SmartCutPlanner.plan(syncTimesUs, 5, -1, 8 * SECOND_US, 90 * SECOND_US);
+        assertEquals(3, parts.size());
+        assertPart(SmartCutPlanner.Part.ENCODE, 8 * SECOND_US, 19 * SECOND_US, 7 * SECOND_US, parts.get(0));
+        assertPart(SmartCutPlanner.Part.COPY, 19 * SECOND_US, 41 * SECOND_US, 19 * SECOND_US, parts.get(1));
+        assertPart(SmartCutPlanner.Part.ENCODE, 41 * SECOND_US, 90 * SECOND_US, 41 * SECOND_US, parts.get(2));
+    }
+
+    @Test
+    public void partsCoverTheRange() {
+        for (long startUs = 0; startUs < 20 * SECOND_US; startUs += 700 * 1000) {
+            for (long endUs = startUs + 300 * 1000; endUs < 30 * SECOND_US; endUs += 1100 * 1000) {
+                List<SmartCutPlanner.Part> parts = plan(startUs, endUs);
+                assertEquals(startUs, parts.get(0).getStartTimeUs());
+                assertEquals(endUs, parts.get(parts.size() - 1).getEndTimeUs());
+                for (int i = 0; i < parts.size(); i++) {
+                    SmartCutPlanner.Part part = parts.get(i);
+                    if (i > 0) {
+                        assertEquals(parts.get(i - 1).getEndTimeUs(), part.getStartTimeUs());
+                        assertEquals(true, part.isCopy() != parts.get(i - 1).isCopy());
+                    }
+                    assertEquals(true, part.getDecodeStartTimeUs() <= part.getStartTimeUs());
+                    assertEquals(true, part.getStartTimeUs() - part.getDecodeStartTimeUs() < 2 * SECOND_US);
+                    if (part.isCopy()) {
+                        assertEquals(0, part.getStartTimeUs() % (2 * SECOND_US));
+                        assertEquals(0, part.getEndTimeUs() % (2 * SECOND_US));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsEmptyRanges() {
+        try {
+            plan(60 * SECOND_US, EOS);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SmartCutPlanner.plan(new long[]{SECOND_US}, 1, 60 * SECOND_US, 0, SECOND_US);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SmartCutPlanner.plan(new long[0], 0, 60 * SECOND_US, 0, SECOND_US);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpscRingTest {
+    private static class Item {
+        long mValue;
+    }
+
+    private static class CountingScheduler implements PipelineScheduler {
+        int mSignals;
+
+        @Override
+        public void onWorkAvailable() {
+            mSignals++;
+        }
+
+        @Override
+        public boolean awaitWork(long timeoutMs) {
+            return false;
+        }
+    }
+
+    private static final SpscRing.SlotFactory<Item> ITEMS = new SpscRing.SlotFactory<Item>() {
+        @Override
+        public Item create() {
+            return new Item();
+        }
+    };
+
+    private final CountingScheduler mProducer = new CountingScheduler();
+    private final CountingScheduler mConsumer = new CountingScheduler();
+
+    private static void put(SpscRing<Item> ring, long value) {
+        Item item = ring.claim();
+        assertNotNull(item);
+        item.mValue = value;
+        ring.publish();
+    }
+
+    private static long take(SpscRing<Item> ring) {
+        Item item = ring.peek();
+        assertNotNull(item);
+        long value = item.mValue;
+        ring.release();
+        return value;
+    }
+
+    @Test
+    public void passesItemsInOrderAcrossWrapAround() {
+        SpscRing<Item> ring = new SpscRing<>(4, ITEMS, mProducer, mConsumer);
+        long next = 0;
+        for (int i = 0; i < 10; i++) {
+            put(ring, i * 3);
+            put(ring, i * 3 + 1);
+            put(ring, i * 3 + 2);
+            while (ring.size() > i % 2) {
+                assertEquals(next++, take(ring));
+            }
+        }
+        while (ring.size() > 0) {
+            assertEquals(next++, take(ring));
+        }
+        assertEquals(30, next);
+        assertNull(ring.peek());
+    }
+
+    @Test
+    public void claimsNothingWhenFull() {
+        SpscRing<Item> ring = new SpscRing<>(2, ITEMS, mProducer, mConsumer);
+        put(ring, 1);
+        Item claimed = ring.claim();
+        assertSame(claimed, ring.claim());
+        ring.publish();
+        assertNull(ring.claim());
+        assertEquals(1, ring.getFullCount());
+        take(ring);
+        assertNotNull(ring.claim());
+    }
+
+    @Test
+    public void reusesSlots() {
+        SpscRing<Item> ring = new SpscRing<>(2, ITEMS, mProducer, mConsumer);
+        Item first = ring.claim();
+        ring.publish();
+        take(ring);
+        ring.claim();
+        ring.publish();
+        take(ring);
+        assertSame(first, ring.claim());
+    }
+
+    @Test
+    public void signalsOnlyAcrossEmptyAndFull() {
+        SpscRing<Item> ring = new SpscRing<>(4, ITEMS, mProducer, mConsumer);
+        put(ring, 1);
+        put(ring, 2);
+        // Only the item that landed in the empty ring could find the consumer waiting.
+        assertEquals(1, mConsumer.mSignals);
+        take(ring);
+        assertEquals(0, mProducer.mSignals);
+        put(ring, 3);
+        put(ring, 4);
+        put(ring, 5);
+        assertNull(ring.claim());
+        take(ring);
+        // Only the slot freed in the full ring could find the producer waiting.
+        assertEquals(1, mProducer.mSignals);
+        take(ring);
+        take(ring);
+        take(ring);
+        assertEquals(1, mProducer.mSignals);
+        put(ring, 6);
+        assertEquals(2, mConsumer.mSignals);
+    }
+
+    @Test
+    public void tracksOccupancy() {
+        SpscRing<Item> ring = new SpscRing<>(4, ITEMS, mProducer, mConsumer);
+        assertNull(ring.peek());
+        put(ring, 1);
+        put(ring, 2);
+        put(ring, 3);
+        assertEquals(3, ring.size());
+        take(ring);
+        take(ring);
+        put(ring, 4);
+        assertEquals(2, ring.size());
+        assertEquals(4, ring.getCapacity());
+        assertEquals(3, ring.getMaxOccupancy());
+        assertEquals((1 + 2 + 3 + 2) / 4.0, ring.getAverageOccupancy(), 1e-9);
+        assertEquals(4, ring.getPublishCount());
+        assertEquals(1, ring.getEmptyCount());
+        assertEquals(0, ring.getFullCount());
+    }
+
+    @Test
+    public void rejectsCapacityOtherThanPowerOfTwo() {
+        for (int capacity : new int[]{0, 3, 12}) {
+            try {
+                new SpscRing<>(capacity, ITEMS, mProducer, mConsumer);
+                fail(String.valueOf(capacity));
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void handsOverBetweenThreadsWithoutLosingWakeUps() throws InterruptedException {
+        final int count = 1000000;
+        final EventPipelineScheduler producerScheduler = new EventPipelineScheduler();
+        EventPipelineScheduler consumerScheduler = new EventPipelineScheduler();
+        final SpscRing<Item> ring = new SpscRing<>(8, ITEMS, producerScheduler, consumerScheduler);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (long i = 0; i < count; ) {
+                        Item item = ring.claim();
+                        if (item == null) {
+                            producerScheduler.awaitWork(1000);
+                            continue;
+                        }
+                        item.mValue = i++;
+                        ring.publish();
+                    }
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        producer.start();
+        long startNs = System.nanoTime();
+        for (long expected = 0; expected < count; ) {
+            Item item = ring.peek();
+            if (item == null) {
+                consumerScheduler.awaitWork(1000);
+                continue;
+            }
+            assertEquals(expected++, item.mValue);
+            ring.release();
+        }
+        producer.join();
+        assertNull(error.get());
+        // Lost wake-ups would show as 1s timeouts.
+        assertEquals(0, producerScheduler.getTimeoutCount());
+        assertEquals(0, consumerScheduler.getTimeoutCount());
+        assertTrue(System.nanoTime() - startNs < 10L * 1000 * 1000 * 1000);
+        assertTrue(ring.getMaxOccupancy() <= 8);
+    }
+}
@@ -0,0 +1,244 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StagedVideoPipelineTest {
+    private static final long FRAME_US_30 = 1000000 / 30;
+    private static final long FRAME_US_60 = 1000000 / 60;
+    private static final int ENCODED_SIZE = 2000;
+
+    private static class RecordingSink implements EncodedSampleSink {
+        final List<Long> mPresentationTimesUs = new ArrayList<>();
+        final List<Thread> mThreads = new ArrayList<>();
+        int mFormatChanges;
+        boolean mEndOfStream;
+        long mWriteNs;
+        ThreadedFakeCodec mDecoder;
+        int mWritesOverlappingDecode;
+
+        @Override
+        public void onOutputFormatChanged() {
+            mFormatChanges++;
+        }
+
+        @Override
+        public void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags) {
+            if (!mThreads.contains(Thread.currentThread())) mThreads.add(Thread.currentThread());
+            if (mEndOfStream) fail("Sample after the end of stream.");
+            if ((flags & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mEndOfStream = true;
+                return;
+            }
+            assertEquals(ENCODED_SIZE, size);
+            assertEquals(ENCODED_SIZE, buffer.limit() - offset);
+            mPresentationTimesUs.add(presentationTimeUs);
+            // A slow disk.
+            int decoded = mDecoder.getOutputCount();
+            long doneNs = System.nanoTime() + mWriteNs;
+            long remainingNs;
+            while ((remainingNs = doneNs - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remainingNs);
+            }
+            if (mDecoder.getOutputCount() != decoded) mWritesOverlappingDecode++;
+        }
+    }
+
+    private static class Setup {
+        final EventPipelineScheduler mSinkScheduler = new EventPipelineScheduler();
+        final ThreadedFakeCodec mDecoder;
+        final ThreadedFakeCodec mEncoder;
+        final ThreadedFakeFrameBridge mBridge;
+        final RecordingSink mSink = new RecordingSink();
+        final StagedVideoPipeline mPipeline;
+        final PipelineMetrics mMetrics = new PipelineMetrics();
+
+        Setup(int frameCount, long frameIntervalUs, long latencyUs) {
+            EventPipelineScheduler decoderScheduler = new EventPipelineScheduler();
+            EventPipelineScheduler encoderScheduler = new EventPipelineScheduler();
+            mDecoder = new ThreadedFakeCodec("FakeDecoder", 4, latencyUs, 1, false, decoderScheduler);
+            mEncoder = new ThreadedFakeCodec("FakeEncoder", 4, latencyUs, ENCODED_SIZE, true, encoderScheduler);
+            mBridge = new ThreadedFakeFrameBridge(mDecoder, mEncoder, latencyUs);
+            mSink.mDecoder = mDecoder;
+            mPipeline = new StagedVideoPipeline(new FakeSampleReader(frameCount, frameIntervalUs, 10, 1000), 0,
+                    mDecoder, decoderScheduler, mBridge, mEncoder, encoderScheduler, mSink, mSinkScheduler);
+            mPipeline.setMetrics(mMetrics, null);
+        }
+
+        /**
+         * Drains like the pipeline thread of the engine.
+         */
+        void run() throws InterruptedException {
+            mPipeline.start();
+            long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (!mPipeline.isFinished()) {
+                if (System.nanoTime() > deadlineNs) fail("Pipeline did not finish: " + mPipeline);
+                if (!mPipeline.drainSamples()) mSinkScheduler.awaitWork(100);
+            }
+        }
+
+        void release() {
+            mPipeline.stop();
+            mDecoder.release();
+            mEncoder.release();
+        }
+    }
+
+    private final List<Setup> mSetups = new ArrayList<>();
+
+    private Setup createSetup(int frameCount, long frameIntervalUs, long latencyUs) {
+        Setup setup = new Setup(frameCount, frameIntervalUs, latencyUs);
+        mSetups.add(setup);
+        return setup;
+    }
+
+    @After
+    public void tearDown() {
+        for (Setup setup : mSetups) {
+            setup.release();
+        }
+    }
+
+    @Test
+    public void writesAllFramesInOrderOnCallingThread() throws InterruptedException {
+        Setup setup = createSetup(60, FRAME_US_30, 500);
+        setup.run();
+        RecordingSink sink = setup.mSink;
+        assertTrue(sink.mEndOfStream);
+        assertEquals(1, sink.mFormatChanges);
+        assertEquals(60, sink.mPresentationTimesUs.size());
+        for (int i = 0; i < 60; i++) {
+            assertEquals(i * FRAME_US_30, (long) sink.mPresentationTimesUs.get(i));
+        }
+        assertEquals(1, sink.mThreads.size());
+        assertSame(Thread.currentThread(), sink.mThreads.get(0));
+        assertEquals("VideoGl", setup.mBridge.getThread().getName());
+        assertEquals((59 * FRAME_US_30), setup.mPipeline.getWrittenPresentationTimeUs());
+        assertTrue(setup.mPipeline.isDecoderFinished());
+    }
+
+    @Test
+    public void dropsFramesOverFrameRateOnFeederThread() throws InterruptedException {
+        Setup setup = createSetup(120, FRAME_US_60, 200);
+        setup.mPipeline.setDecimator(new FrameRateDecimator(30));
+        setup.run();
+        assertEquals(60, setup.mSink.mPresentationTimesUs.size());
+        assertEquals(60, setup.mBridge.getTransferCount());
+        assertEquals(120 + 1, setup.mDecoder.getOutputCount());
+    }
+
+    @Test
+    public void endsAtSyncSampleAfterEndSyncTime() throws InterruptedException {
+        Setup setup = createSetup(90, FRAME_US_30, 200);
+        setup.mPipeline.setEndSyncTimeUs(25 * FRAME_US_30);
+        setup.run();
+        assertEquals(30, setup.mSink.mPresentationTimesUs.size());
+    }
+
+    @Test
+    public void slowSinkFillsSampleRingAndHoldsBackStages() throws InterruptedException {
+        Setup setup = createSetup(100, FRAME_US_30, 100);
+        setup.mSink.mWriteNs = TimeUnit.MILLISECONDS.toNanos(2);
+        setup.run();
+        assertEquals(100, setup.mSink.mPresentationTimesUs.size());
+        SpscRing<StagedVideoPipeline.Sample> samples = setup.mPipeline.getSampleRing();
+        assertEquals(StagedVideoPipeline.SAMPLE_RING_CAPACITY, samples.getMaxOccupancy());
+        assertTrue(samples.getFullCount() > 0);
+        assertTrue(setup.mPipeline.getFrameRing().getMaxOccupancy() <= StagedVideoPipeline.FRAME_RING_CAPACITY);
+    }
+
+    @Test
+    public void overlapsStages() throws InterruptedException {
+        Setup setup = createSetup(100, FRAME_US_30, 2000);
+        setup.mSink.mWriteNs = TimeUnit.MILLISECONDS.toNanos(2);
+        setup.run();
+        assertEquals(100, setup.mSink.mPresentationTimesUs.size());
+        // Frames were decoded and drawn while the sink was writing, instead of one stage after the other.
+        assertTrue(setup.mSink.mWritesOverlappingDecode > 0);
+    }
+
+    @Test
+    public void addsStageMetricsWhenFinished() throws InterruptedException {
+        Setup setup = createSetup(30, FRAME_US_30, 200);
+        setup.run();
+        PipelineMetrics metrics = setup.mMetrics;
+        assertEquals(30, metrics.getCount(PipelineMetrics.STAGE_EXTRACT));
+        // The end of stream comes out of the decoder like a frame.
+        assertEquals(30 + 1, metrics.getCount(PipelineMetrics.STAGE_DECODE_DEQUEUE));
+        assertTrue(metrics.getCount(PipelineMetrics.STAGE_ENCODE_DRAIN) >= 30);
+        assertEquals(30 * 1000, metrics.getBytesIn());
+    }
+
+    @Test
+    public void throwsStageErrorFromDrain() throws InterruptedException {
+        Setup setup = createSetup(60, FRAME_US_30, 200);
+        final RuntimeException failure = new RuntimeException("GL failed");
+        final StagedVideoPipeline pipeline = new StagedVideoPipeline(new FakeSampleReader(60, FRAME_US_30, 10, 1000),
+                0, setup.mDecoder, new EventPipelineScheduler(), new FrameBridge() {
+                    @Override
+                    public void transferFrame(long presentationTimeUs) {
+                        throw failure;
+                    }
+                }, setup.mEncoder, new EventPipelineScheduler(), setup.mSink, setup.mSinkScheduler);
+        pipeline.start();
+        try {
+            for (int i = 0; i < 100; i++) {
+                if (!pipeline.drainSamples()) setup.mSinkScheduler.awaitWork(100);
+            }
+            fail("Expected the stage error.");
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+        assertTrue(pipeline.stop());
+    }
+
+    @Test
+    public void stopInterruptsWaitForRenderedFrame() throws InterruptedException {
+        Setup setup = createSetup(60, FRAME_US_30, 200);
+        final Object frameSync = new Object();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        StagedVideoPipeline pipeline = new StagedVideoPipeline(new FakeSampleReader(60, FRAME_US_30, 10, 1000),
+                0, setup.mDecoder, new EventPipelineScheduler(), new FrameBridge() {
+                    @Override
+                    public void transferFrame(long presentationTimeUs) {
+                        // Like OutputSurface.awaitNewImage() for a frame that never comes.
+                        synchronized (frameSync) {
+                            waiting.countDown();
+                            try {
+                                frameSync.wait(TimeUnit.SECONDS.toMillis(30));
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }
+                }, setup.mEncoder, new EventPipelineScheduler(), setup.mSink, setup.mSinkScheduler);
+        pipeline.start();
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.stop());
+        // The interrupted wait is not a stage error.
+        pipeline.drainSamples();
+    }
+
+    @Test
+    public void stopsMidway() throws InterruptedException {
+        Setup setup = createSetup(1000, FRAME_US_30, 1000);
+        setup.mPipeline.start();
+        while (setup.mSink.mPresentationTimesUs.size() < 10) {
+            if (!setup.mPipeline.drainSamples()) setup.mSinkScheduler.awaitWork(100);
+        }
+        assertTrue(setup.mPipeline.stop());
+        assertTrue(setup.mPipeline.stop());
+    }
+}
@@ -0,0 +1,234 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for a MediaCodec in callback mode, in real time, for pipelines that run on several threads. A worker
+ * thread processes the queued frames one after the other, each taking the latency, and reports its buffers through
+ * a {@link CodecEventQueue} like the codec callbacks do. A frame holds its input buffer until done and its output
+ * buffer until released; with no output buffer free the worker waits. An encoder takes its frames from a
+ * {@link ThreadedFakeFrameBridge} instead of input buffers, blocking while none is free.
+ */
+class ThreadedFakeCodec implements PipelineCodec {
+    private static final long MAX_BLOCK_MS = 5000;
+
+    private static class Frame {
+        final int mInputIndex;
+        final long mPresentationTimeUs;
+        final int mFlags;
+        final long mQueuedAtNs = System.nanoTime();
+
+        Frame(int inputIndex, long presentationTimeUs, int flags) {
+            mInputIndex = inputIndex;
+            mPresentationTimeUs = presentationTimeUs;
+            mFlags = flags;
+        }
+    }
+
+    private final CodecEventQueue mEvents;
+    private final long mLatencyNs;
+    private final int mOutputSampleSize;
+    private final boolean mSurfaceInput;
+    private final ByteBuffer[] mInputBuffers;
+    private final ByteBuffer[] mOutputBuffers;
+    private final long[] mOutputPresentationTimesUs;
+    private final Semaphore mFreeOutputs;
+    private final Semaphore mFreeSurfaceInputs;
+    private final ConcurrentLinkedQueue<Integer> mFreeOutputIndices = new ConcurrentLinkedQueue<>();
+    private final LinkedBlockingQueue<Frame> mInput = new LinkedBlockingQueue<>();
+    private final AtomicInteger mOutputCount = new AtomicInteger();
+    private final Thread mWorker;
+    private volatile ThreadedFakeFrameBridge mOutputSurface;
+    private volatile int mSyncInterval = 1;
+    private volatile boolean mReleased;
+
+    /**
+     * @param scheduler        signalled by the buffer events.
+     * @param outputSampleSize bytes of each output buffer, e.g. 1 for a decoder rendering to a surface.
+     * @param surfaceInput     whether frames come from {@link #queueSurfaceFrame(long)}, as for an encoder.
+     */
+    ThreadedFakeCodec(String name, int bufferCount, long latencyUs, int outputSampleSize, boolean surfaceInput,
+                      PipelineScheduler scheduler) {
+        mEvents = new CodecEventQueue(scheduler);
+        mLatencyNs = TimeUnit.MICROSECONDS.toNanos(latencyUs);
+        mOutputSampleSize = outputSampleSize;
+        mSurfaceInput = surfaceInput;
+        mInputBuffers = new ByteBuffer[bufferCount];
+        mOutputBuffers = new ByteBuffer[bufferCount];
+        mOutputPresentationTimesUs = new long[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            mInputBuffers[i] = ByteBuffer.allocate(64 * 1024);
+            mOutputBuffers[i] = ByteBuffer.allocate(outputSampleSize);
+            mFreeOutputIndices.add(i);
+        }
+        mFreeOutputs = new Semaphore(bufferCount);
+        mFreeSurfaceInputs = new Semaphore(surfaceInput ? bufferCount : 0);
+        if (!surfaceInput) {
+            for (int i = 0; i < bufferCount; i++) {
+                mEvents.onInputBufferAvailable(i);
+            }
+        }
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    /**
+     * Marks every {@code syncInterval}th output frame a sync frame, as an encoder does.
+     */
+    void setSyncInterval(int syncInterval) {
+        mSyncInterval = syncInterval;
+    }
+
+    void setOutputSurface(ThreadedFakeFrameBridge outputSurface) {
+        mOutputSurface = outputSurface;
+    }
+
+    /**
+     * Takes a frame drawn onto the input surface, blocking while the codec has no room for it.
+     */
+    void queueSurfaceFrame(long presentationTimeUs) {
+        if (!mSurfaceInput) throw new IllegalStateException("Not a surface input codec.");
+        try {
+            if (!mFreeSurfaceInputs.tryAcquire(MAX_BLOCK_MS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Deadlock: no input buffer freed for " + MAX_BLOCK_MS + "ms.");
+            }
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        mInput.add(new Frame(-1, presentationTimeUs, 0));
+    }
+
+    /**
+     * @return output buffers released so far, the end of stream included.
+     */
+    int getOutputCount() {
+        return mOutputCount.get();
+    }
+
+    void release() {
+        mReleased = true;
+        mWorker.interrupt();
+    }
+
+    private void work() {
+        try {
+            long lastDoneNs = 0;
+            boolean formatReported = false;
+            int frameCount = 0;
+            while (!mReleased) {
+                Frame frame = mInput.take();
+                long doneNs = Math.max(frame.mQueuedAtNs, lastDoneNs) + mLatencyNs;
+                long remainingNs;
+                while ((remainingNs = doneNs - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remainingNs);
+                }
+                lastDoneNs = doneNs;
+                mFreeOutputs.acquire();
+                int outputIndex = mFreeOutputIndices.poll();
+                boolean endOfStream = (frame.mFlags & BUFFER_FLAG_END_OF_STREAM) != 0;
+                if (frame.mInputIndex >= 0) {
+                    mEvents.onInputBufferAvailable(frame.mInputIndex);
+                } else if (mSurfaceInput && !endOfStream) {
+                    mFreeSurfaceInputs.release();
+                }
+                if (!formatReported) {
+                    formatReported = true;
+                    mEvents.onOutputFormatChanged();
+                }
+                int flags = frame.mFlags;
+                if (!endOfStream && frameCount++ % mSyncInterval == 0) {
+                    flags |= BUFFER_FLAG_SYNC_FRAME;
+                }
+                mOutputPresentationTimesUs[outputIndex] = frame.mPresentationTimeUs;
+                mEvents.onOutputBufferAvailable(outputIndex, 0, endOfStream ? 0 : mOutputSampleSize,
+                        frame.mPresentationTimeUs, flags);
+            }
+        } catch (InterruptedException e) {
+            // Released.
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer() {
+        return mEvents.dequeueInputBuffer();
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mInputBuffers[index];
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mInput.add(new Frame(index, presentationTimeUs, flags));
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mInput.add(new Frame(-1, 0, BUFFER_FLAG_END_OF_STREAM));
+    }
+
+    @Override
+    public int dequeueOutputBuffer() {
+        return mEvents.dequeueOutputBuffer();
+    }
+
+    @Override
+    public int getOutputOffset() {
+        return mEvents.getOffset();
+    }
+
+    @Override
+    public int getOutputSize() {
+        return mEvents.getSize();
+    }
+
+    @Override
+    public long getOutputPresentationTimeUs() {
+        return mEvents.getPresentationTimeUs();
+    }
+
+    @Override
+    public int getOutputFlags() {
+        return mEvents.getFlags();
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        ByteBuffer buffer = mOutputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        long presentationTimeUs = mOutputPresentationTimesUs[index];
+        if (render) {
+            ThreadedFakeFrameBridge outputSurface = mOutputSurface;
+            if (outputSurface == null) {
+                throw new IllegalStateException("Rendered without an output surface.");
+            }
+            outputSurface.onFrameRendered(presentationTimeUs);
+        }
+        mOutputCount.incrementAndGet();
+        mFreeOutputIndices.add(index);
+        mFreeOutputs.release();
+    }
+
+    @Override
+    public int getPendingOutputCount() {
+        return mEvents.getPendingOutputCount();
+    }
+}
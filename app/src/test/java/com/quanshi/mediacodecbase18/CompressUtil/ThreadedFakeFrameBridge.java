@@ -0,0 +1,63 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes the frames a {@link ThreadedFakeCodec} decoder renders on to a {@link ThreadedFakeCodec} encoder, in real
+ * time: waits for the rendered frame like {@code awaitNewImage}, spends the draw time and blocks while the encoder
+ * has no room, like {@code eglSwapBuffers}.
+ */
+class ThreadedFakeFrameBridge implements FrameBridge {
+    private static final long MAX_WAIT_MS = 5000;
+
+    private final ThreadedFakeCodec mEncoder;
+    private final long mDrawNs;
+    private final LinkedBlockingQueue<Long> mRendered = new LinkedBlockingQueue<>();
+    private final AtomicInteger mTransferCount = new AtomicInteger();
+    private volatile Thread mThread;
+
+    ThreadedFakeFrameBridge(ThreadedFakeCodec decoder, ThreadedFakeCodec encoder, long drawUs) {
+        mEncoder = encoder;
+        mDrawNs = TimeUnit.MICROSECONDS.toNanos(drawUs);
+        decoder.setOutputSurface(this);
+    }
+
+    void onFrameRendered(long presentationTimeUs) {
+        mRendered.add(presentationTimeUs);
+    }
+
+    @Override
+    public void transferFrame(long presentationTimeUs) {
+        mThread = Thread.currentThread();
+        Long rendered;
+        try {
+            rendered = mRendered.poll(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        if (rendered == null || rendered != presentationTimeUs) {
+            throw new IllegalStateException("Frame " + presentationTimeUs + " was not rendered, got " + rendered);
+        }
+        long doneNs = System.nanoTime() + mDrawNs;
+        long remainingNs;
+        while ((remainingNs = doneNs - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNs);
+        }
+        mEncoder.queueSurfaceFrame(presentationTimeUs);
+        mTransferCount.incrementAndGet();
+    }
+
+    int getTransferCount() {
+        return mTransferCount.get();
+    }
+
+    /**
+     * @return the thread of the last transfer.
+     */
+    Thread getThread() {
+        return mThread;
+    }
+}
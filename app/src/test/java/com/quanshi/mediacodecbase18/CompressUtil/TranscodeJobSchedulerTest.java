@@ -0,0 +1,237 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TranscodeJobSchedulerTest {
+    private static final long AGING_INTERVAL_MS = 1000;
+    private static final long TIMEOUT_MS = 5000;
+
+    private final AtomicLong mNow = new AtomicLong();
+    private final Clock mClock = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return mNow.get();
+        }
+    };
+    private final List<String> mRunOrder = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> mResults = Collections.synchronizedList(new ArrayList<Integer>());
+    private TranscodeJobScheduler mScheduler;
+
+    @After
+    public void shutdown() throws InterruptedException {
+        if (mScheduler != null) {
+            mScheduler.shutdown();
+            assertTrue(mScheduler.awaitTermination(TIMEOUT_MS));
+        }
+    }
+
+    @Test
+    public void runsNoMoreThanTheLimit() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(2, AGING_INTERVAL_MS, mClock);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch finished = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++) {
+            mScheduler.submit(new TranscodeJobScheduler.Task() {
+                @Override
+                public int run() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return MediaConstants.MEDIA_TRANSCODE_SUCC;
+                }
+            }, TranscodeJobScheduler.Priority.BACKGROUND, new RecordingListener(finished));
+        }
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue("ran " + maxRunning.get() + " at once", maxRunning.get() <= 2);
+        assertEquals(Collections.nCopies(6, MediaConstants.MEDIA_TRANSCODE_SUCC), mResults);
+        assertEquals(0, mScheduler.getRunningJobCount());
+    }
+
+    @Test
+    public void runsInteractiveJobsFirstInSubmissionOrder() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(1, AGING_INTERVAL_MS, mClock);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(5);
+        mScheduler.submit(new BlockingTask("blocker", release), TranscodeJobScheduler.Priority.INTERACTIVE,
+                new RecordingListener(finished));
+        submit("b1", TranscodeJobScheduler.Priority.BACKGROUND, finished);
+        submit("i1", TranscodeJobScheduler.Priority.INTERACTIVE, finished);
+        submit("b2", TranscodeJobScheduler.Priority.BACKGROUND, finished);
+        submit("i2", TranscodeJobScheduler.Priority.INTERACTIVE, finished);
+        assertEquals(4, mScheduler.getQueuedJobCount());
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("blocker", "i1", "i2", "b1", "b2"), mRunOrder);
+    }
+
+    @Test
+    public void agesWaitingBackgroundJobs() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(1, AGING_INTERVAL_MS, mClock);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(4);
+        mScheduler.submit(new BlockingTask("blocker", release), TranscodeJobScheduler.Priority.INTERACTIVE,
+                new RecordingListener(finished));
+        submit("b1", TranscodeJobScheduler.Priority.BACKGROUND, finished);
+        mNow.set(AGING_INTERVAL_MS + 1);
+        submit("i1", TranscodeJobScheduler.Priority.INTERACTIVE, finished);
+        submit("b2", TranscodeJobScheduler.Priority.BACKGROUND, finished);
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // b1 has waited long enough to compete as interactive and was there first; b2 has not.
+        assertEquals(Arrays.asList("blocker", "b1", "i1", "b2"), mRunOrder);
+    }
+
+    @Test
+    public void cancelsQueuedJobs() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(1, AGING_INTERVAL_MS, mClock);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        mScheduler.submit(new BlockingTask("blocker", release), TranscodeJobScheduler.Priority.INTERACTIVE,
+                new RecordingListener(finished));
+        TranscodeJobScheduler.Job job = submit("queued", TranscodeJobScheduler.Priority.INTERACTIVE, finished);
+
+        assertTrue(job.cancel());
+        assertFalse(job.cancel());
+        assertEquals(TranscodeJobScheduler.State.FINISHED, job.getState());
+        assertEquals(0, mScheduler.getQueuedJobCount());
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("blocker"), mRunOrder);
+        assertEquals(Arrays.asList(MediaConstants.MEDIA_TRANSCODE_CANCELED, MediaConstants.MEDIA_TRANSCODE_SUCC),
+                mResults);
+    }
+
+    @Test
+    public void cancelInterruptsTheRunningJob() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(1, AGING_INTERVAL_MS, mClock);
+        final CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        TranscodeJobScheduler.Job job = mScheduler.submit(new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() throws Exception {
+                started.countDown();
+                // Stands in for the engine's pipeline loop, which stops when interrupted.
+                Thread.sleep(TIMEOUT_MS * 10);
+                return MediaConstants.MEDIA_TRANSCODE_SUCC;
+            }
+        }, TranscodeJobScheduler.Priority.INTERACTIVE, new RecordingListener(finished));
+        submit("next", TranscodeJobScheduler.Priority.INTERACTIVE, finished);
+
+        assertTrue(started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(job.cancel());
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(job.isCanceled());
+        assertTrue(job.getFailure() instanceof InterruptedException);
+        assertEquals(Arrays.asList(MediaConstants.MEDIA_TRANSCODE_CANCELED, MediaConstants.MEDIA_TRANSCODE_SUCC),
+                mResults);
+        assertEquals(Arrays.asList("next"), mRunOrder);
+    }
+
+    @Test
+    public void reportsFailures() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(1, AGING_INTERVAL_MS, mClock);
+        CountDownLatch finished = new CountDownLatch(1);
+        final IllegalStateException failure = new IllegalStateException("no codec");
+        TranscodeJobScheduler.Job job = mScheduler.submit(new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() throws Exception {
+                throw failure;
+            }
+        }, TranscodeJobScheduler.Priority.INTERACTIVE, new RecordingListener(finished));
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList(MediaConstants.MEDIA_TRANSCODE_FAIL), mResults);
+        assertSame(failure, job.getFailure());
+    }
+
+    @Test
+    public void measuresQueueWaitAndRunTime() throws InterruptedException {
+        mScheduler = new TranscodeJobScheduler(1, AGING_INTERVAL_MS, mClock);
+        final CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        mScheduler.submit(new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() throws Exception {
+                release.await();
+                mNow.addAndGet(500);
+                return MediaConstants.MEDIA_TRANSCODE_SUCC;
+            }
+        }, TranscodeJobScheduler.Priority.INTERACTIVE, new RecordingListener(finished));
+        TranscodeJobScheduler.Job second = mScheduler.submit(new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() throws Exception {
+                mNow.addAndGet(200);
+                return MediaConstants.MEDIA_TRANSCODE_SUCC;
+            }
+        }, TranscodeJobScheduler.Priority.INTERACTIVE, new RecordingListener(finished));
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(500, second.getQueueWaitMs());
+        assertEquals(200, second.getRunTimeMs());
+        assertEquals(250, mScheduler.getAverageQueueWaitMs());
+        assertEquals(350, mScheduler.getAverageRunTimeMs());
+    }
+
+    private TranscodeJobScheduler.Job submit(final String name, TranscodeJobScheduler.Priority priority,
+                                             CountDownLatch finished) {
+        return mScheduler.submit(new TranscodeJobScheduler.Task() {
+            @Override
+            public int run() {
+                mRunOrder.add(name);
+                return MediaConstants.MEDIA_TRANSCODE_SUCC;
+            }
+        }, priority, new RecordingListener(finished));
+    }
+
+    private class BlockingTask implements TranscodeJobScheduler.Task {
+        private final String mName;
+        private final CountDownLatch mRelease;
+
+        private BlockingTask(String name, CountDownLatch release) {
+            mName = name;
+            mRelease = release;
+        }
+
+        @Override
+        public int run() throws Exception {
+            mRunOrder.add(mName);
+            mRelease.await();
+            return MediaConstants.MEDIA_TRANSCODE_SUCC;
+        }
+    }
+
+    private class RecordingListener implements TranscodeJobScheduler.Listener {
+        private final CountDownLatch mFinished;
+
+        private RecordingListener(CountDownLatch finished) {
+            mFinished = finished;
+        }
+
+        @Override
+        public void onJobFinished(TranscodeJobScheduler.Job job, int result) {
+            mResults.add(result);
+            mFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TranscodeJournalTest {
+    private static final String KEY = "job";
+    private static final byte[] CSD = {0, 0, 0, 1, 0x67, 0x42, 0, 0, 0, 1, 0x68};
+    private static final long SEGMENT_US = 10 * 1000 * 1000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final FakeClock mClock = new FakeClock();
+    private File mOutputFile;
+
+    private static class FakeClock implements Clock {
+        private long mNowMs;
+
+        @Override
+        public long uptimeMillis() {
+            return mNowMs;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mOutputFile = new File(mTemporaryFolder.getRoot(), "out.mp4");
+    }
+
+    private static SegmentPlanner.Segment segment(int index) {
+        return new SegmentPlanner.Segment(index, index * SEGMENT_US, (index + 1) * SEGMENT_US);
+    }
+
+    /**
+     * Spools {@code frames} samples of {@code index + 1} bytes each, whose payload is the segment index.
+     */
+    private static void encode(SegmentPlanner.Segment segment, SegmentSpool spool, int frames) throws IOException {
+        spool.setCodecConfig(CSD);
+        for (int i = 0; i < frames; i++) {
+            ByteBuffer sample = ByteBuffer.allocate(i + 1);
+            while (sample.hasRemaining()) sample.put((byte) segment.getIndex());
+            sample.flip();
+            spool.append(sample, segment.getStartTimeUs() + i * 1000, i == 0 ? SegmentStitcher.FLAG_SYNC_FRAME : 0);
+        }
+    }
+
+    private void finish(TranscodeJournal journal, int index, int frames) throws IOException {
+        SegmentPlanner.Segment segment = segment(index);
+        SegmentSpool spool = journal.createSpool(segment);
+        encode(segment, spool, frames);
+        journal.commit(segment, spool);
+    }
+
+    @Test
+    public void restoresFinishedSegmentsOfTheSameJob() throws IOException {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        finish(journal, 0, 5);
+        finish(journal, 2, 3);
+
+        // The process died; the next run opens the journal again.
+        TranscodeJournal resumed = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        assertEquals(2, resumed.getFinishedSegmentCount());
+        assertNull(resumed.restore(segment(1)));
+        SegmentSpool spool = resumed.restore(segment(2));
+        assertNotNull(spool);
+        assertEquals(3, spool.getSampleCount());
+        assertEquals(1 + 2 + 3, spool.getWrittenBytes());
+        assertEquals(3, spool.getMaxSampleSize());
+        assertArrayEquals(CSD, spool.getCodecConfig());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2 * SEGMENT_US + i * 1000, spool.getPresentationTimeUs(i));
+            assertEquals(i == 0 ? SegmentStitcher.FLAG_SYNC_FRAME : 0, spool.getSampleFlags(i));
+            ByteBuffer sample = ByteBuffer.allocate(spool.getSampleSize(i));
+            spool.readSample(i, sample);
+            for (int j = 0; j < i + 1; j++) {
+                assertEquals(2, sample.get(j));
+            }
+        }
+        // Segments are restored once more samples can be spooled after them.
+        ByteBuffer sample = ByteBuffer.allocate(1);
+        spool.append(sample, 3 * SEGMENT_US, 0);
+        assertEquals(7, spool.getWrittenBytes());
+        resumed.delete();
+        assertFalse(TranscodeJournal.getJournalFile(mOutputFile).exists());
+    }
+
+    @Test
+    public void startsOverForAnotherJob() throws IOException {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        finish(journal, 0, 5);
+        finish(journal, 1, 5);
+
+        TranscodeJournal other = TranscodeJournal.open(mOutputFile, "other job", mClock);
+        assertEquals(0, other.getFinishedSegmentCount());
+        assertNull(other.restore(segment(0)));
+        assertFalse(other.getSpoolFile(0).exists());
+        assertFalse(other.getSpoolFile(1).exists());
+        finish(other, 1, 2);
+
+        assertEquals(0, TranscodeJournal.open(mOutputFile, KEY, mClock).getFinishedSegmentCount());
+    }
+
+    @Test
+    public void dropsTornRecordAndAppendsBehindTheLastGoodOne() throws IOException {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        finish(journal, 0, 5);
+        finish(journal, 1, 5);
+        RandomAccessFile file = new RandomAccessFile(TranscodeJournal.getJournalFile(mOutputFile), "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        TranscodeJournal resumed = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        assertEquals(1, resumed.getFinishedSegmentCount());
+        assertNotNull(resumed.restore(segment(0)));
+        assertNull(resumed.restore(segment(1)));
+        finish(resumed, 1, 4);
+
+        TranscodeJournal again = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        assertEquals(2, again.getFinishedSegmentCount());
+        assertEquals(4, again.restore(segment(1)).getSampleCount());
+    }
+
+    @Test
+    public void transcodesAgainWhatCannotBeRestored() throws IOException {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        finish(journal, 0, 5);
+        finish(journal, 1, 5);
+        finish(journal, 2, 5);
+        RandomAccessFile spoolFile = new RandomAccessFile(journal.getSpoolFile(1), "rw");
+        spoolFile.setLength(spoolFile.length() - 1);
+        spoolFile.close();
+        assertEquals(true, journal.getSpoolFile(2).delete());
+
+        TranscodeJournal resumed = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        assertNotNull(resumed.restore(segment(0)));
+        assertNull(resumed.restore(segment(1)));
+        assertNull(resumed.restore(segment(2)));
+        // Other bounds than recorded.
+        assertNull(resumed.restore(new SegmentPlanner.Segment(0, 0, SegmentPlanner.Segment.END_OF_STREAM)));
+    }
+
+    @Test
+    public void syncsAtMostOncePerInterval() throws IOException {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        assertEquals(1, journal.getSyncCount());
+        mClock.mNowMs = 1000;
+        finish(journal, 0, 1);
+        mClock.mNowMs = 2000;
+        finish(journal, 1, 1);
+        assertEquals(1, journal.getSyncCount());
+        mClock.mNowMs = TranscodeJournal.SYNC_INTERVAL_MS;
+        finish(journal, 2, 1);
+        assertEquals(2, journal.getSyncCount());
+        mClock.mNowMs += 10;
+        finish(journal, 3, 1);
+        journal.flush();
+        journal.flush();
+        assertEquals(3, journal.getSyncCount());
+        assertEquals(4, TranscodeJournal.open(mOutputFile, KEY, mClock).getFinishedSegmentCount());
+    }
+
+    @Test
+    public void failedRunKeepsFinishedSegmentsForTheNextRun() throws Exception {
+        SegmentEncoder.Factory factory = new SegmentEncoder.Factory() {
+            @Override
+            public SegmentEncoder create() {
+                return new SegmentEncoder() {
+                    @Override
+                    public void encode(SegmentPlanner.Segment segment, SegmentSpool output) throws IOException {
+                        if (segment.getIndex() == 2) throw new IOException("Disk full");
+                        TranscodeJournalTest.encode(segment, output, 2);
+                    }
+                };
+            }
+        };
+        List<SegmentPlanner.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            segments.add(segment(i));
+        }
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        SegmentedTranscodeRunner runner = new SegmentedTranscodeRunner(factory, 1, mTemporaryFolder.getRoot());
+        runner.setCheckpoint(journal);
+        try {
+            runner.run(segments);
+            fail();
+        } catch (IOException expected) {
+        }
+        journal.close();
+
+        TranscodeJournal resumed = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        assertEquals(2, resumed.getFinishedSegmentCount());
+        assertEquals(2, resumed.restore(segment(0)).getSampleCount());
+        assertEquals(2, resumed.restore(segment(1)).getSampleCount());
+    }
+
+    @Test
+    public void deleteRemovesJournalAndSpools() throws IOException {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        finish(journal, 0, 5);
+        finish(journal, 1, 5);
+        finish(journal, 2, 5);
+        journal.delete();
+        assertFalse(TranscodeJournal.getJournalFile(mOutputFile).exists());
+        for (int i = 0; i < 3; i++) {
+            assertFalse(journal.getSpoolFile(i).exists());
+        }
+    }
+
+    @Test
+    public void runnerOnlyTranscodesUnfinishedSegments() throws Exception {
+        TranscodeJournal journal = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        finish(journal, 0, 5);
+        finish(journal, 2, 5);
+        final List<Integer> encoded = Collections.synchronizedList(new ArrayList<Integer>());
+        SegmentEncoder.Factory factory = new SegmentEncoder.Factory() {
+            @Override
+            public SegmentEncoder create() {
+                return new SegmentEncoder() {
+                    @Override
+                    public void encode(SegmentPlanner.Segment segment, SegmentSpool output) throws IOException {
+                        encoded.add(segment.getIndex());
+                        TranscodeJournalTest.encode(segment, output, 2);
+                    }
+                };
+            }
+        };
+        List<SegmentPlanner.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            segments.add(segment(i));
+        }
+
+        TranscodeJournal resumed = TranscodeJournal.open(mOutputFile, KEY, mClock);
+        SegmentedTranscodeRunner runner = new SegmentedTranscodeRunner(factory, 2, mTemporaryFolder.getRoot());
+        runner.setCheckpoint(resumed);
+        List<SegmentSpool> spools = runner.run(segments);
+        Collections.sort(encoded);
+        assertEquals(2, encoded.size());
+        assertEquals(1, (int) encoded.get(0));
+        assertEquals(3, (int) encoded.get(1));
+        assertEquals(5, spools.get(0).getSampleCount());
+        assertEquals(2, spools.get(1).getSampleCount());
+        assertEquals(5, spools.get(2).getSampleCount());
+        assertEquals(2, spools.get(3).getSampleCount());
+        assertEquals(4, resumed.getFinishedSegmentCount());
+
+        // Nothing is left to do after that.
+        encoded.clear();
+        runner.setCheckpoint(TranscodeJournal.open(mOutputFile, KEY, mClock));
+        runner.run(segments);
+        assertEquals(0, encoded.size());
+    }
+}
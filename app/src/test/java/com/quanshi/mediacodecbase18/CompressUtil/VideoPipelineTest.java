@@ -0,0 +1,195 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VideoPipelineTest {
+    private static final long FRAME_US_30 = 1000000 / 30;
+    private static final long FRAME_US_60 = 1000000 / 60;
+    private static final long DECODE_US = 5000;
+    private static final long ENCODE_US = 20000;
+    private static final int ENCODED_SIZE = 4000;
+
+    private static class RecordingSink implements EncodedSampleSink {
+        int mFormatChanges;
+        final List<Long> mPresentationTimesUs = new ArrayList<>();
+        int mSyncCount;
+        long mBytes;
+        boolean mEndOfStream;
+
+        @Override
+        public void onOutputFormatChanged() {
+            mFormatChanges++;
+        }
+
+        @Override
+        public void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags) {
+            if (mEndOfStream) fail("Sample after the end of stream.");
+            if ((flags & PipelineCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mEndOfStream = true;
+                return;
+            }
+            mPresentationTimesUs.add(presentationTimeUs);
+            if ((flags & PipelineCodec.BUFFER_FLAG_SYNC_FRAME) != 0) mSyncCount++;
+            mBytes += size;
+        }
+    }
+
+    private static class Simulation {
+        final FakePipelineScheduler mScheduler = new FakePipelineScheduler();
+        final FakePipelineCodec mDecoder;
+        final FakePipelineCodec mEncoder;
+        final FakeFrameBridge mBridge;
+        final RecordingSink mSink = new RecordingSink();
+        final VideoPipeline mPipeline;
+
+        Simulation(int frameCount, long frameIntervalUs, int encoderBuffers) {
+            mDecoder = new FakePipelineCodec(mScheduler, 4, 4, DECODE_US, 1);
+            mEncoder = new FakePipelineCodec(mScheduler, encoderBuffers, encoderBuffers, ENCODE_US, ENCODED_SIZE);
+            mEncoder.setSyncInterval(30);
+            mBridge = new FakeFrameBridge(mScheduler, mDecoder, mEncoder);
+            mPipeline = new VideoPipeline(new FakeSampleReader(frameCount, frameIntervalUs, 10, 1000), 0,
+                    mDecoder, mBridge, mEncoder, mSink);
+        }
+
+        /**
+         * Steps like {@link MediaTranscodeEngine} does, waiting on the scheduler whenever nothing moved.
+         */
+        void run() {
+            for (int i = 0; i < 100000; i++) {
+                if (mPipeline.isFinished()) return;
+                if (!mPipeline.stepPipeline()) mScheduler.awaitWork(10);
+            }
+            fail("Pipeline did not finish by " + mScheduler.getTimeUs() + "us");
+        }
+    }
+
+    @Test
+    public void writesAllFramesInOrder() {
+        Simulation simulation = new Simulation(90, FRAME_US_30, 4);
+        simulation.run();
+        RecordingSink sink = simulation.mSink;
+        assertTrue(sink.mEndOfStream);
+        assertEquals(1, sink.mFormatChanges);
+        assertEquals(90, sink.mPresentationTimesUs.size());
+        for (int i = 0; i < 90; i++) {
+            assertEquals(i * FRAME_US_30, (long) sink.mPresentationTimesUs.get(i));
+        }
+        assertEquals(3, sink.mSyncCount);
+        assertEquals(90L * ENCODED_SIZE, sink.mBytes);
+        assertTrue(simulation.mPipeline.isDecoderFinished());
+    }
+
+    @Test
+    public void runsAtTheSpeedOfTheSlowestCodec() {
+        Simulation simulation = new Simulation(90, FRAME_US_30, 4);
+        simulation.run();
+        long timeUs = simulation.mScheduler.getTimeUs();
+        // Decoding overlaps encoding, so the encoder alone sets the pace; the end of stream takes one more turn.
+        assertTrue(timeUs + "us", timeUs >= 90 * ENCODE_US);
+        assertTrue(timeUs + "us", timeUs <= 91 * ENCODE_US + 2 * DECODE_US);
+    }
+
+    @Test
+    public void decimatesBeforeEncoding() {
+        Simulation simulation = new Simulation(120, FRAME_US_60, 4);
+        simulation.mPipeline.setDecimator(new FrameRateDecimator(30));
+        simulation.run();
+        assertEquals(60, simulation.mSink.mPresentationTimesUs.size());
+        assertEquals(60, simulation.mBridge.getTransferCount());
+        assertEquals(60, simulation.mEncoder.getOutputCount());
+        assertEquals(120, simulation.mDecoder.getOutputCount());
+        // Half the frames go through the encoder, so it takes half the time.
+        assertTrue(simulation.mScheduler.getTimeUs() <= 61 * ENCODE_US + 2 * DECODE_US);
+    }
+
+    @Test
+    public void endsAtSyncSampleAfterEndSyncTime() {
+        Simulation simulation = new Simulation(90, FRAME_US_30, 4);
+        simulation.mPipeline.setEndSyncTimeUs(25 * FRAME_US_30);
+        simulation.run();
+        // Sync samples every 10 frames, the first one at or after the end sync time is frame 30.
+        assertEquals(30, simulation.mSink.mPresentationTimesUs.size());
+        assertTrue(simulation.mSink.mEndOfStream);
+    }
+
+    @Test
+    public void rendersOnlyTheRenderRange() {
+        Simulation simulation = new Simulation(90, FRAME_US_30, 4);
+        simulation.mPipeline.setRenderRange(10 * FRAME_US_30, 20 * FRAME_US_30);
+        simulation.run();
+        List<Long> written = simulation.mSink.mPresentationTimesUs;
+        assertEquals(10, written.size());
+        assertEquals(10 * FRAME_US_30, (long) written.get(0));
+    }
+
+    @Test
+    public void waitsOutEncoderStall() {
+        Simulation plain = new Simulation(90, FRAME_US_30, 4);
+        plain.run();
+        Simulation stalled = new Simulation(90, FRAME_US_30, 4);
+        stalled.mEncoder.setStall(500000, 300000);
+        stalled.run();
+        assertEquals(90, stalled.mSink.mPresentationTimesUs.size());
+        long delayUs = stalled.mScheduler.getTimeUs() - plain.mScheduler.getTimeUs();
+        assertTrue(delayUs + "us", delayUs >= 300000 - ENCODE_US && delayUs <= 300000 + ENCODE_US);
+    }
+
+    @Test
+    public void isDeterministic() {
+        Simulation first = new Simulation(90, FRAME_US_30, 2);
+        first.mEncoder.setStall(200000, 100000);
+        first.run();
+        Simulation second = new Simulation(90, FRAME_US_30, 2);
+        second.mEncoder.setStall(200000, 100000);
+        second.run();
+        assertEquals(first.mSink.mPresentationTimesUs, second.mSink.mPresentationTimesUs);
+        assertEquals(first.mScheduler.getTimeUs(), second.mScheduler.getTimeUs());
+        assertEquals(first.mScheduler.getWakeUpCount(), second.mScheduler.getWakeUpCount());
+        assertEquals(first.mScheduler.getTimeoutCount(), second.mScheduler.getTimeoutCount());
+    }
+
+    @Test
+    public void drainsEncoderBetweenFramesWithSingleBuffer() {
+        Simulation simulation = new Simulation(60, FRAME_US_30, 1);
+        simulation.run();
+        assertEquals(60, simulation.mSink.mPresentationTimesUs.size());
+    }
+
+    @Test
+    public void fakesCatchLoopThatNeverDrainsEncoder() {
+        // Feeding the decoder and rendering without draining the encoder hangs a real device once the encoder's
+        // buffers are full; the stepping order of VideoPipeline exists to prevent that.
+        Simulation simulation = new Simulation(60, FRAME_US_30, 2);
+        FakePipelineCodec decoder = simulation.mDecoder;
+        SampleReader reader = new FakeSampleReader(60, FRAME_US_30, 10, 1000);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                int inputIndex = decoder.dequeueInputBuffer();
+                if (inputIndex >= 0 && reader.getSampleTrackIndex() >= 0) {
+                    int size = reader.readSampleData(decoder.getInputBuffer(inputIndex), 0);
+                    decoder.queueInputBuffer(inputIndex, 0, size, reader.getSampleTime(), 0);
+                    reader.advance();
+                }
+                int outputIndex = decoder.dequeueOutputBuffer();
+                if (outputIndex >= 0) {
+                    long presentationTimeUs = decoder.getOutputPresentationTimeUs();
+                    decoder.releaseOutputBuffer(outputIndex, true);
+                    simulation.mBridge.transferFrame(presentationTimeUs);
+                } else if (outputIndex == PipelineCodec.INFO_TRY_AGAIN_LATER) {
+                    simulation.mScheduler.awaitWork(10);
+                }
+            }
+            fail("Expected a deadlock.");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Deadlock"));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wall time of a pipeline thread that spends {@link #encodeUs} producing each sample and writes it to a muxer
+ * taking {@link #writeUs}: written directly, against through {@link AsyncSampleWriter}, which overlaps the two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AsyncSampleWriterBenchmark {
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final long MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+
+    @Param({"500"})
+    public long encodeUs;
+
+    @Param({"500"})
+    public long writeUs;
+
+    @Param({"16384"})
+    public int sampleSize;
+
+    @Param({"200"})
+    public int sampleCount;
+
+    private final DirectBlockPool mPool = new DirectBlockPool(BLOCK_SIZE, 8);
+    private ByteBuffer mSample;
+    private long mWrittenBytes;
+    private final SampleQueue.Consumer mMuxer = new SampleQueue.Consumer() {
+        @Override
+        public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                             int flags) {
+            mWrittenBytes += size;
+            spin(writeUs);
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mSample = ByteBuffer.allocateDirect(sampleSize);
+    }
+
+    private static void spin(long us) {
+        long doneNs = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(us);
+        long remainingNs;
+        while ((remainingNs = doneNs - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remainingNs);
+        }
+    }
+
+    @Benchmark
+    public long direct() {
+        mWrittenBytes = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            spin(encodeUs);
+            mSample.clear();
+            mMuxer.onSample(0, mSample, 0, sampleSize, i * 33333L, 0);
+        }
+        return mWrittenBytes;
+    }
+
+    @Benchmark
+    public long async() {
+        mWrittenBytes = 0;
+        AsyncSampleWriter writer = new AsyncSampleWriter(mPool, MAX_QUEUED_BYTES, mMuxer);
+        writer.start();
+        for (int i = 0; i < sampleCount; i++) {
+            spin(encodeUs);
+            mSample.clear();
+            writer.write(0, mSample, i * 33333L, 0);
+        }
+        writer.finish();
+        return mWrittenBytes;
+    }
+}
@@ -0,0 +1,42 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The complexity pre-pass over the sample table of an hour of 1080p30 video with a sync frame every second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ComplexityAnalysisBenchmark {
+    private static final int SAMPLE_COUNT = 60 * 60 * 30;
+    private static final int GOP_FRAMES = 30;
+
+    private final int[] mSizes = new int[SAMPLE_COUNT];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            mSizes[i] = i % GOP_FRAMES == 0 ? 150 * 1000 + random.nextInt(50000) : 5000 + random.nextInt(40000);
+        }
+    }
+
+    @Benchmark
+    public float analyzeHour() {
+        ComplexityAnalyzer analyzer = new ComplexityAnalyzer(1920, 1080);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            analyzer.addSample(mSizes[i], i % GOP_FRAMES == 0);
+        }
+        return analyzer.finish().getScore();
+    }
+}
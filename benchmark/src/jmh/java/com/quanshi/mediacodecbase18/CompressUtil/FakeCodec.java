@@ -0,0 +1,93 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for a MediaCodec in the pipeline benchmark. A worker thread turns every queued frame into an output
+ * buffer after a fixed latency and signals the scheduler, as the codec callbacks do. At most {@code bufferCount}
+ * frames are in the codec until their output buffers are released.
+ */
+class FakeCodec {
+    static class Frame {
+        final long mPresentationTimeUs;
+        final boolean mEndOfStream;
+        long mQueuedAtNs;
+
+        Frame(long presentationTimeUs, boolean endOfStream) {
+            mPresentationTimeUs = presentationTimeUs;
+            mEndOfStream = endOfStream;
+        }
+    }
+
+    private final long mLatencyNs;
+    private final PipelineScheduler mScheduler;
+    private final AtomicInteger mFreeBuffers;
+    private final LinkedBlockingQueue<Frame> mInput = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Frame> mOutput = new ConcurrentLinkedQueue<>();
+    private final Thread mWorker;
+    private volatile boolean mReleased;
+
+    FakeCodec(String name, int bufferCount, long latencyUs, PipelineScheduler scheduler) {
+        mLatencyNs = TimeUnit.MICROSECONDS.toNanos(latencyUs);
+        mScheduler = scheduler;
+        mFreeBuffers = new AtomicInteger(bufferCount);
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        mWorker.setDaemon(true);
+        mWorker.start();
+    }
+
+    boolean hasFreeBuffer() {
+        return mFreeBuffers.get() > 0;
+    }
+
+    void queueInput(Frame frame) {
+        if (mFreeBuffers.getAndDecrement() <= 0) {
+            mFreeBuffers.incrementAndGet();
+            throw new IllegalStateException("No free buffer.");
+        }
+        frame.mQueuedAtNs = System.nanoTime();
+        mInput.add(frame);
+    }
+
+    /**
+     * @return the oldest finished frame, or null if none.
+     */
+    Frame dequeueOutput() {
+        return mOutput.poll();
+    }
+
+    void releaseOutput() {
+        mFreeBuffers.incrementAndGet();
+        mScheduler.onWorkAvailable();
+    }
+
+    void release() {
+        mReleased = true;
+        mWorker.interrupt();
+    }
+
+    private void work() {
+        try {
+            while (!mReleased) {
+                Frame frame = mInput.take();
+                long remainingNs;
+                while ((remainingNs = frame.mQueuedAtNs + mLatencyNs - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remainingNs);
+                }
+                mOutput.add(frame);
+                mScheduler.onWorkAvailable();
+            }
+        } catch (InterruptedException e) {
+            // released
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start code scanning over Annex-B frames as encoders output them: a plain byte loop, the skip-by-three loop the
+ * writer used before, and {@link NalUnitScanner}'s word-at-a-time scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NalScanBenchmark {
+    private static final int SLICES_PER_FRAME = 4;
+    private static final int BYTE_LOOP = 0;
+    private static final int SKIP_LOOP = 1;
+    private static final int WORD_SCAN = 2;
+
+    @Param({"4096", "65536", "1048576"})
+    public int frameSize;
+
+    private byte[] mFrame;
+    private ByteBuffer mHeapFrame;
+    private ByteBuffer mDirectFrame;
+    private ByteBuffer mScratch;
+    private final NalUnitScanner mScanner = new NalUnitScanner();
+
+    @Setup
+    public void setup() {
+        mFrame = createFrame(frameSize, new Random(42));
+        mHeapFrame = ByteBuffer.wrap(mFrame);
+        mDirectFrame = ByteBuffer.allocateDirect(mFrame.length);
+        mDirectFrame.put(mFrame).flip();
+        mScratch = ByteBuffer.allocateDirect(mFrame.length);
+    }
+
+    @Benchmark
+    public int byteLoopHeap() {
+        return countStartCodes(mHeapFrame, BYTE_LOOP);
+    }
+
+    @Benchmark
+    public int byteLoopDirect() {
+        return countStartCodes(mDirectFrame, BYTE_LOOP);
+    }
+
+    @Benchmark
+    public int skipLoopHeap() {
+        return countStartCodes(mHeapFrame, SKIP_LOOP);
+    }
+
+    @Benchmark
+    public int skipLoopDirect() {
+        return countStartCodes(mDirectFrame, SKIP_LOOP);
+    }
+
+    @Benchmark
+    public int wordScanHeap() {
+        return countStartCodes(mHeapFrame, WORD_SCAN);
+    }
+
+    @Benchmark
+    public int wordScanDirect() {
+        return countStartCodes(mDirectFrame, WORD_SCAN);
+    }
+
+    @Benchmark
+    public int scanAnnexBDirect() {
+        return mScanner.scanAnnexB(mDirectFrame);
+    }
+
+    @Benchmark
+    public int convertToLengthPrefixedDirect() {
+        mScratch.clear();
+        mDirectFrame.rewind();
+        mScratch.put(mDirectFrame).flip();
+        return mScanner.convertToLengthPrefixed(mScratch);
+    }
+
+    @Benchmark
+    public List<byte[]> splitNalUnits() {
+        return SampleDataWriter.splitNalUnits(mFrame);
+    }
+
+    private static int countStartCodes(ByteBuffer frame, int method) {
+        int count = 0;
+        int end = frame.limit();
+        int position = find(method, frame, 0, end);
+        while (position < end) {
+            count++;
+            position = find(method, frame, position + 3, end);
+        }
+        return count;
+    }
+
+    private static int find(int method, ByteBuffer buffer, int from, int end) {
+        switch (method) {
+            case BYTE_LOOP:
+                for (int i = from; i + 2 < end; i++) {
+                    if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) return i;
+                }
+                return end;
+            case SKIP_LOOP:
+                // The scan SampleDataWriter used before NalUnitScanner.
+                for (int i = from; i + 2 < end; i++) {
+                    if ((buffer.get(i + 2) & 0xff) > 1) {
+                        i += 2;
+                    } else if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                        return i;
+                    }
+                }
+                return end;
+            default:
+                return NalUnitScanner.findStartCode(buffer, from, end);
+        }
+    }
+
+    /**
+     * @return a frame of slice NAL units with random payload, escaped as an encoder would.
+     */
+    static byte[] createFrame(int size, Random random) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(size + size / 64);
+        int sliceSize = Math.max(16, size / SLICES_PER_FRAME);
+        while (frame.size() < size) {
+            frame.write(0);
+            frame.write(0);
+            frame.write(0);
+            frame.write(1);
+            frame.write(frame.size() == 4 ? 0x65 : 0x41);
+            int zeros = 0;
+            for (int i = 0; i < sliceSize; i++) {
+                // Compressed data is mostly noise, with runs of zero bytes now and then.
+                int value = random.nextInt(16) == 0 ? 0 : random.nextInt(256);
+                if (zeros == 2 && value <= 3) {
+                    frame.write(3);
+                    zeros = 0;
+                }
+                frame.write(value);
+                zeros = value == 0 ? zeros + 1 : 0;
+            }
+            if (zeros > 0) frame.write(0x80);
+        }
+        return frame.toByteArray();
+    }
+}
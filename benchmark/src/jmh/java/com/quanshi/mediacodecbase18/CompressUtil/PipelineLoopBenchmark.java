@@ -0,0 +1,97 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The extractor -> decoder -> encoder -> muxer step loop of {@link MediaTranscodeEngine}, driven by
+ * {@link FakeCodec}s: measures how much the loop and its wake-ups add to the codec latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PipelineLoopBenchmark {
+    private static final long MAX_WAIT_FOR_CODECS_MS = 100;
+    private static final long FRAME_INTERVAL_US = 33333;
+
+    @Param({"0", "200", "2000"})
+    public int latencyUs;
+
+    @Param({"4"})
+    public int bufferCount;
+
+    @Param({"300"})
+    public int frameCount;
+
+    private EventPipelineScheduler mScheduler;
+    private FakeCodec mDecoder;
+    private FakeCodec mEncoder;
+    private FakeCodec.Frame[] mFrames;
+    private int mExtractedFrames;
+    private long mMuxedPresentationTimeUs;
+    private boolean mMuxerEOS;
+
+    @Setup
+    public void setup() {
+        mScheduler = new EventPipelineScheduler();
+        mDecoder = new FakeCodec("FakeDecoder", bufferCount, latencyUs, mScheduler);
+        mEncoder = new FakeCodec("FakeEncoder", bufferCount, latencyUs, mScheduler);
+        mFrames = new FakeCodec.Frame[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            mFrames[i] = new FakeCodec.Frame(i * FRAME_INTERVAL_US, i == frameCount - 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDecoder.release();
+        mEncoder.release();
+    }
+
+    @Benchmark
+    public long transcode() throws InterruptedException {
+        mExtractedFrames = 0;
+        mMuxerEOS = false;
+        while (!mMuxerEOS) {
+            if (!stepPipeline()) {
+                mScheduler.awaitWork(MAX_WAIT_FOR_CODECS_MS);
+            }
+        }
+        return mMuxedPresentationTimeUs;
+    }
+
+    private boolean stepPipeline() {
+        boolean busy = false;
+        // Extractor to decoder.
+        while (mExtractedFrames < frameCount && mDecoder.hasFreeBuffer()) {
+            mDecoder.queueInput(mFrames[mExtractedFrames++]);
+            busy = true;
+        }
+        // Decoder to encoder, as the surface hands decoded frames over.
+        while (mEncoder.hasFreeBuffer()) {
+            FakeCodec.Frame decoded = mDecoder.dequeueOutput();
+            if (decoded == null) break;
+            mDecoder.releaseOutput();
+            mEncoder.queueInput(decoded);
+            busy = true;
+        }
+        // Encoder to muxer.
+        FakeCodec.Frame encoded;
+        while ((encoded = mEncoder.dequeueOutput()) != null) {
+            mMuxedPresentationTimeUs = encoded.mPresentationTimeUs;
+            mMuxerEOS = encoded.mEndOfStream;
+            mEncoder.releaseOutput();
+            busy = true;
+        }
+        return busy;
+    }
+}
@@ -0,0 +1,55 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VideoPipeline} over the deterministic fakes of the unit tests, in virtual time: what is left is the cost
+ * of the step loop and its bookkeeping per frame, without codec latency or thread wake-ups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PipelineSimulationBenchmark {
+    private static final long FRAME_INTERVAL_US = 33333;
+
+    @Param({"1", "4"})
+    public int encoderBufferCount;
+
+    @Param({"300"})
+    public int frameCount;
+
+    @Benchmark
+    public long runPipeline() {
+        FakePipelineScheduler scheduler = new FakePipelineScheduler();
+        FakePipelineCodec decoder = new FakePipelineCodec(scheduler, 4, 4, 5000, 1);
+        FakePipelineCodec encoder = new FakePipelineCodec(scheduler, encoderBufferCount, encoderBufferCount, 20000,
+                4000);
+        FakeFrameBridge bridge = new FakeFrameBridge(scheduler, decoder, encoder);
+        final long[] written = new long[1];
+        VideoPipeline pipeline = new VideoPipeline(new FakeSampleReader(frameCount, FRAME_INTERVAL_US, 30, 1000), 0,
+                decoder, bridge, encoder, new EncodedSampleSink() {
+                    @Override
+                    public void onOutputFormatChanged() {
+                    }
+
+                    @Override
+                    public void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs,
+                                            int flags) {
+                        written[0] += size;
+                    }
+                });
+        while (!pipeline.isFinished()) {
+            if (!pipeline.stepPipeline()) scheduler.awaitWork(10);
+        }
+        return written[0] + scheduler.getTimeUs();
+    }
+}
@@ -0,0 +1,29 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress computed from the pipeline loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProgressBenchmark {
+    private long mDurationUs = 60 * 1000 * 1000;
+    private long mWrittenUs;
+
+    @Benchmark
+    public double computeProgress() {
+        // Moves along so the result cannot be folded.
+        mWrittenUs = (mWrittenUs + 33333) % mDurationUs;
+        return TranscodeProgress.compute(mDurationUs, false, mWrittenUs, mWrittenUs > mDurationUs / 2,
+                mWrittenUs - 21333);
+    }
+}
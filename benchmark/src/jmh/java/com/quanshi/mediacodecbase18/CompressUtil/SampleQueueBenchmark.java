@@ -0,0 +1,59 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queueing the samples written before the muxer starts, and draining them into it, as {@link QueuedMuxer} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SampleQueueBenchmark {
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final long MAX_QUEUED_BYTES = 64 * 1024 * 1024;
+
+    /** Audio frames are a few hundred bytes, video frames up to a few hundred kilobytes. */
+    @Param({"400", "16384", "131072"})
+    public int sampleSize;
+
+    @Param({"256"})
+    public int sampleCount;
+
+    private SampleQueue mQueue;
+    private ByteBuffer mSample;
+    private final SampleQueue.Consumer mConsumer = new SampleQueue.Consumer() {
+        @Override
+        public void onSample(int track, ByteBuffer block, int offset, int size, long presentationTimeUs,
+                            int flags) {
+            mDrainedBytes += size;
+        }
+    };
+    private long mDrainedBytes;
+
+    @Setup
+    public void setup() {
+        mQueue = new SampleQueue(new DirectBlockPool(BLOCK_SIZE, 8), MAX_QUEUED_BYTES);
+        mSample = ByteBuffer.allocateDirect(sampleSize);
+    }
+
+    @Benchmark
+    public long queueAndDrain() {
+        for (int i = 0; i < sampleCount; i++) {
+            mSample.clear();
+            mQueue.add(i & 1, mSample, i * 33333L, 0);
+        }
+        mDrainedBytes = 0;
+        mQueue.drain(mConsumer);
+        return mDrainedBytes;
+    }
+}
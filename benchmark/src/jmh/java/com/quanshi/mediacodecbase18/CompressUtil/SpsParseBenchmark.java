@@ -0,0 +1,61 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the parameter sets of csd-0 and csd-1, as done to plan and validate every output format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpsParseBenchmark {
+    // x264, High 4.0, 1920x1080, 30 fps, with VUI and an emulation prevention byte.
+    static final byte[] SPS = {0x00, 0x00, 0x00, 0x01, 0x67, 0x64, 0x00, 0x28, (byte) 0xac, (byte) 0xd9, 0x40, 0x78,
+            0x02, 0x27, (byte) 0xe5, (byte) 0xc0, 0x44, 0x00, 0x00, 0x03, 0x00, 0x04, 0x00, 0x00, 0x03, 0x00,
+            (byte) 0xf0, 0x3c, 0x60, (byte) 0xc6, 0x58};
+    static final byte[] PPS = {0x00, 0x00, 0x00, 0x01, 0x68, (byte) 0xeb, (byte) 0xe3, (byte) 0xcb, 0x22, (byte) 0xc0};
+
+    private final ByteBuffer mSps = ByteBuffer.wrap(SPS);
+    private final ByteBuffer mDirectSps = ByteBuffer.allocateDirect(SPS.length);
+    private final ByteBuffer mPps = ByteBuffer.wrap(PPS);
+    private final AvcParameterSetParser mParser = new AvcParameterSetParser();
+    private final AvcParameterSetParser.Sps mParsedSps = new AvcParameterSetParser.Sps();
+    private final AvcParameterSetParser.Pps mParsedPps = new AvcParameterSetParser.Pps();
+
+    public SpsParseBenchmark() {
+        mDirectSps.put(SPS).flip();
+    }
+
+    @Benchmark
+    public byte parseProfile() {
+        mSps.rewind();
+        return AvcSpsUtils.getProfileIdc(AvcSpsUtils.getSpsPayload(mSps));
+    }
+
+    @Benchmark
+    public int parseSps() {
+        mParser.parseSps(mSps, mParsedSps);
+        return mParsedSps.mHeight;
+    }
+
+    @Benchmark
+    public int parseDirectSps() {
+        mParser.parseSps(mDirectSps, mParsedSps);
+        return mParsedSps.mHeight;
+    }
+
+    @Benchmark
+    public int parseSpsAndPps() {
+        mParser.parseSps(mSps, mParsedSps);
+        mParser.parsePps(mPps, mParsedSps, mParsedPps);
+        return mParsedPps.mSecondChromaQpIndexOffset;
+    }
+}
@@ -0,0 +1,103 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing items from one thread to another through the {@link SpscRing} of {@link StagedVideoPipeline}, against
+ * the {@link ArrayBlockingQueue} it replaces. Per item, with the producer started per invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpscRingBenchmark {
+    private static final int ITEM_COUNT = 100000;
+
+    private static class Item {
+        long mValue;
+    }
+
+    @Param({"4", "16"})
+    public int capacity;
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public long spscRing() throws InterruptedException {
+        final EventPipelineScheduler producerScheduler = new EventPipelineScheduler();
+        EventPipelineScheduler consumerScheduler = new EventPipelineScheduler();
+        final SpscRing<Item> ring = new SpscRing<>(capacity, new SpscRing.SlotFactory<Item>() {
+            @Override
+            public Item create() {
+                return new Item();
+            }
+        }, producerScheduler, consumerScheduler);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < ITEM_COUNT; ) {
+                        Item item = ring.claim();
+                        if (item == null) {
+                            producerScheduler.awaitWork(100);
+                            continue;
+                        }
+                        item.mValue = i++;
+                        ring.publish();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        long sum = 0;
+        for (int i = 0; i < ITEM_COUNT; ) {
+            Item item = ring.peek();
+            if (item == null) {
+                consumerScheduler.awaitWork(100);
+                continue;
+            }
+            sum += item.mValue;
+            ring.release();
+            i++;
+        }
+        producer.join();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEM_COUNT)
+    public long arrayBlockingQueue() throws InterruptedException {
+        final ArrayBlockingQueue<Item> queue = new ArrayBlockingQueue<>(capacity);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < ITEM_COUNT; i++) {
+                        Item item = new Item();
+                        item.mValue = i;
+                        queue.put(item);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        long sum = 0;
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            sum += queue.take().mValue;
+        }
+        producer.join();
+        return sum;
+    }
+}
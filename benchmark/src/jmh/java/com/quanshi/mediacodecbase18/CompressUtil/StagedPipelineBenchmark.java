@@ -0,0 +1,96 @@
+package com.quanshi.mediacodecbase18.CompressUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wall time of {@link VideoPipeline} on one thread against {@link StagedVideoPipeline}, over the real time fakes
+ * of the unit tests: decoding, drawing, encoding and writing each take {@link #stageUs}, so one thread spends about
+ * four of them a frame and the stages overlap to about one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StagedPipelineBenchmark {
+    private static final long FRAME_INTERVAL_US = 33333;
+    private static final int ENCODED_SIZE = 4000;
+
+    @Param({"1000"})
+    public long stageUs;
+
+    @Param({"60"})
+    public int frameCount;
+
+    private EncodedSampleSink createSink(final long[] written) {
+        final long writeNs = TimeUnit.MICROSECONDS.toNanos(stageUs);
+        return new EncodedSampleSink() {
+            @Override
+            public void onOutputFormatChanged() {
+            }
+
+            @Override
+            public void writeSample(ByteBuffer buffer, int offset, int size, long presentationTimeUs, int flags) {
+                written[0] += size;
+                long doneNs = System.nanoTime() + writeNs;
+                long remainingNs;
+                while ((remainingNs = doneNs - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remainingNs);
+                }
+            }
+        };
+    }
+
+    @Benchmark
+    public long singleThread() throws InterruptedException {
+        EventPipelineScheduler scheduler = new EventPipelineScheduler();
+        ThreadedFakeCodec decoder = new ThreadedFakeCodec("FakeDecoder", 4, stageUs, 1, false, scheduler);
+        ThreadedFakeCodec encoder = new ThreadedFakeCodec("FakeEncoder", 4, stageUs, ENCODED_SIZE, true, scheduler);
+        long[] written = new long[1];
+        VideoPipeline pipeline = new VideoPipeline(new FakeSampleReader(frameCount, FRAME_INTERVAL_US, 30, 1000), 0,
+                decoder, new ThreadedFakeFrameBridge(decoder, encoder, stageUs), encoder, createSink(written));
+        try {
+            while (!pipeline.isFinished()) {
+                if (!pipeline.stepPipeline()) scheduler.awaitWork(10);
+            }
+        } finally {
+            decoder.release();
+            encoder.release();
+        }
+        return written[0];
+    }
+
+    @Benchmark
+    public long staged() throws InterruptedException {
+        EventPipelineScheduler decoderScheduler = new EventPipelineScheduler();
+        EventPipelineScheduler encoderScheduler = new EventPipelineScheduler();
+        EventPipelineScheduler sinkScheduler = new EventPipelineScheduler();
+        ThreadedFakeCodec decoder = new ThreadedFakeCodec("FakeDecoder", 4, stageUs, 1, false, decoderScheduler);
+        ThreadedFakeCodec encoder = new ThreadedFakeCodec("FakeEncoder", 4, stageUs, ENCODED_SIZE, true,
+                encoderScheduler);
+        long[] written = new long[1];
+        StagedVideoPipeline pipeline = new StagedVideoPipeline(
+                new FakeSampleReader(frameCount, FRAME_INTERVAL_US, 30, 1000), 0, decoder, decoderScheduler,
+                new ThreadedFakeFrameBridge(decoder, encoder, stageUs), encoder, encoderScheduler,
+                createSink(written), sinkScheduler);
+        pipeline.start();
+        try {
+            while (!pipeline.isFinished()) {
+                if (!pipeline.drainSamples()) sinkScheduler.awaitWork(10);
+            }
+        } finally {
+            pipeline.stop();
+            decoder.release();
+            encoder.release();
+        }
+        return written[0];
+    }
+}